@@ -0,0 +1,69 @@
+#!/usr/bin/env bash
+# Scaling benchmark of the Present sorting machine.
+# Generates grid, tree and multi-stage scenarios of growing size with ScenarioGenerator,
+# runs every engine on each of them and appends one CSV row per run with the presents sorted,
+# throughput, peak number of live threads, peak heap usage, garbage collection time and count,
+# off-heap memory and run time (from the final report).
+#
+# Usage: scripts/benchmark.sh <compiled classes dir> [results.csv]
+# Settings (environment variables):
+#   LAYOUTS   layouts to generate              (default: "grid tree stages")
+#   SIZES     approximate numbers of turntables (default: "16 64 256 1024 4096")
+#   ENGINES   engines to run                   (default: "threads pool flow")
+#   PRESENTS  presents per scenario            (default: 1000000)
+#   TIMER     seconds each machine runs for    (default: 60)
+#   SPEED     presents per second per hopper   (default: 2)
+#   HEAP      maximum heap of each run         (default: 4g)
+#   STORAGES  where presents are stored        (default: "heap", also "offheap")
+set -euo pipefail
+
+CLASSES=${1:?usage: benchmark.sh <compiled classes dir> [results.csv]}
+RESULTS=${2:-benchmark.csv}
+LAYOUTS=${LAYOUTS:-"grid tree stages"}
+SIZES=${SIZES:-"16 64 256 1024 4096"}
+ENGINES=${ENGINES:-"threads pool flow"}
+PRESENTS=${PRESENTS:-1000000}
+TIMER=${TIMER:-60}
+SPEED=${SPEED:-2}
+HEAP=${HEAP:-4g}
+STORAGES=${STORAGES:-"heap"}
+PACKAGE=CO3401.AdvancedProducerConsumer
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+if [ ! -s "$RESULTS" ]; then
+  echo "layout,turntables,presents,engine,storage,deposited,sorted,throughput,peak_threads,peak_heap_mb,gc_ms,gc_count,offheap_mb,run_time_s" > "$RESULTS"
+fi
+
+for layout in $LAYOUTS; do
+  for size in $SIZES; do
+    scenario="$WORK/$layout-$size.txt"
+    summary=$(java -cp "$CLASSES" $PACKAGE.ScenarioGenerator "$layout" "$size" "$PRESENTS" "$scenario" "$TIMER" "$SPEED")
+    echo "$summary"
+    turntables=$(echo "$summary" | sed -n 's/.*: \([0-9]*\) turntables.*/\1/p')
+
+    for engine in $ENGINES; do
+      for storage in $STORAGES; do
+        case $engine in
+          threads) options="" ;;
+          pool)    options="-Dsimulation.scheduler=pool" ;;
+          flow)    options="-Dsimulation.engine=flow" ;;
+          *) echo "unknown engine $engine" >&2; exit 1 ;;
+        esac
+        log="$WORK/$layout-$size-$engine-$storage.log"
+        # shellcheck disable=SC2086
+        java -Xmx"$HEAP" $options -Dsimulation.storage="$storage" -cp "$CLASSES" $PACKAGE.MyClass "$scenario" > "$log" 2>&1 || true
+
+        deposited=$(sed -n 's/^Out of \([0-9]*\) gifts deposited.*/\1/p' "$log")
+        sorted=$(sed -n 's/.* and \([0-9]*\) made it into the sacks.*/\1/p' "$log")
+        read -r throughput threads heap <<< "$(sed -n \
+          's/^Throughput \([0-9.]*\) presents\/s with a peak of \([0-9]*\) live threads and \([0-9]*\) MB of heap.*/\1 \2 \3/p' "$log")"
+        read -r gc_ms gc_count offheap <<< "$(sed -n \
+          's/^Garbage collection took \([0-9]*\) ms in \([0-9]*\) collections; \([0-9]*\) MB held off-heap.*/\1 \2 \3/p' "$log")"
+        runtime=$(sed -n 's/^Total Run Time \([0-9]*\)s.*/\1/p' "$log")
+        echo "$layout,$turntables,$PRESENTS,$engine,$storage,$deposited,$sorted,$throughput,$threads,$heap,$gc_ms,$gc_count,$offheap,$runtime" | tee -a "$RESULTS"
+      done
+    done
+  done
+done
@@ -0,0 +1,68 @@
+#!/usr/bin/env bash
+# Stress test of layouts whose belts form a loop (ScenarioGenerator ring), where turntables hand
+# presents over to each other in a circle. A turntable that locked its input belt while waiting for
+# room on its output belt would deadlock such a loop, and one that waited for its input belt to be
+# marked as finished would never shut down. Runs every ring size on the thread per turntable and pool
+# engines, repeatedly, without delays and with scaled delays (so the timer stops the hoppers while
+# presents are still on the loop), then fails if a run does not finish or loses presents.
+# The flow engine is not run: a stage holds a present until its output asks for one, which a loop
+# never does once every stage holds one.
+#
+# Usage: scripts/cycle-stress.sh <compiled classes dir>
+# Settings (environment variables):
+#   ENGINES   engines to run                      (default: "threads pool")
+#   SIZES     turntables of the generated rings   (default: "2 3 8 32")
+#   PRESENTS  presents per generated ring         (default: 20000)
+#   CLOCKS    time sources to run against         (default: "zero scaled:0.01")
+#   ROUNDS    runs of every combination           (default: 3)
+#   TIMEOUT   seconds a run may take              (default: 120)
+set -euo pipefail
+
+CLASSES=${1:?usage: cycle-stress.sh <compiled classes dir>}
+ENGINES=${ENGINES:-"threads pool"}
+SIZES=${SIZES:-"2 3 8 32"}
+PRESENTS=${PRESENTS:-20000}
+CLOCKS=${CLOCKS:-"zero scaled:0.01"}
+ROUNDS=${ROUNDS:-3}
+TIMEOUT=${TIMEOUT:-120}
+PACKAGE=CO3401.AdvancedProducerConsumer
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+failures=0
+
+for size in $SIZES; do
+  scenario="$WORK/ring-$size.txt"
+  java -cp "$CLASSES" $PACKAGE.ScenarioGenerator ring "$size" "$PRESENTS" "$scenario" 10 > /dev/null
+  for engine in $ENGINES; do
+    case $engine in
+      threads) options="" ;;
+      pool)    options="-Dsimulation.scheduler=pool" ;;
+      *) echo "unknown engine $engine" >&2; exit 1 ;;
+    esac
+    for clock in $CLOCKS; do
+      for round in $(seq "$ROUNDS"); do
+        name="ring-$size $engine $clock #$round"
+        log="$WORK/run.log"
+        # shellcheck disable=SC2086
+        if ! timeout "$TIMEOUT" java $options -Dsimulation.time="$clock" -cp "$CLASSES" $PACKAGE.MyClass "$scenario" > "$log" 2>&1; then
+          echo "FAIL $name: did not finish within ${TIMEOUT}s"
+          failures=$((failures + 1))
+          continue
+        fi
+        missing=$(sed -n 's/^\([0-9]*\) gifts went missing.*/\1/p' "$log")
+        if [ "$missing" != "0" ]; then
+          echo "FAIL $name: ${missing:-unknown number of} gifts went missing"
+          failures=$((failures + 1))
+        else
+          echo "ok   $name: $(sed -n 's/^Throughput \([0-9.]*\) presents\/s.*/\1/p' "$log") presents/s"
+        fi
+      done
+    done
+  done
+done
+
+if [ "$failures" -ne 0 ]; then
+  echo "$failures run(s) failed"
+  exit 1
+fi
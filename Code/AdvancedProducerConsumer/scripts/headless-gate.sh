@@ -0,0 +1,87 @@
+#!/usr/bin/env bash
+# Regression gate of the Present sorting machine, run without any simulated delays
+# (-Dsimulation.time=zero), so that it finishes in seconds and only measures the cost of coordination.
+# Runs every bundled scenario on every engine, and generated grids on both semaphore engines,
+# then fails if a run does not finish, loses presents or falls below the minimum throughput.
+# Finally, SackStress checks that a sack shared by many producers counts every present.
+# The flow engine is not run on generated grids: a turntable there waits for the input belt it has
+# chosen, which without delays can leave its other input belts full for good. A thread per turntable
+# claims slots with a timeout and serves another input belt meanwhile, so it runs them.
+#
+# Usage: scripts/headless-gate.sh <compiled classes dir>
+# Settings (environment variables):
+#   ENGINES         engines to run on the bundled scenarios (default: "threads pool flow")
+#   GRID_ENGINES    engines to run on the generated grids   (default: "threads pool")
+#   SIZES           turntables of the generated grids       (default: "16 64")
+#   PRESENTS        presents per generated grid             (default: 20000)
+#   MIN_THROUGHPUT  presents/s every run must reach         (default: 0, no minimum)
+#   TIMEOUT         seconds a run may take                  (default: 120)
+set -euo pipefail
+
+CLASSES=${1:?usage: headless-gate.sh <compiled classes dir>}
+ENGINES=${ENGINES:-"threads pool flow"}
+GRID_ENGINES=${GRID_ENGINES:-"threads pool"}
+SIZES=${SIZES:-"16 64"}
+PRESENTS=${PRESENTS:-20000}
+MIN_THROUGHPUT=${MIN_THROUGHPUT:-0}
+TIMEOUT=${TIMEOUT:-120}
+PACKAGE=CO3401.AdvancedProducerConsumer
+SCENARIOS=$(cd "$(dirname "$0")/../src/main/resources/Scenarios" && pwd)
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+failures=0
+
+run() {
+  local scenario=$1 engine=$2 options log missing throughput
+  case $engine in
+    threads) options="" ;;
+    pool)    options="-Dsimulation.scheduler=pool" ;;
+    flow)    options="-Dsimulation.engine=flow" ;;
+    *) echo "unknown engine $engine" >&2; exit 1 ;;
+  esac
+  log="$WORK/$(basename "$scenario" .txt)-$engine.log"
+  # shellcheck disable=SC2086
+  if ! timeout "$TIMEOUT" java $options -Dsimulation.time=zero -cp "$CLASSES" $PACKAGE.MyClass "$scenario" > "$log" 2>&1; then
+    echo "FAIL $(basename "$scenario") $engine: did not finish within ${TIMEOUT}s"
+    failures=$((failures + 1))
+    return
+  fi
+  missing=$(sed -n 's/^\([0-9]*\) gifts went missing.*/\1/p' "$log")
+  throughput=$(sed -n 's/^Throughput \([0-9.]*\) presents\/s.*/\1/p' "$log")
+  if [ "$missing" != "0" ]; then
+    echo "FAIL $(basename "$scenario") $engine: ${missing:-unknown number of} gifts went missing"
+    failures=$((failures + 1))
+  elif awk -v t="$throughput" -v min="$MIN_THROUGHPUT" 'BEGIN { exit !(t < min) }'; then
+    echo "FAIL $(basename "$scenario") $engine: $throughput presents/s, below $MIN_THROUGHPUT"
+    failures=$((failures + 1))
+  else
+    echo "ok   $(basename "$scenario") $engine: $throughput presents/s, $(sed -n 's/^CPU time.*, \([0-9.]*\) us per sorted present.*/\1/p' "$log") us CPU per present"
+  fi
+}
+
+for scenario in "$SCENARIOS"/*.txt; do
+  for engine in $ENGINES; do
+    run "$scenario" "$engine"
+  done
+done
+
+for size in $SIZES; do
+  scenario="$WORK/grid-$size.txt"
+  java -cp "$CLASSES" $PACKAGE.ScenarioGenerator grid "$size" "$PRESENTS" "$scenario" > /dev/null
+  for engine in $GRID_ENGINES; do
+    run "$scenario" "$engine"
+  done
+done
+
+if timeout "$TIMEOUT" java -cp "$CLASSES" $PACKAGE.SackStress > "$WORK/sack-stress.log" 2>&1; then
+  echo "ok   SackStress: every present counted"
+else
+  echo "FAIL SackStress: $(grep '^Error' "$WORK/sack-stress.log" || echo "did not finish within ${TIMEOUT}s")"
+  failures=$((failures + 1))
+fi
+
+if [ "$failures" -ne 0 ]; then
+  echo "$failures run(s) failed"
+  exit 1
+fi
@@ -0,0 +1,189 @@
+package CO3401.AdvancedProducerConsumer;
+
+import com.sun.management.ThreadMXBean;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+
+/**
+ * Command line tool that checks that moving a present through the machine does not allocate
+ * any memory once the JIT has warmed up.
+ * <p>
+ * Usage: {@code AllocationCheck [presents]}
+ * <p>
+ * It builds a hopper, whose belt leads to a turntable with a sack and an output belt, which in turn leads
+ * to a second turntable with a sack. Presents of both age ranges are deposited and moved one at a time on
+ * the calling thread, using {@link Hopper#depositPresent} and the turntables without the simulated delays.
+ * The check makes two passes, each on a machine of its own: one through the non-blocking steps of the pool
+ * scheduler ({@link Turntable#step}), and one through the loop of a thread per turntable
+ * ({@link Turntable#iterate}) against the {@link TimeSource#ZERO} clock. A present is always deposited
+ * before the turntables move it, so the loop never has to wait for a belt. The first half of the presents
+ * of each pass warms the JIT up, then the bytes allocated by the thread while moving the second half are
+ * read from the {@link ThreadMXBean}. Parking a waiting thread is not measured.
+ * <p>
+ * The presents themselves are created beforehand, as the hoppers get filled before the machine starts.
+ * The check only applies to the heap storage: the off-heap storage creates a present whenever one is read.
+ *
+ * @author anonymous
+ */
+public class AllocationCheck {
+
+    private static final int DEFAULT_PRESENTS = 200000;
+    private static final int BELT_LENGTH = 5;
+    private static final int SACK_CAPACITY = 200; // Small enough for many sack replacements to be measured
+    private static final int STEPS_PER_TRANSFER = 3; // select the input belt, take the present, deliver it
+    private static final String[] AGE_RANGES = {"0-3", "4-7"};
+
+    private final Hopper mHopper;
+    private final Conveyor mMiddleBelt;
+    private final Turntable mFirstTable;
+    private final Turntable mSecondTable;
+    private final Sack[] mSacks;
+    // True to move the presents through the loop of a thread per turntable, false through the pool steps
+    private final boolean mThreadLoop;
+
+    /**
+     * @param args Optionally, the number of presents to move.
+     */
+    public static void main(String[] args) {
+        int presents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRESENTS;
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Error: this JVM does not count the memory allocated by each thread.");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        long allocated = measure(new AllocationCheck(presents, false), presents, threads, "pool steps");
+        allocated += measure(new AllocationCheck(presents, true), presents, threads, "thread loop");
+        if (allocated > 0) {
+            System.out.println("Error: the transfer loop allocates memory in steady state.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Move every present of the specified machine to its sack, and report the bytes allocated
+     * by the transfers after the first half.
+     *
+     * @param check    The machine, with its hopper filled.
+     * @param presents The number of presents in the hopper.
+     * @param threads  The bean that counts the memory allocated by each thread.
+     * @param pass     The way the turntables are driven, for the report.
+     * @return The number of bytes allocated.
+     */
+    private static long measure(@NotNull AllocationCheck check, int presents, @NotNull ThreadMXBean threads,
+                                @NotNull String pass) {
+        int warmUp = presents / 2;
+        for (int i = 0; i < warmUp; i++) {
+            check.transfer();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Reading the counter may allocate itself, so measure an empty interval first
+        long start = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+        start = threads.getThreadAllocatedBytes(threadId);
+        for (int i = warmUp; i < presents; i++) {
+            check.transfer();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+
+        int measured = presents - warmUp;
+        System.out.printf("Allocated %d bytes in %d present transfers through the %s (%.3f bytes per transfer).%n",
+                allocated, measured, pass, (double) allocated / measured);
+        int sorted = check.mSacks[0].getTotalNumberOfPresents() + check.mSacks[1].getTotalNumberOfPresents();
+        if (sorted != presents) {
+            System.out.println("Error: " + sorted + " of " + presents + " presents reached their sacks through the "
+                    + pass + ".");
+            System.exit(1);
+        }
+        return allocated;
+    }
+
+    /**
+     * Build the machine, driven through the pool steps, and fill the hopper with presents of alternating age ranges.
+     * Also used by {@link StatisticsBenchmark}.
+     *
+     * @param presents The number of presents to put in the hopper.
+     */
+    AllocationCheck(int presents) {
+        this(presents, false);
+    }
+
+    /**
+     * Build the machine and fill the hopper with presents of alternating age ranges.
+     *
+     * @param presents   The number of presents to put in the hopper.
+     * @param threadLoop True to drive the turntables through the loop of a thread per turntable,
+     *                   false through the pool steps.
+     */
+    private AllocationCheck(int presents, boolean threadLoop) {
+        mThreadLoop = threadLoop;
+        Conveyor firstBelt = new Conveyor(1, BELT_LENGTH);
+        mMiddleBelt = new Conveyor(2, BELT_LENGTH);
+        mSacks = new Sack[]{new Sack(1, SACK_CAPACITY), new Sack(2, SACK_CAPACITY)};
+        TimeSource noDelays = TimeSource.parse(TimeSource.ZERO);
+        for (Sack sack : mSacks) sack.setTimeSource(noDelays);
+        HashMap<String, Integer> destinations = new HashMap<>();
+        destinations.put(AGE_RANGES[0], 1);
+        destinations.put(AGE_RANGES[1], 2);
+        firstBelt.addDestination(1);
+        firstBelt.addDestination(2);
+        mMiddleBelt.addDestination(2);
+
+        mFirstTable = new Turntable("T1", destinations);
+        mFirstTable.addConnection(Turntable.W, new Connection(ConnectionType.InputBelt, firstBelt, null));
+        mFirstTable.addConnection(Turntable.E, new Connection(ConnectionType.OutputBelt, mMiddleBelt, null));
+        mFirstTable.addConnection(Turntable.S, new Connection(ConnectionType.OutputSack, null, mSacks[0]));
+        mSecondTable = new Turntable("T2", destinations);
+        mSecondTable.addConnection(Turntable.W, new Connection(ConnectionType.InputBelt, mMiddleBelt, null));
+        mSecondTable.addConnection(Turntable.S, new Connection(ConnectionType.OutputSack, null, mSacks[1]));
+        if (threadLoop) {
+            mFirstTable.setTimeSource(noDelays);
+            mSecondTable.setTimeSource(noDelays);
+        }
+
+        mHopper = new Hopper(1, firstBelt, presents, 1);
+        for (int i = 0; i < presents; i++) {
+            mHopper.fill(new Present(i, AGE_RANGES[i % AGE_RANGES.length]));
+        }
+    }
+
+    /**
+     * Deposit the next present and move it all the way to its sack.
+     */
+    void transfer() {
+        mHopper.depositPresent();
+        moveThrough(mFirstTable);
+        if (!mMiddleBelt.isEmpty()) {
+            moveThrough(mSecondTable);
+        }
+    }
+
+    /**
+     * Create a reader of the statistics of the machine.
+     *
+     * @return The statistics of the hopper, both turntables and both sacks.
+     */
+    @NotNull
+    MachineStatistics statistics() {
+        return new MachineStatistics(new Hopper[]{mHopper}, new Turntable[]{mFirstTable, mSecondTable}, mSacks);
+    }
+
+    /**
+     * Move the present at the front of the turntable's input belt to its next destination.
+     *
+     * @param table The turntable that moves the present.
+     */
+    private void moveThrough(@NotNull Turntable table) {
+        if (mThreadLoop) {
+            table.iterate();
+            return;
+        }
+        for (int step = 0; step < STEPS_PER_TRANSFER; step++) {
+            table.step();
+        }
+    }
+}
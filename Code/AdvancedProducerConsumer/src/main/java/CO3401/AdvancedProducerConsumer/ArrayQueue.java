@@ -13,11 +13,13 @@ import java.util.function.Supplier;
  * <p> - The Sack class to store all deposited presents.
  * It is a FIFO (First In, First Out) structure with the ability to remove elements
  * from either the front or any other valid index of the array.
+ * The elements are stored in a circular buffer, so removing the front element
+ * does not move the rest (hoppers may hold millions of presents).
  * <p>
  * Time Complexity:
  * <p> -> Access ({@link #peek(int)}) - O(1)
  * <p> -> Insertion ({@link #add(T)}) - O(1)
- * <p> -> Deletion ({@link #remove(int)} and {@link #get()}) - O(n)
+ * <p> -> Deletion ({@link #get()}) - O(1), ({@link #remove(int)}) - O(n), ({@link #clear()}) - O(n)
  * <p> -> Search (not implemented; however, would need to iterate the array via a loop) - O(n)
  *
  * @param <T> Any data type
@@ -28,9 +30,11 @@ public class ArrayQueue<T> {
     private static final byte HEAD = 0;
     private final T[] mItems;
     private final int mCapacity;
-    // By declaring it volatile, all writes to the mIndex variable,
+    // Position of the front element inside the array
+    private int mHead;
+    // By declaring it volatile, all writes to the mSize variable,
     // will get immediately updated to all threads.
-    private volatile int mIndex;
+    private volatile int mSize;
 
     /**
      * Public Constructor. Initialize the array container and
@@ -45,7 +49,20 @@ public class ArrayQueue<T> {
         this.mCapacity = mCapacity;
         mItems = supplier.get(); // Or use this "hack": (T[]) new Object[mCapacity];
         // but it will cause an "Unchecked cast" warning
-        mIndex = -1;
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Constructor for subclasses that keep their elements elsewhere,
+     * and therefore override every method that accesses them.
+     *
+     * @param mCapacity The maximum count of items that will
+     *                  be stored in the container.
+     */
+    protected ArrayQueue(int mCapacity) {
+        this.mCapacity = mCapacity;
+        mItems = null;
     }
 
     /**
@@ -55,7 +72,8 @@ public class ArrayQueue<T> {
      */
     public synchronized void add(T element) {
         if (!isFull()) {
-            mItems[++mIndex] = element; // 1. mIndex = mIndex + 1, 2. [mIndex]
+            mItems[position(mSize)] = element;
+            mSize++;
         }
     }
 
@@ -67,9 +85,11 @@ public class ArrayQueue<T> {
     public synchronized T get() {
         if (!isEmpty()) {
             // Save a reference to the head
-            T head = mItems[HEAD];
-            // Remove the first node from the array
-            remove(HEAD);
+            T head = mItems[mHead];
+            // Advance the head instead of moving the rest of the elements
+            mItems[mHead] = null;
+            mHead = position(1);
+            mSize--;
             return head;
         }
         return null;
@@ -84,13 +104,27 @@ public class ArrayQueue<T> {
      */
     public synchronized void remove(int index) {
         if (!isValid(index)) throw new IndexOutOfBoundsException();
-        if (mIndex == 0) {
-            mIndex--;
+        if (index == HEAD) {
+            get();
             return;
         }
-        // Move all elements one position forward
-        if (mIndex - index >= 0) System.arraycopy(mItems, index + 1, mItems, index, mIndex - index);
-        mIndex--; // Decrement the size by one
+        // Move all the following elements one position forward
+        for (int i = index; i < mSize - 1; i++) {
+            mItems[position(i)] = mItems[position(i + 1)];
+        }
+        mItems[position(mSize - 1)] = null;
+        mSize--; // Decrement the size by one
+    }
+
+    /**
+     * Remove all the elements, keeping the array for reuse.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mItems[position(i)] = null;
+        }
+        mHead = 0;
+        mSize = 0;
     }
 
     /**
@@ -99,7 +133,7 @@ public class ArrayQueue<T> {
      * @return True if full. Otherwise, false.
      */
     public synchronized boolean isFull() {
-        return mIndex == mCapacity - 1;
+        return mSize == mCapacity;
     }
 
     /**
@@ -108,7 +142,7 @@ public class ArrayQueue<T> {
      * @return True if empty. Otherwise, false.
      */
     public synchronized boolean isEmpty() {
-        return mIndex == -1;
+        return mSize == 0;
     }
 
     /**
@@ -117,7 +151,7 @@ public class ArrayQueue<T> {
      * @return The number of elements stored in the array.
      */
     public synchronized int getSize() {
-        return mIndex + 1;
+        return mSize;
     }
 
 
@@ -130,8 +164,20 @@ public class ArrayQueue<T> {
      *                                   not valid.
      */
     public synchronized T peek(int index) throws IndexOutOfBoundsException {
-        if (index > mIndex || !isValid(index)) throw new IndexOutOfBoundsException();
-        return mItems[index];
+        if (!isValid(index)) throw new IndexOutOfBoundsException();
+        return mItems[position(index)];
+    }
+
+    /**
+     * Access the front element and make sure that it is the one the next {@link #get()} removes,
+     * even if elements get added meanwhile. Queues that do not hand their elements over in the
+     * order they were added (see {@link PriorityPresentQueue}) override it, the others need not.
+     *
+     * @return The front element.
+     * @throws IndexOutOfBoundsException if the queue is empty.
+     */
+    public T pinFront() throws IndexOutOfBoundsException {
+        return peek(0);
     }
 
     /**
@@ -148,12 +194,24 @@ public class ArrayQueue<T> {
      * If the array is empty, then any action that requires an index
      * is not feasible (see {@link ArrayQueue#peek} & {@link ArrayQueue#remove}).
      * If the index is not in the range of 0 (inclusive)
-     * and the array's capacity.
+     * and the number of stored elements.
      *
      * @param index A position in the array.
      * @return True, the index meets the above conditions. Otherwise, false.
      */
     private boolean isValid(int index) {
-        return !isEmpty() && (index >= 0 && index < mCapacity);
+        return !isEmpty() && (index >= 0 && index < mSize);
+    }
+
+    /**
+     * Translate a position relative to the front element into
+     * an index of the circular array.
+     *
+     * @param index A position relative to the front element (0 is the front).
+     * @return The index of the array that holds that position.
+     */
+    private int position(int index) {
+        int position = mHead + index;
+        return position < mCapacity ? position : position - mCapacity;
     }
 }
@@ -0,0 +1,405 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * A binary form of a configuration file, which is memory-mapped instead of parsed,
+ * so that scenarios with millions of presents start in a fraction of the time.
+ * {@link Scenario#read} recognises a compiled file by its magic number, thus it can be passed
+ * to {@link MyClass} (or any other tool) in place of the text file.
+ * <p>
+ * Usage: {@code CompiledScenario <scenario file> <compiled file>}
+ * <p>
+ * The tool compiles the text file, loads the compiled file back and checks that it describes the same
+ * machine (round trip), then compares the time it takes to load either of them.
+ * <p>
+ * File layout (big-endian, see {@link DataOutputStream}):
+ * <p> - int magic, short version, int timer length, int number of presents
+ * <p> - the age ranges of all presents (presents refer to them by index)
+ * <p> - per belt: id, length, lanes, lane selection, priorities (since version 2), wait strategy, destinations
+ * <p> - per hopper: id, index of its belt, capacity, speed, number of presents
+ * <p> - per sack: id, capacity, index of its age range
+ * <p> - per turntable: id, capacity (since version 3), routing (since version 4), then the type and the index of the belt/sack of each port (N, E, S, W)
+ * <p> - the width of an age range index (1 or 2 bytes), whether the presents have priority classes
+ * (since version 2), then the age range index (and the priority class) of every present,
+ * hopper after hopper. The ids of the presents are implied by their order.
+ * <p>
+ * Files of earlier versions can still be read.
+ * <p>
+ * A compiled file must be smaller than 2 GB, the largest region that can be mapped at once.
+ *
+ * @author anonymous
+ */
+public class CompiledScenario {
+
+    static final int MAGIC = 0x5853434E; // "XSCN"
+    private static final short VERSION = 4;
+    private static final short FIRST_VERSION_WITH_PRIORITIES = 2;
+    private static final short FIRST_VERSION_WITH_TURNTABLE_CAPACITY = 3;
+    private static final short FIRST_VERSION_WITH_ROUTING = 4;
+    private static final byte NO_CONNECTION = 0;
+    private static final byte INPUT_BELT = 1;
+    private static final byte OUTPUT_BELT = 2;
+    private static final byte OUTPUT_SACK = 3;
+    private static final byte HASHED_LANES = 1;
+
+    /**
+     * @param args The path of the text configuration file and the path of the compiled file.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: CompiledScenario <scenario file> <compiled file>");
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Scenario text = Scenario.read(args[0], true, null);
+            long textLoad = System.nanoTime() - start;
+            compile(text, args[1]);
+
+            start = System.nanoTime();
+            Scenario compiled = Scenario.read(args[1], true, null);
+            long compiledLoad = System.nanoTime() - start;
+
+            // Round trip: the loaded machine must compile to the very same bytes
+            ByteArrayOutputStream roundTrip = new ByteArrayOutputStream();
+            write(compiled, roundTrip);
+            if (!Arrays.equals(roundTrip.toByteArray(), Files.readAllBytes(Paths.get(args[1])))) {
+                System.out.println("Error: the compiled scenario does not describe the same machine.");
+                System.exit(1);
+            }
+            System.out.printf("Compiled %d presents into %d bytes. Loading took %.1f ms from text and %.1f ms compiled.%n",
+                    text.getNumPresents(), roundTrip.size(), textLoad / 1e6, compiledLoad / 1e6);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Store the specified machine in a compiled file.
+     *
+     * @param scenario The machine, with its hoppers filled.
+     * @param fileName The path of the compiled file.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void compile(@NotNull Scenario scenario, @NotNull String fileName) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName))) {
+            write(scenario, out);
+        }
+    }
+
+    /**
+     * Check if the specified file is a compiled scenario rather than a text one.
+     *
+     * @param fileName The path of the configuration file.
+     * @return True if the file starts with the magic number of a compiled scenario.
+     * @throws IOException if the file cannot be opened.
+     */
+    static boolean isCompiled(@NotNull String fileName) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(fileName))) {
+            return in.available() >= Integer.BYTES && in.readInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Map the specified compiled file and create the machine it describes, as {@link Scenario#read} does.
+     *
+     * @param fileName    The path of the compiled file.
+     * @param fillHoppers True to fill the hoppers with the presents. False when the presents come from elsewhere.
+     * @param table       The table of the off-heap storage, or null to store the presents on the heap.
+     * @return The scenario described by the file.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file is not a compiled scenario of a supported version.
+     */
+    @NotNull
+    static Scenario read(@NotNull String fileName, boolean fillHoppers, PresentTable table) throws IOException {
+        MappedByteBuffer in;
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            // The mapping stays valid after the channel gets closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return decode(in, fileName, fillHoppers, table);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException(fileName + " is truncated");
+        }
+    }
+
+    /**
+     * Create the machine described by the mapped compiled file.
+     *
+     * @throws IllegalArgumentException if the file is not a compiled scenario of a supported version.
+     */
+    @NotNull
+    private static Scenario decode(@NotNull MappedByteBuffer in, @NotNull String fileName, boolean fillHoppers,
+                                   PresentTable table) {
+        if (in.getInt() != MAGIC) {
+            throw new IllegalArgumentException(fileName + " is not a compiled scenario");
+        }
+        short version = in.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + version + " of compiled scenario");
+        }
+        int timerLength = in.getInt();
+        int numPresents = in.getInt();
+
+        // Presents of the same age range share a single string, as in the text format
+        String[] ages = new String[in.getInt()];
+        for (int a = 0; a < ages.length; a++) {
+            ages[a] = readString(in);
+        }
+
+        Conveyor[] belts = new Conveyor[in.getInt()];
+        for (int b = 0; b < belts.length; b++) {
+            int id = in.getInt();
+            int length = in.getInt();
+            int lanes = in.getInt();
+            String laneSelection = in.get() == HASHED_LANES ? MultiLaneQueue.HASHED : MultiLaneQueue.LEAST_OCCUPIED;
+            boolean priorities = version >= FIRST_VERSION_WITH_PRIORITIES && in.get() != 0;
+            String waitStrategy = readString(in);
+            belts[b] = new Conveyor(id, length, lanes, laneSelection, priorities, table);
+            for (int d = in.getInt(); d > 0; d--) {
+                belts[b].addDestination(in.getInt());
+            }
+            belts[b].setWaitStrategy(waitStrategy.isEmpty() ? null : WaitStrategy.parse(waitStrategy));
+        }
+
+        Hopper[] hoppers = new Hopper[in.getInt()];
+        int[] hopperPresents = new int[hoppers.length];
+        for (int h = 0; h < hoppers.length; h++) {
+            int id = in.getInt();
+            Conveyor belt = belts[in.getInt()];
+            int capacity = in.getInt();
+            int speed = in.getInt();
+            hopperPresents[h] = in.getInt();
+            hoppers[h] = new Hopper(id, belt, capacity, speed, table);
+        }
+
+        Sack[] sacks = new Sack[in.getInt()];
+        String[] sackAgeRanges = new String[sacks.length];
+        HashMap<String, Integer> destinations = new HashMap<>();
+        for (int s = 0; s < sacks.length; s++) {
+            int id = in.getInt();
+            int capacity = in.getInt();
+            sackAgeRanges[s] = ages[in.getInt()];
+            sacks[s] = new Sack(id, capacity, table);
+            destinations.put(sackAgeRanges[s], id);
+        }
+
+        Turntable[] tables = new Turntable[in.getInt()];
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = new Turntable(readString(in), destinations);
+            if (version >= FIRST_VERSION_WITH_TURNTABLE_CAPACITY) tables[t].setCapacity(in.getInt());
+            String routing = version >= FIRST_VERSION_WITH_ROUTING ? readString(in) : "";
+            if (!routing.isEmpty()) tables[t].setRouting(routing);
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                byte type = in.get();
+                int index = in.getInt();
+                switch (type) {
+                    case INPUT_BELT:
+                        tables[t].addConnection(port, new Connection(ConnectionType.InputBelt, belts[index], null));
+                        break;
+                    case OUTPUT_BELT:
+                        tables[t].addConnection(port, new Connection(ConnectionType.OutputBelt, belts[index], null));
+                        break;
+                    case OUTPUT_SACK:
+                        tables[t].addConnection(port, new Connection(ConnectionType.OutputSack, null, sacks[index]));
+                        break;
+                }
+            }
+        }
+
+        boolean narrow = in.get() == Byte.BYTES;
+        boolean withPriorities = version >= FIRST_VERSION_WITH_PRIORITIES && in.get() != 0;
+        int id = 0;
+        for (int h = 0; h < hoppers.length; h++) {
+            // When restoring, the hoppers get refilled from the checkpoint
+            if (fillHoppers) {
+                for (int p = 0; p < hopperPresents[h]; p++) {
+                    int age = narrow ? in.get() & 0xFF : in.getShort() & 0xFFFF;
+                    int priority = withPriorities ? in.get() : Present.STANDARD;
+                    hoppers[h].fill(new Present(id++, ages[age], priority));
+                }
+            }
+            System.out.println("Filled Hopper " + hoppers[h].getIdentifier());
+        }
+        return new Scenario(belts, hoppers, sacks, sackAgeRanges, tables, timerLength, numPresents);
+    }
+
+    /**
+     * Write the compiled form of the specified machine.
+     *
+     * @param scenario The machine, with its hoppers filled.
+     * @param stream   Where to write it.
+     * @throws IOException if the stream cannot be written.
+     */
+    private static void write(@NotNull Scenario scenario, @NotNull OutputStream stream) throws IOException {
+        HashMap<String, Integer> ageIndexes = new HashMap<>();
+        ArrayList<String> ages = new ArrayList<>();
+        for (String age : scenario.getSackAgeRanges()) {
+            indexOf(age, ageIndexes, ages);
+        }
+        Hopper[] hoppers = scenario.getHoppers();
+        int[][] hopperPresents = new int[hoppers.length][];
+        byte[][] hopperPriorities = new byte[hoppers.length][];
+        boolean withPriorities = false;
+        for (int h = 0; h < hoppers.length; h++) {
+            ArrayQueue<Present> presents = hoppers[h].getPresents();
+            hopperPresents[h] = new int[presents.getSize()];
+            hopperPriorities[h] = new byte[presents.getSize()];
+            for (int p = 0; p < hopperPresents[h].length; p++) {
+                Present present = presents.peek(p);
+                hopperPresents[h][p] = indexOf(present.readDestination(), ageIndexes, ages);
+                hopperPriorities[h][p] = (byte) present.getPriority();
+                withPriorities |= present.getPriority() != Present.STANDARD;
+            }
+        }
+        if (ages.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many age ranges (" + ages.size() + ")");
+        }
+
+        IdentityHashMap<Conveyor, Integer> beltIndexes = new IdentityHashMap<>();
+        Conveyor[] belts = scenario.getBelts();
+        for (int b = 0; b < belts.length; b++) {
+            beltIndexes.put(belts[b], b);
+        }
+        IdentityHashMap<Sack, Integer> sackIndexes = new IdentityHashMap<>();
+        Sack[] sacks = scenario.getSacks();
+        for (int s = 0; s < sacks.length; s++) {
+            sackIndexes.put(sacks[s], s);
+        }
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(scenario.getTimerLength());
+        out.writeInt(scenario.getNumPresents());
+        out.writeInt(ages.size());
+        for (String age : ages) writeString(out, age);
+
+        out.writeInt(belts.length);
+        for (Conveyor belt : belts) {
+            out.writeInt(belt.getId());
+            out.writeInt(belt.getPresents().getCapacity());
+            out.writeInt(belt.getLaneCount());
+            out.writeByte(MultiLaneQueue.HASHED.equals(belt.getLaneSelection()) ? HASHED_LANES : 0);
+            out.writeBoolean(belt.hasPriorities());
+            writeString(out, belt.getWaitStrategy() == null ? "" : belt.getWaitStrategy().toString());
+            // Sorted, so that the same belt always compiles to the same bytes
+            int[] destinations = belt.getDestinations().stream().mapToInt(Integer::intValue).sorted().toArray();
+            out.writeInt(destinations.length);
+            for (int destination : destinations) out.writeInt(destination);
+        }
+
+        out.writeInt(hoppers.length);
+        for (int h = 0; h < hoppers.length; h++) {
+            out.writeInt(hoppers[h].getIdentifier());
+            out.writeInt(beltIndexes.get(hoppers[h].getBelt()));
+            out.writeInt(hoppers[h].getPresents().getCapacity());
+            out.writeInt(hoppers[h].getSpeed());
+            out.writeInt(hopperPresents[h].length);
+        }
+
+        out.writeInt(sacks.length);
+        for (int s = 0; s < sacks.length; s++) {
+            out.writeInt(sacks[s].getId());
+            out.writeInt(sacks[s].getCapacity());
+            out.writeInt(ageIndexes.get(scenario.getSackAgeRanges()[s]));
+        }
+
+        Turntable[] tables = scenario.getTables();
+        out.writeInt(tables.length);
+        for (Turntable table : tables) {
+            writeString(out, table.getTurntableId());
+            out.writeInt(table.getCapacity());
+            writeString(out, table.getRouting() == null ? "" : table.getRouting());
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                Connection connection = table.getConnection(port);
+                if (connection == null) {
+                    out.writeByte(NO_CONNECTION);
+                    out.writeInt(0);
+                    continue;
+                }
+                switch (connection.getConnType()) {
+                    case InputBelt:
+                        out.writeByte(INPUT_BELT);
+                        out.writeInt(beltIndexes.get(connection.getBelt()));
+                        break;
+                    case OutputBelt:
+                        out.writeByte(OUTPUT_BELT);
+                        out.writeInt(beltIndexes.get(connection.getBelt()));
+                        break;
+                    default:
+                        out.writeByte(OUTPUT_SACK);
+                        out.writeInt(sackIndexes.get(connection.getSack()));
+                        break;
+                }
+            }
+        }
+
+        boolean narrow = ages.size() <= 0x100;
+        out.writeByte(narrow ? Byte.BYTES : Short.BYTES);
+        // Scenarios without express presents spare the byte of every present
+        out.writeBoolean(withPriorities);
+        for (int h = 0; h < hopperPresents.length; h++) {
+            for (int p = 0; p < hopperPresents[h].length; p++) {
+                if (narrow) {
+                    out.writeByte(hopperPresents[h][p]);
+                } else {
+                    out.writeShort(hopperPresents[h][p]);
+                }
+                if (withPriorities) out.writeByte(hopperPriorities[h][p]);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Look up the index of the specified age range, registering it if it is new.
+     */
+    private static int indexOf(@NotNull String age, @NotNull HashMap<String, Integer> ageIndexes,
+                               @NotNull ArrayList<String> ages) {
+        Integer index = ageIndexes.get(age);
+        if (index == null) {
+            index = ages.size();
+            ageIndexes.put(age, index);
+            ages.add(age);
+        }
+        return index;
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @NotNull String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull MappedByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -2,9 +2,12 @@ package CO3401.AdvancedProducerConsumer;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The Conveyor belts are acting as passive buffers (shared
@@ -27,20 +30,44 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <p> - step 2: Add present to the Conveyor belt.
  * <p> - step 3: {@link Conveyor#releaseResourcesForPresentInsertion}
  *
+ * <p> Present hand-off from one belt to another (turntables):
+ * <p> - step 1: {@link Conveyor#reservePresent} on the input belt.
+ * <p> - step 2: {@link Conveyor#reserveSlot} (or {@link Conveyor#tryReserveSlot}) on the output belt.
+ * If it fails, {@link Conveyor#cancelPresentReservation} on the input belt.
+ * <p> - step 3: {@link Conveyor#lockInOrder}, move the present, {@link Conveyor#unlockInOrder}.
+ * <p> - step 4: {@link Conveyor#completeExtraction} on the input belt and
+ * {@link Conveyor#completeInsertion} on the output belt.
+ * <p> No belt is locked while waiting for another, thus belts can be connected in loops.
+ * <p>
+ * A jammed belt ({@link #setJammed}) neither accepts nor hands over presents: claims fail (or wait, for the
+ * methods that block) until it gets cleared.
+ *
  * @author anonymous
  */
 public class Conveyor {
 
+    // Kinds of contended acquires (see getContendedAcquires)
+    public static final int FULL = 0; // waited for a free slot
+    public static final int EMPTY = 1; // waited for a present
+    public static final int LOCKED = 2; // waited for another thread to release the belt
     private static final int FIRST_PRESENT = 0;
+    private static final long JAM_POLL = 5L; // Real time between checks of a jammed belt by blocked threads
     // Use the semaphore to record number of free buffer slots.
     // In this case, there can be only N elements on belt where N corresponds to the belts's size.
     public final Semaphore mNumFreeSlots;
     // The belts the present will pass from until it reaches its corresponding sack.
     private final HashSet<Integer> mDestinations = new HashSet<>();
+    // Same as mDestinations, indexed by sack id, so that routing a present does not box its sack id.
+    private final BitSet mReachableSacks = new BitSet();
     final private int mId;
     private final ArrayQueue<Present> mPresents; // The requirements say this must be a fixed size array
     // One thread access the resource at a time
+    // (on a multi-lane belt, one consumer at a time, as each lane has its own lock for the producers)
     private final Semaphore mMutex = new Semaphore(1);
+    private final int mLanes;
+    private final String mLaneSelection;
+    // True if the presents of the highest priority class get handed over first
+    private final boolean mPriorities;
     // One thread wait for another thread to finish.
     // In this case, a Turntable cannot access the Conveyor till an element gets inserted.
     private final Semaphore mNumAvailSlots = new Semaphore(0);
@@ -50,6 +77,19 @@ public class Conveyor {
     private volatile boolean mWaitingForPresents;
     // Flag that describes whether the Conveyor belt is connected with a Hopper
     private boolean mIsConnectedWithAHopper;
+    // Records the time each present gets placed onto the belt (null when tracing is off)
+    private PresentTracer mTracer;
+    // Run whenever a present gets added (wake up the consumer) or removed (wake up the producers).
+    // Only used by turntables driven by a TurntableScheduler, which never block on the semaphores.
+    private volatile Runnable[] mConsumerWakeUps = new Runnable[0];
+    private volatile Runnable[] mProducerWakeUps = new Runnable[0];
+    // How the threads wait for the semaphores (null to park straight away)
+    private WaitStrategy mWaitStrategy;
+    // Acquires that could not proceed straight away and the time they waited, per kind
+    private final CounterCell[] mContendedAcquires = {new CounterCell(), new CounterCell(), new CounterCell()};
+    private final CounterCell[] mContendedNanos = {new CounterCell(), new CounterCell(), new CounterCell()};
+    // Set while a fault keeps the belt from moving (see FaultInjector)
+    private volatile boolean mJammed;
 
     /**
      * Public Constructor. Initialize the conveyor's id, size, container,
@@ -60,8 +100,60 @@ public class Conveyor {
      * @param capacity The number of presents that the Conveyor can store at the same time.
      */
     public Conveyor(int mId, int capacity) {
+        this(mId, capacity, null);
+    }
+
+    /**
+     * Public Constructor. Same as {@link #Conveyor(int, int)}, but the presents
+     * are stored off-heap if a table is specified.
+     *
+     * @param mId      The id of the Conveyor instance.
+     * @param capacity The number of presents that the Conveyor can store at the same time.
+     * @param table    The table of the off-heap storage, or null to store the presents on the heap.
+     */
+    public Conveyor(int mId, int capacity, PresentTable table) {
+        this(mId, capacity, 1, MultiLaneQueue.LEAST_OCCUPIED, table);
+    }
+
+    /**
+     * Public Constructor. Same as {@link #Conveyor(int, int, PresentTable)}, but the belt
+     * is split into the specified number of lanes (see {@link MultiLaneQueue}).
+     *
+     * @param mId           The id of the Conveyor instance.
+     * @param capacity      The number of presents that the Conveyor can store at the same time.
+     * @param lanes         The number of lanes (1 for a single FIFO).
+     * @param laneSelection How producers pick a lane ({@link MultiLaneQueue#LEAST_OCCUPIED} or {@link MultiLaneQueue#HASHED}).
+     * @param table         The table of the off-heap storage, or null to store the presents on the heap.
+     */
+    public Conveyor(int mId, int capacity, int lanes, @NotNull String laneSelection, PresentTable table) {
+        this(mId, capacity, lanes, laneSelection, false, table);
+    }
+
+    /**
+     * Public Constructor. Same as {@link #Conveyor(int, int, int, String, PresentTable)}, but the belt
+     * can hand over its presents by priority class (see {@link PriorityPresentQueue}) instead of in order.
+     *
+     * @param mId           The id of the Conveyor instance.
+     * @param capacity      The number of presents that the Conveyor can store at the same time.
+     * @param lanes         The number of lanes (1 for a single FIFO).
+     * @param laneSelection How producers pick a lane ({@link MultiLaneQueue#LEAST_OCCUPIED} or {@link MultiLaneQueue#HASHED}).
+     * @param priorities    True to hand over the presents of the highest priority class first.
+     * @param table         The table of the off-heap storage, or null to store the presents on the heap.
+     * @throws IllegalArgumentException if a belt with lanes should keep priorities.
+     */
+    public Conveyor(int mId, int capacity, int lanes, @NotNull String laneSelection, boolean priorities,
+                    PresentTable table) {
+        if (priorities && lanes > 1) {
+            throw new IllegalArgumentException("Belt " + mId + " cannot have both lanes and priorities");
+        }
         this.mId = mId;
-        mPresents = new ArrayQueue<>(capacity, () -> new Present[capacity]);
+        mLanes = lanes;
+        mLaneSelection = laneSelection;
+        mPriorities = priorities;
+        mPresents = lanes > 1
+                ? new MultiLaneQueue(capacity, lanes, laneSelection, table)
+                : priorities ? new PriorityPresentQueue(capacity, table)
+                : PresentTable.newQueue(capacity, table);
         mWaitingForPresents = true;
         mNumFreeSlots = new Semaphore(capacity);
         mIsConnectedWithAHopper = false;
@@ -74,6 +166,17 @@ public class Conveyor {
      */
     public void addDestination(int hopperID) {
         mDestinations.add(hopperID);
+        mReachableSacks.set(hopperID);
+    }
+
+    /**
+     * Check if the presents of the specified sack can pass from this belt.
+     *
+     * @param sackId The id of the sack.
+     * @return True if the sack is one of the belt's destinations. Otherwise, false.
+     */
+    public boolean leadsTo(int sackId) {
+        return sackId >= 0 && mReachableSacks.get(sackId);
     }
 
     /**
@@ -96,13 +199,13 @@ public class Conveyor {
      * this method's invocation to ensure thread-safety.
      *
      * @param src The hopper's container.
+     * @return The present that was placed onto the belt or null if the timer has run out.
      */
-    public void movePresentFromHopperToConveyor(@NotNull ArrayQueue<Present> src, @NotNull AtomicBoolean timerState) {
+    public Present movePresentFromHopperToConveyor(@NotNull ArrayQueue<Present> src, @NotNull AtomicBoolean timerState) {
         if (timerState != null && timerState.get() == Hopper.TIMER_RUN_OUT) {
-            return;
+            return null;
         }
-        // Remove a present from the source (hopper/another input belt)
-        mPresents.add(src.get());  // Add it to the Conveyor
+        return movePresentFromSrcToDest(src);
     }
 
     /**
@@ -116,9 +219,14 @@ public class Conveyor {
      * this method's invocation to ensure thread-safety.
      *
      * @param src The container of another conveyor object.
+     * @return The present that was placed onto this conveyor.
      */
-    public void movePresentFromOneConveyorToAnother(@NotNull ArrayQueue<Present> src) {
-        movePresentFromSrcToDest(src);
+    public Present movePresentFromOneConveyorToAnother(@NotNull ArrayQueue<Present> src) {
+        Present present = movePresentFromSrcToDest(src);
+        if (mTracer != null && present != null) {
+            mTracer.record(present, PresentTracer.BELT_ENQUEUE, mId);
+        }
+        return present;
     }
 
     /**
@@ -126,10 +234,26 @@ public class Conveyor {
      * to this conveyor object's container.
      *
      * @param src The source of the inserted present.
+     * @return The present that was placed onto this conveyor.
      */
-    private void movePresentFromSrcToDest(@NotNull ArrayQueue<Present> src) {
+    private Present movePresentFromSrcToDest(@NotNull ArrayQueue<Present> src) {
         // Remove a present from the source (hopper/another input belt)
-        mPresents.add(src.get());  // Add it to this conveyor
+        Present present = src.get();
+        mPresents.add(present);  // Add it to this conveyor
+        return present;
+    }
+
+    /**
+     * Place the specified present at the back of the belt, as if a producer
+     * had inserted it. Used to restore the belt from a checkpoint before the machine starts.
+     *
+     * @param present The present to be restored.
+     */
+    public void restorePresent(@NotNull Present present) {
+        if (mNumFreeSlots.tryAcquire()) {
+            mPresents.add(present);
+            mNumAvailSlots.release();
+        }
     }
 
     /**
@@ -156,7 +280,7 @@ public class Conveyor {
      * @return A reference to the belt's first element.
      */
     public Present peekClosestPresent() throws IndexOutOfBoundsException {
-        return mPresents.peek(FIRST_PRESENT); // Interrogate the present
+        return mPresents.pinFront(); // Interrogate the present, which the next extraction removes
     }
 
     /**
@@ -165,9 +289,10 @@ public class Conveyor {
      * then this thread will go to waiting state till the resource they get released.
      */
     public void acquireResourcesForPresentExtraction() {
+        awaitCleared();
         try {
-            mNumAvailSlots.acquire();
-            mMutex.acquire();
+            acquire(mNumAvailSlots, EMPTY);
+            acquire(mMutex, LOCKED);
         } catch (InterruptedException ignored) {
         }
     }
@@ -178,21 +303,63 @@ public class Conveyor {
      * then this thread will go to waiting state till the resource they get released.
      */
     public void acquireResourcesForPresentInsertion() {
+        awaitCleared();
         try {
-            mNumFreeSlots.acquire();
-            mMutex.acquire();
+            acquire(mNumFreeSlots, FULL);
+            // The producers of a multi-lane belt only lock the lane they add to
+            if (mLanes == 1) acquire(mMutex, LOCKED);
         } catch (InterruptedException ignored) {
         }
     }
 
+    /**
+     * Acquire a permit of the specified semaphore using the belt's wait strategy.
+     * If the permit is not available straight away, the wait gets counted as contended.
+     *
+     * @param semaphore One of the belt's semaphores.
+     * @param kind      {@link #FULL}, {@link #EMPTY} or {@link #LOCKED}.
+     * @throws InterruptedException if the thread gets interrupted while waiting.
+     */
+    private void acquire(@NotNull Semaphore semaphore, int kind) throws InterruptedException {
+        if (semaphore.tryAcquire()) return;
+        long start = System.nanoTime();
+        setWaitingOnBelt(true);
+        try {
+            if (mWaitStrategy == null) {
+                semaphore.acquire();
+            } else {
+                mWaitStrategy.acquire(semaphore);
+            }
+        } finally {
+            setWaitingOnBelt(false);
+        }
+        recordWait(kind, start, true);
+    }
+
+    /**
+     * Count a wait for one of the belt's semaphores, and credit the time to the turntable that waited,
+     * as several turntables may share the belt (see {@link Turntable#getWaitingTime}).
+     *
+     * @param kind      {@link #FULL}, {@link #EMPTY} or {@link #LOCKED}.
+     * @param start     The time (System.nanoTime) the wait started.
+     * @param isNewWait False if the wait carries on one that has already been counted.
+     */
+    private void recordWait(int kind, long start, boolean isNewWait) {
+        long nanos = System.nanoTime() - start;
+        if (isNewWait) mContendedAcquires[kind].increment();
+        mContendedNanos[kind].add(nanos);
+        Thread thread = Thread.currentThread();
+        if (kind != LOCKED && thread instanceof Turntable) ((Turntable) thread).addWaitingTime(nanos);
+    }
+
     /**
      * Releases the resources needed to add an element (present) to the
      * conveyor's container. Threads that got blocked trying to acquire them
      * get notified.
      */
     public void releaseResourcesForPresentInsertion() {
-        mMutex.release();
-        mNumAvailSlots.release();
+        if (mLanes == 1) mMutex.release();
+        completeInsertion();
     }
 
     /**
@@ -202,7 +369,219 @@ public class Conveyor {
      */
     public void releaseResourcesForPresentExtraction() {
         mMutex.release();
+        completeExtraction();
+    }
+
+    /**
+     * Non-blocking counterpart of the first half of {@link #acquireResourcesForPresentExtraction}.
+     * Claims the front present of the belt without locking the belt.
+     *
+     * @return True if a present was claimed. Otherwise, false.
+     */
+    public boolean tryReservePresent() {
+        return !mJammed && mNumAvailSlots.tryAcquire();
+    }
+
+    /**
+     * Give back a present claimed by {@link #tryReservePresent} without removing it.
+     */
+    public void cancelPresentReservation() {
+        mNumAvailSlots.release();
+    }
+
+    /**
+     * Claim the front present of the belt without locking the belt. If there is no present,
+     * then this thread will go to waiting state till one gets placed onto the belt.
+     */
+    public void reservePresent() {
+        awaitCleared();
+        try {
+            acquire(mNumAvailSlots, EMPTY);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Claim the front present of the belt without locking the belt. If there is no present,
+     * then this thread waits up to the specified time for one to be placed onto the belt.
+     *
+     * @param timeout   The maximum time to wait in milliseconds.
+     * @param isResumed True if the call carries on the wait of a previous call that timed out,
+     *                  so that a long wait gets counted as a single contended acquire.
+     * @return True if a present was claimed. Otherwise, false.
+     */
+    public boolean reservePresent(long timeout, boolean isResumed) {
+        return tryAcquire(mNumAvailSlots, EMPTY, timeout, isResumed);
+    }
+
+    /**
+     * Claim a free slot of the belt without locking the belt. If the belt is full,
+     * then this thread waits up to the specified time for a present to be removed from it.
+     *
+     * @param timeout   The maximum time to wait in milliseconds.
+     * @param isResumed True if the call carries on the wait of a previous call that timed out,
+     *                  so that a long wait gets counted as a single contended acquire.
+     * @return True if a slot was claimed. Otherwise, false.
+     */
+    public boolean reserveSlot(long timeout, boolean isResumed) {
+        return tryAcquire(mNumFreeSlots, FULL, timeout, isResumed);
+    }
+
+    /**
+     * Acquire a permit of the specified semaphore using the belt's wait strategy, waiting up to the
+     * specified time. While the belt is jammed, the thread waits out the time without acquiring.
+     *
+     * @param semaphore One of the belt's semaphores.
+     * @param kind      {@link #FULL} or {@link #EMPTY}.
+     * @param timeout   The maximum time to wait in milliseconds.
+     * @param isResumed True if the wait started in a previous call, thus it has already been counted.
+     * @return True if a permit was acquired. Otherwise, false.
+     */
+    private boolean tryAcquire(@NotNull Semaphore semaphore, int kind, long timeout, boolean isResumed) {
+        if (!mJammed && semaphore.tryAcquire()) return true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean acquired = false;
+        setWaitingOnBelt(true);
+        try {
+            if (mJammed) {
+                LockSupport.parkNanos(deadline - start);
+            } else if (mWaitStrategy == null) {
+                acquired = semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                acquired = mWaitStrategy.tryAcquire(semaphore, deadline);
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            setWaitingOnBelt(false);
+        }
+        recordWait(kind, start, !isResumed);
+        return acquired;
+    }
+
+    /**
+     * Non-blocking counterpart of the first half of {@link #acquireResourcesForPresentInsertion}.
+     * Claims a free slot of the belt without locking the belt.
+     *
+     * @return True if a slot was claimed. Otherwise, false.
+     */
+    public boolean tryReserveSlot() {
+        return !mJammed && mNumFreeSlots.tryAcquire();
+    }
+
+    /**
+     * Wait while the belt is jammed, before a claim that blocks anyway.
+     * A jam that starts while the thread waits for the semaphore does not stop that claim.
+     */
+    private void awaitCleared() {
+        if (!mJammed) return;
+        setWaitingOnBelt(true);
+        while (mJammed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(JAM_POLL));
+        }
+        setWaitingOnBelt(false);
+    }
+
+    /**
+     * Lock the belt's container. Only to be held for a few instructions,
+     * once a present or a slot has been claimed.
+     */
+    public void lock() {
+        if (mMutex.tryAcquire()) return;
+        long start = System.nanoTime();
+        setWaitingOnBelt(true);
+        mMutex.acquireUninterruptibly();
+        setWaitingOnBelt(false);
+        recordWait(LOCKED, start, true);
+    }
+
+    /**
+     * Unlock the belt's container.
+     */
+    public void unlock() {
+        mMutex.release();
+    }
+
+    /**
+     * Lock the containers of two belts, to move a present from one to the other. The belts are
+     * always locked in the order of their ids, so that two turntables moving presents between
+     * the same belts in opposite directions cannot each lock one belt and wait for the other.
+     * A multi-lane destination is not locked, as its producers only lock the lane they add to,
+     * so several turntables can feed it at once (as its hoppers do).
+     *
+     * @param from The belt the present is taken from.
+     * @param to   The belt the present is placed onto (may be the same belt).
+     */
+    public static void lockInOrder(@NotNull Conveyor from, @NotNull Conveyor to) {
+        if (from == to || to.mLanes > 1) {
+            from.lock();
+        } else if (from.mId < to.mId) {
+            from.lock();
+            to.lock();
+        } else {
+            to.lock();
+            from.lock();
+        }
+    }
+
+    /**
+     * Unlock the belts locked by {@link #lockInOrder}.
+     *
+     * @param from The belt the present is taken from.
+     * @param to   The belt the present is placed onto (may be the same belt).
+     */
+    public static void unlockInOrder(@NotNull Conveyor from, @NotNull Conveyor to) {
+        from.unlock();
+        if (to != from && to.mLanes == 1) to.unlock();
+    }
+
+    /**
+     * Publish a present that was added to the belt and wake up its consumer.
+     */
+    public void completeInsertion() {
+        mNumAvailSlots.release();
+        for (Runnable wakeUp : mConsumerWakeUps) wakeUp.run();
+    }
+
+    /**
+     * Publish a slot that was freed on the belt and wake up its producers.
+     */
+    public void completeExtraction() {
         mNumFreeSlots.release();
+        for (Runnable wakeUp : mProducerWakeUps) wakeUp.run();
+    }
+
+    /**
+     * Wake up the consumer of the belt, e.g. once the belt stops waiting for presents.
+     */
+    public void wakeUpConsumers() {
+        for (Runnable wakeUp : mConsumerWakeUps) wakeUp.run();
+    }
+
+    /**
+     * Register a callback to be run whenever a present gets added to the belt.
+     *
+     * @param wakeUp Resumes the consumer of the belt.
+     */
+    public synchronized void addConsumerWakeUp(@NotNull Runnable wakeUp) {
+        mConsumerWakeUps = append(mConsumerWakeUps, wakeUp);
+    }
+
+    /**
+     * Register a callback to be run whenever a present gets removed from the belt.
+     *
+     * @param wakeUp Resumes a producer of the belt.
+     */
+    public synchronized void addProducerWakeUp(@NotNull Runnable wakeUp) {
+        mProducerWakeUps = append(mProducerWakeUps, wakeUp);
+    }
+
+    @NotNull
+    private static Runnable[] append(@NotNull Runnable[] wakeUps, @NotNull Runnable wakeUp) {
+        Runnable[] extended = new Runnable[wakeUps.length + 1];
+        System.arraycopy(wakeUps, 0, extended, 0, wakeUps.length);
+        extended[wakeUps.length] = wakeUp;
+        return extended;
     }
 
     /**
@@ -283,6 +662,147 @@ public class Conveyor {
         mIsConnectedWithAHopper = connectedWithAHopper;
     }
 
+    /**
+     * Setter for {@link #mWaitStrategy}.
+     *
+     * @param waitStrategy How the threads wait for the belt's semaphores.
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        mWaitStrategy = waitStrategy;
+    }
+
+    /**
+     * Access the number of acquires of the specified kind that had to wait.
+     *
+     * @param kind {@link #FULL}, {@link #EMPTY} or {@link #LOCKED}.
+     * @return The count of contended acquires.
+     */
+    public long getContendedAcquires(int kind) {
+        return mContendedAcquires[kind].get();
+    }
+
+    /**
+     * Access the time the contended acquires of the specified kind waited for.
+     *
+     * @param kind {@link #FULL}, {@link #EMPTY} or {@link #LOCKED}.
+     * @return The total waiting time in nanoseconds.
+     */
+    public long getContendedTime(int kind) {
+        return mContendedNanos[kind].get();
+    }
+
+    /**
+     * Access the way producers pick a lane.
+     *
+     * @return {@link MultiLaneQueue#LEAST_OCCUPIED} or {@link MultiLaneQueue#HASHED}.
+     */
+    public String getLaneSelection() {
+        return mLaneSelection;
+    }
+
+    /**
+     * Access the number of lanes of the belt.
+     *
+     * @return 1 for a single FIFO, otherwise the number of lanes of its {@link MultiLaneQueue}.
+     */
+    public int getLaneCount() {
+        return mLanes;
+    }
+
+    /**
+     * Check whether the belt hands over its presents by priority class.
+     *
+     * @return True if its presents are kept in a {@link PriorityPresentQueue}. Otherwise, false.
+     */
+    public boolean hasPriorities() {
+        return mPriorities;
+    }
+
+    /**
+     * Access the number of presents on the belt or on their way to it, i.e. the slots that have been
+     * claimed by producers. Used to send presents down the shortest of several belts.
+     *
+     * @return The number of taken or claimed slots.
+     */
+    public int getQueueLength() {
+        // Engines that do not claim slots (see FlowEngine) leave the semaphore untouched
+        return Math.max(mPresents.getSize(), mPresents.getCapacity() - mNumFreeSlots.availablePermits());
+    }
+
+    /**
+     * Check whether the presents leave the belt in the order they were placed onto it,
+     * thus the presents behind the front one can be claimed along with it.
+     *
+     * @return True if the belt has neither lanes nor priorities. Otherwise, false.
+     */
+    public boolean keepsOrder() {
+        return mLanes == 1 && !mPriorities;
+    }
+
+    /**
+     * Stop the belt from moving, or get it going again. Once cleared, the consumer and the producers
+     * of the belt are woken up, as turntables driven by a {@link TurntableScheduler} never poll.
+     *
+     * @param jammed True to jam the belt, false to clear it.
+     */
+    public void setJammed(boolean jammed) {
+        mJammed = jammed;
+        if (jammed) return;
+        for (Runnable wakeUp : mConsumerWakeUps) wakeUp.run();
+        for (Runnable wakeUp : mProducerWakeUps) wakeUp.run();
+    }
+
+    /**
+     * Tell the hopper or turntable running on the current thread that it starts or stops waiting on a belt,
+     * i.e. for a present, a free slot, the belt's lock or a jam to clear, whether it parks, spins or polls
+     * (see {@link Hopper#isBlocked} and {@link Turntable#isBlocked}). Other threads are left alone.
+     *
+     * @param waiting True as the wait starts, false once it is over.
+     */
+    private static void setWaitingOnBelt(boolean waiting) {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Turntable) ((Turntable) thread).setWaitingOnBelt(waiting);
+        else if (thread instanceof Hopper) ((Hopper) thread).setWaitingOnBelt(waiting);
+    }
+
+    /**
+     * Check whether the belt is jammed.
+     *
+     * @return True while a fault keeps the belt from moving. Otherwise, false.
+     */
+    public boolean isJammed() {
+        return mJammed;
+    }
+
+    /**
+     * Access the priority class of the present that the belt would hand over next.
+     * Belts without priorities only tell whether they hold any presents, as all of them get handed over in order.
+     *
+     * @return The class of the present (see {@link Present#getPriority()}), or -1 if the belt is empty.
+     */
+    public int getFrontPriority() {
+        if (mPriorities) return ((PriorityPresentQueue) mPresents).getHighestPriority();
+        return mPresents.isEmpty() ? -1 : Present.STANDARD;
+    }
+
+    /**
+     * Access the belt's wait strategy.
+     *
+     * @return The strategy set by {@link #setWaitStrategy} or null if the threads park straight away.
+     */
+    public WaitStrategy getWaitStrategy() {
+        return mWaitStrategy;
+    }
+
+    /**
+     * Setter for {@link #mTracer}.
+     *
+     * @param tracer The tracer that records the presents placed onto this belt.
+     */
+    public void setTracer(PresentTracer tracer) {
+        mTracer = tracer;
+    }
+
     /**
      * Generates the "taken to available slots" ratio.
      * formula: number of presents currently on the conveyor belt
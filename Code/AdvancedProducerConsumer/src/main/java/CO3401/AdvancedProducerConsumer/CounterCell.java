@@ -0,0 +1,61 @@
+package CO3401.AdvancedProducerConsumer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A statistics counter that occupies a cache line of its own.
+ * <p>
+ * Hoppers, turntables and sacks each own the cells of their counters, so the thread doing the work
+ * only ever writes to lines nobody else writes to, and a reader (see {@link MachineStatistics})
+ * aggregates the cells without taking any locks. The value sits in the middle of an array with
+ * {@link #PADDING} unused longs (56 bytes, plus the array header) on either side, so that neither
+ * a neighbouring object nor the hot fields of the owner end up sharing its line (false sharing).
+ * Unlike padding fields, the elements of an array cannot be reordered by the JVM.
+ * <p>
+ * The value is updated atomically, as a few counters (e.g. the waiting time of a hopper driven by
+ * the {@link FlowEngine}) are written by more than one thread, but the line is only contended
+ * when they are.
+ *
+ * @author anonymous
+ */
+public class CounterCell {
+
+    private static final int PADDING = 7; // longs on either side of the value
+    private static final int VALUE = PADDING;
+
+    private final AtomicLongArray mCell = new AtomicLongArray(2 * PADDING + 1);
+
+    /**
+     * Add the specified amount to the counter.
+     *
+     * @param delta The amount to add.
+     */
+    public void add(long delta) {
+        mCell.getAndAdd(VALUE, delta);
+    }
+
+    /**
+     * Add one to the counter.
+     */
+    public void increment() {
+        mCell.getAndIncrement(VALUE);
+    }
+
+    /**
+     * Access the value of the counter.
+     *
+     * @return The sum of everything added so far.
+     */
+    public long get() {
+        return mCell.get(VALUE);
+    }
+
+    /**
+     * Overwrite the value of the counter, e.g. with the value of a checkpoint.
+     *
+     * @param value The new value.
+     */
+    public void set(long value) {
+        mCell.set(VALUE, value);
+    }
+}
@@ -0,0 +1,93 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command line tool that runs many machines, built with {@link MachineBuilder}, in the same JVM.
+ * <p>
+ * Usage: {@code EmbeddingBenchmark [rounds] [presents]}
+ * <p>
+ * Every round runs two machines side by side, without the simulated delays. Both have the same layout,
+ * a hopper whose belt leads to a turntable with a sack and an output belt to a second turntable with a sack,
+ * but their sacks collect opposite age ranges. Three quarters of the presents are of the first age range,
+ * so a machine that routed presents with the other machine's lookup would fill the wrong sacks.
+ * The time of every round is reported, to show how the runs speed up once the JIT has warmed up.
+ *
+ * @author anonymous
+ */
+public class EmbeddingBenchmark {
+
+    private static final int DEFAULT_ROUNDS = 10;
+    private static final int DEFAULT_PRESENTS = 20000;
+    private static final int BELT_LENGTH = 5;
+    private static final int SACK_CAPACITY = 100;
+    private static final String[] AGE_RANGES = {"0-3", "4-7"};
+
+    /**
+     * @param args Optionally, the number of rounds and the number of presents per machine.
+     */
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUNDS;
+        int presents = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PRESENTS;
+        TimeSource noDelays = TimeSource.parse(TimeSource.ZERO);
+        int expected = presents - presents / 4; // presents of the first age range
+
+        System.out.println("round,millis,presents_per_s");
+        for (int round = 1; round <= rounds; round++) {
+            Machine[] machines = {build(presents, false, noDelays), build(presents, true, noDelays)};
+            long start = System.nanoTime();
+            for (Machine machine : machines) machine.start();
+            try {
+                for (Machine machine : machines) machine.awaitTermination();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%d,%.1f,%.0f%n", round, elapsed / 1e6, 2 * presents * 1e9 / elapsed);
+
+            for (int m = 0; m < machines.length; m++) {
+                Sack[] sacks = machines[m].getScenario().getSacks();
+                // The second machine collects the first age range in its second sack
+                int first = sacks[m].getTotalNumberOfPresents();
+                int second = sacks[1 - m].getTotalNumberOfPresents();
+                if (first != expected || second != presents - expected) {
+                    System.out.println("Error: machine " + (m + 1) + " of round " + round + " sorted " + first
+                            + " and " + second + " presents instead of " + expected + " and " + (presents - expected) + ".");
+                    System.exit(1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build a machine of two turntables.
+     *
+     * @param presents The number of presents of the hopper.
+     * @param swapped  True if the sacks collect the age ranges in the opposite order.
+     * @param clock    The clock of the machine.
+     * @return A machine ready to be started.
+     */
+    @NotNull
+    private static Machine build(int presents, boolean swapped, @NotNull TimeSource clock) {
+        String[] ages = new String[presents];
+        for (int i = 0; i < presents; i++) {
+            ages[i] = AGE_RANGES[i % 4 == 3 ? 1 : 0];
+        }
+        return new MachineBuilder()
+                .belt(1, BELT_LENGTH, 1, 2)
+                .belt(2, BELT_LENGTH, 2)
+                .hopper(1, 1, presents, 1)
+                .sack(1, SACK_CAPACITY, AGE_RANGES[swapped ? 1 : 0])
+                .sack(2, SACK_CAPACITY, AGE_RANGES[swapped ? 0 : 1])
+                .turntable("A")
+                .connect("A", Turntable.W, ConnectionType.InputBelt, 1)
+                .connect("A", Turntable.S, ConnectionType.OutputSack, 1)
+                .connect("A", Turntable.E, ConnectionType.OutputBelt, 2)
+                .turntable("B")
+                .connect("B", Turntable.W, ConnectionType.InputBelt, 2)
+                .connect("B", Turntable.S, ConnectionType.OutputSack, 2)
+                .presents(1, ages)
+                .timeSource(clock)
+                .build();
+    }
+}
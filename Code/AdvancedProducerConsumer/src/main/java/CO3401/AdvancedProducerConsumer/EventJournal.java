@@ -0,0 +1,228 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only journal of every present movement of the machine.
+ * Each movement is stored as a fixed-width binary record of {@link #RECORD_SIZE} bytes:
+ * <p> - long: nanoseconds since the journal was opened
+ * <p> - int: id of the present ({@link Present#NO_ID} for sack swaps)
+ * <p> - int: source (hopper id, belt id, turntable code or sack id)
+ * <p> - int: target (belt id, turntable code or sack id)
+ * <p> - short: event type (e.g. {@link #HOPPER_TO_BELT})
+ * <p> - short: reserved
+ * <p>
+ * The threads of the machine never touch the file. {@link #append} claims a slot in a
+ * preallocated ring buffer and returns straight away, while a background writer thread
+ * copies the published slots in batches into the file, which is memory-mapped one
+ * segment ({@link #SEGMENT_RECORDS} records) at a time so that it can grow past 2GB.
+ * A producer only waits (yielding) in the unlikely case that the writer is a whole ring behind.
+ * <p>
+ * The file starts with a header that describes the layout of the machine
+ * (capacities of the belts and sacks), so that {@link JournalReplay} can rebuild
+ * the state of the belts and sacks at any point in time.
+ *
+ * @author anonymous
+ */
+public class EventJournal {
+
+    // Event types
+    public static final short HOPPER_TO_BELT = 0;
+    public static final short BELT_TO_TURNTABLE = 1;
+    public static final short TURNTABLE_TO_BELT = 2;
+    public static final short TURNTABLE_TO_SACK = 3;
+    public static final short SACK_SWAP = 4;
+
+    // File format
+    static final int MAGIC = 0x584A524E; // "XJRN"
+    static final short VERSION = 1;
+    static final int RECORD_SIZE = 24;
+    static final int SEGMENT_RECORDS = 1 << 21; // 48 MiB per mapped segment
+    static final int EVENT_COUNT_OFFSET = 8;
+
+    private static final int RING_CAPACITY = 1 << 16; // Must be a power of two
+    private static final int RING_MASK = RING_CAPACITY - 1;
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mHeaderLength;
+    private final long mStartNanos;
+    // Ring buffer shared between the producers and the writer thread
+    private final long[] mTimes = new long[RING_CAPACITY];
+    private final int[] mPresentIds = new int[RING_CAPACITY];
+    private final int[] mSources = new int[RING_CAPACITY];
+    private final int[] mTargets = new int[RING_CAPACITY];
+    private final short[] mTypes = new short[RING_CAPACITY];
+    // Slot i holds sequence + 1 once the record with that sequence has been fully written
+    private final AtomicLongArray mPublished = new AtomicLongArray(RING_CAPACITY);
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final AtomicInteger mNextTurntableCode = new AtomicInteger();
+    private final Thread mWriter;
+    // Number of records the writer has copied to the file
+    private volatile long mWrittenSequence;
+    private volatile boolean mOpen = true;
+    private MappedByteBuffer mSegment;
+    private long mSegmentIndex = -1;
+
+    /**
+     * Public Constructor. Create the journal file, write its header
+     * and start the background writer thread.
+     *
+     * @param fileName The path of the journal file (overwritten if it exists).
+     * @param belts    The belts of the machine.
+     * @param sacks    The sacks of the machine.
+     * @throws IOException if the file cannot be created.
+     */
+    public EventJournal(@NotNull String fileName, @NotNull Conveyor[] belts, @NotNull Sack[] sacks) throws IOException {
+        mFile = new RandomAccessFile(fileName, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+
+        // magic, version, record size, event count, belt count, (id, capacity) per belt, sack count, id per sack
+        mHeaderLength = 4 + 2 + 2 + 8 + 4 + 8 * belts.length + 4 + 4 * sacks.length;
+        ByteBuffer header = ByteBuffer.allocate(mHeaderLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).putLong(0L);
+        header.putInt(belts.length);
+        for (Conveyor belt : belts) {
+            header.putInt(belt.getId()).putInt(belt.getPresents().getCapacity());
+        }
+        header.putInt(sacks.length);
+        for (Sack sack : sacks) {
+            header.putInt(sack.getId());
+        }
+        header.flip();
+        mChannel.write(header, 0);
+
+        mStartNanos = System.nanoTime();
+        mWriter = new Thread(this::drain, "journal-writer");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Assign a numeric code to the specified turntable, to be
+     * used as the source/target of its events.
+     *
+     * @return The code of the turntable.
+     */
+    public int registerTurntable() {
+        return mNextTurntableCode.getAndIncrement();
+    }
+
+    /**
+     * Queue a record for the journal. Never blocks on I/O.
+     *
+     * @param type    The event type (e.g. {@link #BELT_TO_TURNTABLE}).
+     * @param present The present that moved or null for sack swaps.
+     * @param source  The id/code of the component the present left.
+     * @param target  The id/code of the component the present reached.
+     */
+    public void append(short type, Present present, int source, int target) {
+        long time = System.nanoTime() - mStartNanos;
+        long sequence = mNextSequence.getAndIncrement();
+        // Wait only if the writer has fallen a whole ring behind
+        while (sequence - mWrittenSequence >= RING_CAPACITY) {
+            Thread.yield();
+        }
+        int slot = (int) (sequence & RING_MASK);
+        mTimes[slot] = time;
+        mPresentIds[slot] = present == null ? Present.NO_ID : present.getId();
+        mSources[slot] = source;
+        mTargets[slot] = target;
+        mTypes[slot] = type;
+        mPublished.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Stop accepting records, wait for the writer to copy all queued records,
+     * then store the event count in the header and trim the file.
+     * Must be called once all the threads of the machine have terminated.
+     *
+     * @return The number of records in the journal.
+     * @throws IOException if the file cannot be finalised.
+     */
+    public long close() throws IOException {
+        mOpen = false;
+        LockSupport.unpark(mWriter);
+        try {
+            mWriter.join();
+        } catch (InterruptedException ignored) {
+        }
+        long count = mWrittenSequence;
+        if (mSegment != null) mSegment.force();
+        ByteBuffer eventCount = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        eventCount.putLong(count).flip();
+        mChannel.write(eventCount, EVENT_COUNT_OFFSET);
+        mSegment = null;
+        mChannel.truncate(mHeaderLength + count * RECORD_SIZE);
+        mChannel.force(true);
+        mFile.close();
+        return count;
+    }
+
+    /**
+     * Body of the writer thread. Copies published records to the mapped file in batches
+     * till the journal is closed and every claimed record has been written.
+     */
+    private void drain() {
+        long next = 0;
+        try {
+            while (mOpen || next < mNextSequence.get()) {
+                int batch = 0;
+                while (batch < MAX_BATCH) {
+                    int slot = (int) (next & RING_MASK);
+                    if (mPublished.get(slot) != next + 1) break;
+                    write(next, slot);
+                    next++;
+                    batch++;
+                }
+                if (batch > 0) {
+                    mWrittenSequence = next;
+                } else {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Journal writer stopped: " + e.getMessage());
+            // Let the producers carry on without a journal
+            mWrittenSequence = Long.MAX_VALUE / 2;
+        }
+    }
+
+    /**
+     * Copy the record of the specified ring slot to the file.
+     *
+     * @param sequence The position of the record in the journal.
+     * @param slot     The slot of the ring that holds the record.
+     * @throws IOException if a new segment cannot be mapped.
+     */
+    private void write(long sequence, int slot) throws IOException {
+        long segmentIndex = sequence / SEGMENT_RECORDS;
+        if (segmentIndex != mSegmentIndex) {
+            mSegment = mChannel.map(FileChannel.MapMode.READ_WRITE,
+                    mHeaderLength + segmentIndex * SEGMENT_RECORDS * RECORD_SIZE,
+                    (long) SEGMENT_RECORDS * RECORD_SIZE);
+            mSegment.order(ByteOrder.LITTLE_ENDIAN);
+            mSegmentIndex = segmentIndex;
+        }
+        mSegment.putLong(mTimes[slot])
+                .putInt(mPresentIds[slot])
+                .putInt(mSources[slot])
+                .putInt(mTargets[slot])
+                .putShort(mTypes[slot])
+                .putShort((short) 0);
+    }
+}
@@ -0,0 +1,99 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Command line tool that measures the throughput a machine loses to faults ({@link FaultInjector}),
+ * with and without rerouting around them ({@link Turntable#setRerouteAfter}).
+ * <p>
+ * Usage: {@code FaultBenchmark [presents] [faults]}
+ * <p>
+ * Turntable A takes the presents of the hopper and passes them on to B, or to C if B's belt is avoided.
+ * Both lead to turntable D and its sack. By default, B halts for a while. The machine runs without faults,
+ * with the faults, and with the faults and rerouting after {@link #REROUTE_AFTER} ms. Every run is made as
+ * described in {@link LayoutBenchmark}. The throughput is reported in presents per simulated second, overall and
+ * while the machine was degraded, along with the presents lost to the faults and the presents rerouted.
+ *
+ * @author anonymous
+ */
+public class FaultBenchmark {
+
+    private static final int DEFAULT_PRESENTS = 200;
+    private static final String DEFAULT_FAULTS = "halt:B@50+100";
+    private static final long REROUTE_AFTER = 2000L;
+    private static final int BELT_LENGTH = 8;
+    private static final String[] RUNS = {"healthy", "faults", "faults+reroute"};
+
+    /**
+     * @param args Optionally, the number of presents and the faults to inject.
+     * @throws InterruptedException if the thread gets interrupted while a machine runs.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int presents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRESENTS;
+        String faults = args.length > 1 ? args[1] : DEFAULT_FAULTS;
+
+        System.out.println("engine,run,simulated_s,presents_per_simulated_s,degraded_per_simulated_s,lost,rerouted");
+        for (int workers : LayoutBenchmark.ENGINES) {
+            for (int run = 0; run < RUNS.length; run++) {
+                String runFaults = run == 0 ? null : faults;
+                long rerouteAfter = run == 2 ? REROUTE_AFTER : 0;
+                Machine machine = LayoutBenchmark.run(() -> build(presents, runFaults, rerouteAfter, workers),
+                        presents, "in the " + RUNS[run] + " run");
+                double seconds = LayoutBenchmark.getSimulatedSeconds(machine);
+                FaultInjector injector = machine.getFaultInjector();
+                long rerouted = 0;
+                for (Turntable table : machine.getScenario().getTables()) {
+                    rerouted += table.getNumberOfPresentsRerouted();
+                }
+                System.out.printf("%s,%s,%.1f,%.2f,%.2f,%d,%d%n", LayoutBenchmark.getEngine(workers),
+                        RUNS[run], seconds, presents / seconds,
+                        injector == null ? presents / seconds : injector.getDegradedThroughput(),
+                        injector == null ? 0 : injector.getPresentsLost(), rerouted);
+            }
+        }
+    }
+
+    /**
+     * Build the machine with two paths.
+     *
+     * @param presents     The number of presents of the hopper.
+     * @param faults       The faults to inject, or null for none.
+     * @param rerouteAfter The time a belt may stay full before it gets avoided, or 0 to always wait for it.
+     * @param workers      The number of threads of the pool scheduler, or 0 for a thread per turntable.
+     * @return A machine ready to be started.
+     */
+    @NotNull
+    private static Machine build(int presents, String faults, long rerouteAfter, int workers) {
+        MachineBuilder builder = new MachineBuilder()
+                .belt(1, BELT_LENGTH, 1)
+                .belt(2, BELT_LENGTH, 1)
+                .belt(3, BELT_LENGTH, 1)
+                .belt(4, BELT_LENGTH, 1)
+                .belt(5, BELT_LENGTH, 1)
+                .hopper(1, 1, presents, LayoutBenchmark.HOPPER_SPEED)
+                .sack(1, presents, "0-3")
+                .turntable("A")
+                .connect("A", Turntable.W, ConnectionType.InputBelt, 1)
+                .connect("A", Turntable.N, ConnectionType.OutputBelt, 2)
+                .connect("A", Turntable.E, ConnectionType.OutputBelt, 3)
+                .turntable("B")
+                .connect("B", Turntable.W, ConnectionType.InputBelt, 2)
+                .connect("B", Turntable.E, ConnectionType.OutputBelt, 4)
+                .turntable("C")
+                .connect("C", Turntable.W, ConnectionType.InputBelt, 3)
+                .connect("C", Turntable.E, ConnectionType.OutputBelt, 5)
+                .turntable("D")
+                .connect("D", Turntable.W, ConnectionType.InputBelt, 4)
+                .connect("D", Turntable.N, ConnectionType.InputBelt, 5)
+                .connect("D", Turntable.S, ConnectionType.OutputSack, 1)
+                .rerouteAfter(rerouteAfter)
+                .timeSource(LayoutBenchmark.CLOCK);
+        if (faults != null) builder.faults(faults);
+        String[] ages = new String[presents];
+        Arrays.fill(ages, "0-3");
+        if (workers > 0) builder.scheduler(workers);
+        return builder.presents(1, ages).build();
+    }
+}
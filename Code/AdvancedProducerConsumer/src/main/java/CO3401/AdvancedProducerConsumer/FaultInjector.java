@@ -0,0 +1,318 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Injects faults into a running machine for a window of simulated time each, and measures
+ * the throughput of the machine while it is degraded.
+ * <p> - {@code jam:<belt>@<start>+<duration>}: the belt neither accepts nor hands over presents
+ * ({@link Conveyor#setJammed}).
+ * <p> - {@code halt:<turntable>@<start>+<duration>}: the turntable stops taking presents ({@link Turntable#setHalted}).
+ * <p> - {@code slow:<hopper>@<start>+<duration>x<factor>}: the intervals of the hopper get stretched by the factor
+ * ({@link Hopper#setSlowdown}).
+ * <p>
+ * Faults are separated by commas, and their start and duration are given in simulated seconds from the start
+ * of the machine, e.g. {@code jam:3@20+30,slow:1@60+20x4}. Without any delays, they are real seconds.
+ * Faults of the same component may overlap: it stays jammed or halted till the last of them ends, and a hopper
+ * is slowed down by the largest factor active. The machine is degraded while any fault is active. The presents reaching the sacks are counted separately
+ * while it is and while it is not, thus the report compares the two throughputs and estimates the presents
+ * the faults cost. Turntables that reroute ({@link Turntable#setRerouteAfter}) can send presents around
+ * a jammed belt or a halted turntable, where the layout offers another path.
+ *
+ * @author anonymous
+ */
+public class FaultInjector extends Thread {
+
+    public static final String JAM = "jam";
+    public static final String HALT = "halt";
+    public static final String SLOW = "slow";
+    private static final char FAULT_SEPARATOR = ',';
+    private static final char TARGET_SEPARATOR = ':';
+    private static final char START_SEPARATOR = '@';
+    private static final char DURATION_SEPARATOR = '+';
+    private static final char FACTOR_SEPARATOR = 'x';
+
+    private final String mDescription;
+    private final Fault[] mFaults;
+    private final Sack[] mSacks;
+    private final Turntable[] mTables;
+    private final TimeSource mTimeSource;
+    // The times (System.nanoTime) the machine started and the counters were last brought up to date
+    private long mStartNanos;
+    private long mLastNanos;
+    private int mLastSorted;
+    // The number of faults currently active, in all and per component (see Fault#mTarget)
+    private int mActive;
+    private final int[] mTargetActive;
+    // Time (ns) and presents sorted while no fault / some fault was active
+    private long mHealthyNanos;
+    private long mHealthyPresents;
+    private long mDegradedNanos;
+    private long mDegradedPresents;
+
+    /**
+     * Public Constructor. Parse the faults and find their targets.
+     *
+     * @param faults     The faults, in the format described above.
+     * @param scenario   The machine the faults get injected into.
+     * @param timeSource The clock of the machine.
+     * @throws IllegalArgumentException if a fault is not valid or its target does not exist.
+     */
+    public FaultInjector(@NotNull String faults, @NotNull Scenario scenario, @NotNull TimeSource timeSource) {
+        super("Fault injector");
+        setDaemon(true);
+        mDescription = faults;
+        mSacks = scenario.getSacks();
+        mTables = scenario.getTables();
+        mTimeSource = timeSource;
+        String[] parts = faults.split(String.valueOf(FAULT_SEPARATOR));
+        mFaults = new Fault[parts.length];
+        mTargetActive = new int[parts.length];
+        for (int f = 0; f < parts.length; f++) {
+            Fault fault = parse(parts[f].trim(), scenario);
+            fault.mTarget = f;
+            for (int g = 0; g < f; g++) {
+                Fault other = mFaults[g];
+                if (other.mBelt == fault.mBelt && other.mTable == fault.mTable && other.mHopper == fault.mHopper) {
+                    fault.mTarget = other.mTarget;
+                    break;
+                }
+            }
+            mFaults[f] = fault;
+        }
+    }
+
+    /**
+     * Parse a single fault.
+     *
+     * @param text     The fault, e.g. {@code halt:B@40+10}.
+     * @param scenario The machine the fault gets injected into.
+     * @return The fault with its target.
+     * @throws IllegalArgumentException if the fault is not valid or its target does not exist.
+     */
+    @NotNull
+    private static Fault parse(@NotNull String text, @NotNull Scenario scenario) {
+        int target = text.indexOf(TARGET_SEPARATOR);
+        int start = text.indexOf(START_SEPARATOR);
+        int duration = text.indexOf(DURATION_SEPARATOR);
+        if (target < 0 || start < target || duration < start) {
+            throw new IllegalArgumentException("Unknown fault " + text);
+        }
+        String kind = text.substring(0, target);
+        String id = text.substring(target + 1, start);
+        int factor = SLOW.equals(kind) ? text.indexOf(FACTOR_SEPARATOR, duration) : -1;
+        Fault fault = new Fault();
+        try {
+            fault.mStartMillis = (long) (Double.parseDouble(text.substring(start + 1, duration)) * 1000);
+            fault.mDurationMillis = (long) (Double.parseDouble(
+                    text.substring(duration + 1, factor < 0 ? text.length() : factor)) * 1000);
+            if (factor >= 0) fault.mFactor = Double.parseDouble(text.substring(factor + 1));
+            if (JAM.equals(kind)) {
+                fault.mBelt = find(scenario.getBelts(), Integer.parseInt(id));
+            } else if (HALT.equals(kind)) {
+                for (Turntable table : scenario.getTables()) {
+                    if (table.getTurntableId().equals(id)) fault.mTable = table;
+                }
+                if (fault.mTable == null) throw new IllegalArgumentException("Unknown turntable " + id);
+            } else if (SLOW.equals(kind)) {
+                for (Hopper hopper : scenario.getHoppers()) {
+                    if (hopper.getIdentifier() == Integer.parseInt(id)) fault.mHopper = hopper;
+                }
+                if (fault.mHopper == null) throw new IllegalArgumentException("Unknown hopper " + id);
+                if (factor < 0 || fault.mFactor < 1.0) {
+                    throw new IllegalArgumentException("Fault " + text + " needs a slowdown factor of at least 1");
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown fault " + text);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown fault " + text);
+        }
+        if (fault.mStartMillis < 0 || fault.mDurationMillis <= 0) {
+            throw new IllegalArgumentException("Fault " + text + " needs a start of at least 0 and a duration above 0");
+        }
+        return fault;
+    }
+
+    @NotNull
+    private static Conveyor find(@NotNull Conveyor[] belts, int id) {
+        for (Conveyor belt : belts) {
+            if (belt.getId() == id) return belt;
+        }
+        throw new IllegalArgumentException("Unknown belt " + id);
+    }
+
+    /**
+     * Start the clock of the faults along with the machine. Invoked by {@link Machine#start()}.
+     */
+    @Override
+    public synchronized void start() {
+        mStartNanos = System.nanoTime();
+        mLastNanos = mStartNanos;
+        super.start();
+    }
+
+    /**
+     * Invoked after {@link Thread#start} gets called.
+     * Sleeps till the start or the end of the next fault, and applies it.
+     */
+    @Override
+    public void run() {
+        // Every fault begins and ends once: the even events begin a fault, the odd ones end it
+        long[] times = new long[2 * mFaults.length];
+        for (int f = 0; f < mFaults.length; f++) {
+            times[2 * f] = mFaults[f].mStartMillis;
+            times[2 * f + 1] = mFaults[f].mStartMillis + mFaults[f].mDurationMillis;
+        }
+        Integer[] events = new Integer[times.length];
+        for (int e = 0; e < events.length; e++) events[e] = e;
+        Arrays.sort(events, (a, b) -> Long.compare(times[a], times[b]));
+
+        for (Integer event : events) {
+            long deadline = mStartNanos + mTimeSource.toRealNanos(times[event]);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) return;
+            }
+            apply(mFaults[event / 2], event % 2 == 0);
+        }
+    }
+
+    /**
+     * Begin or end the specified fault, after counting the presents sorted since the last change.
+     * A component only recovers once none of its faults is active.
+     */
+    private synchronized void apply(@NotNull Fault fault, boolean active) {
+        account(System.nanoTime());
+        fault.mActive = active;
+        int targetActive = mTargetActive[fault.mTarget] += active ? 1 : -1;
+        if (fault.mBelt != null) fault.mBelt.setJammed(targetActive > 0);
+        if (fault.mTable != null) fault.mTable.setHalted(targetActive > 0);
+        if (fault.mHopper != null) fault.mHopper.setSlowdown(getSlowdown(fault.mTarget));
+        mActive += active ? 1 : -1;
+    }
+
+    /**
+     * Access the largest factor of the active slowdowns of a hopper.
+     *
+     * @param target The component index of the hopper's faults (see Fault#mTarget).
+     * @return The factor, 1.0 if none of them is active.
+     */
+    private double getSlowdown(int target) {
+        double factor = 1.0;
+        for (Fault fault : mFaults) {
+            if (fault.mTarget == target && fault.mActive) factor = Math.max(factor, fault.mFactor);
+        }
+        return factor;
+    }
+
+    /**
+     * Add the time and the presents sorted since the last change to the healthy or the degraded counters.
+     *
+     * @param now The current time (System.nanoTime).
+     */
+    private void account(long now) {
+        int sorted = 0;
+        for (Sack sack : mSacks) sorted += sack.getTotalNumberOfPresents();
+        if (mActive > 0) {
+            mDegradedNanos += now - mLastNanos;
+            mDegradedPresents += sorted - mLastSorted;
+        } else {
+            mHealthyNanos += now - mLastNanos;
+            mHealthyPresents += sorted - mLastSorted;
+        }
+        mLastNanos = now;
+        mLastSorted = sorted;
+    }
+
+    /**
+     * Stop injecting faults and clear the active ones. Invoked once the machine has completed shutdown.
+     */
+    public void finish() {
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException ignored) {
+        }
+        synchronized (this) {
+            account(System.nanoTime());
+            for (Fault fault : mFaults) {
+                if (fault.mBelt != null) fault.mBelt.setJammed(false);
+                if (fault.mTable != null) fault.mTable.setHalted(false);
+                if (fault.mHopper != null) fault.mHopper.setSlowdown(1.0);
+                fault.mActive = false;
+            }
+            mActive = 0;
+            Arrays.fill(mTargetActive, 0);
+        }
+    }
+
+    /**
+     * Access the throughput of the machine while any fault was active.
+     *
+     * @return The presents sorted per simulated second, 0 if no fault has begun.
+     */
+    public synchronized double getDegradedThroughput() {
+        return perSimulatedSecond(mDegradedPresents, mDegradedNanos);
+    }
+
+    /**
+     * Access the throughput of the machine while no fault was active.
+     *
+     * @return The presents sorted per simulated second.
+     */
+    public synchronized double getHealthyThroughput() {
+        return perSimulatedSecond(mHealthyPresents, mHealthyNanos);
+    }
+
+    /**
+     * Estimate the presents the faults cost, as the presents the machine would have sorted at its healthy
+     * throughput while it was degraded, minus the ones it did sort.
+     *
+     * @return The number of presents, 0 if the machine was not slower while it was degraded.
+     */
+    public synchronized long getPresentsLost() {
+        double expected = getHealthyThroughput() * mDegradedNanos / mTimeSource.toRealNanos(1000);
+        return Math.max(Math.round(expected) - mDegradedPresents, 0);
+    }
+
+    private double perSimulatedSecond(long presents, long nanos) {
+        return nanos == 0 ? 0.0 : presents * (double) mTimeSource.toRealNanos(1000) / nanos;
+    }
+
+    /**
+     * Output the faults, the time the machine was degraded for, the throughput while it was and while it was not,
+     * the presents the faults cost and the presents the turntables rerouted.
+     */
+    public synchronized void printReport() {
+        long second = mTimeSource.toRealNanos(1000);
+        long rerouted = 0;
+        for (Turntable table : mTables) rerouted += table.getNumberOfPresentsRerouted();
+        System.out.println("\nFaults: " + mDescription);
+        System.out.printf("Degraded for %.1fs of %.1fs; throughput %.2f presents/s degraded, %.2f presents/s healthy.%n",
+                (double) mDegradedNanos / second, (double) (mDegradedNanos + mHealthyNanos) / second,
+                getDegradedThroughput(), getHealthyThroughput());
+        System.out.println("About " + getPresentsLost() + " presents lost to the faults; "
+                + rerouted + " presents rerouted.");
+    }
+
+    /**
+     * A fault of a single component.
+     */
+    private static class Fault {
+        // The target, exactly one of them is set
+        private Conveyor mBelt;
+        private Turntable mTable;
+        private Hopper mHopper;
+        private long mStartMillis;
+        private long mDurationMillis;
+        private double mFactor = 1.0;
+        // Index of the first fault of the same component, which counts the active faults of the component
+        private int mTarget;
+        private boolean mActive;
+    }
+}
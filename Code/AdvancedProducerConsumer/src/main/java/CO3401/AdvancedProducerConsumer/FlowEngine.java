@@ -0,0 +1,564 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Alternative engine of the Present sorting machine, where no thread ever blocks on a semaphore.
+ * The machine is wired as a pipeline of {@link PresentFlow} stages, built from the same {@link Scenario}:
+ * <p> - every {@link Hopper} is a publisher, that places a present on its belt at its speed, but only
+ * while the belt has asked for more (it counts the time it waits for demand as waiting time).
+ * <p> - every {@link Conveyor} is a bounded processor, that asks its producer for as many presents as it
+ * has free slots, and hands its front present to its turntable whenever the turntable asks for one.
+ * <p> - every {@link Turntable} asks the input belt of the highest priority for one present, routes it with
+ * {@link Turntable#findOutputConnection} and hands it over once its output has room for it.
+ * <p> - every {@link Sack} is a terminal subscriber with unbounded demand.
+ * <p>
+ * The simulated hopper intervals, rotations and movements are timed tasks on a small pool of
+ * worker threads, so the number of threads does not depend on the size of the layout.
+ * Tracing, journaling, checkpoints and the rate controllers are not supported by this engine.
+ *
+ * @author anonymous
+ */
+public class FlowEngine {
+
+    private static final long REPORT_INTERVAL = 10000L;
+
+    private final Scenario mScenario;
+    private final ScheduledThreadPoolExecutor mWorkers;
+    private final HopperPublisher[] mHoppers;
+    private final TurntableStage[] mTables;
+    private final CountDownLatch mRunningTables;
+    private final TimeSource mTimeSource;
+
+    /**
+     * Public Constructor. Create a stage for every component of the scenario
+     * and subscribe every stage to the stages upstream of it.
+     *
+     * @param scenario   The machine to be run. Its hoppers must have been filled.
+     * @param workers    The number of worker threads.
+     * @param timeSource The clock the simulated delays are measured against.
+     */
+    public FlowEngine(@NotNull Scenario scenario, int workers, @NotNull TimeSource timeSource) {
+        mScenario = scenario;
+        mTimeSource = timeSource;
+        mWorkers = new ScheduledThreadPoolExecutor(workers, runnable -> {
+            Thread worker = new Thread(runnable, "flow-worker");
+            worker.setDaemon(true);
+            return worker;
+        });
+
+        IdentityHashMap<Conveyor, BeltStage> beltStages = new IdentityHashMap<>();
+        for (Conveyor belt : scenario.getBelts()) {
+            beltStages.put(belt, new BeltStage(belt));
+        }
+        IdentityHashMap<Sack, SackSubscriber> sackSubscribers = new IdentityHashMap<>();
+        for (Sack sack : scenario.getSacks()) {
+            sackSubscribers.put(sack, new SackSubscriber(sack));
+        }
+
+        Hopper[] hoppers = scenario.getHoppers();
+        mHoppers = new HopperPublisher[hoppers.length];
+        for (int h = 0; h < hoppers.length; h++) {
+            mHoppers[h] = new HopperPublisher(hoppers[h]);
+            mHoppers[h].subscribe(beltStages.get(hoppers[h].getBelt()));
+        }
+
+        Turntable[] tables = scenario.getTables();
+        mTables = new TurntableStage[tables.length];
+        mRunningTables = new CountDownLatch(tables.length);
+        for (int t = 0; t < tables.length; t++) {
+            mTables[t] = new TurntableStage(tables[t]);
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                Connection connection = tables[t].getConnection(port);
+                if (connection == null) continue;
+                switch (connection.getConnType()) {
+                    case InputBelt:
+                        beltStages.get(connection.getBelt()).subscribe(mTables[t].mInputs[port]);
+                        break;
+                    case OutputBelt:
+                        mTables[t].mOutputs[port].subscribe(beltStages.get(connection.getBelt()));
+                        break;
+                    case OutputSack:
+                        mTables[t].mOutputs[port].subscribe(sackSubscribers.get(connection.getSack()));
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the machine for the length of the timer of the scenario, output reports
+     * every 10 seconds (or, if no delay takes any time, run until the hoppers are empty), then stop the hoppers, wait for the turntables to sort
+     * the presents left on the belts and output the final report.
+     *
+     * @param fileName The path of the configuration file (for the final report).
+     */
+    public void run(@NotNull String fileName) {
+        for (TurntableStage table : mTables) {
+            table.start();
+        }
+        for (HopperPublisher hopper : mHoppers) {
+            hopper.start();
+        }
+
+        long time = 0;
+        long startTime = System.currentTimeMillis();
+        long startCpu = MyClass.processCpuTime();
+        System.out.println("*** Machine Started (flow engine) ***");
+        if (mTimeSource.isZero()) {
+            MyClass.awaitEmptyHoppers(mScenario.getHoppers());
+        }
+        while (!mTimeSource.isZero() && time < mScenario.getTimerLength()) {
+            try {
+                mTimeSource.sleep(REPORT_INTERVAL);
+            } catch (InterruptedException ignored) {
+            }
+            time = mTimeSource.toSimulatedSeconds(System.currentTimeMillis() - startTime);
+            MyClass.printInterimReport(time, mScenario.getHoppers(), mScenario.getBelts(), mScenario.getSacks());
+        }
+
+        // Time is up
+        for (HopperPublisher hopper : mHoppers) {
+            hopper.stop();
+        }
+        long endTime = System.currentTimeMillis();
+        System.out.println("*** Input Stopped after " + (endTime - startTime) / 1000 + "s. ***");
+
+        try {
+            mRunningTables.await();
+        } catch (InterruptedException ignored) {
+        }
+        mWorkers.shutdown();
+        endTime = System.currentTimeMillis();
+        System.out.println("*** Machine completed shutdown after " + (endTime - startTime) / 1000 + "s. ***");
+
+        MyClass.printFinalReport(fileName, endTime - startTime, MyClass.processCpuTime() - startCpu,
+                mScenario.getHoppers(), mScenario.getBelts(), mScenario.getSacks());
+    }
+
+    /**
+     * Run a task on a worker thread once the specified simulated delay has passed.
+     *
+     * @param task        The next step of a stage.
+     * @param delayMillis The modelled delay in milliseconds.
+     */
+    private void schedule(@NotNull Runnable task, long delayMillis) {
+        HashedWheelTimer timer = mTimeSource.getTimer();
+        if (timer != null) {
+            timer.schedule(() -> mWorkers.execute(task), mTimeSource.toNanos(delayMillis));
+            return;
+        }
+        mWorkers.schedule(task, mTimeSource.toNanos(delayMillis), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Publishes the presents of a hopper, one per interval, as long as its belt has demand.
+     */
+    private class HopperPublisher implements PresentFlow.Publisher<Present>, PresentFlow.Subscription {
+
+        private final Hopper mHopper;
+        private final long mInterval;
+        private PresentFlow.Subscriber<? super Present> mBelt;
+        private long mDemand;
+        // The time the hopper started waiting for demand, or -1 if it is not waiting
+        private long mWaitingSince = -1;
+        private boolean mStopped;
+
+        HopperPublisher(@NotNull Hopper hopper) {
+            mHopper = hopper;
+            mInterval = Hopper.DEFAULT_INTERVAL_TIME / hopper.getSpeed();
+        }
+
+        @Override
+        public void subscribe(PresentFlow.Subscriber<? super Present> subscriber) {
+            mBelt = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            if (resume(n)) mWorkers.execute(this::emit);
+        }
+
+        /**
+         * Place the first present.
+         */
+        void start() {
+            mWorkers.execute(this::emit);
+        }
+
+        /**
+         * Stop placing presents, as the timer has run out.
+         */
+        void stop() {
+            boolean resume;
+            synchronized (this) {
+                mStopped = true;
+                resume = resume(0);
+            }
+            if (resume) mWorkers.execute(this::emit);
+        }
+
+        /**
+         * Add demand and end the wait of a hopper that ran out of demand.
+         *
+         * @return True if the hopper was waiting and must be resumed.
+         */
+        private synchronized boolean resume(long n) {
+            mDemand += n;
+            if (mWaitingSince < 0) return false;
+            mHopper.addWaitingTime(System.currentTimeMillis() - mWaitingSince);
+            mWaitingSince = -1;
+            return true;
+        }
+
+        /**
+         * Place the next present, or complete the belt if the hopper is empty or stopped.
+         */
+        private void emit() {
+            Present present = null;
+            synchronized (this) {
+                if (!mStopped && !mHopper.getPresents().isEmpty()) {
+                    if (mDemand == 0) {
+                        // The belt is full, wait for it to ask for more
+                        mWaitingSince = System.currentTimeMillis();
+                        return;
+                    }
+                    mDemand--;
+                    present = mHopper.getPresents().get();
+                }
+            }
+            if (present == null) {
+                mBelt.onComplete();
+                return;
+            }
+            mBelt.onNext(present);
+            schedule(this::emit, mInterval);
+        }
+    }
+
+    /**
+     * A belt of fixed capacity between a producer (hopper or turntable) and a turntable.
+     * Presents are stored in the {@link Conveyor} itself, so that the reports see them.
+     * Signals to the turntable are serialised by a work-in-progress counter instead of a lock,
+     * so that no lock is held while the turntable or the producer is being signalled.
+     */
+    private static class BeltStage implements PresentFlow.Subscriber<Present>, PresentFlow.Publisher<Present>,
+            PresentFlow.Subscription {
+
+        private final Conveyor mBelt;
+        private final AtomicLong mDemand = new AtomicLong();
+        private final AtomicInteger mWorkInProgress = new AtomicInteger();
+        private PresentFlow.Subscription mUpstream;
+        private PresentFlow.Subscriber<? super Present> mDownstream;
+        private volatile boolean mUpstreamDone;
+        private boolean mCompleted; // Only accessed by the thread that runs drain()
+
+        BeltStage(@NotNull Conveyor belt) {
+            mBelt = belt;
+        }
+
+        @Override
+        public void onSubscribe(PresentFlow.Subscription subscription) {
+            mUpstream = subscription;
+            // Ask for as many presents as the belt has free slots
+            subscription.request(mBelt.getPresents().getCapacity() - mBelt.getNumberOfPresents());
+        }
+
+        @Override
+        public void onNext(Present present) {
+            mBelt.getPresents().add(present);
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            mUpstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void subscribe(PresentFlow.Subscriber<? super Present> subscriber) {
+            mDownstream = subscriber;
+            subscriber.onSubscribe(this);
+        }
+
+        @Override
+        public void request(long n) {
+            mDemand.addAndGet(n);
+            drain();
+        }
+
+        /**
+         * Hand presents to the turntable while it has demand, give the freed slots back
+         * to the producer and complete the turntable once the belt is empty for good.
+         * Only one thread runs the loop, the others leave a note for it to go round again.
+         */
+        private void drain() {
+            if (mDownstream == null || mWorkInProgress.getAndIncrement() != 0) return;
+            int missed = 1;
+            do {
+                int handedOver = 0;
+                while (mDemand.get() > 0 && !mBelt.isEmpty()) {
+                    mDemand.decrementAndGet();
+                    handedOver++;
+                    mDownstream.onNext(mBelt.getPresents().get());
+                }
+                if (handedOver > 0 && !mUpstreamDone) {
+                    mUpstream.request(handedOver);
+                }
+                if (mUpstreamDone && mBelt.isEmpty() && !mCompleted) {
+                    mCompleted = true;
+                    mDownstream.onComplete();
+                }
+                missed = mWorkInProgress.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * Fills a sack with every present it is handed. A sack may be reached from several
+     * turntables, so it accepts several subscriptions, and the sack itself keeps them apart.
+     * It never waits for a sack replacement: the turntables add it to their next delay ({@link #deposit}).
+     */
+    private static class SackSubscriber implements PresentFlow.Subscriber<Present> {
+
+        private final Sack mSack;
+
+        SackSubscriber(@NotNull Sack sack) {
+            mSack = sack;
+        }
+
+        @Override
+        public void onSubscribe(PresentFlow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(Present present) {
+            deposit(present);
+        }
+
+        /**
+         * Same as {@link #onNext}, but tells whether the sack had to be replaced first.
+         *
+         * @return True if the caller has to wait for the replacement. Otherwise, false.
+         */
+        boolean deposit(@NotNull Present present) {
+            return mSack.depositPresent(present);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Moves one present at a time from its input belts to its output belts and sacks.
+     * One cycle: face the chosen input belt and ask it for a present, move the present on,
+     * face its output, hand it over as soon as the output has demand, move it off.
+     * Each step is a timed task, and the state shared with the signals of the belts
+     * is guarded by the stage's monitor, which is never held while signalling.
+     */
+    private class TurntableStage {
+
+        private final Turntable mTable;
+        private final InputPort[] mInputs = new InputPort[4];
+        private final OutputPort[] mOutputs = new OutputPort[4];
+        // The input asked for a present, or null if the turntable is not waiting for one
+        private InputPort mRequestedInput;
+        // A present that waits for its output belt to have room
+        private Present mPendingPresent;
+        private OutputPort mPendingOutput;
+
+        TurntableStage(@NotNull Turntable table) {
+            mTable = table;
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                Connection connection = table.getConnection(port);
+                if (connection == null) continue;
+                if (connection.getConnType() == ConnectionType.InputBelt) {
+                    mInputs[port] = new InputPort(port, connection.getBelt());
+                } else {
+                    mOutputs[port] = new OutputPort();
+                }
+            }
+        }
+
+        /**
+         * Face the first input belt without losing time, as in {@link Turntable#run},
+         * and start the first cycle.
+         */
+        void start() {
+            for (InputPort input : mInputs) {
+                if (input != null) {
+                    mTable.turnTo(input.mPort);
+                    break;
+                }
+            }
+            selectInput();
+        }
+
+        /**
+         * Pick the fullest input belt that may still deliver presents (the one of a hopper if
+         * they are equally full), face it and ask it for a present. Finish if there is none.
+         */
+        private void selectInput() {
+            InputPort selected = null;
+            synchronized (this) {
+                for (InputPort input : mInputs) {
+                    if (input == null || input.mDone) continue;
+                    if (selected == null || input.hasPriorityOver(selected)) selected = input;
+                }
+                mRequestedInput = selected;
+            }
+            if (selected == null) {
+                finish();
+                return;
+            }
+            final InputPort input = selected;
+            schedule(() -> input.mUpstream.request(1), mTable.turnTo(input.mPort));
+        }
+
+        /**
+         * Face the output of a present that has been moved onto the turntable.
+         */
+        private void route(@NotNull Present present) {
+            Connection output = mTable.findOutputConnection(present);
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                if (mTable.getConnection(port) == output) {
+                    final OutputPort outputPort = mOutputs[port];
+                    schedule(() -> deliver(present, outputPort), mTable.turnTo(port));
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Hand the present over if its output has demand, otherwise hold it till the output asks for it.
+         */
+        private void deliver(@NotNull Present present, @NotNull OutputPort output) {
+            synchronized (this) {
+                if (output.mDemand == 0) {
+                    mPendingPresent = present;
+                    mPendingOutput = output;
+                    return;
+                }
+                output.mDemand--;
+            }
+            handOver(present, output);
+        }
+
+        private void handOver(@NotNull Present present, @NotNull OutputPort output) {
+            long delay = Turntable.PRESENT_MOVEMENT;
+            if (output.mSubscriber instanceof SackSubscriber) {
+                // Wait for the elf as part of the next delay, rather than on the worker
+                if (((SackSubscriber) output.mSubscriber).deposit(present)) delay += Sack.REPLACING_SACK;
+            } else {
+                output.mSubscriber.onNext(present);
+            }
+            mTable.recordPresentMoved();
+            schedule(this::selectInput, delay);
+        }
+
+        /**
+         * Complete every output, as no more presents will pass the turntable.
+         */
+        private void finish() {
+            for (OutputPort output : mOutputs) {
+                if (output != null && output.mSubscriber != null) output.mSubscriber.onComplete();
+            }
+            mRunningTables.countDown();
+        }
+
+        /**
+         * Receives the presents of an input belt.
+         */
+        private class InputPort implements PresentFlow.Subscriber<Present> {
+
+            private final int mPort;
+            private final Conveyor mBelt;
+            private PresentFlow.Subscription mUpstream;
+            private boolean mDone; // Guarded by the turntable stage
+
+            InputPort(int port, @NotNull Conveyor belt) {
+                mPort = port;
+                mBelt = belt;
+            }
+
+            boolean hasPriorityOver(@NotNull InputPort other) {
+                // Express presents go first, whatever the occupancy of the belts
+                int priority = mBelt.getFrontPriority();
+                int otherPriority = other.mBelt.getFrontPriority();
+                if (priority != otherPriority && Math.max(priority, otherPriority) > Present.STANDARD) {
+                    return priority > otherPriority;
+                }
+                double ratio = mBelt.getTakenToAvailableSlotsRatio();
+                double otherRatio = other.mBelt.getTakenToAvailableSlotsRatio();
+                return ratio > otherRatio
+                        || (ratio == otherRatio && mBelt.isConnectedWithAHopper() && !other.mBelt.isConnectedWithAHopper());
+            }
+
+            @Override
+            public void onSubscribe(PresentFlow.Subscription subscription) {
+                mUpstream = subscription;
+            }
+
+            @Override
+            public void onNext(Present present) {
+                synchronized (TurntableStage.this) {
+                    mRequestedInput = null;
+                }
+                schedule(() -> route(present), Turntable.PRESENT_MOVEMENT);
+            }
+
+            @Override
+            public void onComplete() {
+                boolean reselect;
+                synchronized (TurntableStage.this) {
+                    mDone = true;
+                    // The belt will never deliver the present the turntable is waiting for
+                    reselect = mRequestedInput == this;
+                    if (reselect) mRequestedInput = null;
+                }
+                if (reselect) selectInput();
+            }
+        }
+
+        /**
+         * Sends presents to an output belt or sack, as much as it asks for.
+         */
+        private class OutputPort implements PresentFlow.Publisher<Present>, PresentFlow.Subscription {
+
+            private PresentFlow.Subscriber<? super Present> mSubscriber;
+            private long mDemand; // Guarded by the turntable stage
+
+            @Override
+            public void subscribe(PresentFlow.Subscriber<? super Present> subscriber) {
+                mSubscriber = subscriber;
+                subscriber.onSubscribe(this);
+            }
+
+            @Override
+            public void request(long n) {
+                Present present = null;
+                synchronized (TurntableStage.this) {
+                    mDemand = mDemand + n < 0 ? Long.MAX_VALUE : mDemand + n;
+                    if (mPendingOutput == this) {
+                        mDemand--;
+                        present = mPendingPresent;
+                        mPendingPresent = null;
+                        mPendingOutput = null;
+                    }
+                }
+                if (present != null) handOver(present, this);
+            }
+        }
+    }
+}
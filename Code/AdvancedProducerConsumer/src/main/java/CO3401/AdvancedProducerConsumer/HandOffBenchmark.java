@@ -0,0 +1,147 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Command line tool that measures the cost of handing a present over a belt under each {@link WaitStrategy}.
+ * <p>
+ * Usage: {@code HandOffBenchmark [round trips] [strategy ...]}
+ * <p>
+ * Two threads play ping-pong with a present over two belts of length 1, without the simulated delays.
+ * One places the present as a hopper does (acquire the resources, add the present, release the resources)
+ * and takes it back as a turntable that delivers to a sack. The other passes it from one belt to the other
+ * as a turntable does (claim the present, claim a slot, move the present under both locks).
+ * Every hand-off therefore makes one thread wait for the other. For each strategy it reports:
+ * <p> - the mean hand-off latency (wall-clock time of the round trips divided by the hand-offs).
+ * <p> - the mean CPU time both threads spent per hand-off, which grows as the strategy spins instead of parking.
+ * <p>
+ * A tenth of the round trips is run first to warm the JIT up. Spinning strategies only pay off when both
+ * threads have a core of their own; on a single core the spinning thread delays the one it waits for.
+ *
+ * @author anonymous
+ */
+public class HandOffBenchmark {
+
+    private static final int DEFAULT_ROUND_TRIPS = 10000;
+    private static final int WARM_UP_DIVISOR = 10;
+    private static final double NANOS_PER_MICRO = 1000.0;
+    private static final long POLL = 5L; // as the turntables wait for a slot (ms)
+    private static final String[] DEFAULT_STRATEGIES = {
+            WaitStrategy.BLOCKING, WaitStrategy.SPIN_YIELD, WaitStrategy.SPIN_PARK, WaitStrategy.BUSY_SPIN};
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Results of the last measurement
+    private long mWallNanos;
+    private long mCpuNanos;
+
+    /**
+     * @param args Optionally, the number of round trips, followed by the strategies to measure
+     *             (in the format of {@link WaitStrategy#parse(String)}).
+     */
+    public static void main(String[] args) {
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROUND_TRIPS;
+        String[] strategies = DEFAULT_STRATEGIES;
+        if (args.length > 1) {
+            strategies = new String[args.length - 1];
+            System.arraycopy(args, 1, strategies, 0, strategies.length);
+        }
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + roundTrips + " round trips (" + 2 * roundTrips + " hand-offs) per strategy.");
+        System.out.printf("%-14s %18s %22s%n", "strategy", "hand-off (us)", "CPU per hand-off (us)");
+
+        HandOffBenchmark benchmark = new HandOffBenchmark();
+        for (String text : strategies) {
+            WaitStrategy strategy;
+            try {
+                strategy = WaitStrategy.parse(text);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                continue;
+            }
+            benchmark.measure(strategy, Math.max(1, roundTrips / WARM_UP_DIVISOR));
+            benchmark.measure(strategy, roundTrips);
+            long handOffs = 2L * roundTrips;
+            System.out.printf("%-14s %18.2f %22.2f%n", strategy,
+                    benchmark.mWallNanos / NANOS_PER_MICRO / handOffs,
+                    benchmark.mCpuNanos / NANOS_PER_MICRO / handOffs);
+        }
+    }
+
+    /**
+     * Play ping-pong over two new belts that use the specified strategy.
+     *
+     * @param strategy   How both threads wait for the belts.
+     * @param roundTrips The number of times the present goes there and back.
+     */
+    private void measure(@NotNull WaitStrategy strategy, int roundTrips) {
+        Conveyor there = new Conveyor(1, 1);
+        Conveyor back = new Conveyor(2, 1);
+        there.setWaitStrategy(strategy);
+        back.setWaitStrategy(strategy);
+        long[] pongCpuNanos = new long[1];
+        Thread pong = new Thread(() -> {
+            long start = THREADS.getCurrentThreadCpuTime();
+            for (int i = 0; i < roundTrips; i++) {
+                pass(there, back);
+            }
+            pongCpuNanos[0] = THREADS.getCurrentThreadCpuTime() - start;
+        }, "pong");
+        Present present = new Present(0, "0-3");
+
+        pong.start();
+        long startCpu = THREADS.getCurrentThreadCpuTime();
+        long startWall = System.nanoTime();
+        for (int i = 0; i < roundTrips; i++) {
+            put(there, present);
+            present = take(back);
+        }
+        mWallNanos = System.nanoTime() - startWall;
+        long pingCpuNanos = THREADS.getCurrentThreadCpuTime() - startCpu;
+        try {
+            pong.join();
+        } catch (InterruptedException ignored) {
+        }
+        mCpuNanos = pingCpuNanos + pongCpuNanos[0];
+    }
+
+    /**
+     * Place a present onto a belt, as a hopper or turntable would.
+     */
+    private static void put(@NotNull Conveyor belt, Present present) {
+        belt.acquireResourcesForPresentInsertion();
+        belt.getPresents().add(present);
+        belt.releaseResourcesForPresentInsertion();
+    }
+
+    /**
+     * Remove the present at the front of a belt, as a turntable that delivers to a sack would.
+     */
+    private static Present take(@NotNull Conveyor belt) {
+        belt.reservePresent();
+        belt.lock();
+        Present present = belt.getPresents().get();
+        belt.unlock();
+        belt.completeExtraction();
+        return present;
+    }
+
+    /**
+     * Move the present at the front of a belt onto another belt, as a turntable would.
+     */
+    private static void pass(@NotNull Conveyor from, @NotNull Conveyor to) {
+        from.reservePresent();
+        boolean isResumed = false;
+        while (!to.reserveSlot(POLL, isResumed)) {
+            isResumed = true;
+        }
+        Conveyor.lockInOrder(from, to);
+        to.movePresentFromOneConveyorToAnother(from.getPresents());
+        Conveyor.unlockInOrder(from, to);
+        from.completeExtraction();
+        to.completeInsertion();
+    }
+}
@@ -0,0 +1,204 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single thread that counts down the simulated delays of many components, as an alternative to
+ * every component sleeping on its own timer.
+ * <p>
+ * The time is split into ticks of equal length, and the wheel has a bucket for each of {@link #WHEEL_SIZE}
+ * consecutive ticks. A delay is hashed into the bucket of the tick it ends in, along with the number of turns
+ * of the wheel it still has to wait. At every tick the timer thread only looks at one bucket, so scheduling
+ * and expiring a delay cost the same however many delays are pending. Delays end at the first tick after
+ * their deadline, thus up to a tick late.
+ * <p> - {@link #schedule}: run a task (e.g. queue the next step of a turntable) once the delay is over.
+ * <p> - {@link #sleep}: park the calling thread until the delay is over, so that threads that sleep
+ * (e.g. hoppers) wait for the wheel instead of arming timers of their own.
+ * <p>
+ * The timer thread parks without a timeout while nothing is pending, so an idle wheel costs nothing.
+ * The clock of the machine ({@link TimeSource}) converts the simulated delays into the real time the wheel counts.
+ *
+ * @author anonymous
+ */
+public class HashedWheelTimer {
+
+    static final int WHEEL_SIZE = 512; // A power of 2, so that a tick is hashed with a mask
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private final long mTickNanos;
+    private final Timeout[] mWheel = new Timeout[WHEEL_SIZE];
+    // Delays scheduled by other threads, moved into the wheel by the timer thread at the next tick
+    private final ConcurrentLinkedQueue<Timeout> mAdded = new ConcurrentLinkedQueue<>();
+    // The number of delays scheduled and not expired yet
+    private final AtomicInteger mPending = new AtomicInteger();
+    private final Thread mThread;
+    private final long mStartNanos;
+    private volatile boolean mStopped;
+    // The number of ticks the timer thread has processed (only written by the timer thread)
+    private long mTick;
+
+    /**
+     * Public Constructor. Start the timer thread.
+     *
+     * @param tickNanos The length of a tick in nanoseconds, i.e. how late a delay may end.
+     * @throws IllegalArgumentException if the tick is not above 0.
+     */
+    public HashedWheelTimer(long tickNanos) {
+        if (tickNanos <= 0) throw new IllegalArgumentException("A timer needs a tick above 0 ns");
+        mTickNanos = tickNanos;
+        mStartNanos = System.nanoTime();
+        mThread = new Thread(this::run, "wheel-timer");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Run the specified task on the timer thread once the specified time has passed.
+     * The task should only hand the work over to another thread, as it holds up the other delays.
+     *
+     * @param task       The task to run.
+     * @param delayNanos The delay in nanoseconds. Tasks without a delay run straight away, on the calling thread.
+     */
+    public void schedule(@NotNull Runnable task, long delayNanos) {
+        if (delayNanos <= 0) {
+            task.run();
+            return;
+        }
+        add(new Timeout(task, null, System.nanoTime() + delayNanos));
+    }
+
+    /**
+     * Park the calling thread until the specified time has passed.
+     *
+     * @param delayNanos The delay in nanoseconds.
+     * @throws InterruptedException if the thread gets interrupted while waiting.
+     */
+    public void sleep(long delayNanos) throws InterruptedException {
+        if (delayNanos <= 0) return;
+        Timeout timeout = new Timeout(null, Thread.currentThread(), System.nanoTime() + delayNanos);
+        add(timeout);
+        while (!timeout.mExpired) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+    }
+
+    private void add(@NotNull Timeout timeout) {
+        mAdded.add(timeout);
+        // The timer thread may be parked without a timeout, as nothing was pending
+        if (mPending.getAndIncrement() == 0) LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Stop the timer thread. The delays still pending never end.
+     */
+    public void stop() {
+        mStopped = true;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Access the length of a tick.
+     *
+     * @return The tick in nanoseconds.
+     */
+    public long getTickNanos() {
+        return mTickNanos;
+    }
+
+    /**
+     * Body of the timer thread: wait for the end of the next tick, then expire the delays of its bucket.
+     */
+    private void run() {
+        while (!mStopped) {
+            if (mPending.get() == 0) {
+                LockSupport.park(this);
+                // Nothing was pending, so the ticks that passed meanwhile had nothing to expire
+                mTick = Math.max(mTick, (System.nanoTime() - mStartNanos) / mTickNanos);
+                continue;
+            }
+            long deadline = mStartNanos + (mTick + 1) * mTickNanos;
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && !mStopped) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            transferAdded();
+            expire(mWheel[(int) (mTick & MASK)]);
+            mTick++;
+        }
+    }
+
+    /**
+     * Hash the delays scheduled since the last tick into their buckets.
+     */
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = mAdded.poll()) != null) {
+            // The first tick that ends after the deadline, but not one that has been processed already
+            long tick = Math.max((timeout.mDeadline - mStartNanos + mTickNanos - 1) / mTickNanos - 1, mTick);
+            timeout.mRounds = (tick - mTick) / WHEEL_SIZE;
+            int bucket = (int) (tick & MASK);
+            timeout.mNext = mWheel[bucket];
+            mWheel[bucket] = timeout;
+        }
+    }
+
+    /**
+     * Expire the delays of the specified bucket that end in this turn of the wheel,
+     * and count down the turns of the others.
+     *
+     * @param head The first delay of the bucket of the current tick.
+     */
+    private void expire(Timeout head) {
+        int bucket = (int) (mTick & MASK);
+        mWheel[bucket] = null;
+        while (head != null) {
+            Timeout next = head.mNext;
+            if (head.mRounds > 0) {
+                head.mRounds--;
+                head.mNext = mWheel[bucket];
+                mWheel[bucket] = head;
+            } else {
+                head.mNext = null;
+                mPending.decrementAndGet();
+                head.expire();
+            }
+            head = next;
+        }
+    }
+
+    /**
+     * A scheduled delay, linked to the other delays of its bucket.
+     */
+    private static class Timeout {
+
+        private final Runnable mTask;
+        private final Thread mSleeper;
+        private final long mDeadline;
+        private long mRounds;
+        private Timeout mNext;
+        private volatile boolean mExpired;
+
+        Timeout(Runnable task, Thread sleeper, long deadline) {
+            mTask = task;
+            mSleeper = sleeper;
+            mDeadline = deadline;
+        }
+
+        /**
+         * Run the task or wake the sleeping thread up.
+         */
+        void expire() {
+            if (mTask != null) {
+                mTask.run();
+            } else {
+                mExpired = true;
+                LockSupport.unpark(mSleeper);
+            }
+        }
+    }
+}
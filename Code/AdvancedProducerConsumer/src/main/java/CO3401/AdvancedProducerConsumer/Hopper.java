@@ -43,19 +43,37 @@ public class Hopper extends Thread {
     public static final boolean TIMER_RUN_OUT = true;
     public static final boolean TIMER_RUNNING = false;
     private static final byte NONE = 0;
-    private static final long DEFAULT_INTERVAL_TIME = 1000L;
+    static final long DEFAULT_INTERVAL_TIME = 1000L;
     private final ArrayQueue<Present> mCollection;
     private final int mIdentifier;
     private final Conveyor mBelt;
-    private final int mSpeed;
+    // Volatile, as it can be changed while the hopper runs (see MachineMonitor)
+    private volatile int mSpeed;
     /**
      * All writes to the mTimerState variable,
      * will get immediately updated to all threads
      * {@link AtomicBoolean}.
      */
     private final AtomicBoolean mTimerState;
-    private long mTotalWaitingTime;
+    // Padded, as reporting threads read it while the hopper updates it (see MachineStatistics)
+    private final CounterCell mTotalWaitingTime = new CounterCell();
     private int mInitialNumberOfPresents;
+    // Records the time each present leaves the hopper (null when tracing is off)
+    private PresentTracer mTracer;
+    // Logs every present the hopper deposits (null when journaling is off)
+    private EventJournal mJournal;
+    // Makes each deposit atomic with respect to snapshots (null when checkpoints are off)
+    private MachineCheckpoint mCheckpoint;
+    // Adjusts the speed to the occupancy of the downstream belts (null for a fixed speed)
+    private HopperRateController mRateController;
+    // Measures the intervals between two presents (see TimeSource)
+    private TimeSource mTimeSource = TimeSource.REAL_TIME;
+    // Records the CPU and waiting time of the hopper's thread (null when accounting is off)
+    private ThreadAccounting mAccounting;
+    // Factor the intervals get stretched by while a fault slows the hopper down (see FaultInjector)
+    private volatile double mSlowdown = 1.0;
+    // Set by the belt while the hopper's thread waits on it (see Conveyor)
+    private volatile boolean mWaitingOnBelt;
 
     /**
      * Public Constructor. Initialize the hopper's Identifier,
@@ -70,11 +88,24 @@ public class Hopper extends Thread {
      * @param mSpeed      The speed that the hopper puts presents onto the attached belt.
      */
     public Hopper(int mIdentifier, @NotNull Conveyor con, int capacity, int mSpeed) {
-        mCollection = new ArrayQueue<>(capacity, () -> new Present[capacity]);
+        this(mIdentifier, con, capacity, mSpeed, null);
+    }
+
+    /**
+     * Public Constructor. Same as {@link #Hopper(int, Conveyor, int, int)}, but the presents
+     * are stored off-heap if a table is specified.
+     *
+     * @param mIdentifier The id of the hopper.
+     * @param con         The conveyor the hopper is attached to.
+     * @param capacity    The amount of presents the hopper can deposit.
+     * @param mSpeed      The speed that the hopper puts presents onto the attached belt.
+     * @param table       The table of the off-heap storage, or null to store the presents on the heap.
+     */
+    public Hopper(int mIdentifier, @NotNull Conveyor con, int capacity, int mSpeed, PresentTable table) {
+        mCollection = PresentTable.newQueue(capacity, table);
         this.mIdentifier = mIdentifier;
         mBelt = con;
         this.mSpeed = mSpeed;
-        mTotalWaitingTime = NONE;
         mInitialNumberOfPresents = NONE;
         mTimerState = new AtomicBoolean(TIMER_RUNNING);
         con.setConnectedWithAHopper(true);
@@ -87,6 +118,7 @@ public class Hopper extends Thread {
      */
     public void fill(Present present) {
         mCollection.add(present);
+        mInitialNumberOfPresents++;
     }
 
     /**
@@ -96,6 +128,9 @@ public class Hopper extends Thread {
     @Override
     public void run() {
         distributePresents();
+        if (mAccounting != null) {
+            mAccounting.recordCurrentThread("Hopper " + mIdentifier);
+        }
     }
 
     /**
@@ -105,23 +140,9 @@ public class Hopper extends Thread {
      */
     private void distributePresents() {
 
-        // Update the value of mInitialNumberOfPresents to the number of presents in the hopper.
-        mInitialNumberOfPresents = this.mCollection.getSize(); // Before the machine starts working.
-
         // Keep on iterating till the hopper has no presents or till the timer has run out.
         while (!mCollection.isEmpty() && mTimerState.get() == TIMER_RUNNING) {
-            long startTime = System.currentTimeMillis();
-            /* Acquire resources from output belt */
-            mBelt.acquireResourcesForPresentInsertion();
-
-            long endTime = System.currentTimeMillis();
-            long totalWaitingTime = endTime - startTime;
-
-            mTotalWaitingTime += totalWaitingTime;
-
-            mBelt.movePresentFromHopperToConveyor(mCollection, mTimerState);
-            /* Release resources from output belt */
-            mBelt.releaseResourcesForPresentInsertion();
+            depositPresent();
             nextInterval();
         }
         // Clean-up phase
@@ -132,15 +153,52 @@ public class Hopper extends Thread {
         mBelt.releaseResourcesForPresentInsertion();
     }
 
+    /**
+     * Put the front present onto the belt, waiting for a free slot if the belt is full.
+     * A single iteration of {@link #distributePresents}, without the interval.
+     */
+    void depositPresent() {
+        long startTime = System.currentTimeMillis();
+        /* Acquire resources from output belt */
+        mBelt.acquireResourcesForPresentInsertion();
+
+        long endTime = System.currentTimeMillis();
+        long totalWaitingTime = endTime - startTime;
+
+        mTotalWaitingTime.add(totalWaitingTime);
+
+        if (mCheckpoint != null) mCheckpoint.beginMove();
+        Present deposited = mBelt.movePresentFromHopperToConveyor(mCollection, mTimerState);
+        // Record the deposit while the belt is still locked, so that it precedes its extraction
+        if (deposited != null) {
+            if (mTracer != null) {
+                mTracer.record(deposited, PresentTracer.HOPPER_DEPOSIT, mIdentifier);
+                mTracer.record(deposited, PresentTracer.BELT_ENQUEUE, mBelt.getId());
+            }
+            if (mJournal != null) {
+                mJournal.append(EventJournal.HOPPER_TO_BELT, deposited, mIdentifier, mBelt.getId());
+            }
+        }
+        if (mCheckpoint != null) mCheckpoint.endMove();
+        /* Release resources from output belt */
+        mBelt.releaseResourcesForPresentInsertion();
+    }
+
     /**
      * Sleeps the current thread to simulate the intervals.
      * By default, the hopper places one present every second.
      * For instance, if its speed is two then, it should place two presents
      * every second (1 present every 0.5 seconds).
+     * If the hopper has a rate controller, then the rate it produces is used instead.
+     * The interval is stretched by the slowdown of a fault, if any.
      */
     private void nextInterval() {
         try {
-            sleep(DEFAULT_INTERVAL_TIME / mSpeed);
+            if (mRateController != null) {
+                mTimeSource.sleep((long) (DEFAULT_INTERVAL_TIME * mSlowdown / mRateController.nextRate()));
+                return;
+            }
+            mTimeSource.sleep((long) (DEFAULT_INTERVAL_TIME * mSlowdown / mSpeed));
         } catch (InterruptedException ignored) {
         }
     }
@@ -152,7 +210,47 @@ public class Hopper extends Thread {
      * a Conveyor belt.
      */
     public long getTotalWaitingTimeInSeconds() {
-        return (mTotalWaitingTime / 1000L);
+        return (mTotalWaitingTime.get() / 1000L);
+    }
+
+    /**
+     * Access the total waiting time (in milliseconds) of the hopper.
+     *
+     * @return The amount of time the hopper was waiting to put a present onto
+     * a Conveyor belt.
+     */
+    public long getTotalWaitingTime() {
+        return mTotalWaitingTime.get();
+    }
+
+    /**
+     * Add to the total waiting time of a hopper that is driven by another engine (see FlowEngine).
+     *
+     * @param millis The time (in milliseconds) the hopper waited for room on its belt.
+     */
+    void addWaitingTime(long millis) {
+        mTotalWaitingTime.add(millis);
+    }
+
+    /**
+     * Access the number of presents the hopper was filled with.
+     *
+     * @return The count of all presents that were initially stored in this hopper.
+     */
+    public int getInitialNumberOfPresents() {
+        return mInitialNumberOfPresents;
+    }
+
+    /**
+     * Overwrite the counters of the hopper with the values of a checkpoint.
+     * Must be called after the hopper has been refilled and before it starts.
+     *
+     * @param initialNumberOfPresents The number of presents the hopper was originally filled with.
+     * @param totalWaitingTime        The time (in milliseconds) the hopper had been waiting for.
+     */
+    public void restoreCounters(int initialNumberOfPresents, long totalWaitingTime) {
+        mInitialNumberOfPresents = initialNumberOfPresents;
+        mTotalWaitingTime.set(totalWaitingTime);
     }
 
     /**
@@ -174,6 +272,15 @@ public class Hopper extends Thread {
         return mIdentifier;
     }
 
+    /**
+     * Access the data structure that stores the hopper's presents.
+     *
+     * @return A reference to the hopper's present container.
+     */
+    public ArrayQueue<Present> getPresents() {
+        return mCollection;
+    }
+
     /**
      * Get the number of presents currently inside the hopper.
      *
@@ -183,6 +290,108 @@ public class Hopper extends Thread {
         return mCollection.getSize();
     }
 
+    /**
+     * Setter for {@link #mTracer}.
+     *
+     * @param tracer The tracer that records the presents deposited by this hopper.
+     */
+    public void setTracer(PresentTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Setter for {@link #mJournal}.
+     *
+     * @param journal The journal that logs the presents deposited by this hopper.
+     */
+    public void setJournal(EventJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Setter for {@link #mCheckpoint}.
+     *
+     * @param checkpoint The checkpoint that snapshots the machine this hopper belongs to.
+     */
+    public void setCheckpoint(MachineCheckpoint checkpoint) {
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * Setter for {@link #mTimeSource}.
+     *
+     * @param timeSource The clock the intervals of the hopper are measured against.
+     */
+    public void setTimeSource(@NotNull TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Setter for {@link #mAccounting}.
+     *
+     * @param accounting The accounting that records the time of the hopper's thread.
+     */
+    public void setAccounting(ThreadAccounting accounting) {
+        mAccounting = accounting;
+    }
+
+    /**
+     * Setter for {@link #mRateController}.
+     *
+     * @param rateController The controller that adapts the speed of the hopper.
+     */
+    public void setRateController(HopperRateController rateController) {
+        mRateController = rateController;
+    }
+
+    /**
+     * Setter for {@link #mSlowdown}.
+     *
+     * @param slowdown The factor the intervals get stretched by, 1.0 for the normal speed.
+     */
+    public void setSlowdown(double slowdown) {
+        mSlowdown = slowdown;
+    }
+
+    /**
+     * Access the hopper's rate controller.
+     *
+     * @return The controller that adapts the speed of the hopper or null for a fixed speed.
+     */
+    public HopperRateController getRateController() {
+        return mRateController;
+    }
+
+    /**
+     * Access the hopper's output belt.
+     *
+     * @return The conveyor the hopper is attached to.
+     */
+    public Conveyor getBelt() {
+        return mBelt;
+    }
+
+    /**
+     * Access the speed of the hopper, as given in the configuration file unless it has been changed.
+     *
+     * @return The number of presents the hopper places per second.
+     */
+    public int getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Setter for {@link #mSpeed}. The new speed applies from the next interval on,
+     * unless a rate controller adapts the speed of the hopper.
+     *
+     * @param speed The number of presents the hopper places per second.
+     * @throws IllegalArgumentException if the speed is not above 0.
+     */
+    public void setSpeed(int speed) {
+        if (speed <= 0) throw new IllegalArgumentException("A hopper needs a speed above 0, not " + speed);
+        mSpeed = speed;
+    }
+
     /**
      * Setter for {@link #mTimerState}.
      *
@@ -191,4 +400,31 @@ public class Hopper extends Thread {
     public void setTimerState(boolean timerState) {
         mTimerState.set(timerState);
     }
+
+    /**
+     * Check whether the timer of the hopper has run out, so it deposits no more presents.
+     *
+     * @return True once {@link #setTimerState} has been called with {@link #TIMER_RUN_OUT}. Otherwise, false.
+     */
+    public boolean hasTimerRunOut() {
+        return mTimerState.get() == TIMER_RUN_OUT;
+    }
+
+    /**
+     * Setter for the hopper's belt wait, called by the belt on the hopper's own thread.
+     *
+     * @param waiting True while the hopper's thread waits on its belt.
+     */
+    void setWaitingOnBelt(boolean waiting) {
+        mWaitingOnBelt = waiting;
+    }
+
+    /**
+     * Check whether the hopper is waiting for a free slot on its belt.
+     *
+     * @return True while the hopper's thread waits on its belt. Otherwise, false.
+     */
+    public boolean isBlocked() {
+        return isAlive() && mWaitingOnBelt;
+    }
 }
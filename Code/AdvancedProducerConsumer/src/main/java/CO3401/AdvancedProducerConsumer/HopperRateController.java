@@ -0,0 +1,80 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Additive-increase / multiplicative-decrease (AIMD) controller of the rate
+ * at which a {@link Hopper} places presents onto its belt.
+ * <p>
+ * Before every present, the hopper asks the controller for its next rate.
+ * The controller measures the occupancy of the belts downstream of the hopper
+ * (mean of {@link Conveyor#getTakenToAvailableSlotsRatio()}) and:
+ * <p> - if the occupancy is below the target fill level, adds {@link #ADDITIVE_INCREASE}
+ * presents per second to the rate, so that the turntables never starve.
+ * <p> - otherwise, multiplies the rate by {@link #MULTIPLICATIVE_DECREASE}, so that the
+ * hopper backs off before the belts fill up and congestion spreads upstream.
+ * <p>
+ * The rate is kept between {@link #MIN_RATE} and {@link #MAX_SPEEDUP} times
+ * the speed of the hopper given in the configuration file.
+ *
+ * @author anonymous
+ */
+public class HopperRateController {
+
+    private static final double ADDITIVE_INCREASE = 0.25; // presents per second
+    private static final double MULTIPLICATIVE_DECREASE = 0.5;
+    private static final double MIN_RATE = 0.1; // presents per second
+    private static final double MAX_SPEEDUP = 4.0;
+
+    private final Conveyor[] mPath;
+    private final double mTargetFill;
+    private final double mMaxRate;
+    private double mRate;
+    // Used to report the mean rate
+    private double mRateSum;
+    private long mAdjustments;
+
+    /**
+     * Public Constructor. Start at the configured speed of the hopper.
+     *
+     * @param path        The belts between the hopper and the sacks it supplies.
+     * @param targetFill  The occupancy (0.0 - 1.0) the belts should be held at.
+     * @param initialRate The configured speed of the hopper (presents per second).
+     */
+    public HopperRateController(@NotNull Conveyor[] path, double targetFill, double initialRate) {
+        mPath = path;
+        mTargetFill = targetFill;
+        mMaxRate = initialRate * MAX_SPEEDUP;
+        mRate = initialRate;
+    }
+
+    /**
+     * Adjust the rate to the current occupancy of the downstream belts.
+     *
+     * @return The rate (presents per second) to use for the next interval.
+     */
+    public double nextRate() {
+        double fill = 0.0;
+        for (Conveyor belt : mPath) {
+            fill += belt.getTakenToAvailableSlotsRatio();
+        }
+        fill /= mPath.length;
+        if (fill < mTargetFill) {
+            mRate = Math.min(mRate + ADDITIVE_INCREASE, mMaxRate);
+        } else {
+            mRate = Math.max(mRate * MULTIPLICATIVE_DECREASE, MIN_RATE);
+        }
+        mRateSum += mRate;
+        mAdjustments++;
+        return mRate;
+    }
+
+    /**
+     * Access the average of all the rates the controller has produced.
+     *
+     * @return The mean rate in presents per second.
+     */
+    public double getMeanRate() {
+        return mAdjustments == 0 ? mRate : mRateSum / mAdjustments;
+    }
+}
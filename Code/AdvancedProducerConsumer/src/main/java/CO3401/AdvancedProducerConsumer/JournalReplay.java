@@ -0,0 +1,261 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Command line tool that rebuilds the state of the belts and sacks of a machine
+ * at any point in time from an {@link EventJournal} file.
+ * <p>
+ * Usage: {@code JournalReplay <journal file> [time in ms since start]}
+ * <p>
+ * The journal is streamed one mapped segment at a time and every event is applied
+ * to a handful of int arrays (one ring of present ids per belt, counters per sack),
+ * so the memory needed does not depend on the length of the journal and
+ * journals of hundreds of millions of events can be replayed.
+ * <p>
+ * A journal that was not closed (e.g. the machine got killed) ends with the zeroed rest of its last
+ * segment, so its events are replayed up to the first all-zero record. Events that refer to belts
+ * or sacks the header does not describe are counted as anomalies.
+ *
+ * @author anonymous
+ */
+public class JournalReplay {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    // Belt state, indexed by belt id
+    private final int[][] mBeltPresents;
+    private final int[] mBeltHeads;
+    private final int[] mBeltSizes;
+    private final int[] mBeltIds;
+    // Sack state, indexed by sack id
+    private final int[] mSackIds;
+    private final long[] mSackTotals;
+    private final int[] mSackFill;
+    private final int[] mSackSwaps;
+    private long mOnTurntables;
+    private long mAnomalies;
+    private long mLastTime;
+
+    /**
+     * Public Constructor. Allocate the state of the belts and the sacks
+     * described in the header of the journal.
+     *
+     * @param header A buffer positioned right after the event count of the header.
+     */
+    private JournalReplay(@NotNull ByteBuffer header) {
+        int numBelts = header.getInt();
+        mBeltIds = new int[numBelts];
+        int[] capacities = new int[numBelts];
+        int maxBeltId = 0;
+        for (int b = 0; b < numBelts; b++) {
+            mBeltIds[b] = header.getInt();
+            capacities[b] = header.getInt();
+            maxBeltId = Math.max(maxBeltId, mBeltIds[b]);
+        }
+        mBeltPresents = new int[maxBeltId + 1][];
+        mBeltHeads = new int[maxBeltId + 1];
+        mBeltSizes = new int[maxBeltId + 1];
+        for (int b = 0; b < numBelts; b++) {
+            mBeltPresents[mBeltIds[b]] = new int[capacities[b]];
+        }
+
+        int numSacks = header.getInt();
+        mSackIds = new int[numSacks];
+        int maxSackId = 0;
+        for (int s = 0; s < numSacks; s++) {
+            mSackIds[s] = header.getInt();
+            maxSackId = Math.max(maxSackId, mSackIds[s]);
+        }
+        mSackTotals = new long[maxSackId + 1];
+        mSackFill = new int[maxSackId + 1];
+        mSackSwaps = new int[maxSackId + 1];
+    }
+
+    /**
+     * @param args The path of the journal and optionally the point in time
+     *             (milliseconds since the machine started) to rebuild the state at.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: JournalReplay <journal file> [time in ms]");
+            return;
+        }
+        long untilNanos = args.length > 1 ? Long.parseLong(args[1]) * NANOS_PER_MILLI : Long.MAX_VALUE;
+        try {
+            replay(args[0], untilNanos).printState();
+        } catch (IOException e) {
+            System.out.println("Error reading journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Apply all the events of the journal that happened up to the specified time.
+     *
+     * @param fileName   The path of the journal.
+     * @param untilNanos The point in time (nanoseconds since start) to stop at.
+     * @return The rebuilt state.
+     * @throws IOException if the journal cannot be read or is not a journal.
+     */
+    @NotNull
+    public static JournalReplay replay(@NotNull String fileName, long untilNanos) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 20));
+            start.order(ByteOrder.LITTLE_ENDIAN);
+            if (start.getInt() != EventJournal.MAGIC || start.getShort() != EventJournal.VERSION) {
+                throw new IOException("not a version " + EventJournal.VERSION + " journal");
+            }
+            int recordSize = start.getShort();
+            long eventCount = start.getLong();
+            JournalReplay state = new JournalReplay(start);
+            long headerLength = start.position();
+            boolean isClosed = eventCount != 0;
+            if (!isClosed) {
+                // The journal was not closed, use all complete records up to the zeroed rest of the segment
+                eventCount = (channel.size() - headerLength) / recordSize;
+            }
+
+            long segmentBytes = (long) EventJournal.SEGMENT_RECORDS * recordSize;
+            for (long done = 0; done < eventCount; ) {
+                long records = Math.min(eventCount - done, EventJournal.SEGMENT_RECORDS);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                        headerLength + (done / EventJournal.SEGMENT_RECORDS) * segmentBytes, records * recordSize);
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                for (long r = 0; r < records; r++) {
+                    long time = segment.getLong();
+                    if (time > untilNanos) return state;
+                    int presentId = segment.getInt();
+                    int source = segment.getInt();
+                    int target = segment.getInt();
+                    short type = segment.getShort();
+                    segment.getShort(); // skip reserved
+                    // No event has target 0 (ids start from 1), so this is the unwritten end of the file
+                    if (!isClosed && time == 0 && presentId == 0 && source == 0 && target == 0 && type == 0) {
+                        return state;
+                    }
+                    state.apply(time, type, presentId, source, target);
+                }
+                done += records;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * Update the state according to a single event.
+     */
+    private void apply(long time, short type, int presentId, int source, int target) {
+        mLastTime = time;
+        switch (type) {
+            case EventJournal.HOPPER_TO_BELT:
+                push(target, presentId);
+                break;
+            case EventJournal.BELT_TO_TURNTABLE:
+                pop(source, presentId);
+                mOnTurntables++;
+                break;
+            case EventJournal.TURNTABLE_TO_BELT:
+                mOnTurntables--;
+                push(target, presentId);
+                break;
+            case EventJournal.TURNTABLE_TO_SACK:
+                mOnTurntables--;
+                if (!isSack(target)) {
+                    mAnomalies++;
+                    break;
+                }
+                mSackTotals[target]++;
+                mSackFill[target]++;
+                break;
+            case EventJournal.SACK_SWAP:
+                if (!isSack(source)) {
+                    mAnomalies++;
+                    break;
+                }
+                mSackFill[source] = 0;
+                mSackSwaps[source]++;
+                break;
+            default:
+                mAnomalies++;
+        }
+    }
+
+    private void push(int beltId, int presentId) {
+        if (!isBelt(beltId) || mBeltSizes[beltId] == mBeltPresents[beltId].length) {
+            mAnomalies++;
+            return;
+        }
+        int[] presents = mBeltPresents[beltId];
+        presents[(mBeltHeads[beltId] + mBeltSizes[beltId]) % presents.length] = presentId;
+        mBeltSizes[beltId]++;
+    }
+
+    /**
+     * Remove the specified present from a belt. It is usually the front one, but belts with priorities or
+     * lanes do not hand their presents over in the order they got them, so it is looked up.
+     */
+    private void pop(int beltId, int presentId) {
+        if (!isBelt(beltId) || mBeltSizes[beltId] == 0) {
+            mAnomalies++;
+            return;
+        }
+        int[] presents = mBeltPresents[beltId];
+        int head = mBeltHeads[beltId];
+        int size = mBeltSizes[beltId];
+        int index = 0;
+        while (index < size && presents[(head + index) % presents.length] != presentId) index++;
+        if (index == size) {
+            mAnomalies++;
+            return;
+        }
+        if (index == 0) {
+            mBeltHeads[beltId] = (head + 1) % presents.length;
+        } else {
+            // Close the gap, keeping the order of the others
+            for (int i = index; i < size - 1; i++) {
+                presents[(head + i) % presents.length] = presents[(head + i + 1) % presents.length];
+            }
+        }
+        mBeltSizes[beltId]--;
+    }
+
+    private boolean isBelt(int beltId) {
+        return beltId >= 0 && beltId < mBeltPresents.length && mBeltPresents[beltId] != null;
+    }
+
+    private boolean isSack(int sackId) {
+        return sackId >= 0 && sackId < mSackTotals.length;
+    }
+
+    /**
+     * Output the contents of every belt (present ids, front first) and the counters of every sack.
+     */
+    public void printState() {
+        System.out.println("State @ " + (mLastTime / NANOS_PER_MILLI) + "ms:");
+        for (int beltId : mBeltIds) {
+            int[] presents = mBeltPresents[beltId];
+            StringBuilder contents = new StringBuilder();
+            for (int i = 0; i < mBeltSizes[beltId]; i++) {
+                if (i > 0) contents.append(", ");
+                contents.append(presents[(mBeltHeads[beltId] + i) % presents.length]);
+            }
+            System.out.println("Belt " + beltId + " (" + mBeltSizes[beltId] + "/" + presents.length + "): [" + contents + "]");
+        }
+        for (int sackId : mSackIds) {
+            System.out.println("Sack " + sackId + ": " + mSackTotals[sackId] + " presents in total, "
+                    + mSackFill[sackId] + " in the current sack, " + mSackSwaps[sackId] + " sacks replaced");
+        }
+        System.out.println(mOnTurntables + " presents on turntables.");
+        if (mAnomalies > 0) {
+            System.out.println(mAnomalies + " events did not match the state of the machine.");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command line tool that measures how the throughput of a belt fed by several producers
+ * scales with its number of lanes (see {@link MultiLaneQueue}).
+ * <p>
+ * Usage: {@code LaneBenchmark [producers] [presents per producer] [belt length] [lanes ...]}
+ * <p>
+ * Every producer thread moves presents from an input belt of its own onto the shared belt, as an upstream
+ * turntable does (claim the present and a slot, lock the belts in order, move the present), while a single
+ * consumer thread drains the belt, without the simulated delays. Each lane count is measured with
+ * both ways of picking a lane, after a warm-up run, and the presents moved per second are reported.
+ *
+ * @author anonymous
+ */
+public class LaneBenchmark {
+
+    private static final int DEFAULT_PRODUCERS = 3; // e.g. the output belts of three turntables merging
+    private static final int DEFAULT_PRESENTS = 200000;
+    private static final int DEFAULT_BELT_LENGTH = 16;
+    private static final int[] DEFAULT_LANES = {1, 2, 4, 8};
+    private static final int WARM_UP_DIVISOR = 10;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final long POLL = 5L; // as the turntables wait for a slot (ms)
+
+    /**
+     * @param args Optionally, the number of producers, the presents each one moves, the length of the belt
+     *             and the lane counts to measure.
+     */
+    public static void main(String[] args) {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRODUCERS;
+        int presents = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PRESENTS;
+        int length = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_BELT_LENGTH;
+        int[] laneCounts = DEFAULT_LANES;
+        if (args.length > 3) {
+            laneCounts = new int[args.length - 3];
+            for (int i = 0; i < laneCounts.length; i++) laneCounts[i] = Integer.parseInt(args[i + 3]);
+        }
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, " + producers
+                + " producers moving " + presents + " presents each onto a belt of length " + length + ".");
+        System.out.printf("%-6s %-10s %16s%n", "lanes", "selection", "presents/s");
+
+        for (int lanes : laneCounts) {
+            String[] selections = lanes == 1
+                    ? new String[]{MultiLaneQueue.LEAST_OCCUPIED}
+                    : new String[]{MultiLaneQueue.LEAST_OCCUPIED, MultiLaneQueue.HASHED};
+            for (String selection : selections) {
+                measure(producers, Math.max(1, presents / WARM_UP_DIVISOR), length, lanes, selection);
+                long nanos = measure(producers, presents, length, lanes, selection);
+                System.out.printf("%-6d %-10s %16.0f%n", lanes, lanes == 1 ? "-" : selection,
+                        (double) producers * presents * NANOS_PER_SECOND / nanos);
+            }
+        }
+    }
+
+    /**
+     * Run the producers and the consumer once on a new belt.
+     *
+     * @return The time (ns) it took the consumer to take every present off the belt.
+     */
+    private static long measure(int producers, int presents, int length, int lanes, @NotNull String selection) {
+        Conveyor belt = new Conveyor(1, length, lanes, selection, null);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            Conveyor source = new Conveyor(p + 2, presents);
+            for (int i = 0; i < presents; i++) {
+                source.restorePresent(new Present(i, "0-3"));
+            }
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < presents; i++) {
+                    source.reservePresent();
+                    boolean isResumed = false;
+                    while (!belt.reserveSlot(POLL, isResumed)) {
+                        isResumed = true;
+                    }
+                    Conveyor.lockInOrder(source, belt);
+                    belt.movePresentFromOneConveyorToAnother(source.getPresents());
+                    Conveyor.unlockInOrder(source, belt);
+                    source.completeExtraction();
+                    belt.completeInsertion();
+                }
+            }, "producer-" + p);
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        long total = (long) producers * presents;
+        for (long i = 0; i < total; i++) {
+            belt.acquireResourcesForPresentExtraction();
+            belt.getPresents().get();
+            belt.releaseResourcesForPresentExtraction();
+        }
+        long nanos = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,79 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs and measures the small layouts of the command line benchmarks ({@link TurntableCapacityBenchmark},
+ * {@link RoutingBenchmark}, {@link FaultBenchmark}), which only differ in the machine they build.
+ * Every layout is run on a thread per turntable and on the pool scheduler ({@link #ENGINES}), with the delays
+ * scaled down by {@link #CLOCK}, and its time is reported in simulated seconds.
+ *
+ * @author anonymous
+ */
+final class LayoutBenchmark {
+
+    static final int HOPPER_SPEED = 100;
+    // The number of threads of the pool scheduler, 0 for a thread per turntable
+    static final int[] ENGINES = {0, 2};
+    static final TimeSource CLOCK = TimeSource.parse("scaled:0.01");
+
+    /**
+     * Private Constructor. Only holds the helpers.
+     */
+    private LayoutBenchmark() {
+    }
+
+    /**
+     * Access the name of an engine, as reported by the benchmarks.
+     *
+     * @param workers One of the {@link #ENGINES}.
+     * @return "threads" or "pool".
+     */
+    @NotNull
+    static String getEngine(int workers) {
+        return workers == 0 ? "threads" : "pool";
+    }
+
+    /**
+     * Build a machine and run it till it has completed. Exits if the layout is not valid,
+     * or if not every present has reached its sack.
+     *
+     * @param layout   Builds the machine.
+     * @param presents The number of presents of the machine.
+     * @param setting  The setting the machine runs with, for the error message, e.g. "with a capacity of 4".
+     * @return The machine, once it has completed.
+     * @throws InterruptedException if the thread gets interrupted while the machine runs.
+     */
+    @NotNull
+    static Machine run(@NotNull Supplier<Machine> layout, int presents, @NotNull String setting)
+            throws InterruptedException {
+        Machine machine = null;
+        try {
+            machine = layout.get();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        machine.start();
+        machine.awaitTermination();
+        if (machine.getPresentsInSacks() != presents) {
+            System.out.println("Error: " + machine.getPresentsInSacks() + " of " + presents
+                    + " presents reached their sacks " + setting + ".");
+            System.exit(1);
+        }
+        return machine;
+    }
+
+    /**
+     * Access the time a machine ran for.
+     *
+     * @param machine A machine that has completed.
+     * @return The time in simulated seconds.
+     */
+    static double getSimulatedSeconds(@NotNull Machine machine) {
+        // Real nanoseconds divided by the real nanoseconds of a simulated second
+        return machine.getRunMillis() * 1e6 / CLOCK.toNanos(1000);
+    }
+}
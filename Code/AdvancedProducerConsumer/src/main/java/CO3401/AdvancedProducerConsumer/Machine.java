@@ -0,0 +1,269 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Handle of a single run of a Present sorting machine (semaphore engine), built by
+ * {@link MachineBuilder} or from a {@link Scenario}.
+ * <p>
+ * Every piece of state the machine needs (including the lookup of the sack of each age range)
+ * belongs to its components, so many machines can run side by side in the same JVM, e.g. in a
+ * long-lived service that keeps the JIT warm between runs. A machine runs once:
+ * <p> - {@link #start()} starts the hoppers and the turntables.
+ * <p> - {@link #stop()} stops the hoppers, as when the timer runs out.
+ * <p> - {@link #awaitTermination()} waits for the turntables to sort the presents left on the belts.
+ * <p> - the report methods can be called at any time, from any thread, without blocking the machine.
+ * <p> - {@link #injectFaults} jams belts, halts turntables or slows hoppers down while the machine runs.
+ * <p> - {@link #sampleTo} records the state of the machine at a fixed interval into a file.
+ * <p>
+ * Errors are reported with exceptions, never by exiting the JVM.
+ *
+ * @author anonymous
+ */
+public class Machine {
+
+    private final Scenario mScenario;
+    private final TimeSource mTimeSource;
+    private final MachineStatistics mStatistics;
+    // Drives the turntables on a few threads (null for a thread per turntable)
+    private final TurntableScheduler mScheduler;
+    // Injects the faults while the machine runs (null if there are none)
+    private FaultInjector mFaultInjector;
+    // Samples the machine while it runs (null if it is not sampled)
+    private TimeSeriesSampler mSampler;
+    private long mStartTime;
+    private volatile long mEndTime;
+    private boolean mStarted;
+
+    /**
+     * Public Constructor. Prepare the components of the scenario to run against the specified clock.
+     *
+     * @param scenario   The machine to be run. Its hoppers must have been filled.
+     * @param timeSource The clock the simulated delays are measured against.
+     * @param workers    The number of threads of a {@link TurntableScheduler},
+     *                   or 0 to run every turntable on its own thread.
+     */
+    public Machine(@NotNull Scenario scenario, @NotNull TimeSource timeSource, int workers) {
+        mScenario = scenario;
+        mTimeSource = timeSource;
+        mStatistics = new MachineStatistics(scenario.getHoppers(), scenario.getTables(), scenario.getSacks());
+        mScheduler = workers > 0 ? new TurntableScheduler(workers, scenario.getTables(), timeSource) : null;
+        for (Hopper hopper : scenario.getHoppers()) hopper.setTimeSource(timeSource);
+        for (Turntable table : scenario.getTables()) table.setTimeSource(timeSource);
+        for (Sack sack : scenario.getSacks()) sack.setTimeSource(timeSource);
+    }
+
+    /**
+     * Start the hoppers and the turntables.
+     *
+     * @throws IllegalStateException if the machine has already been started.
+     */
+    public synchronized void start() {
+        if (mStarted) throw new IllegalStateException("The machine has already been started");
+        mStarted = true;
+        mStartTime = System.currentTimeMillis();
+        if (mFaultInjector != null) mFaultInjector.start();
+        if (mSampler != null) mSampler.start();
+        for (Hopper hopper : mScenario.getHoppers()) {
+            hopper.start();
+        }
+        if (mScheduler != null) {
+            mScheduler.start();
+        } else {
+            for (Turntable table : mScenario.getTables()) {
+                table.start();
+            }
+        }
+    }
+
+    /**
+     * Immediately cease all hoppers from adding presents to the input belts.
+     * The turntables carry on until the belts are empty.
+     */
+    public void stop() {
+        for (Hopper hopper : mScenario.getHoppers()) {
+            hopper.setTimerState(Hopper.TIMER_RUN_OUT);
+        }
+    }
+
+    /**
+     * Block the calling thread until every hopper has deposited all its presents.
+     */
+    public void awaitEmptyHoppers() {
+        MyClass.awaitEmptyHoppers(mScenario.getHoppers());
+    }
+
+    /**
+     * Block the calling thread until the hoppers and the turntables have terminated.
+     * The hoppers only terminate once they are empty or have been stopped.
+     *
+     * @throws IllegalStateException if the machine has not been started.
+     * @throws InterruptedException  if the calling thread gets interrupted while waiting.
+     */
+    public void awaitTermination() throws InterruptedException {
+        synchronized (this) {
+            if (!mStarted) throw new IllegalStateException("The machine has not been started");
+        }
+        for (Hopper hopper : mScenario.getHoppers()) {
+            hopper.join();
+        }
+        if (mScheduler != null) {
+            mScheduler.awaitTermination();
+        } else {
+            for (Turntable table : mScenario.getTables()) {
+                table.join();
+            }
+        }
+        if (mEndTime == 0) {
+            mEndTime = System.currentTimeMillis();
+            if (mFaultInjector != null) mFaultInjector.finish();
+            if (mSampler != null) mSampler.finish();
+        }
+    }
+
+    /**
+     * Inject the specified faults into the machine once it starts (see {@link FaultInjector}).
+     *
+     * @param faults The faults, e.g. {@code jam:3@20+30,halt:B@40+10}.
+     * @return The injector, which reports the throughput lost to the faults once the machine has terminated.
+     * @throws IllegalStateException    if the machine has already been started.
+     * @throws IllegalArgumentException if a fault is not valid or its target does not exist.
+     */
+    @NotNull
+    public synchronized FaultInjector injectFaults(@NotNull String faults) {
+        if (mStarted) throw new IllegalStateException("The machine has already been started");
+        mFaultInjector = new FaultInjector(faults, mScenario, mTimeSource);
+        return mFaultInjector;
+    }
+
+    /**
+     * Access the injector of the faults of the machine.
+     *
+     * @return The injector created by {@link #injectFaults}, or null if there are no faults.
+     */
+    public synchronized FaultInjector getFaultInjector() {
+        return mFaultInjector;
+    }
+
+    /**
+     * Sample the machine into the specified file from the moment it starts until it has completed shutdown
+     * (see {@link TimeSeriesSampler}).
+     *
+     * @param fileName       The path of the file (overwritten if it exists).
+     * @param intervalMillis The simulated time between two samples, in milliseconds.
+     * @return The sampler, which has closed the file once the machine has terminated.
+     * @throws IllegalStateException    if the machine has already been started.
+     * @throws IllegalArgumentException if the interval is not above 0.
+     * @throws IOException              if the file cannot be created.
+     */
+    @NotNull
+    public synchronized TimeSeriesSampler sampleTo(@NotNull String fileName, long intervalMillis) throws IOException {
+        if (mStarted) throw new IllegalStateException("The machine has already been started");
+        mSampler = new TimeSeriesSampler(fileName, mScenario, mTimeSource, intervalMillis);
+        return mSampler;
+    }
+
+    /**
+     * Access the sampler of the machine.
+     *
+     * @return The sampler created by {@link #sampleTo}, or null if the machine is not sampled.
+     */
+    public synchronized TimeSeriesSampler getSampler() {
+        return mSampler;
+    }
+
+    /**
+     * Check if the machine has completed shutdown.
+     *
+     * @return True once {@link #awaitTermination()} has returned. Otherwise, false.
+     */
+    public boolean isTerminated() {
+        return mEndTime != 0;
+    }
+
+    /**
+     * Access the time the machine has been running for.
+     *
+     * @return The time from start to now (or to shutdown) in milliseconds, 0 if it has not been started.
+     */
+    public synchronized long getRunMillis() {
+        if (!mStarted) return 0;
+        return (isTerminated() ? mEndTime : System.currentTimeMillis()) - mStartTime;
+    }
+
+    /**
+     * Access the number of presents still in the hoppers.
+     *
+     * @return The sum of the presents of all hoppers.
+     */
+    public int getPresentsInHoppers() {
+        int total = 0;
+        for (Hopper hopper : mScenario.getHoppers()) total += hopper.getNumberOfPresents();
+        return total;
+    }
+
+    /**
+     * Access the number of presents the hoppers have placed on their belts.
+     *
+     * @return The sum of the presents deposited by all hoppers.
+     */
+    public int getPresentsDeposited() {
+        int total = 0;
+        for (Hopper hopper : mScenario.getHoppers()) total += hopper.getNumberOfPresentsDeposited();
+        return total;
+    }
+
+    /**
+     * Access the number of presents on the belts.
+     *
+     * @return The sum of the presents of all belts.
+     */
+    public int getPresentsOnBelts() {
+        int total = 0;
+        for (Conveyor belt : mScenario.getBelts()) total += belt.getNumberOfPresents();
+        return total;
+    }
+
+    /**
+     * Access the number of presents that reached their sacks.
+     *
+     * @return The sum of the presents sorted into all sacks.
+     */
+    public int getPresentsInSacks() {
+        int total = 0;
+        for (Sack sack : mScenario.getSacks()) total += sack.getTotalNumberOfPresents();
+        return total;
+    }
+
+    /**
+     * Access the lock-free reader of the counters of the machine.
+     *
+     * @return The statistics of the hoppers, turntables and sacks.
+     */
+    @NotNull
+    public MachineStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Access the components of the machine.
+     *
+     * @return The scenario the machine was built from.
+     */
+    @NotNull
+    public Scenario getScenario() {
+        return mScenario;
+    }
+
+    /**
+     * Access the clock of the machine.
+     *
+     * @return The clock the simulated delays are measured against.
+     */
+    @NotNull
+    public TimeSource getTimeSource() {
+        return mTimeSource;
+    }
+}
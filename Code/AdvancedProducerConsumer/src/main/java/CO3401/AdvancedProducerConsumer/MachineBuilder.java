@@ -0,0 +1,450 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Builds a {@link Machine} in code, as an alternative to a configuration file.
+ * Components refer to each other by the ids they would have in a configuration file, e.g.
+ * <pre>{@code
+ * Machine machine = new MachineBuilder()
+ *         .belt(1, 5, 1)
+ *         .hopper(1, 1, 10, 1)
+ *         .sack(1, 20, "0-3")
+ *         .turntable("A")
+ *         .connect("A", Turntable.W, ConnectionType.InputBelt, 1)
+ *         .connect("A", Turntable.S, ConnectionType.OutputSack, 1)
+ *         .presents(1, "0-3", "0-3")
+ *         .build();
+ * }</pre>
+ * Nothing gets created until {@link #build()}, so the components can be declared in any order.
+ * Every call to {@link #build()} creates a new machine with its own components.
+ *
+ * @author anonymous
+ */
+public class MachineBuilder {
+
+    private final LinkedHashMap<Integer, BeltSpec> mBelts = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, HopperSpec> mHoppers = new LinkedHashMap<>();
+    private final LinkedHashMap<Integer, SackSpec> mSacks = new LinkedHashMap<>();
+    private final LinkedHashMap<String, ConnectionSpec[]> mTables = new LinkedHashMap<>();
+    private final HashMap<String, Integer> mTableCapacities = new HashMap<>();
+    private final HashMap<String, String> mTableRoutings = new HashMap<>();
+    private int mTimerLength;
+    private TimeSource mTimeSource = TimeSource.REAL_TIME;
+    private int mWorkers;
+    private boolean mOffHeap;
+    private long mRerouteAfter;
+    private String mFaults;
+
+    /**
+     * Add a belt.
+     *
+     * @param id           The unique identifier of the belt.
+     * @param length       The number of presents the belt can hold.
+     * @param destinations The ids of the sacks that can be reached from the belt.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder belt(int id, int length, int... destinations) {
+        if (mBelts.containsKey(id)) throw new IllegalArgumentException("Duplicate belt " + id);
+        mBelts.put(id, new BeltSpec(length, destinations));
+        return this;
+    }
+
+    /**
+     * Split a belt into lanes (see {@link MultiLaneQueue}).
+     *
+     * @param beltId        The id of a belt that has been added.
+     * @param lanes         The number of lanes.
+     * @param laneSelection {@link MultiLaneQueue#LEAST_OCCUPIED} or {@link MultiLaneQueue#HASHED}.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder lanes(int beltId, int lanes, @NotNull String laneSelection) {
+        if (lanes < 1) throw new IllegalArgumentException("Belt " + beltId + " needs at least 1 lane");
+        BeltSpec belt = beltSpec(beltId);
+        belt.mLanes = lanes;
+        belt.mLaneSelection = laneSelection;
+        return this;
+    }
+
+    /**
+     * Make a belt hand over its presents by priority class (see {@link PriorityPresentQueue}).
+     *
+     * @param beltId The id of a belt that has been added. It must not be split into lanes.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder priorities(int beltId) {
+        beltSpec(beltId).mPriorities = true;
+        return this;
+    }
+
+    /**
+     * Set how threads wait for the semaphores of a belt.
+     *
+     * @param beltId       The id of a belt that has been added.
+     * @param waitStrategy The strategy, or null to block.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder waitStrategy(int beltId, WaitStrategy waitStrategy) {
+        beltSpec(beltId).mWaitStrategy = waitStrategy;
+        return this;
+    }
+
+    /**
+     * Add a hopper.
+     *
+     * @param id       The unique identifier of the hopper.
+     * @param beltId   The id of the belt the hopper is attached to.
+     * @param capacity The number of presents the hopper can hold.
+     * @param speed    The number of presents per second the hopper places on its belt.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder hopper(int id, int beltId, int capacity, int speed) {
+        if (mHoppers.containsKey(id)) throw new IllegalArgumentException("Duplicate hopper " + id);
+        mHoppers.put(id, new HopperSpec(beltId, capacity, speed));
+        return this;
+    }
+
+    /**
+     * Add presents to a hopper. The presents are numbered in the order they are added.
+     *
+     * @param hopperId  The id of a hopper that has been added.
+     * @param ageRanges The age range of each present.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder presents(int hopperId, @NotNull String... ageRanges) {
+        return presents(hopperId, Present.STANDARD, ageRanges);
+    }
+
+    /**
+     * Add presents of the specified priority class to a hopper. The presents are numbered in the order they are added.
+     *
+     * @param hopperId  The id of a hopper that has been added.
+     * @param priority  The priority class of the presents (see {@link Present#getPriority()}).
+     * @param ageRanges The age range of each present.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder presents(int hopperId, int priority, @NotNull String... ageRanges) {
+        HopperSpec hopper = mHoppers.get(hopperId);
+        if (hopper == null) throw new IllegalArgumentException("Unknown hopper " + hopperId);
+        if (priority < Present.STANDARD || priority > Present.MAX_PRIORITY) {
+            throw new IllegalArgumentException("Unknown priority " + priority);
+        }
+        for (String ageRange : ageRanges) {
+            hopper.mPresents.add(ageRange);
+            hopper.mPriorities.add(priority);
+        }
+        return this;
+    }
+
+    /**
+     * Add a sack.
+     *
+     * @param id       The unique identifier of the sack.
+     * @param capacity The number of presents the sack can hold.
+     * @param ageRange The age range of the presents the sack collects.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder sack(int id, int capacity, @NotNull String ageRange) {
+        if (mSacks.containsKey(id)) throw new IllegalArgumentException("Duplicate sack " + id);
+        mSacks.put(id, new SackSpec(capacity, ageRange));
+        return this;
+    }
+
+    /**
+     * Add a turntable without any connections.
+     *
+     * @param id The unique identifier of the turntable.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder turntable(@NotNull String id) {
+        if (mTables.containsKey(id)) throw new IllegalArgumentException("Duplicate turntable " + id);
+        mTables.put(id, new ConnectionSpec[Turntable.W + 1]);
+        return this;
+    }
+
+    /**
+     * Set the number of presents a turntable can carry in a single rotation (see {@link Turntable#setCapacity}).
+     *
+     * @param tableId  The id of a turntable that has been added.
+     * @param capacity The number of presents.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder capacity(@NotNull String tableId, int capacity) {
+        if (!mTables.containsKey(tableId)) throw new IllegalArgumentException("Unknown turntable " + tableId);
+        if (capacity < 1) throw new IllegalArgumentException("Turntable " + tableId + " needs a capacity of at least 1");
+        mTableCapacities.put(tableId, capacity);
+        return this;
+    }
+
+    /**
+     * Set how the presents of a turntable pick among several output belts that lead to their sack.
+     *
+     * @param tableId The id of a turntable that has been added.
+     * @param routing {@link Turntable#ROUTE_FIRST}, {@link Turntable#ROUTE_OCCUPANCY} or {@link Turntable#ROUTE_SHORTEST_QUEUE}.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder routing(@NotNull String tableId, @NotNull String routing) {
+        if (!mTables.containsKey(tableId)) throw new IllegalArgumentException("Unknown turntable " + tableId);
+        if (!Turntable.ROUTE_FIRST.equals(routing) && !Turntable.ROUTE_OCCUPANCY.equals(routing)
+                && !Turntable.ROUTE_SHORTEST_QUEUE.equals(routing)) {
+            throw new IllegalArgumentException("Unknown routing " + routing);
+        }
+        mTableRoutings.put(tableId, routing);
+        return this;
+    }
+
+    /**
+     * Attach a belt or a sack to a port of a turntable.
+     *
+     * @param tableId The id of a turntable that has been added.
+     * @param port    {@link Turntable#N}, {@link Turntable#E}, {@link Turntable#S} or {@link Turntable#W}.
+     * @param type    The kind of the connection.
+     * @param id      The id of the belt (or of the sack, for {@link ConnectionType#OutputSack}).
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder connect(@NotNull String tableId, int port, @NotNull ConnectionType type, int id) {
+        ConnectionSpec[] ports = mTables.get(tableId);
+        if (ports == null) throw new IllegalArgumentException("Unknown turntable " + tableId);
+        if (port < Turntable.N || port > Turntable.W) throw new IllegalArgumentException("Unknown port " + port);
+        ports[port] = new ConnectionSpec(type, id);
+        return this;
+    }
+
+    /**
+     * Setter for the length of the timer, which {@link MyClass} runs a machine for.
+     * A {@link Machine} itself runs until it gets stopped.
+     *
+     * @param seconds The length of the timer in seconds.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder timer(int seconds) {
+        mTimerLength = seconds;
+        return this;
+    }
+
+    /**
+     * Setter for the clock the simulated delays are measured against (real time by default).
+     *
+     * @param timeSource The clock of the machine.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder timeSource(@NotNull TimeSource timeSource) {
+        mTimeSource = timeSource;
+        return this;
+    }
+
+    /**
+     * Run the turntables on a {@link TurntableScheduler} instead of a thread each.
+     *
+     * @param workers The number of worker threads.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder scheduler(int workers) {
+        if (workers < 1) throw new IllegalArgumentException("A scheduler needs at least 1 worker");
+        mWorkers = workers;
+        return this;
+    }
+
+    /**
+     * Let every turntable send presents along another belt that leads to their sack, once the belt
+     * they would take has stayed full for the specified time (see {@link Turntable#setRerouteAfter}).
+     *
+     * @param millis The simulated time in milliseconds, or 0 to always wait for the belt.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder rerouteAfter(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("Cannot reroute after " + millis + " ms");
+        mRerouteAfter = millis;
+        return this;
+    }
+
+    /**
+     * Inject faults into the machine while it runs (see {@link FaultInjector}).
+     *
+     * @param faults The faults, e.g. {@code jam:3@20+30,halt:B@40+10}.
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder faults(@NotNull String faults) {
+        mFaults = faults;
+        return this;
+    }
+
+    /**
+     * Store the presents off-heap (see {@link PresentTable}).
+     *
+     * @return This builder.
+     */
+    @NotNull
+    public MachineBuilder offHeap() {
+        mOffHeap = true;
+        return this;
+    }
+
+    /**
+     * Create the components, fill the hoppers and wire everything up.
+     *
+     * @return A new machine, ready to be started.
+     * @throws IllegalArgumentException if a component refers to a belt or sack that has not been added,
+     *                                  or a fault is not valid.
+     */
+    @NotNull
+    public Machine build() {
+        Machine machine = new Machine(buildScenario(), mTimeSource, mWorkers);
+        if (mFaults != null) machine.injectFaults(mFaults);
+        return machine;
+    }
+
+    /**
+     * Same as {@link #build()}, but returns the components without a {@link Machine} handle.
+     *
+     * @return A new scenario, with its hoppers filled.
+     * @throws IllegalArgumentException if a component refers to a belt or sack that has not been added.
+     */
+    @NotNull
+    public Scenario buildScenario() {
+        PresentTable table = mOffHeap ? new PresentTable() : null;
+
+        HashMap<Integer, Conveyor> beltsById = new HashMap<>();
+        Conveyor[] belts = new Conveyor[mBelts.size()];
+        int b = 0;
+        for (Integer id : mBelts.keySet()) {
+            BeltSpec spec = mBelts.get(id);
+            belts[b] = new Conveyor(id, spec.mLength, spec.mLanes, spec.mLaneSelection, spec.mPriorities, table);
+            for (int destination : spec.mDestinations) {
+                belts[b].addDestination(destination);
+            }
+            belts[b].setWaitStrategy(spec.mWaitStrategy);
+            beltsById.put(id, belts[b++]);
+        }
+
+        HashMap<Integer, Sack> sacksById = new HashMap<>();
+        HashMap<String, Integer> destinations = new HashMap<>();
+        Sack[] sacks = new Sack[mSacks.size()];
+        String[] sackAgeRanges = new String[sacks.length];
+        int s = 0;
+        for (Integer id : mSacks.keySet()) {
+            SackSpec spec = mSacks.get(id);
+            sacks[s] = new Sack(id, spec.mCapacity, table);
+            sackAgeRanges[s] = spec.mAgeRange;
+            destinations.put(spec.mAgeRange, id);
+            sacksById.put(id, sacks[s++]);
+        }
+
+        Turntable[] tables = new Turntable[mTables.size()];
+        int t = 0;
+        for (String id : mTables.keySet()) {
+            tables[t] = new Turntable(id, destinations);
+            tables[t].setCapacity(mTableCapacities.getOrDefault(id, 1));
+            if (mTableRoutings.containsKey(id)) tables[t].setRouting(mTableRoutings.get(id));
+            tables[t].setRerouteAfter(mRerouteAfter);
+            ConnectionSpec[] ports = mTables.get(id);
+            for (int port = Turntable.N; port <= Turntable.W; port++) {
+                if (ports[port] == null) continue;
+                if (ports[port].mType == ConnectionType.OutputSack) {
+                    tables[t].addConnection(port, new Connection(ports[port].mType, null,
+                            lookUp(sacksById, ports[port].mId, "sack")));
+                } else {
+                    tables[t].addConnection(port, new Connection(ports[port].mType,
+                            lookUp(beltsById, ports[port].mId, "belt"), null));
+                }
+            }
+            t++;
+        }
+
+        Hopper[] hoppers = new Hopper[mHoppers.size()];
+        int numPresents = 0; // Also used as the id of the next present
+        int h = 0;
+        for (Integer id : mHoppers.keySet()) {
+            HopperSpec spec = mHoppers.get(id);
+            hoppers[h] = new Hopper(id, lookUp(beltsById, spec.mBeltId, "belt"), spec.mCapacity, spec.mSpeed, table);
+            for (int p = 0; p < spec.mPresents.size(); p++) {
+                hoppers[h].fill(new Present(numPresents++, spec.mPresents.get(p), spec.mPriorities.get(p)));
+            }
+            h++;
+        }
+        return new Scenario(belts, hoppers, sacks, sackAgeRanges, tables, mTimerLength, numPresents);
+    }
+
+    @NotNull
+    private BeltSpec beltSpec(int beltId) {
+        BeltSpec belt = mBelts.get(beltId);
+        if (belt == null) throw new IllegalArgumentException("Unknown belt " + beltId);
+        return belt;
+    }
+
+    @NotNull
+    private static <T> T lookUp(@NotNull HashMap<Integer, T> components, int id, @NotNull String kind) {
+        T component = components.get(id);
+        if (component == null) throw new IllegalArgumentException("Unknown " + kind + " " + id);
+        return component;
+    }
+
+    private static class BeltSpec {
+        private final int mLength;
+        private final int[] mDestinations;
+        private int mLanes = 1;
+        private String mLaneSelection = MultiLaneQueue.LEAST_OCCUPIED;
+        private boolean mPriorities;
+        private WaitStrategy mWaitStrategy;
+
+        BeltSpec(int length, @NotNull int[] destinations) {
+            mLength = length;
+            mDestinations = destinations.clone();
+        }
+    }
+
+    private static class HopperSpec {
+        private final int mBeltId;
+        private final int mCapacity;
+        private final int mSpeed;
+        private final ArrayList<String> mPresents = new ArrayList<>();
+        private final ArrayList<Integer> mPriorities = new ArrayList<>();
+
+        HopperSpec(int beltId, int capacity, int speed) {
+            mBeltId = beltId;
+            mCapacity = capacity;
+            mSpeed = speed;
+        }
+    }
+
+    private static class SackSpec {
+        private final int mCapacity;
+        private final String mAgeRange;
+
+        SackSpec(int capacity, @NotNull String ageRange) {
+            mCapacity = capacity;
+            mAgeRange = ageRange;
+        }
+    }
+
+    private static class ConnectionSpec {
+        private final ConnectionType mType;
+        private final int mId;
+
+        ConnectionSpec(@NotNull ConnectionType type, int id) {
+            mType = type;
+            mId = id;
+        }
+    }
+}
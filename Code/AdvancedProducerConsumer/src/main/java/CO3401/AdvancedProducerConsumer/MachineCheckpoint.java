@@ -0,0 +1,248 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Snapshots the full state of the machine into a compact binary file and
+ * restores a machine from such a file, so that long simulations can be resumed
+ * after a restart or forked into several what-if runs.
+ * <p>
+ * Consistency: every step that moves a present from one container to another
+ * (hopper to belt, belt to belt, belt to sack) is wrapped in {@link #beginMove()} and
+ * {@link #endMove()}, which take the shared side of a read-write lock. Those steps never
+ * block or sleep (a turntable waits for a sack replacement after its step, see {@link Sack#depositPresent}),
+ * so {@link #write} only waits for the moves in flight to finish, copies the
+ * contents while holding the exclusive side and writes the file after releasing it.
+ * Threads blocked on a Conveyor semaphore hold no present, thus they do not need to be stopped.
+ * <p>
+ * File layout (big-endian, see {@link DataOutputStream}):
+ * <p> - int magic, short version, long elapsed simulated milliseconds (see {@link TimeSource#toSimulatedMillis})
+ * <p> - the age ranges of all presents (presents refer to them by index)
+ * <p> - per hopper: id, initial number of presents, waiting time, presents
+ * <p> - per belt: id, presents (front first)
+ * <p> - per sack: id, total number of presents, presents of the current sack
+ * <p> - per turntable: id, compass direction
+ * <p>
+ * Every present is stored as its id and the index of its age range, whose top byte holds the priority
+ * class of the present (since version 2, which can still read checkpoints of version 1).
+ *
+ * @author anonymous
+ */
+public class MachineCheckpoint {
+
+    private static final int MAGIC = 0x58434B50; // "XCKP"
+    private static final short VERSION = 2;
+    private static final int PRIORITY_SHIFT = 24;
+    private static final int AGE_INDEX_MASK = (1 << PRIORITY_SHIFT) - 1;
+
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /**
+     * Mark the beginning of a present movement. Must be paired with {@link #endMove()}.
+     */
+    public void beginMove() {
+        mLock.readLock().lock();
+    }
+
+    /**
+     * Mark the end of a present movement.
+     */
+    public void endMove() {
+        mLock.readLock().unlock();
+    }
+
+    /**
+     * Take a consistent snapshot of the machine and store it in the specified file.
+     * The file is replaced atomically, so a crash while writing keeps the previous snapshot.
+     *
+     * @param fileName      The path of the checkpoint file.
+     * @param elapsedMillis The simulated time the machine has been running for, so that the snapshot
+     *                      can be restored against another time source.
+     * @throws IOException if the file cannot be written.
+     */
+    public void write(@NotNull String fileName, long elapsedMillis, @NotNull Hopper[] hoppers,
+                      @NotNull Conveyor[] belts, @NotNull Sack[] sacks, @NotNull Turntable[] tables) throws IOException {
+        HashMap<String, Integer> ageIndexes = new HashMap<>();
+        ArrayList<String> ages = new ArrayList<>();
+        int[][] hopperPresents = new int[hoppers.length][];
+        long[] hopperCounters = new long[2 * hoppers.length];
+        int[][] beltPresents = new int[belts.length][];
+        int[][] sackPresents = new int[sacks.length][];
+        int[] sackTotals = new int[sacks.length];
+        int[] directions = new int[tables.length];
+
+        // Copy the state while no present is moving
+        mLock.writeLock().lock();
+        try {
+            for (int h = 0; h < hoppers.length; h++) {
+                hopperPresents[h] = encode(hoppers[h].getPresents(), ageIndexes, ages);
+                hopperCounters[2 * h] = hoppers[h].getInitialNumberOfPresents();
+                hopperCounters[2 * h + 1] = hoppers[h].getTotalWaitingTime();
+            }
+            for (int b = 0; b < belts.length; b++) {
+                beltPresents[b] = encode(belts[b].getPresents(), ageIndexes, ages);
+            }
+            for (int s = 0; s < sacks.length; s++) {
+                sackPresents[s] = encode(sacks[s].getCurrentPresents(), ageIndexes, ages);
+                sackTotals[s] = sacks[s].getTotalNumberOfPresents();
+            }
+            for (int t = 0; t < tables.length; t++) {
+                directions[t] = tables[t].getCompassDirection();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+
+        File target = new File(fileName);
+        File temporary = new File(fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(elapsedMillis);
+            out.writeInt(ages.size());
+            for (String age : ages) out.writeUTF(age);
+            out.writeInt(hoppers.length);
+            for (int h = 0; h < hoppers.length; h++) {
+                out.writeInt(hoppers[h].getIdentifier());
+                out.writeInt((int) hopperCounters[2 * h]);
+                out.writeLong(hopperCounters[2 * h + 1]);
+                writePresents(out, hopperPresents[h]);
+            }
+            out.writeInt(belts.length);
+            for (int b = 0; b < belts.length; b++) {
+                out.writeInt(belts[b].getId());
+                writePresents(out, beltPresents[b]);
+            }
+            out.writeInt(sacks.length);
+            for (int s = 0; s < sacks.length; s++) {
+                out.writeInt(sacks[s].getId());
+                out.writeInt(sackTotals[s]);
+                writePresents(out, sackPresents[s]);
+            }
+            out.writeInt(tables.length);
+            for (int t = 0; t < tables.length; t++) {
+                out.writeUTF(tables[t].getTurntableId());
+                out.writeByte(directions[t]);
+            }
+        }
+        if (!temporary.renameTo(target)) {
+            // Some platforms cannot rename over an existing file
+            if (!target.delete() || !temporary.renameTo(target)) {
+                throw new IOException("cannot replace " + fileName);
+            }
+        }
+    }
+
+    /**
+     * Load a snapshot into a freshly built machine of the same layout, whose
+     * hoppers have not been filled and whose threads have not been started.
+     *
+     * @param fileName The path of the checkpoint file.
+     * @return The simulated time (in milliseconds) the machine had been running for when the snapshot was taken.
+     * @throws IOException if the file cannot be read or does not match the layout.
+     */
+    public static long restore(@NotNull String fileName, @NotNull Hopper[] hoppers, @NotNull Conveyor[] belts,
+                               @NotNull Sack[] sacks, @NotNull Turntable[] tables) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a checkpoint");
+            short version = in.readShort();
+            // Version 1 differs only in having no priority classes, which read as standard presents
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported version " + version + " of checkpoint");
+            }
+            long elapsedMillis = in.readLong();
+            String[] ages = new String[in.readInt()];
+            for (int a = 0; a < ages.length; a++) ages[a] = in.readUTF();
+
+            checkCount(in.readInt(), hoppers.length, "hoppers");
+            for (Hopper hopper : hoppers) {
+                checkId(in.readInt(), hopper.getIdentifier(), "hopper");
+                int initialNumberOfPresents = in.readInt();
+                long totalWaitingTime = in.readLong();
+                int count = in.readInt();
+                for (int p = 0; p < count; p++) {
+                    hopper.fill(readPresent(in, ages));
+                }
+                hopper.restoreCounters(initialNumberOfPresents, totalWaitingTime);
+            }
+            checkCount(in.readInt(), belts.length, "belts");
+            for (Conveyor belt : belts) {
+                checkId(in.readInt(), belt.getId(), "belt");
+                int count = in.readInt();
+                for (int p = 0; p < count; p++) {
+                    belt.restorePresent(readPresent(in, ages));
+                }
+            }
+            checkCount(in.readInt(), sacks.length, "sacks");
+            for (Sack sack : sacks) {
+                checkId(in.readInt(), sack.getId(), "sack");
+                int total = in.readInt();
+                int count = in.readInt();
+                for (int p = 0; p < count; p++) {
+                    sack.addPresentToSack(readPresent(in, ages));
+                }
+                sack.restoreTotalNumberOfPresents(total);
+            }
+            checkCount(in.readInt(), tables.length, "turntables");
+            for (Turntable table : tables) {
+                String id = in.readUTF();
+                if (!id.equals(table.getTurntableId())) throw new IOException("expected turntable " + table.getTurntableId());
+                table.restoreCompassDirection(in.readByte());
+            }
+            return elapsedMillis;
+        }
+    }
+
+    /**
+     * Copy the presents of a container as (id, age index and priority class) pairs.
+     */
+    @NotNull
+    private static int[] encode(@NotNull ArrayQueue<Present> presents, HashMap<String, Integer> ageIndexes,
+                                ArrayList<String> ages) {
+        int[] encoded = new int[2 * presents.getSize()];
+        for (int p = 0; p < presents.getSize(); p++) {
+            Present present = presents.peek(p);
+            Integer ageIndex = ageIndexes.get(present.readDestination());
+            if (ageIndex == null) {
+                ageIndex = ages.size();
+                ages.add(present.readDestination());
+                ageIndexes.put(present.readDestination(), ageIndex);
+            }
+            encoded[2 * p] = present.getId();
+            encoded[2 * p + 1] = ageIndex | present.getPriority() << PRIORITY_SHIFT;
+        }
+        return encoded;
+    }
+
+    private static void writePresents(@NotNull DataOutputStream out, @NotNull int[] encoded) throws IOException {
+        out.writeInt(encoded.length / 2);
+        for (int value : encoded) out.writeInt(value);
+    }
+
+    @NotNull
+    private static Present readPresent(@NotNull DataInputStream in, @NotNull String[] ages) throws IOException {
+        int id = in.readInt();
+        int entry = in.readInt();
+        return new Present(id, ages[entry & AGE_INDEX_MASK], entry >>> PRIORITY_SHIFT);
+    }
+
+    private static void checkCount(int found, int expected, String what) throws IOException {
+        if (found != expected) throw new IOException("checkpoint has " + found + " " + what + ", layout has " + expected);
+    }
+
+    private static void checkId(int found, int expected, String what) throws IOException {
+        if (found != expected) throw new IOException("expected " + what + " " + expected + ", found " + found);
+    }
+}
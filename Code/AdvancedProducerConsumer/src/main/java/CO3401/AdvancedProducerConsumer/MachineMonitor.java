@@ -0,0 +1,425 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/**
+ * Registers every component of a running machine as an MXBean of the platform MBean server, so that JConsole
+ * (or any JMX client, local or remote) can watch the machine and tune it while it runs, instead of waiting
+ * for the final report. The object names are {@code CO3401.AdvancedProducerConsumer:machine=<name>,type=<type>}
+ * plus {@code id=<id>} for the components:
+ * <p> - Hopper: presents left and deposited, speed, waiting time, whether it is blocked or stopped.
+ * Operations: change its speed, pause its input.
+ * <p> - Conveyor: occupancy, capacity, waiting time, whether it is full, jammed or blocked.
+ * <p> - Turntable: compass direction, presents moved, waiting time, whether it is blocked or halted.
+ * <p> - Sack: occupancy, capacity, total presents, replacements, whether it is full.
+ * <p> - Machine: the presents in the hoppers, on the belts and in the sacks and the run time.
+ * Operations: pause the input of every hopper, take a snapshot ({@link MachineCheckpoint}).
+ * <p>
+ * The attributes are read straight from the components when a client asks for them, so a machine
+ * that nobody watches pays nothing. Pausing the input does what the timer running out does
+ * ({@link Hopper#TIMER_RUN_OUT}): the hopper stops for good, and the turntables sort the presents left on the belts.
+ *
+ * @author anonymous
+ */
+public class MachineMonitor {
+
+    public static final String DOMAIN = "CO3401.AdvancedProducerConsumer";
+    private static final String[] COMPASS = {"N", "E", "S", "W"};
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private final Machine mMachine;
+    private final String mName;
+    private final MachineCheckpoint mCheckpoint;
+    private final long mElapsedBeforeMillis;
+    private final MBeanServer mServer = ManagementFactory.getPlatformMBeanServer();
+    private final ArrayList<ObjectName> mRegistered = new ArrayList<>();
+
+    /**
+     * Public Constructor. Nothing gets registered until {@link #register()}.
+     *
+     * @param machine             The machine to be monitored.
+     * @param name                The name of the machine, unique within the JVM (e.g. its configuration file).
+     * @param checkpoint          The checkpoint that the hoppers and turntables of the machine take part in,
+     *                            or null if the machine cannot take snapshots.
+     * @param elapsedBeforeMillis The simulated time the machine had been running for before it was restored, or 0.
+     */
+    public MachineMonitor(@NotNull Machine machine, @NotNull String name, MachineCheckpoint checkpoint,
+                          long elapsedBeforeMillis) {
+        mMachine = machine;
+        mName = name;
+        mCheckpoint = checkpoint;
+        mElapsedBeforeMillis = elapsedBeforeMillis;
+    }
+
+    /**
+     * Register an MXBean for the machine and for each of its components.
+     *
+     * @throws JMException if a name is already taken, e.g. by another machine with the same name.
+     */
+    public synchronized void register() throws JMException {
+        Scenario scenario = mMachine.getScenario();
+        register("Machine", null, new MachineView(), MachineMXBean.class);
+        for (Hopper hopper : scenario.getHoppers()) {
+            register("Hopper", String.valueOf(hopper.getIdentifier()), new HopperView(hopper), HopperMXBean.class);
+        }
+        for (Conveyor belt : scenario.getBelts()) {
+            register("Conveyor", String.valueOf(belt.getId()), new ConveyorView(belt), ConveyorMXBean.class);
+        }
+        for (Turntable table : scenario.getTables()) {
+            register("Turntable", table.getTurntableId(), new TurntableView(table), TurntableMXBean.class);
+        }
+        for (Sack sack : scenario.getSacks()) {
+            register("Sack", String.valueOf(sack.getId()), new SackView(sack), SackMXBean.class);
+        }
+    }
+
+    private <T> void register(@NotNull String type, String id, @NotNull T view, @NotNull Class<T> mxBean)
+            throws JMException {
+        ObjectName name = new ObjectName(DOMAIN + ":machine=" + ObjectName.quote(mName) + ",type=" + type
+                + (id == null ? "" : ",id=" + ObjectName.quote(id)));
+        mServer.registerMBean(new StandardMBean(view, mxBean, true), name);
+        mRegistered.add(name);
+    }
+
+    /**
+     * Unregister all the MXBeans of the machine, e.g. once it has completed shutdown.
+     */
+    public synchronized void unregister() {
+        for (ObjectName name : mRegistered) {
+            try {
+                mServer.unregisterMBean(name);
+            } catch (JMException ignored) {
+                // Already unregistered by a client
+            }
+        }
+        mRegistered.clear();
+    }
+
+    /**
+     * The attributes and operations of the whole machine.
+     */
+    public interface MachineMXBean {
+
+        int getPresentsInHoppers();
+
+        int getPresentsOnBelts();
+
+        int getPresentsInSacks();
+
+        long getRunMillis();
+
+        boolean isTerminated();
+
+        /**
+         * Stop every hopper from depositing presents, as when the timer runs out.
+         */
+        void pauseInput();
+
+        /**
+         * Take a consistent snapshot of the machine, which {@code -Dsimulation.restore} can carry on from.
+         *
+         * @param fileName The path of the checkpoint file.
+         * @return Where the snapshot was written to.
+         */
+        String snapshot(String fileName) throws IOException;
+    }
+
+    public interface HopperMXBean {
+
+        int getPresentsLeft();
+
+        int getPresentsDeposited();
+
+        int getBeltId();
+
+        int getSpeed();
+
+        /**
+         * @return The time (in milliseconds) the hopper has waited for free slots on its belt.
+         */
+        long getWaitingTime();
+
+        boolean isBlocked();
+
+        boolean isStopped();
+
+        /**
+         * @param presentsPerSecond The new speed of the hopper.
+         */
+        void changeSpeed(int presentsPerSecond);
+
+        /**
+         * Stop the hopper from depositing presents, as when the timer runs out.
+         */
+        void pauseInput();
+    }
+
+    public interface ConveyorMXBean {
+
+        int getOccupancy();
+
+        int getCapacity();
+
+        /**
+         * @return The time (in milliseconds) threads have waited on the belt because it was full, empty or locked.
+         */
+        long getWaitingTime();
+
+        boolean isFull();
+
+        boolean isJammed();
+
+        /**
+         * @return True if no present can be placed onto the belt, as it is full or jammed.
+         */
+        boolean isBlocked();
+    }
+
+    public interface TurntableMXBean {
+
+        /**
+         * @return N, E, S or W.
+         */
+        String getCompassDirection();
+
+        long getPresentsMoved();
+
+        /**
+         * @return The time (in milliseconds) the turntable has waited on its belts.
+         */
+        long getWaitingTime();
+
+        boolean isBlocked();
+
+        boolean isHalted();
+    }
+
+    public interface SackMXBean {
+
+        int getOccupancy();
+
+        int getCapacity();
+
+        int getTotalPresents();
+
+        long getReplacements();
+
+        boolean isFull();
+    }
+
+    private class MachineView implements MachineMXBean {
+
+        @Override
+        public int getPresentsInHoppers() {
+            return mMachine.getPresentsInHoppers();
+        }
+
+        @Override
+        public int getPresentsOnBelts() {
+            return mMachine.getPresentsOnBelts();
+        }
+
+        @Override
+        public int getPresentsInSacks() {
+            return mMachine.getPresentsInSacks();
+        }
+
+        @Override
+        public long getRunMillis() {
+            return mMachine.getRunMillis();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return mMachine.isTerminated();
+        }
+
+        @Override
+        public void pauseInput() {
+            mMachine.stop();
+        }
+
+        @Override
+        public String snapshot(String fileName) throws IOException {
+            if (mCheckpoint == null) {
+                throw new IllegalStateException("The machine was started without snapshots");
+            }
+            Scenario scenario = mMachine.getScenario();
+            TimeSource timeSource = mMachine.getTimeSource();
+            long elapsedMillis = mElapsedBeforeMillis + timeSource.toSimulatedMillis(mMachine.getRunMillis());
+            mCheckpoint.write(fileName, elapsedMillis, scenario.getHoppers(),
+                    scenario.getBelts(), scenario.getSacks(), scenario.getTables());
+            return "Snapshot written to " + fileName;
+        }
+    }
+
+    private static class HopperView implements HopperMXBean {
+
+        private final Hopper mHopper;
+
+        HopperView(@NotNull Hopper hopper) {
+            mHopper = hopper;
+        }
+
+        @Override
+        public int getPresentsLeft() {
+            return mHopper.getNumberOfPresents();
+        }
+
+        @Override
+        public int getPresentsDeposited() {
+            return mHopper.getNumberOfPresentsDeposited();
+        }
+
+        @Override
+        public int getBeltId() {
+            return mHopper.getBelt().getId();
+        }
+
+        @Override
+        public int getSpeed() {
+            return mHopper.getSpeed();
+        }
+
+        @Override
+        public long getWaitingTime() {
+            return mHopper.getTotalWaitingTime();
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return mHopper.isBlocked();
+        }
+
+        @Override
+        public boolean isStopped() {
+            return mHopper.hasTimerRunOut() || !mHopper.isAlive();
+        }
+
+        @Override
+        public void changeSpeed(int presentsPerSecond) {
+            mHopper.setSpeed(presentsPerSecond);
+        }
+
+        @Override
+        public void pauseInput() {
+            mHopper.setTimerState(Hopper.TIMER_RUN_OUT);
+        }
+    }
+
+    private static class ConveyorView implements ConveyorMXBean {
+
+        private final Conveyor mBelt;
+
+        ConveyorView(@NotNull Conveyor belt) {
+            mBelt = belt;
+        }
+
+        @Override
+        public int getOccupancy() {
+            return mBelt.getNumberOfPresents();
+        }
+
+        @Override
+        public int getCapacity() {
+            return mBelt.getPresents().getCapacity();
+        }
+
+        @Override
+        public long getWaitingTime() {
+            return (mBelt.getContendedTime(Conveyor.FULL) + mBelt.getContendedTime(Conveyor.EMPTY)
+                    + mBelt.getContendedTime(Conveyor.LOCKED)) / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public boolean isFull() {
+            return getOccupancy() >= getCapacity();
+        }
+
+        @Override
+        public boolean isJammed() {
+            return mBelt.isJammed();
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return isJammed() || isFull();
+        }
+    }
+
+    private static class TurntableView implements TurntableMXBean {
+
+        private final Turntable mTable;
+
+        TurntableView(@NotNull Turntable table) {
+            mTable = table;
+        }
+
+        @Override
+        public String getCompassDirection() {
+            return COMPASS[mTable.getCompassDirection()];
+        }
+
+        @Override
+        public long getPresentsMoved() {
+            return mTable.getNumberOfPresentsMoved();
+        }
+
+        @Override
+        public long getWaitingTime() {
+            return mTable.getWaitingTime();
+        }
+
+        @Override
+        public boolean isBlocked() {
+            return mTable.isBlocked();
+        }
+
+        @Override
+        public boolean isHalted() {
+            return mTable.isHalted();
+        }
+    }
+
+    private static class SackView implements SackMXBean {
+
+        private final Sack mSack;
+
+        SackView(@NotNull Sack sack) {
+            mSack = sack;
+        }
+
+        @Override
+        public int getOccupancy() {
+            return mSack.getCurrentPresents().getSize();
+        }
+
+        @Override
+        public int getCapacity() {
+            return mSack.getCapacity();
+        }
+
+        @Override
+        public int getTotalPresents() {
+            return mSack.getTotalNumberOfPresents();
+        }
+
+        @Override
+        public long getReplacements() {
+            return mSack.getNumberOfReplacements();
+        }
+
+        @Override
+        public boolean isFull() {
+            return getOccupancy() >= getCapacity();
+        }
+    }
+}
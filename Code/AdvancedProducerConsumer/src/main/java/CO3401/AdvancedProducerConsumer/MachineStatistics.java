@@ -0,0 +1,79 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lock-free reader of the statistics of a machine.
+ * <p>
+ * Every hopper, turntable and sack keeps its counters in {@link CounterCell}s it owns
+ * (the total of a sack, which several turntables add to, in a striped counter),
+ * and this class sums the cells on demand. Reading never blocks the threads that move the
+ * presents and never writes to their cache lines, so the statistics can be sampled as often
+ * as needed (see {@link StatisticsBenchmark}). The sums are not a snapshot of a single instant,
+ * as each cell is read at a slightly different time.
+ *
+ * @author anonymous
+ */
+public class MachineStatistics {
+
+    private final Hopper[] mHoppers;
+    private final Turntable[] mTables;
+    private final Sack[] mSacks;
+
+    /**
+     * Public Constructor.
+     *
+     * @param hoppers The hoppers of the machine.
+     * @param tables  The turntables of the machine.
+     * @param sacks   The sacks of the machine.
+     */
+    public MachineStatistics(@NotNull Hopper[] hoppers, @NotNull Turntable[] tables, @NotNull Sack[] sacks) {
+        mHoppers = hoppers;
+        mTables = tables;
+        mSacks = sacks;
+    }
+
+    /**
+     * Access the time the hoppers have waited for space on their belts.
+     *
+     * @return The total waiting time of all hoppers in milliseconds.
+     */
+    public long getHopperWaitingTime() {
+        long total = 0;
+        for (Hopper hopper : mHoppers) total += hopper.getTotalWaitingTime();
+        return total;
+    }
+
+    /**
+     * Access the number of presents the turntables have passed on.
+     *
+     * @return The number of presents moved onto a belt or into a sack by any turntable.
+     */
+    public long getPresentsMoved() {
+        long total = 0;
+        for (Turntable table : mTables) total += table.getNumberOfPresentsMoved();
+        return total;
+    }
+
+    /**
+     * Access the number of presents that reached their sacks.
+     *
+     * @return The number of presents sorted into any sack.
+     */
+    public long getPresentsSorted() {
+        long total = 0;
+        for (Sack sack : mSacks) total += sack.getTotalNumberOfPresents();
+        return total;
+    }
+
+    /**
+     * Access the number of times the elves replaced a full sack.
+     *
+     * @return The number of sack replacements.
+     */
+    public long getSackReplacements() {
+        long total = 0;
+        for (Sack sack : mSacks) total += sack.getNumberOfReplacements();
+        return total;
+    }
+}
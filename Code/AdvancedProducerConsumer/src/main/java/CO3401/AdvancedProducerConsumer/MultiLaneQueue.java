@@ -0,0 +1,197 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+
+/**
+ * An {@link ArrayQueue} of presents split into several lanes, each one with its own buffer and lock.
+ * Used by multi-lane belts, so that producers placing presents onto different lanes
+ * do not wait for each other.
+ * <p>
+ * - Producers ({@link #add}) pick a lane either by the least occupancy or by hashing their thread,
+ * and only lock that lane.
+ * <p>
+ * - Consumers ({@link #get}) drain the lanes round-robin, starting from the lane after the one
+ * they took the previous present from. The order of the presents is kept within each lane, not across them.
+ * <p>
+ * Every lane can hold as many presents as the whole belt, as the belt's semaphores already limit the total.
+ *
+ * @author anonymous
+ */
+public class MultiLaneQueue extends ArrayQueue<Present> {
+
+    // Ways of picking the lane of a new present
+    public static final String LEAST_OCCUPIED = "least";
+    public static final String HASHED = "hash";
+
+    private final ArrayList<ArrayQueue<Present>> mLanes;
+    private final boolean mHashed;
+    // The lane the next present is taken from (if it has any)
+    private volatile int mNextLane;
+
+    /**
+     * Public Constructor. Create the lanes.
+     *
+     * @param capacity      The maximum number of presents the whole queue can hold.
+     * @param lanes         The number of lanes.
+     * @param laneSelection {@link #LEAST_OCCUPIED} or {@link #HASHED}.
+     * @param table         The table of the off-heap storage, or null to store the presents on the heap.
+     * @throws IllegalArgumentException if the lane selection is unknown.
+     */
+    public MultiLaneQueue(int capacity, int lanes, @NotNull String laneSelection, PresentTable table) {
+        super(capacity);
+        if (!LEAST_OCCUPIED.equals(laneSelection) && !HASHED.equals(laneSelection)) {
+            throw new IllegalArgumentException("Unknown lane selection " + laneSelection);
+        }
+        mHashed = HASHED.equals(laneSelection);
+        mLanes = new ArrayList<>(lanes);
+        for (int l = 0; l < lanes; l++) {
+            mLanes.add(PresentTable.newQueue(capacity, table));
+        }
+        mNextLane = 0;
+    }
+
+    /**
+     * Add the specified present to the back of a lane. Only that lane gets locked.
+     *
+     * @param element The present to be stored.
+     */
+    @Override
+    public void add(Present element) {
+        pickLane().add(element);
+    }
+
+    /**
+     * Remove and access the front present of the next lane that has any presents.
+     *
+     * @return The front present of that lane, or null if all lanes are empty.
+     */
+    @Override
+    public synchronized Present get() {
+        int lane = nextOccupiedLane();
+        if (lane < 0) return null;
+        mNextLane = (lane + 1) % mLanes.size();
+        return mLanes.get(lane).get();
+    }
+
+    /**
+     * Access the front present of the next lane that has any presents and fix the lane {@link #get()}
+     * takes from, so that a present added meanwhile to another lane cannot take its place.
+     *
+     * @return The front present.
+     * @throws IndexOutOfBoundsException if all lanes are empty.
+     */
+    @Override
+    public synchronized Present pinFront() throws IndexOutOfBoundsException {
+        int lane = nextOccupiedLane();
+        if (lane < 0) throw new IndexOutOfBoundsException();
+        mNextLane = lane;
+        return mLanes.get(lane).peek(0);
+    }
+
+    /**
+     * Access the present in the specified position, counting the lanes round-robin
+     * from the one the next present is taken from. Unlike {@link #pinFront()}, it has no side effects.
+     *
+     * @param index The position of a present.
+     * @return The present in that position.
+     * @throws IndexOutOfBoundsException if the specified index is not valid.
+     */
+    @Override
+    public synchronized Present peek(int index) throws IndexOutOfBoundsException {
+        for (int l = 0; l < mLanes.size(); l++) {
+            ArrayQueue<Present> lane = mLanes.get((mNextLane + l) % mLanes.size());
+            int size = lane.getSize();
+            if (index < size) return lane.peek(index);
+            index -= size;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public synchronized void remove(int index) {
+        for (int l = 0; l < mLanes.size(); l++) {
+            ArrayQueue<Present> lane = mLanes.get((mNextLane + l) % mLanes.size());
+            int size = lane.getSize();
+            if (index >= 0 && index < size) {
+                lane.remove(index);
+                return;
+            }
+            index -= size;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (ArrayQueue<Present> lane : mLanes) lane.clear();
+        mNextLane = 0;
+    }
+
+    @Override
+    public boolean isFull() {
+        return getSize() >= getCapacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int l = 0; l < mLanes.size(); l++) {
+            if (!mLanes.get(l).isEmpty()) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (int l = 0; l < mLanes.size(); l++) {
+            size += mLanes.get(l).getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Access the number of lanes.
+     *
+     * @return The number of lanes of the queue.
+     */
+    public int getLaneCount() {
+        return mLanes.size();
+    }
+
+    /**
+     * Pick the lane of a new present.
+     *
+     * @return The least occupied lane, or the lane of the calling thread when hashing.
+     */
+    @NotNull
+    private ArrayQueue<Present> pickLane() {
+        if (mHashed) {
+            return mLanes.get((int) (Thread.currentThread().getId() % mLanes.size()));
+        }
+        ArrayQueue<Present> least = mLanes.get(0);
+        int leastSize = least.getSize();
+        for (int l = 1; l < mLanes.size() && leastSize > 0; l++) {
+            int size = mLanes.get(l).getSize();
+            if (size < leastSize) {
+                least = mLanes.get(l);
+                leastSize = size;
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Find the first lane that has any presents, starting from {@link #mNextLane}.
+     *
+     * @return The index of the lane, or -1 if all lanes are empty.
+     */
+    private int nextOccupiedLane() {
+        for (int l = 0; l < mLanes.size(); l++) {
+            int lane = (mNextLane + l) % mLanes.size();
+            if (!mLanes.get(lane).isEmpty()) return lane;
+        }
+        return -1;
+    }
+}
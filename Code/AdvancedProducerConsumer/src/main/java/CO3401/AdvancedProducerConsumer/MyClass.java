@@ -1,10 +1,17 @@
 package CO3401.AdvancedProducerConsumer;
 
+import com.sun.management.OperatingSystemMXBean;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
+import javax.management.JMException;
 import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
 
 import static java.lang.Thread.sleep;
 
@@ -35,351 +42,367 @@ public class MyClass {
     private static final String FILE_NAME
             = "C:\\Users\\cchar\\Documents\\Computing Year 4\\CO3401 Advanced Software Engineering Techniques\\" +
             "Assignment Part 1 - Final\\Code\\AdvancedProducerConsumer\\src\\main\\resources\\Scenarios\\scenario5.txt";
+    // Run with -Dsimulation.trace=true to record the journey of every present (see PresentTracer)
+    private static final boolean TRACING_ENABLED = Boolean.getBoolean("simulation.trace");
+    // Upper bound of hops stored per present by the tracer
+    private static final int MAX_TRACED_HOPS = 64;
+    // Run with -Dsimulation.journal=<file> to log every present movement (see EventJournal)
+    private static final String JOURNAL_FILE = System.getProperty("simulation.journal");
+    // Run with -Dsimulation.timeSeries=<file> to sample the machine into a columnar file (see TimeSeriesSampler)
+    private static final String TIME_SERIES_FILE = System.getProperty("simulation.timeSeries");
+    // Simulated milliseconds between two samples of the time series
+    private static final long SAMPLE_INTERVAL = Long.getLong("simulation.sampleInterval", 100L);
+    // Run with -Dsimulation.checkpoint=<file> to snapshot the machine at every interim report
+    private static final String CHECKPOINT_FILE = System.getProperty("simulation.checkpoint");
+    // Run with -Dsimulation.restore=<file> to continue from a snapshot instead of the PRESENTS sections
+    private static final String RESTORE_FILE = System.getProperty("simulation.restore");
+    // Run with -Dsimulation.hopperControl=aimd to adapt the speed of the hoppers (see HopperRateController)
+    private static final String HOPPER_CONTROL = System.getProperty("simulation.hopperControl", "fixed");
+    // Occupancy of the downstream belts the adaptive hoppers aim for
+    private static final double TARGET_FILL = Double.parseDouble(System.getProperty("simulation.targetFill", "0.5"));
+    // Run with -Dsimulation.scheduler=pool to multiplex the turntables onto a few threads (see TurntableScheduler)
+    private static final String SCHEDULER = System.getProperty("simulation.scheduler", "threads");
+    private static final int WORKERS = Integer.getInteger("simulation.workers", Runtime.getRuntime().availableProcessors());
+    // Run with -Dsimulation.engine=flow to use the demand-driven engine instead of semaphores (see FlowEngine)
+    private static final String ENGINE = System.getProperty("simulation.engine", "semaphores");
+    // Run with -Dsimulation.storage=offheap to keep the presents out of the heap (see PresentTable)
+    private static final String STORAGE = System.getProperty("simulation.storage", "heap");
+    // Run with -Dsimulation.wait=<strategy> to set how threads wait for the belts (see WaitStrategy)
+    private static final String WAIT_STRATEGY = System.getProperty("simulation.wait");
+    // Run with -Dsimulation.routing=<routing> to set how presents pick among parallel output belts (see Turntable#setRouting)
+    private static final String ROUTING = System.getProperty("simulation.routing");
+    // Run with -Dsimulation.faults=<faults> to jam belts, halt turntables or slow hoppers down (see FaultInjector)
+    private static final String FAULTS = System.getProperty("simulation.faults");
+    // Run with -Dsimulation.rerouteAfter=<ms> to send presents around output belts that stay full (see Turntable#setRerouteAfter)
+    private static final long REROUTE_AFTER = Long.getLong("simulation.rerouteAfter", 0L);
+    // Run with -Dsimulation.time=zero (or scaled:<factor>) to drop (or shrink) the simulated delays (see TimeSource)
+    private static final String TIME = System.getProperty("simulation.time", TimeSource.REAL);
+    // Run with -Dsimulation.timer=wheel to count down every simulated delay on a single thread (see HashedWheelTimer)
+    private static final String TIMER = System.getProperty("simulation.timer", "sleep");
+    // Run with -Dsimulation.jmx=true to watch and tune the machine from JConsole (see MachineMonitor)
+    private static final boolean JMX_ENABLED = Boolean.getBoolean("simulation.jmx");
+    // Run with -Dsimulation.threadStats=true to account for the time of every thread (see ThreadAccounting)
+    private static final boolean THREAD_STATS = Boolean.getBoolean("simulation.threadStats");
+    // How often a machine without delays checks whether its hoppers are empty
+    private static final long EMPTY_HOPPERS_POLL = 10L;
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments. The first one (optional) is the path
+     *             of the configuration file, otherwise {@link #FILE_NAME} is used.
      */
     public static void main(String[] args) {
-        // These variables will store the configuration
-        // of the Present sorting machine
-
-        int numBelts;
-        Conveyor[] belts;
-
-        int numHoppers;
-        Hopper[] hoppers;
-
-        int numSacks;
-        Sack[] sacks;
-
-        int numTurntables;
-        Turntable[] tables;
-
-        int timerLength;
-
-        ////////////////////////////////////////////////////////////////////////
+        final String fileName = args.length > 0 ? args[0] : FILE_NAME;
+        if (RESTORE_FILE != null && "flow".equals(ENGINE)) {
+            // The flow engine keeps its presents in its own stages, which checkpoints know nothing about
+            System.out.println("Error: the flow engine cannot restore a checkpoint");
+            System.exit(0);
+        }
 
-        // READ FILE
-        // =========
-        Scanner inputStream = null;
+        PresentTable presentTable = "offheap".equals(STORAGE) ? new PresentTable() : null;
+        Scenario scenario = null;
         try {
-            inputStream = new Scanner(new File(FILE_NAME));
+            scenario = Scenario.read(fileName, RESTORE_FILE == null, presentTable);
         } catch (FileNotFoundException ex) {
             System.out.println("Error opening file");
             System.exit(0);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.out.println("Error reading file: " + ex.getMessage());
+            System.exit(0);
         }
+        int timerLength = scenario.getTimerLength();
 
-        String line = "";
-
-        // READ BELTS
-        // ----------
-        // Skip though any blank lines to start
-        while (!line.startsWith("BELTS") && inputStream.hasNextLine()) {
-            line = inputStream.nextLine();
+        TimeSource timeSource = null;
+        try {
+            timeSource = TimeSource.parse(TIME);
+            if ("wheel".equals(TIMER)) timeSource = timeSource.withTimer();
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(0);
         }
+        if (timeSource.isZero()) {
+            System.out.println("Machine will run until its hoppers are empty, without any simulated delays.\n");
+        } else {
+            System.out.println("Machine will run for " + timerLength + "s.\n");
+        }
+        for (Sack sack : scenario.getSacks()) sack.setTimeSource(timeSource);
 
-        numBelts = inputStream.nextInt();
-        inputStream.nextLine();
-
-        belts = new Conveyor[numBelts];
-
-        for (int b = 0; b < numBelts; b++) {
-            line = inputStream.nextLine(); // e.g. 1 length 5 destinations 1 2
-
-            System.out.println(line);
-
-            Scanner beltStream = new Scanner(line);
-            int id = beltStream.nextInt();
-            beltStream.next(); // skip "length"
-
-            int length = beltStream.nextInt();
-            belts[b] = new Conveyor(id, length);
-            beltStream.next(); // skip "destinations"
-
-            while (beltStream.hasNextInt()) {
-                int dest = beltStream.nextInt();
-                belts[b].addDestination(dest);
+        // Turntables that have a routing in the configuration file keep it
+        if (ROUTING != null) {
+            try {
+                for (Turntable table : scenario.getTables()) {
+                    if (table.getRouting() == null) table.setRouting(ROUTING);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(0);
             }
-        } // end of reading belt lines
-
-        // READ HOPPERS
-        // ------------
-        // Skip though any blank lines
-        while (!line.startsWith("HOPPERS") && inputStream.hasNextLine()) {
-            line = inputStream.nextLine();
         }
 
-        numHoppers = inputStream.nextInt();
-        inputStream.nextLine();
-
-        hoppers = new Hopper[numHoppers];
-
-        for (int h = 0; h < numHoppers; h++) {
-            // Each hopper line will look like this:
-            // e.g. 1 belt 1 capacity 10 speed 1
-
-            int id = inputStream.nextInt();
-            inputStream.next(); // skip "belt"
-
-            int belt = inputStream.nextInt();
-            inputStream.next(); // skip "capacity"
-
-            int capacity = inputStream.nextInt();
-            inputStream.next(); // skip "speed"
-
-            int speed = inputStream.nextInt();
-            line = inputStream.nextLine(); // skip rest of line
-
-            hoppers[h] = new Hopper(id, belts[belt - 1], capacity, speed);
-
-        } // end of reading hopper lines
-
-        // READ SACKS
-        // ------------
-        // Skip though any blank lines
-        while (!line.startsWith("SACKS") && inputStream.hasNextLine()) {
-            line = inputStream.nextLine();
+        if ("flow".equals(ENGINE)) {
+            new FlowEngine(scenario, WORKERS, timeSource).run(fileName);
+            return;
         }
 
-        numSacks = inputStream.nextInt();
-        inputStream.nextLine();
-
-        sacks = new Sack[numSacks];
-
-        for (int s = 0; s < numSacks; s++) {
-            // Each sack line will look like this:
-            // e.g. 1 capacity 20 age 0-3
-
-            int id = inputStream.nextInt();
-            inputStream.next(); // skip "capacity"
-
-            int capacity = inputStream.nextInt();
-            inputStream.next(); // skip "age"
-
-            String age = inputStream.next();
-            line = inputStream.nextLine(); // skip rest of line
-
-            sacks[s] = new Sack(id, capacity);
-            Turntable.destinations.put(age, id);
-
-        } // end of reading sack lines
-
-        // READ TURNTABLES
-        // ---------------
-        // Skip though any blank lines
-        while (!line.startsWith("TURNTABLES") && inputStream.hasNextLine()) {
-            line = inputStream.nextLine();
+        Conveyor[] belts = scenario.getBelts();
+        int numBelts = belts.length;
+        Hopper[] hoppers = scenario.getHoppers();
+        Sack[] sacks = scenario.getSacks();
+        Turntable[] tables = scenario.getTables();
+        int numPresents = scenario.getNumPresents();
+
+        // RESTORE / PREPARE CHECKPOINTS
+        // -----------------------------
+        long restoredMillis = 0;
+        if (RESTORE_FILE != null) {
+            try {
+                restoredMillis = MachineCheckpoint.restore(RESTORE_FILE, hoppers, belts, sacks, tables);
+                System.out.println("Restored " + RESTORE_FILE + " taken after " + restoredMillis / 1000 + "s.\n");
+            } catch (IOException e) {
+                System.out.println("Error restoring checkpoint: " + e.getMessage());
+                System.exit(0);
+            }
         }
-
-        numTurntables = inputStream.nextInt();
-        inputStream.nextLine();
-
-        tables = new Turntable[numTurntables];
-
-        for (int t = 0; t < numTurntables; t++) {
-            // Each turntable line will look like this:
-            // A N ib 1 E null S os 1 W null
-
-            String tableId = inputStream.next();
-            tables[t] = new Turntable(tableId);
-
-            int connId;
-
-            inputStream.next(); // skip "N"
-            Connection north = null;
-            String Ntype = inputStream.next();
-            if (!"null".equals(Ntype)) {
-                connId = inputStream.nextInt();
-                if (null != Ntype) {
-                    switch (Ntype) {
-                        case "os":
-                            north = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
-                            break;
-                        case "ib":
-                            north = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
-                            break;
-                        case "ob":
-                            north = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
-                            break;
-                    }
-                    tables[t].addConnection(Turntable.N, north);
-                }
+        // ATTACH THE RATE CONTROLLERS
+        // ---------------------------
+        if ("aimd".equals(HOPPER_CONTROL)) {
+            for (Hopper hopper : hoppers) {
+                hopper.setRateController(new HopperRateController(
+                        downstreamBelts(hopper.getBelt(), tables), TARGET_FILL, hopper.getSpeed()));
             }
+        }
 
-            inputStream.next(); // skip "E"
-            Connection east;
-            String Etype = inputStream.next();
-            if (!"null".equals(Etype)) {
-                connId = inputStream.nextInt();
-                if (null != Etype) {
-                    switch (Etype) {
-                        case "os":
-                            east = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
-                            break;
-                        case "ib":
-                            east = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
-                            break;
-                        default:
-                            east = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
-                            break;
-                    }
-                    tables[t].addConnection(Turntable.E, east);
+        // SET THE WAIT STRATEGIES
+        // -----------------------
+        // Belts that have a strategy in the configuration file keep it
+        if (WAIT_STRATEGY != null) {
+            try {
+                WaitStrategy waitStrategy = WaitStrategy.parse(WAIT_STRATEGY);
+                for (Conveyor belt : belts) {
+                    if (belt.getWaitStrategy() == null) belt.setWaitStrategy(waitStrategy);
                 }
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(0);
             }
+        }
 
-            inputStream.next(); // skip "S"
-            Connection south;
-            String Stype = inputStream.next();
-            if (!"null".equals(Stype)) {
-                connId = inputStream.nextInt();
-                if (null != Stype) {
-                    switch (Stype) {
-                        case "os":
-                            south = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
-                            break;
-                        case "ib":
-                            south = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
-                            break;
-                        default:
-                            south = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
-                            break;
-                    }
-                    tables[t].addConnection(Turntable.S, south);
-                }
-            }
+        Machine machine = new Machine(scenario, timeSource, "pool".equals(SCHEDULER) ? WORKERS : 0);
 
-            inputStream.next(); // skip "W"
-            Connection west;
-            String Wtype = inputStream.next();
-            if (!"null".equals(Wtype)) {
-                connId = inputStream.nextInt();
-                if (null != Wtype) {
-                    switch (Wtype) {
-                        case "os":
-                            west = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
-                            break;
-                        case "ib":
-                            west = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
-                            break;
-                        default:
-                            west = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
-                            break;
-                    }
-                    tables[t].addConnection(Turntable.W, west);
-                }
-            }
+        // INJECT THE FAULTS
+        // -----------------
+        try {
+            for (Turntable table : tables) table.setRerouteAfter(REROUTE_AFTER);
+            if (FAULTS != null) machine.injectFaults(FAULTS);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            System.exit(0);
+        }
 
-            line = inputStream.nextLine(); // skip rest of line
-        } // end of reading turntable lines
+        MachineCheckpoint checkpoint = null;
+        // Snapshots can also be taken from JConsole
+        if (CHECKPOINT_FILE != null || JMX_ENABLED) {
+            checkpoint = new MachineCheckpoint();
+            for (Hopper hopper : hoppers) hopper.setCheckpoint(checkpoint);
+            for (Turntable table : tables) table.setCheckpoint(checkpoint);
+        }
 
-        // FILL THE HOPPERS
+        // ATTACH THE TRACER
+        // -----------------
+        PresentTracer tracer = null;
+        if (TRACING_ENABLED) {
+            // A present passes each belt once (enqueue, dequeue and turntable) plus the hopper and the sack
+            tracer = new PresentTracer(numPresents, Math.min(3 * numBelts + 2, MAX_TRACED_HOPS));
+            for (Hopper hopper : hoppers) hopper.setTracer(tracer);
+            for (Conveyor belt : belts) belt.setTracer(tracer);
+            for (Turntable table : tables) table.setTracer(tracer);
+            for (Sack sack : sacks) sack.setTracer(tracer);
+        }
+
+        // OPEN THE JOURNAL
         // ----------------
-        for (int i = 0; i < numHoppers; i++) {
-            // Skip though any blank lines
-            while (!line.startsWith("PRESENTS") && inputStream.hasNextLine()) {
-                line = inputStream.nextLine();
-            }
-            int numPresents = inputStream.nextInt();
-            inputStream.nextLine();
-            for (int p = 0; p < numPresents; p++) {
-                hoppers[i].fill(new Present(inputStream.next()));
-                line = inputStream.nextLine();
+        EventJournal journal = null;
+        if (JOURNAL_FILE != null) {
+            try {
+                journal = new EventJournal(JOURNAL_FILE, belts, sacks);
+                for (Hopper hopper : hoppers) hopper.setJournal(journal);
+                for (Turntable table : tables) table.setJournal(journal);
+                for (Sack sack : sacks) sack.setJournal(journal);
+            } catch (IOException e) {
+                System.out.println("Error opening journal: " + e.getMessage());
+                System.exit(0);
             }
+        }
 
-            System.out.println("Filled Hopper " + hoppers[i].getIdentifier());
+        // OPEN THE TIME SERIES
+        // --------------------
+        if (TIME_SERIES_FILE != null) {
+            try {
+                machine.sampleTo(TIME_SERIES_FILE, SAMPLE_INTERVAL);
+            } catch (IOException e) {
+                System.out.println("Error opening time series: " + e.getMessage());
+                System.exit(0);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(0);
+            }
         }
 
-        // READ TIMER LENGTH
-        // -----------------
-        // Skip though any blank lines
-        while (!line.startsWith("TIMER") && inputStream.hasNextLine()) {
-            line = inputStream.nextLine();
+        // REGISTER THE MXBEANS
+        // --------------------
+        MachineMonitor monitor = null;
+        if (JMX_ENABLED) {
+            monitor = new MachineMonitor(machine, fileName, checkpoint, restoredMillis);
+            try {
+                monitor.register();
+            } catch (JMException e) {
+                System.out.println("Error registering MXBeans: " + e.getMessage());
+                System.exit(0);
+            }
         }
-        Scanner timerStream = new Scanner(line);
-        timerStream.next(); // skip "TIMER"
-        timerLength = timerStream.nextInt();
 
-        System.out.println("Machine will run for " + timerLength + "s.\n");
+        // START THE THREAD ACCOUNTING
+        // ---------------------------
+        ThreadAccounting accounting = null;
+        if (THREAD_STATS) {
+            accounting = new ThreadAccounting();
+            for (Hopper hopper : hoppers) hopper.setAccounting(accounting);
+            for (Turntable table : tables) table.setAccounting(accounting);
+        }
 
         ///////////////////////////////////////////////////////////////////////
         // END OF SETUP ///////////////////////////////////////////////////////
         ///////////////////////////////////////////////////////////////////////
 
 
-        // START the hoppers!
-        for (int h = 0; h < numHoppers; h++) {
-            hoppers[h].start();
-        }
-
-        // START the turntables!
-        for (int t = 0; t < numTurntables; t++) {
-            tables[t].start();
-        }
+        // START the hoppers and the turntables!
+        machine.start();
 
         long time = 0;
         long currentTime;
-        long startTime = System.currentTimeMillis();
+        // A restored machine carries on from the (simulated) time of the snapshot
+        long startTime = System.currentTimeMillis() - timeSource.toRealMillis(restoredMillis);
+        long startCpu = processCpuTime();
         System.out.println("*** Machine Started ***");
-        while (time < timerLength) {
-            // sleep in 10 second bursts
+        if (timeSource.isZero()) {
+            // Without delays the timer means nothing, so the input stops once every present is deposited
+            machine.awaitEmptyHoppers();
+        }
+        while (!timeSource.isZero() && time < timerLength) {
+            // sleep in 10 second bursts (of simulated time)
             try {
-                sleep(10000); // 10000
+                timeSource.sleep(10000); // 10000
             } catch (InterruptedException ignored) {
             }
             currentTime = System.currentTimeMillis();
-            time = (currentTime - startTime) / 1000;
-            System.out.println("\nInterim Report @ " + time + "s:");
-
-            int giftsInSacks = 0;
-            for (Sack sack :
-                    sacks) {
-                giftsInSacks += sack.getTotalNumberOfPresents();
-            }
-
-            int giftsInHoppers = 0;
-            for (Hopper hopper :
-                    hoppers) {
-                giftsInHoppers += hopper.getNumberOfPresents();
-            }
-
-            int giftsInMachine = 0;
-            for (Conveyor conveyor :
-                    belts) {
-                giftsInMachine += conveyor.getNumberOfPresents();
+            time = timeSource.toSimulatedSeconds(currentTime - startTime);
+            printInterimReport(time, hoppers, belts, sacks);
+
+            if (CHECKPOINT_FILE != null) {
+                try {
+                    checkpoint.write(CHECKPOINT_FILE, timeSource.toSimulatedMillis(currentTime - startTime),
+                            hoppers, belts, sacks, tables);
+                } catch (IOException e) {
+                    System.out.println("Error writing checkpoint: " + e.getMessage());
+                }
             }
 
-            System.out.println(giftsInHoppers + " presents remaining in hoppers;\n" + giftsInSacks + " presents sorted into sacks;\n" +
-                    giftsInMachine + " presents in the machine.");
-            System.out.println();
-
         }
 
         // Time is up
         // Immediately cease all hoppers from adding presents to the input belts
-        for (Hopper hopper :
-                hoppers) {
-            hopper.setTimerState(Hopper.TIMER_RUN_OUT);
-        }
+        machine.stop();
 
         long endTime = System.currentTimeMillis();
         System.out.println("*** Input Stopped after " + (endTime - startTime) / 1000 + "s. ***");
 
         // Block the calling (main) thread until both the Hopper
         // and the Turntable threads have terminated.
-        blockMainUntillFinished(hoppers);
-        blockMainUntillFinished(tables);
+        try {
+            machine.awaitTermination();
+        } catch (InterruptedException ignored) {
+        }
 
         endTime = System.currentTimeMillis();
         System.out.println("*** Machine completed shutdown after " + (endTime - startTime) / 1000 + "s. ***");
 
+        if (journal != null) {
+            try {
+                System.out.println(journal.close() + " events written to " + JOURNAL_FILE);
+            } catch (IOException e) {
+                System.out.println("Error closing journal: " + e.getMessage());
+            }
+        }
+        if (machine.getSampler() != null) {
+            // The machine has closed the file once it completed shutdown
+            System.out.println(machine.getSampler().getNumberOfRows() + " samples written to " + TIME_SERIES_FILE);
+        }
+
 
         // FINAL REPORTING
         ////////////////////////////////////////////////////////////////////////
 
+        printFinalReport(fileName, endTime - startTime, processCpuTime() - startCpu, hoppers, belts, sacks);
+
+        if (machine.getFaultInjector() != null) {
+            machine.getFaultInjector().printReport();
+        }
+        if (tracer != null) {
+            tracer.printReport();
+        }
+        if (accounting != null) {
+            accounting.printReport(belts);
+        }
+        if (monitor != null) {
+            monitor.unregister();
+        }
+    }
+
+    /**
+     * Output the number of presents in the hoppers, the sacks and on the belts.
+     *
+     * @param time The number of seconds the machine has been running for.
+     */
+    static void printInterimReport(long time, @NotNull Hopper[] hoppers, @NotNull Conveyor[] belts, @NotNull Sack[] sacks) {
+        System.out.println("\nInterim Report @ " + time + "s:");
+
+        int giftsInSacks = 0;
+        for (Sack sack :
+                sacks) {
+            giftsInSacks += sack.getTotalNumberOfPresents();
+        }
+
+        int giftsInHoppers = 0;
+        for (Hopper hopper :
+                hoppers) {
+            giftsInHoppers += hopper.getNumberOfPresents();
+        }
+
+        int giftsInMachine = 0;
+        for (Conveyor conveyor :
+                belts) {
+            giftsInMachine += conveyor.getNumberOfPresents();
+        }
+
+        System.out.println(giftsInHoppers + " presents remaining in hoppers;\n" + giftsInSacks + " presents sorted into sacks;\n" +
+                giftsInMachine + " presents in the machine.");
+        System.out.println();
+    }
+
+    /**
+     * Output the statistics of a machine that has completed shutdown: presents deposited by every hopper,
+     * presents in the sacks and on the belts, missing presents, throughput, peak number of threads, peak heap usage
+     * CPU time per present and the work of the garbage collector.
+     *
+     * @param fileName  The path of the configuration file.
+     * @param runMillis The time (in milliseconds) the machine took from start to shutdown.
+     * @param cpuNanos  The CPU time (in nanoseconds) the process used from start to shutdown.
+     */
+    static void printFinalReport(@NotNull String fileName, long runMillis, long cpuNanos, @NotNull Hopper[] hoppers,
+                                 @NotNull Conveyor[] belts, @NotNull Sack[] sacks) {
         System.out.println();
         System.out.println("\nFINAL REPORT\n");
-        System.out.println("Configuration: " + FILE_NAME);
-        System.out.println("Total Run Time " + (endTime - startTime) / 1000 + "s.");
+        System.out.println("Configuration: " + fileName);
+        System.out.println("Total Run Time " + runMillis / 1000 + "s.");
 
         int giftsDeposited = 0;
         for (Hopper hopper :
@@ -387,9 +410,13 @@ public class MyClass {
             giftsDeposited += hopper.getNumberOfPresentsDeposited();
         }
 
-        for (int h = 0; h < numHoppers; h++) {
+        for (int h = 0; h < hoppers.length; h++) {
             System.out.println("Hopper " + hoppers[h].getIdentifier() + " deposited " + hoppers[h].getNumberOfPresentsDeposited() +
                     " presents and waited " + hoppers[h].getTotalWaitingTimeInSeconds() + "s.");
+            if (hoppers[h].getRateController() != null) {
+                System.out.printf("Hopper %d mean rate %.2f presents/s (configured %d).%n", hoppers[h].getIdentifier(),
+                        hoppers[h].getRateController().getMeanRate(), hoppers[h].getSpeed());
+            }
         }
         System.out.println();
 
@@ -412,21 +439,89 @@ public class MyClass {
 
         int missing = giftsDeposited - giftsInSacks - giftsOnMachine;
         System.out.println(missing + " gifts went missing.");
+
+        // Compare engines by the rate presents reach the sacks and by the threads and memory they need
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        System.out.printf("Throughput %.2f presents/s with a peak of %d live threads and %d MB of heap.%n",
+                giftsInSacks * 1000.0 / Math.max(runMillis, 1), ManagementFactory.getThreadMXBean().getPeakThreadCount(),
+                peakHeapBytes >> 20);
+        // Without simulated delays, the CPU time per present is the cost of the coordination itself
+        System.out.printf("CPU time %d ms, %.1f us per sorted present.%n",
+                cpuNanos / 1000000L, cpuNanos / 1000.0 / Math.max(giftsInSacks, 1));
+        // Compare storage modes by the work of the garbage collector and the memory kept out of its reach
+        long collections = 0;
+        long collectionMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(collector.getCollectionCount(), 0);
+            collectionMillis += Math.max(collector.getCollectionTime(), 0);
+        }
+        long directBytes = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) directBytes += pool.getMemoryUsed();
+        }
+        System.out.printf("Garbage collection took %d ms in %d collections; %d MB held off-heap.%n",
+                collectionMillis, collections, directBytes >> 20);
     }
 
     /**
-     * Traverse the threads of the given array and call for each its
-     * {@link Thread#join()} method.
-     * Thus, the calling thread will get blocked till all threads terminate.
+     * Collect the belts that presents placed on the specified belt can travel along,
+     * by following the turntables from their input belts to their output belts.
      *
-     * @param threads An array of threads and its subclasses.
+     * @param start  The belt a hopper is attached to.
+     * @param tables All turntables of the machine.
+     * @return The start belt followed by every belt downstream of it.
      */
-    private static void blockMainUntillFinished(@NotNull Thread[] threads) {
-        for (Thread thread :
-                threads) {
-            try {
-                thread.join();
-            } catch (InterruptedException ignored) {
+    @NotNull
+    private static Conveyor[] downstreamBelts(@NotNull Conveyor start, @NotNull Turntable[] tables) {
+        ArrayList<Conveyor> path = new ArrayList<>();
+        path.add(start);
+        for (int i = 0; i < path.size(); i++) {
+            for (Turntable table : tables) {
+                for (int port = Turntable.N; port <= Turntable.W; port++) {
+                    Connection input = table.getConnection(port);
+                    if (input == null || input.getConnType() != ConnectionType.InputBelt
+                            || input.getBelt() != path.get(i)) continue;
+                    for (int out = Turntable.N; out <= Turntable.W; out++) {
+                        Connection output = table.getConnection(out);
+                        if (output != null && output.getConnType() == ConnectionType.OutputBelt
+                                && !path.contains(output.getBelt())) {
+                            path.add(output.getBelt());
+                        }
+                    }
+                }
+            }
+        }
+        return path.toArray(new Conveyor[0]);
+    }
+
+    /**
+     * Access the CPU time used by all the threads of the process so far.
+     *
+     * @return The CPU time in nanoseconds, or 0 if the JVM does not measure it.
+     */
+    static long processCpuTime() {
+        java.lang.management.OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof OperatingSystemMXBean) {
+            return Math.max(((OperatingSystemMXBean) os).getProcessCpuTime(), 0L);
+        }
+        return 0L;
+    }
+
+    /**
+     * Block the calling thread until every hopper has deposited all its presents.
+     *
+     * @param hoppers The hoppers of the machine.
+     */
+    static void awaitEmptyHoppers(@NotNull Hopper[] hoppers) {
+        for (Hopper hopper : hoppers) {
+            while (hopper.getNumberOfPresents() > 0) {
+                try {
+                    sleep(EMPTY_HOPPERS_POLL);
+                } catch (InterruptedException ignored) {
+                }
             }
         }
     }
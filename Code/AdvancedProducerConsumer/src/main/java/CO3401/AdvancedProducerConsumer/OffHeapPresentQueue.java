@@ -0,0 +1,106 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An {@link ArrayQueue} of presents that keeps int handles in a direct {@link ByteBuffer}
+ * ring instead of references in a Present[], while the attributes of the presents
+ * live in a shared {@link PresentTable}. Used by belts, hoppers and sacks when the machine
+ * runs with off-heap storage, so that millions of waiting presents cost the garbage collector nothing.
+ * <p>
+ * {@link #add} stores the attributes of the present and its handle; {@link #get} and {@link #peek}
+ * return a new {@link Present} built from the table (presents have no identity, only an id).
+ *
+ * @author anonymous
+ */
+public class OffHeapPresentQueue extends ArrayQueue<Present> {
+
+    private final PresentTable mTable;
+    private final ByteBuffer mHandles;
+    // Position of the front handle inside the ring
+    private int mHead;
+    private volatile int mSize;
+
+    /**
+     * Public Constructor. Allocate the ring of handles.
+     *
+     * @param capacity The maximum number of presents the queue can hold.
+     * @param table    The table the attributes of the presents are stored in.
+     */
+    public OffHeapPresentQueue(int capacity, @NotNull PresentTable table) {
+        super(capacity);
+        mTable = table;
+        mHandles = ByteBuffer.allocateDirect(capacity * Integer.BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public synchronized void add(Present element) {
+        if (!isFull()) {
+            mHandles.putInt(position(mSize) * Integer.BYTES, mTable.store(element));
+            mSize++;
+        }
+    }
+
+    @Override
+    public synchronized Present get() {
+        if (!isEmpty()) {
+            int handle = mHandles.getInt(mHead * Integer.BYTES);
+            mHead = position(1);
+            mSize--;
+            return mTable.load(handle);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void remove(int index) {
+        if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException();
+        if (index == 0) {
+            get();
+            return;
+        }
+        // Move all the following handles one position forward
+        for (int i = index; i < mSize - 1; i++) {
+            mHandles.putInt(position(i) * Integer.BYTES, mHandles.getInt(position(i + 1) * Integer.BYTES));
+        }
+        mSize--;
+    }
+
+    @Override
+    public synchronized void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    @Override
+    public synchronized boolean isFull() {
+        return mSize == getCapacity();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized Present peek(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException();
+        return mTable.load(mHandles.getInt(position(index) * Integer.BYTES));
+    }
+
+    /**
+     * Translate a position relative to the front handle into a slot of the ring.
+     */
+    private int position(int index) {
+        int position = mHead + index;
+        return position < getCapacity() ? position : position - getCapacity();
+    }
+}
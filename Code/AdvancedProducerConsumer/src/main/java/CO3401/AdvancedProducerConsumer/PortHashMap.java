@@ -3,14 +3,17 @@ package CO3401.AdvancedProducerConsumer;
 import org.jetbrains.annotations.NotNull;
 
 /**
- * Trivial hash map implementation using a single array.
+ * Trivial hash map implementation using two parallel arrays.
  * Used in Turntable class to map the port of each connection.
+ * The ports are stored as primitive ints, so that looking a port up
+ * does not involve any boxing, and collisions are resolved by
+ * probing the following slots (linear probing).
  *
  * <p>
  * Time Complexity:
  * <p> -> Access ({@link #get(Connection)}) - O(1)
- * <p> -> Insertion ({@link #put(Connection, Integer)}) - O(1)
- * <p> -> Deletion (not implemented; however, would have similar logic as {@link #put(Connection, Integer)}) - O(1)
+ * <p> -> Insertion ({@link #put(Connection, int)}) - O(1)
+ * <p> -> Deletion (not implemented; however, would have similar logic as {@link #put(Connection, int)}) - O(1)
  * <p> -> Search (not implemented; as a HashMap relies on key-value pairs to access its elements) - N/A
  *
  * @author anonymous
@@ -18,25 +21,33 @@ import org.jetbrains.annotations.NotNull;
 public class PortHashMap {
 
     static final int DEFAULT_MAXIMUM_CAPACITY = 20;// The more spaces, the less likely a collision will occur
+    // Value returned for connections that are not attached to any port.
+    public static final int NO_PORT = -1;
 
-    private final Integer[] ports;
+    private final Connection[] keys;
+    private final int[] ports;
 
     /**
-     * Initialize an array of size DEFAULT_MAXIMUM_CAPACITY.
+     * Initialize two arrays of size DEFAULT_MAXIMUM_CAPACITY.
      */
     public PortHashMap() {
-        ports = new Integer[DEFAULT_MAXIMUM_CAPACITY];
+        keys = new Connection[DEFAULT_MAXIMUM_CAPACITY];
+        ports = new int[DEFAULT_MAXIMUM_CAPACITY];
     }
 
     /**
-     * Hashes the key to produce a unique index inside our array.
-     * In the produced index the value is stored.
+     * Hashes the key to produce an index inside our arrays.
+     * In the produced index (or the next free one) the value is stored.
      *
      * @param key   A Connection instance.
      * @param value An integer value.
      */
-    public void put(@NotNull final Connection key, @NotNull final Integer value) {
+    public void put(@NotNull final Connection key, final int value) {
         int index = hash(key);
+        while (keys[index] != null && keys[index] != key) {
+            index = (index + 1) % keys.length;
+        }
+        keys[index] = key;
         ports[index] = value;
     }
 
@@ -44,21 +55,27 @@ public class PortHashMap {
      * Access the Map's value based ont the specified key.
      *
      * @param key A Connection instance.
-     * @return The corresponding value.
+     * @return The corresponding value or {@link #NO_PORT}.
      */
-    public Integer get(final Connection key) {
-        if (key == null) return null;
-        return ports[hash(key)];
+    public int get(final Connection key) {
+        if (key == null) return NO_PORT;
+        int index = hash(key);
+        // A turntable has only 4 ports, so an empty slot is always found
+        while (keys[index] != null) {
+            if (keys[index] == key) return ports[index];
+            index = (index + 1) % keys.length;
+        }
+        return NO_PORT;
     }
 
     /**
-     * Produces a unique integer number based on a given key.
+     * Produces an integer number based on a given key.
      * Generates numbers from 0 up till the size of the array.
      *
      * @param key A Connection instance.
-     * @return A unique int.
+     * @return An index of the arrays.
      */
     private int hash(@NotNull final Connection key) {
-        return Math.abs(key.hashCode()) % ports.length;
+        return (key.hashCode() & Integer.MAX_VALUE) % keys.length;
     }
 }
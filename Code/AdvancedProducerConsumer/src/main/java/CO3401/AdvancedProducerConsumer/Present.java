@@ -3,12 +3,21 @@ package CO3401.AdvancedProducerConsumer;
 /**
  * A POJO used to represent the actual presents of the simulation.
  * It has attributes which store the age-group of child it
- * is suitable for.
+ * is suitable for and its priority class (e.g. express orders).
  *
  * @author anonymous
  */
 public class Present {
+    // Id given to presents that were not numbered when created.
+    public static final int NO_ID = -1;
+    // Priority classes, from bulk presents to the most urgent express orders
+    public static final int STANDARD = 0;
+    public static final int MAX_PRIORITY = 3;
     final private String mAgeRange;
+    // Identifies the present across the whole machine (see PresentTracer).
+    final private int mId;
+    // Presents of a higher class overtake the others on belts that keep priorities (see PriorityPresentQueue)
+    final private byte mPriority;
 
     /**
      * Initialize the present with its destination.
@@ -16,7 +25,35 @@ public class Present {
      * @param destination Corresponds to the age range of the present.
      */
     public Present(String destination) {
+        this(NO_ID, destination);
+    }
+
+    /**
+     * Initialize the present with its id and destination.
+     *
+     * @param id          The unique identifier of the present.
+     * @param destination Corresponds to the age range of the present.
+     */
+    public Present(int id, String destination) {
+        this(id, destination, STANDARD);
+    }
+
+    /**
+     * Initialize the present with its id, destination and priority class.
+     *
+     * @param id          The unique identifier of the present.
+     * @param destination Corresponds to the age range of the present.
+     * @param priority    {@link #STANDARD} up to {@link #MAX_PRIORITY}.
+     * @throws IllegalArgumentException if the priority is out of range.
+     */
+    public Present(int id, String destination, int priority) {
+        if (priority < STANDARD || priority > MAX_PRIORITY) {
+            throw new IllegalArgumentException("Priority " + priority + " is not between "
+                    + STANDARD + " and " + MAX_PRIORITY);
+        }
+        mId = id;
         mAgeRange = destination;
+        mPriority = (byte) priority;
     }
 
     /**
@@ -28,6 +65,24 @@ public class Present {
         return mAgeRange;
     }
 
+    /**
+     * Access the present's id.
+     *
+     * @return The unique identifier of the present or {@link #NO_ID}.
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * Access the present's priority class.
+     *
+     * @return {@link #STANDARD} up to {@link #MAX_PRIORITY}.
+     */
+    public int getPriority() {
+        return mPriority;
+    }
+
     /**
      * The representation of the Present object as a String.
      *
@@ -0,0 +1,77 @@
+package CO3401.AdvancedProducerConsumer;
+
+/**
+ * Interfaces of a demand-driven stream of presents, modelled on
+ * {@code java.util.concurrent.Flow} (which needs Java 9, while the project targets Java 8).
+ * <p>
+ * A {@link Subscriber} receives presents from a {@link Publisher} only after asking
+ * for them through its {@link Subscription}, so a stage can never be handed more presents
+ * than it has room for (back-pressure), and no thread ever has to block waiting for room.
+ * <p>
+ * Signals to a subscriber ({@link Subscriber#onNext}, {@link Subscriber#onComplete}) are
+ * never made concurrently, and {@link Subscriber#onComplete} is the last one.
+ * The machine cannot fail, therefore there is no onError signal.
+ *
+ * @author anonymous
+ */
+public final class PresentFlow {
+
+    /**
+     * Private Constructor. Only holds the interfaces.
+     */
+    private PresentFlow() {
+    }
+
+    /**
+     * A producer of items that sends them to its subscriber on demand.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface Publisher<T> {
+        /**
+         * Attach the subscriber, which receives its {@link Subscription} through
+         * {@link Subscriber#onSubscribe}.
+         *
+         * @param subscriber The consumer of the items.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A consumer of items.
+     *
+     * @param <T> The type of the items.
+     */
+    public interface Subscriber<T> {
+        /**
+         * Invoked once, before any other signal.
+         *
+         * @param subscription The link used to ask the publisher for items.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked for every item, never more times than the items requested.
+         *
+         * @param item The next item.
+         */
+        void onNext(T item);
+
+        /**
+         * Invoked once the publisher has no more items to send.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and its subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Ask for the specified number of additional items.
+         *
+         * @param n The number of items the subscriber has room for.
+         */
+        void request(long n);
+    }
+}
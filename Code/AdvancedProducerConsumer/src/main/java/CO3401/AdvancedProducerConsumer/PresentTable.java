@@ -0,0 +1,128 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Off-heap table of the attributes of every present, shared by all the
+ * {@link OffHeapPresentQueue}s of the machine.
+ * <p>
+ * A present is identified by an int handle, its id (see {@link Present#getId()}),
+ * and its attributes are stored in direct {@link ByteBuffer} segments at that handle, so
+ * the garbage collector never has to scan them. Only the few distinct age ranges
+ * are kept on the heap, and each present stores the index of its age range,
+ * with its priority class in the top byte.
+ * A {@link Present} object is only created while a present is being handled
+ * (see {@link #load(int)}) and becomes garbage straight after.
+ * <p>
+ * Segments of {@link #SEGMENT_SIZE} presents are allocated as higher handles get stored,
+ * so the table does not need to know the number of presents in advance.
+ *
+ * @author anonymous
+ */
+public class PresentTable {
+
+    private static final int SEGMENT_SHIFT = 16;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT; // presents per segment
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int ENTRY_BYTES = Integer.BYTES; // index of the age range and priority class
+    private static final int PRIORITY_SHIFT = 24;
+    private static final int AGE_INDEX_MASK = (1 << PRIORITY_SHIFT) - 1;
+
+    private volatile ByteBuffer[] mSegments = new ByteBuffer[0];
+    private final ConcurrentHashMap<String, Integer> mAgeIndexes = new ConcurrentHashMap<>();
+    private volatile String[] mAgeRanges = new String[0];
+
+    /**
+     * Create a container of presents, off-heap if a table is specified.
+     *
+     * @param capacity The maximum number of presents the container can hold.
+     * @param table    The table of the off-heap storage, or null to store the presents on the heap.
+     * @return An {@link OffHeapPresentQueue} or a plain {@link ArrayQueue}.
+     */
+    @NotNull
+    public static ArrayQueue<Present> newQueue(int capacity, PresentTable table) {
+        if (table != null) return new OffHeapPresentQueue(capacity, table);
+        return new ArrayQueue<>(capacity, () -> new Present[capacity]);
+    }
+
+    /**
+     * Store the attributes of the specified present. Storing the same present
+     * again (when it moves to another container) writes the same values.
+     *
+     * @param present The present to be stored.
+     * @return The handle of the present.
+     * @throws IllegalArgumentException if the present has no id.
+     */
+    public int store(@NotNull Present present) {
+        int handle = present.getId();
+        if (handle < 0) throw new IllegalArgumentException("only presents with an id can be stored off-heap");
+        ByteBuffer[] segments = mSegments;
+        int segment = handle >>> SEGMENT_SHIFT;
+        if (segment >= segments.length) segments = grow(segment);
+        segments[segment].putInt((handle & SEGMENT_MASK) * ENTRY_BYTES,
+                ageIndex(present.readDestination()) | present.getPriority() << PRIORITY_SHIFT);
+        return handle;
+    }
+
+    /**
+     * Create a present object out of the attributes stored at the specified handle.
+     *
+     * @param handle The handle returned by {@link #store(Present)}.
+     * @return A present with the id, age range and priority of the stored one.
+     */
+    @NotNull
+    public Present load(int handle) {
+        ByteBuffer segment = mSegments[handle >>> SEGMENT_SHIFT];
+        int entry = segment.getInt((handle & SEGMENT_MASK) * ENTRY_BYTES);
+        return new Present(handle, mAgeRanges[entry & AGE_INDEX_MASK], entry >>> PRIORITY_SHIFT);
+    }
+
+    /**
+     * Access the memory taken by the segments of the table.
+     *
+     * @return The number of off-heap bytes.
+     */
+    public long getOffHeapBytes() {
+        return (long) mSegments.length * SEGMENT_SIZE * ENTRY_BYTES;
+    }
+
+    private int ageIndex(@NotNull String ageRange) {
+        Integer index = mAgeIndexes.get(ageRange);
+        return index != null ? index : registerAgeRange(ageRange);
+    }
+
+    /**
+     * Append a new age range. The array is published before the index,
+     * so that every thread that reads the index can also read the range.
+     */
+    private synchronized int registerAgeRange(@NotNull String ageRange) {
+        Integer index = mAgeIndexes.get(ageRange);
+        if (index != null) return index;
+        String[] ageRanges = new String[mAgeRanges.length + 1];
+        System.arraycopy(mAgeRanges, 0, ageRanges, 0, mAgeRanges.length);
+        ageRanges[mAgeRanges.length] = ageRange;
+        mAgeRanges = ageRanges;
+        mAgeIndexes.put(ageRange, mAgeRanges.length - 1);
+        return mAgeRanges.length - 1;
+    }
+
+    /**
+     * Allocate the segments up to the specified one.
+     */
+    @NotNull
+    private synchronized ByteBuffer[] grow(int segment) {
+        ByteBuffer[] segments = mSegments;
+        if (segment < segments.length) return segments;
+        ByteBuffer[] grown = new ByteBuffer[segment + 1];
+        System.arraycopy(segments, 0, grown, 0, segments.length);
+        for (int s = segments.length; s <= segment; s++) {
+            grown[s] = ByteBuffer.allocateDirect(SEGMENT_SIZE * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+        }
+        mSegments = grown;
+        return grown;
+    }
+}
@@ -0,0 +1,216 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional recorder of the journey of every present through the machine.
+ * Each present is identified by its id ({@link Present#getId()}) and at every hop
+ * (hopper deposit, belt enqueue, belt dequeue, turntable, sack) a nanosecond
+ * timestamp together with the location of the hop gets stored.
+ * <p>
+ * All storage is allocated up front (one row of {@link #mMaxHops} slots per present),
+ * thus recording a hop is a couple of array writes and does not distort the
+ * measured timings. Only one thread handles a present at a time and the hand-over
+ * between threads happens through the Conveyor semaphores, so no extra
+ * synchronisation is needed while recording.
+ * <p>
+ * Once the machine has shut down, {@link #printReport()} outputs the latency
+ * percentiles per priority class, per sack and per path, along with the mean dwell time of the
+ * presents on each belt and turntable.
+ *
+ * @author anonymous
+ */
+public class PresentTracer {
+
+    // Kinds of hops
+    public static final byte HOPPER_DEPOSIT = 0;
+    public static final byte BELT_ENQUEUE = 1;
+    public static final byte BELT_DEQUEUE = 2;
+    public static final byte TURNTABLE = 3;
+    public static final byte SACK = 4;
+    private static final String[] HOP_PREFIXES = {"H", "B", "B", "T", "S"};
+    private static final int KIND_SHIFT = 24;
+    private static final int COMPONENT_MASK = (1 << KIND_SHIFT) - 1;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final int mMaxPresents;
+    private final int mMaxHops;
+    // Row-major tables: hop h of present p is stored at p * mMaxHops + h
+    private final long[] mTimestamps;
+    private final int[] mLocations;
+    private final int[] mHopCounts;
+    // The priority class of each present, recorded along with its hopper deposit
+    private final byte[] mPriorities;
+    // Turntables are identified by a String, hops store their position in this list
+    private final ArrayList<String> mTurntableNames = new ArrayList<>();
+    private final AtomicInteger mDroppedHops = new AtomicInteger();
+
+    /**
+     * Public Constructor. Preallocate the trace buffer.
+     *
+     * @param maxPresents The number of presents that can be traced (ids 0 to maxPresents - 1).
+     * @param maxHops     The maximum number of hops recorded per present.
+     */
+    public PresentTracer(int maxPresents, int maxHops) {
+        mMaxPresents = maxPresents;
+        mMaxHops = maxHops;
+        mTimestamps = new long[maxPresents * maxHops];
+        mLocations = new int[maxPresents * maxHops];
+        mHopCounts = new int[maxPresents];
+        mPriorities = new byte[maxPresents];
+    }
+
+    /**
+     * Assign a numeric code to the specified turntable so that
+     * it can be recorded in the trace buffer.
+     *
+     * @param turntableId The id of the turntable.
+     * @return The code to be passed to {@link #record} for TURNTABLE hops.
+     */
+    public synchronized int registerTurntable(String turntableId) {
+        mTurntableNames.add(turntableId);
+        return mTurntableNames.size() - 1;
+    }
+
+    /**
+     * Store the current time as the next hop of the specified present.
+     * Presents without an id, or with more hops than the buffer can hold, are ignored.
+     *
+     * @param present   The present that is being moved.
+     * @param kind      The kind of the hop (e.g. {@link #BELT_ENQUEUE}).
+     * @param component The id of the hopper, belt or sack or the code of the turntable.
+     */
+    public void record(Present present, byte kind, int component) {
+        long now = System.nanoTime();
+        int id = present.getId();
+        if (id < 0 || id >= mMaxPresents) return;
+        int hop = mHopCounts[id];
+        if (hop >= mMaxHops) {
+            mDroppedHops.incrementAndGet();
+            return;
+        }
+        int slot = id * mMaxHops + hop;
+        mTimestamps[slot] = now;
+        mLocations[slot] = (kind << KIND_SHIFT) | (component & COMPONENT_MASK);
+        mHopCounts[id] = hop + 1;
+        if (kind == HOPPER_DEPOSIT) mPriorities[id] = (byte) present.getPriority();
+    }
+
+    /**
+     * Output the latency percentiles of all presents that made it into a sack,
+     * grouped by priority class, by sack and by path, followed by the mean dwell times per belt and turntable.
+     * Should be called once all threads have terminated.
+     */
+    public void printReport() {
+        Map<Integer, LatencySamples> perClass = new TreeMap<>();
+        Map<Integer, LatencySamples> perSack = new TreeMap<>();
+        Map<String, LatencySamples> perPath = new TreeMap<>();
+        Map<String, LatencySamples> perLocation = new TreeMap<>();
+
+        for (int id = 0; id < mMaxPresents; id++) {
+            int hops = mHopCounts[id];
+            if (hops < 2) continue;
+            int first = id * mMaxHops;
+            int last = first + hops - 1;
+            if (kindOf(mLocations[first]) != HOPPER_DEPOSIT || kindOf(mLocations[last]) != SACK) continue;
+
+            long latency = mTimestamps[last] - mTimestamps[first];
+            StringBuilder path = new StringBuilder();
+            for (int slot = first; slot <= last; slot++) {
+                int location = mLocations[slot];
+                if (kindOf(location) != BELT_DEQUEUE) {
+                    if (path.length() > 0) path.append(" > ");
+                    path.append(nameOf(location));
+                }
+                // Time spent from this hop to the next one is charged to the belt or turntable
+                if (slot < last && (kindOf(location) == BELT_ENQUEUE || kindOf(location) == TURNTABLE)) {
+                    perLocation.computeIfAbsent(nameOf(location), k -> new LatencySamples())
+                            .add(mTimestamps[slot + 1] - mTimestamps[slot]);
+                }
+            }
+            perClass.computeIfAbsent((int) mPriorities[id], k -> new LatencySamples()).add(latency);
+            perSack.computeIfAbsent(componentOf(mLocations[last]), k -> new LatencySamples()).add(latency);
+            perPath.computeIfAbsent(path.toString(), k -> new LatencySamples()).add(latency);
+        }
+
+        System.out.println("\nPRESENT LATENCY (ms, hopper deposit -> sack)\n");
+        for (Map.Entry<Integer, LatencySamples> entry : perClass.entrySet()) {
+            System.out.println("Class " + entry.getKey() + ": " + entry.getValue().describePercentiles());
+        }
+        System.out.println();
+        for (Map.Entry<Integer, LatencySamples> entry : perSack.entrySet()) {
+            System.out.println("Sack " + entry.getKey() + ": " + entry.getValue().describePercentiles());
+        }
+        System.out.println();
+        for (Map.Entry<String, LatencySamples> entry : perPath.entrySet()) {
+            System.out.println("Path " + entry.getKey() + ": " + entry.getValue().describePercentiles());
+        }
+        System.out.println();
+        for (Map.Entry<String, LatencySamples> entry : perLocation.entrySet()) {
+            System.out.println(entry.getKey() + " mean dwell " + entry.getValue().describeMean());
+        }
+        if (mDroppedHops.get() > 0) {
+            System.out.println(mDroppedHops.get() + " hops did not fit in the trace buffer.");
+        }
+    }
+
+    private static int kindOf(int location) {
+        return location >>> KIND_SHIFT;
+    }
+
+    private static int componentOf(int location) {
+        return location & COMPONENT_MASK;
+    }
+
+    /**
+     * Convert an encoded location to a readable name (e.g. "B3" or "TA").
+     *
+     * @param location The encoded kind and component of a hop.
+     * @return The name of the location.
+     */
+    @NotNull
+    private String nameOf(int location) {
+        int kind = kindOf(location);
+        if (kind == TURNTABLE) {
+            return HOP_PREFIXES[kind] + mTurntableNames.get(componentOf(location));
+        }
+        return HOP_PREFIXES[kind] + componentOf(location);
+    }
+
+    /**
+     * A growable collection of latencies (in nanoseconds) used only
+     * while building the report.
+     */
+    private static class LatencySamples {
+        private long[] mValues = new long[16];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mValues.length) mValues = Arrays.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+
+        String describePercentiles() {
+            Arrays.sort(mValues, 0, mSize);
+            return String.format("n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f", mSize,
+                    percentile(0.50), percentile(0.90), percentile(0.99), percentile(1.0));
+        }
+
+        String describeMean() {
+            long sum = 0;
+            for (int i = 0; i < mSize; i++) sum += mValues[i];
+            return String.format("%.1f ms over %d presents", sum / NANOS_PER_MILLI / mSize, mSize);
+        }
+
+        private double percentile(double fraction) {
+            int index = (int) Math.ceil(fraction * mSize) - 1;
+            return mValues[Math.max(index, 0)] / NANOS_PER_MILLI;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An {@link ArrayQueue} of presents that hands over the presents of the highest priority class first
+ * (see {@link Present#getPriority()}). Used by belts that keep priorities, so that express orders
+ * overtake the bulk presents waiting on the belt.
+ * <p>
+ * - Every class has its own buffer, and the order of the presents is kept within each class.
+ * <p>
+ * - Consumers ({@link #get}) take the front present of the highest class that has any presents.
+ * <p>
+ * Every class can hold as many presents as the whole belt, as the belt's semaphores already limit the total.
+ *
+ * @author anonymous
+ */
+public class PriorityPresentQueue extends ArrayQueue<Present> {
+
+    private static final int NO_CLASS = -1;
+
+    // One FIFO per priority class, indexed by the class
+    private final ArrayQueue<?>[] mClasses;
+    // The class the next present is taken from, once its front present has been pinned (NO_CLASS otherwise)
+    private int mPeekedClass = NO_CLASS;
+
+    /**
+     * Public Constructor. Create the buffer of every class.
+     *
+     * @param capacity The maximum number of presents the whole queue can hold.
+     * @param table    The table of the off-heap storage, or null to store the presents on the heap.
+     */
+    public PriorityPresentQueue(int capacity, PresentTable table) {
+        super(capacity);
+        mClasses = new ArrayQueue<?>[Present.MAX_PRIORITY + 1];
+        for (int c = 0; c < mClasses.length; c++) {
+            mClasses[c] = PresentTable.newQueue(capacity, table);
+        }
+    }
+
+    /**
+     * Add the specified present to the back of its class.
+     *
+     * @param element The present to be stored.
+     */
+    @Override
+    public synchronized void add(Present element) {
+        priorityClass(element.getPriority()).add(element);
+    }
+
+    /**
+     * Remove and access the front present of the highest class that has any presents.
+     *
+     * @return That present, or null if the queue is empty.
+     */
+    @Override
+    public synchronized Present get() {
+        int c = mPeekedClass != NO_CLASS && !priorityClass(mPeekedClass).isEmpty() ? mPeekedClass : highestClass();
+        mPeekedClass = NO_CLASS;
+        return c == NO_CLASS ? null : priorityClass(c).get();
+    }
+
+    /**
+     * Access the front present of the highest class and fix the class {@link #get()} takes from,
+     * so that a more urgent present added meanwhile cannot take the place of the pinned one.
+     *
+     * @return The front present.
+     * @throws IndexOutOfBoundsException if the queue is empty.
+     */
+    @Override
+    public synchronized Present pinFront() throws IndexOutOfBoundsException {
+        int c = highestClass();
+        if (c == NO_CLASS) throw new IndexOutOfBoundsException();
+        mPeekedClass = c;
+        return priorityClass(c).peek(0);
+    }
+
+    /**
+     * Access the present in the specified position, counting from the front of the highest class.
+     * Unlike {@link #pinFront()}, it leaves the present {@link #get()} takes alone,
+     * so snapshots may read the queue while a consumer is between pinning and taking a present.
+     *
+     * @param index The position of a present.
+     * @return The present in that position.
+     * @throws IndexOutOfBoundsException if the specified index is not valid.
+     */
+    @Override
+    public synchronized Present peek(int index) throws IndexOutOfBoundsException {
+        for (int c = mClasses.length - 1; c >= 0; c--) {
+            int size = priorityClass(c).getSize();
+            if (index < size) return priorityClass(c).peek(index);
+            index -= size;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public synchronized void remove(int index) {
+        for (int c = mClasses.length - 1; c >= 0; c--) {
+            int size = priorityClass(c).getSize();
+            if (index >= 0 && index < size) {
+                priorityClass(c).remove(index);
+                return;
+            }
+            index -= size;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (int c = 0; c < mClasses.length; c++) priorityClass(c).clear();
+        mPeekedClass = NO_CLASS;
+    }
+
+    @Override
+    public boolean isFull() {
+        return getSize() >= getCapacity();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return highestClass() == NO_CLASS;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (int c = 0; c < mClasses.length; c++) {
+            size += priorityClass(c).getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Access the priority class of the present that would be handed over next.
+     *
+     * @return The highest class that has any presents, or -1 if the queue is empty.
+     */
+    public int getHighestPriority() {
+        return highestClass();
+    }
+
+    private int highestClass() {
+        for (int c = mClasses.length - 1; c >= 0; c--) {
+            if (!priorityClass(c).isEmpty()) return c;
+        }
+        return NO_CLASS;
+    }
+
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private ArrayQueue<Present> priorityClass(int c) {
+        return (ArrayQueue<Present>) mClasses[c];
+    }
+}
@@ -0,0 +1,97 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Command line tool that compares the ways a turntable picks among parallel output belts
+ * ({@link Turntable#setRouting}) on a layout with two paths to the same sack.
+ * <p>
+ * Usage: {@code RoutingBenchmark [presents] [routing ...]}
+ * <p>
+ * Turntable A takes the presents of the hopper and can pass them on to B or to C, whose belts both lead
+ * to turntable D and its sack. A and D carry up to {@link #FAST_CAPACITY} presents at once, B and C only one,
+ * so a single path cannot keep up with A. The belt to C is longer than the belt to B, thus routing by
+ * occupancy and by the shortest queue pick differently. Every routing is run as described in
+ * {@link LayoutBenchmark}, and the throughput is reported in presents per simulated second, along with the share
+ * of the presents that went through C.
+ *
+ * @author anonymous
+ */
+public class RoutingBenchmark {
+
+    private static final int DEFAULT_PRESENTS = 200;
+    private static final String[] DEFAULT_ROUTINGS = {Turntable.ROUTE_FIRST, Turntable.ROUTE_OCCUPANCY,
+            Turntable.ROUTE_SHORTEST_QUEUE};
+    private static final int FAST_CAPACITY = 4;
+    private static final int SHORT_BELT = 8;
+    private static final int LONG_BELT = 16;
+
+    /**
+     * @param args Optionally, the number of presents and the routings to compare.
+     * @throws InterruptedException if the thread gets interrupted while a machine runs.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int presents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRESENTS;
+        String[] routings = DEFAULT_ROUTINGS;
+        if (args.length > 1) {
+            routings = new String[args.length - 1];
+            System.arraycopy(args, 1, routings, 0, routings.length);
+        }
+
+        System.out.println("engine,routing,simulated_s,presents_per_simulated_s,share_via_c");
+        for (int workers : LayoutBenchmark.ENGINES) {
+            for (String routing : routings) {
+                Machine machine = LayoutBenchmark.run(() -> build(presents, routing, workers),
+                        presents, "with the " + routing + " routing");
+                double seconds = LayoutBenchmark.getSimulatedSeconds(machine);
+                Turntable c = machine.getScenario().getTables()[2];
+                System.out.printf("%s,%s,%.1f,%.2f,%.2f%n", LayoutBenchmark.getEngine(workers), routing,
+                        seconds, presents / seconds, (double) c.getNumberOfPresentsMoved() / presents);
+            }
+        }
+    }
+
+    /**
+     * Build the machine with two paths.
+     *
+     * @param presents The number of presents of the hopper.
+     * @param routing  The routing of turntable A.
+     * @param workers  The number of threads of the pool scheduler, or 0 for a thread per turntable.
+     * @return A machine ready to be started.
+     */
+    @NotNull
+    private static Machine build(int presents, @NotNull String routing, int workers) {
+        MachineBuilder builder = new MachineBuilder()
+                .belt(1, LONG_BELT, 1)
+                .belt(2, SHORT_BELT, 1)
+                .belt(3, LONG_BELT, 1)
+                .belt(4, SHORT_BELT, 1)
+                .belt(5, SHORT_BELT, 1)
+                .hopper(1, 1, presents, LayoutBenchmark.HOPPER_SPEED)
+                .sack(1, presents, "0-3")
+                .turntable("A")
+                .capacity("A", FAST_CAPACITY)
+                .routing("A", routing)
+                .connect("A", Turntable.W, ConnectionType.InputBelt, 1)
+                .connect("A", Turntable.N, ConnectionType.OutputBelt, 2)
+                .connect("A", Turntable.E, ConnectionType.OutputBelt, 3)
+                .turntable("B")
+                .connect("B", Turntable.W, ConnectionType.InputBelt, 2)
+                .connect("B", Turntable.E, ConnectionType.OutputBelt, 4)
+                .turntable("C")
+                .connect("C", Turntable.W, ConnectionType.InputBelt, 3)
+                .connect("C", Turntable.E, ConnectionType.OutputBelt, 5)
+                .turntable("D")
+                .capacity("D", FAST_CAPACITY)
+                .connect("D", Turntable.W, ConnectionType.InputBelt, 4)
+                .connect("D", Turntable.N, ConnectionType.InputBelt, 5)
+                .connect("D", Turntable.S, ConnectionType.OutputSack, 1)
+                .timeSource(LayoutBenchmark.CLOCK);
+        String[] ages = new String[presents];
+        Arrays.fill(ages, "0-3");
+        if (workers > 0) builder.scheduler(workers);
+        return builder.presents(1, ages).build();
+    }
+}
@@ -1,9 +1,16 @@
 package CO3401.AdvancedProducerConsumer;
 
-import static java.lang.Thread.sleep;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A buffer for depositing Presents.
+ * <p>
+ * Several turntables may deliver into the same sack at once. Checking whether the sack is full, swapping it
+ * and adding the present happen under a lock of the sack, so that no present gets dropped into a full sack
+ * and a full sack is swapped only once. The lock is not held while the elf replaces the sack, and the total
+ * is a striped counter, so the producers only contend for the few instructions of the swap.
  *
  * @author anonymous
  */
@@ -16,12 +23,23 @@ public class Sack {
      * and then deliver it to the grotto, then the actual time needed
      * to replace every single sack would be constant.
      */
-    private static final long REPLACING_SACK = 100L;
+    static final long REPLACING_SACK = 100L;
 
     private final int mId;
     private final int mCapacity;
-    private ArrayQueue<Present> mAccumulation;
-    private int mTotalNumberOfPresents;
+    private final ArrayQueue<Present> mAccumulation;
+    // Makes the check for a full sack, its swap and the addition of a present atomic
+    private final Object mSwapLock = new Object();
+    // Striped, as every turntable attached to the sack adds to it (see MachineStatistics)
+    private final LongAdder mTotalNumberOfPresents = new LongAdder();
+    // Padded, as reporting threads read it while the turntables update it. Only updated under mSwapLock.
+    private final CounterCell mReplacements = new CounterCell();
+    // Records the time each present reaches the sack (null when tracing is off)
+    private PresentTracer mTracer;
+    // Logs every sack replacement (null when journaling is off)
+    private EventJournal mJournal;
+    // Measures the time it takes to replace the sack (see TimeSource)
+    private TimeSource mTimeSource = TimeSource.REAL_TIME;
 
     /**
      * Public Constructor. Initialize the Sack's data members
@@ -32,10 +50,21 @@ public class Sack {
      * @param capacity The maximum number of presents it can hold.
      */
     public Sack(int mId, int capacity) {
+        this(mId, capacity, null);
+    }
+
+    /**
+     * Public Constructor. Same as {@link #Sack(int, int)}, but the presents
+     * are stored off-heap if a table is specified.
+     *
+     * @param mId      The unique identifier of the Sack instance.
+     * @param capacity The maximum number of presents it can hold.
+     * @param table    The table of the off-heap storage, or null to store the presents on the heap.
+     */
+    public Sack(int mId, int capacity, PresentTable table) {
         mCapacity = capacity;
-        mAccumulation = new ArrayQueue<>(mCapacity, () -> new Present[mCapacity]);
+        mAccumulation = PresentTable.newQueue(mCapacity, table);
         this.mId = mId;
-        mTotalNumberOfPresents = 0;
     }
 
     /**
@@ -48,13 +77,23 @@ public class Sack {
     }
 
     /**
-     * Creates a new present container and sleeps the current
-     * thread for a specific amount of time to simulate the sack replacement.
+     * Empty the present container. Must be called while holding {@link #mSwapLock}.
+     * The container is reused, so replacing a sack does not allocate anything.
      */
-    public void elfReplacingSackWithNewOne() {
-        mAccumulation = new ArrayQueue<>(mCapacity, () -> new Present[mCapacity]);
+    private void swap() {
+        mAccumulation.clear();
+        mReplacements.increment();
+        if (mJournal != null) {
+            mJournal.append(EventJournal.SACK_SWAP, null, mId, mId);
+        }
+    }
+
+    /**
+     * Sleep the current thread for the time the elf takes to replace the sack.
+     */
+    private void replacementDelay() {
         try {
-            sleep(REPLACING_SACK);
+            mTimeSource.sleep(REPLACING_SACK);
         } catch (InterruptedException ignored) {
         }
     }
@@ -62,23 +101,36 @@ public class Sack {
     /**
      * Add the present to the sack's container. Also, increments
      * the number of total presents stored on a sack of this age range.
-     * <p>
-     * It is suggested that the following methods are invoked
-     * <p>
-     * - before Conveyor#acquireResourcesForPresentInsertion
-     * <p>
-     * - after Conveyor#releaseResourcesForPresentInsertion
-     * <p>
-     * this method invocation to ensure thread-safety.
+     * If the sack is full, it gets replaced first, and the thread that found it full
+     * sleeps for the replacement once its present is in the new sack.
+     * Safe to be called by several threads at once.
      *
      * @param present The present to be inserted to the sack.
      */
     public void addPresentToSack(Present present) {
-        if (isFull()) {
-            elfReplacingSackWithNewOne();
+        if (depositPresent(present)) replacementDelay();
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #addPresentToSack}. If the sack is full, it gets replaced first,
+     * but the caller is left to wait for the replacement ({@link #REPLACING_SACK}), e.g. as part of a
+     * delay it schedules rather than sleeps for. Safe to be called by several threads at once.
+     *
+     * @param present The present to be inserted to the sack.
+     * @return True if the sack had to be replaced. Otherwise, false.
+     */
+    public boolean depositPresent(Present present) {
+        boolean replaced;
+        synchronized (mSwapLock) {
+            replaced = mAccumulation.isFull();
+            if (replaced) swap();
+            this.mAccumulation.add(present);
+        }
+        mTotalNumberOfPresents.increment();
+        if (mTracer != null) {
+            mTracer.record(present, PresentTracer.SACK, mId);
         }
-        this.mAccumulation.add(present);
-        mTotalNumberOfPresents++;
+        return replaced;
     }
 
     /**
@@ -90,6 +142,61 @@ public class Sack {
         return mId;
     }
 
+    /**
+     * Access the sack's capacity.
+     *
+     * @return The maximum number of presents a sack can hold.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Access the presents of the sack currently being filled.
+     *
+     * @return A reference to the current sack's present container.
+     */
+    public ArrayQueue<Present> getCurrentPresents() {
+        return mAccumulation;
+    }
+
+    /**
+     * Overwrite the total number of presents with the value of a checkpoint.
+     *
+     * @param totalNumberOfPresents The count of all presents stored in a sack of this age range.
+     */
+    public void restoreTotalNumberOfPresents(int totalNumberOfPresents) {
+        mTotalNumberOfPresents.reset();
+        mTotalNumberOfPresents.add(totalNumberOfPresents);
+    }
+
+    /**
+     * Setter for {@link #mTracer}.
+     *
+     * @param tracer The tracer that records the presents reaching this sack.
+     */
+    public void setTracer(PresentTracer tracer) {
+        mTracer = tracer;
+    }
+
+    /**
+     * Setter for {@link #mJournal}.
+     *
+     * @param journal The journal that logs the replacements of this sack.
+     */
+    public void setJournal(EventJournal journal) {
+        mJournal = journal;
+    }
+
+    /**
+     * Setter for {@link #mTimeSource}.
+     *
+     * @param timeSource The clock the replacements of the sack are measured against.
+     */
+    public void setTimeSource(@NotNull TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
     /**
      * Access the total number stored in this kind sack.
      *
@@ -97,6 +204,15 @@ public class Sack {
      * a sack of this age range.
      */
     public int getTotalNumberOfPresents() {
-        return mTotalNumberOfPresents;
+        return mTotalNumberOfPresents.intValue();
+    }
+
+    /**
+     * Access the number of times the sack was replaced because it was full.
+     *
+     * @return The count of sack replacements.
+     */
+    public long getNumberOfReplacements() {
+        return mReplacements.get();
     }
 }
@@ -0,0 +1,145 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Command line tool that checks that a sack keeps exact totals when many threads deliver into it at once.
+ * <p>
+ * Usage: {@code SackStress [producers] [presents per producer] [sack capacity]}
+ * <p>
+ * - First, the producers add their presents straight into a single small sack, released all at once so that
+ * they collide on nearly every present and every swap. Every present must be counted, and the presents in the
+ * current sack plus the presents of the replaced sacks must add up to the total.
+ * <p>
+ * - Then, a machine with one hopper, belt and turntable per producer, all delivering into the same sack,
+ * runs without delays on a thread per turntable and on the pool scheduler. Every present must reach the sack
+ * and no present may go missing, as in the final report.
+ * <p>
+ * It exits with 1 on the first count that does not add up.
+ *
+ * @author anonymous
+ */
+public class SackStress {
+
+    private static final int DEFAULT_PRODUCERS = 8;
+    private static final int DEFAULT_PRESENTS = 200000;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int BELT_LENGTH = 5;
+    private static final int WORKERS = 2;
+    private static final String AGE_RANGE = "0-3";
+
+    /**
+     * @param args Optionally, the number of producers, the presents of each producer and the capacity of the sack.
+     */
+    public static void main(String[] args) {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRODUCERS;
+        int presents = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PRESENTS;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CAPACITY;
+        TimeSource noDelays = TimeSource.parse(TimeSource.ZERO);
+
+        System.out.println("run,producers,presents,sorted,replacements,presents_per_s");
+        try {
+            stressSack(producers, presents, capacity, noDelays);
+            // Every present of a machine run passes a belt and a turntable, so fewer of them will do
+            int machinePresents = Math.max(presents / 10, 1);
+            stressMachine(producers, machinePresents, capacity, noDelays, 0);
+            stressMachine(producers, machinePresents, capacity, noDelays, WORKERS);
+        } catch (InterruptedException e) {
+            System.out.println("Error: interrupted.");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Let the producers add their presents straight into a single sack.
+     */
+    private static void stressSack(int producers, int presents, int capacity, @NotNull TimeSource clock)
+            throws InterruptedException {
+        Sack sack = new Sack(1, capacity);
+        sack.setTimeSource(clock);
+        // The presents are created beforehand, as the hoppers get filled before the machine starts
+        Present[][] batches = new Present[producers][presents];
+        for (int p = 0; p < producers; p++) {
+            for (int i = 0; i < presents; i++) batches[p][i] = new Present(p * presents + i, AGE_RANGE);
+        }
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            Present[] batch = batches[p];
+            threads[p] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Present present : batch) sack.addPresentToSack(present);
+            });
+            threads[p].start();
+        }
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread thread : threads) thread.join();
+        long nanos = System.nanoTime() - start;
+
+        long expected = (long) producers * presents;
+        long kept = sack.getNumberOfReplacements() * capacity + sack.getCurrentPresents().getSize();
+        report("sack", producers, expected, sack.getTotalNumberOfPresents(), sack.getNumberOfReplacements(), nanos);
+        if (kept != expected) {
+            fail(kept + " presents in the current and the replaced sacks, " + expected + " expected");
+        }
+    }
+
+    /**
+     * Run a machine whose turntables all deliver into the same sack.
+     *
+     * @param workers The number of threads of the pool scheduler, or 0 for a thread per turntable.
+     */
+    private static void stressMachine(int producers, int presents, int capacity, @NotNull TimeSource clock,
+                                      int workers) throws InterruptedException {
+        MachineBuilder builder = new MachineBuilder()
+                .sack(1, capacity, AGE_RANGE)
+                .timeSource(clock);
+        String[] ages = new String[presents];
+        Arrays.fill(ages, AGE_RANGE);
+        for (int p = 1; p <= producers; p++) {
+            String id = "T" + p;
+            builder.belt(p, BELT_LENGTH, 1)
+                    .hopper(p, p, presents, 1)
+                    .presents(p, ages)
+                    .turntable(id)
+                    .connect(id, Turntable.W, ConnectionType.InputBelt, p)
+                    .connect(id, Turntable.E, ConnectionType.OutputSack, 1);
+        }
+        if (workers > 0) builder.scheduler(workers);
+        Machine machine = builder.build();
+        long start = System.nanoTime();
+        machine.start();
+        machine.awaitTermination();
+        long nanos = System.nanoTime() - start;
+
+        Sack sack = machine.getScenario().getSacks()[0];
+        long expected = (long) producers * presents;
+        report(workers == 0 ? "threads" : "pool", producers, expected, sack.getTotalNumberOfPresents(),
+                sack.getNumberOfReplacements(), nanos);
+        int missing = machine.getPresentsDeposited() - machine.getPresentsInSacks() - machine.getPresentsOnBelts();
+        if (missing != 0) fail(missing + " gifts went missing");
+    }
+
+    /**
+     * Print a line of the results and fail if the sack did not count every present.
+     */
+    private static void report(@NotNull String run, int producers, long expected, long sorted, long replacements,
+                               long nanos) {
+        System.out.printf("%s,%d,%d,%d,%d,%.0f%n", run, producers, expected, sorted, replacements,
+                expected * 1e9 / Math.max(nanos, 1));
+        if (sorted != expected) fail(sorted + " of " + expected + " presents were counted");
+    }
+
+    private static void fail(@NotNull String message) {
+        System.out.println("Error: " + message + ".");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,463 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * The layout of a Present sorting machine (hoppers, belts, turntables and sacks),
+ * the presents of its hoppers and the length of its timer, as read from a configuration file.
+ * <p>
+ * Every engine of the simulation builds its machine from a Scenario, so that
+ * they all accept the same configuration files. A configuration file can also be
+ * compiled into a binary file that loads much faster (see {@link CompiledScenario}).
+ *
+ * @author anonymous
+ */
+public class Scenario {
+
+    private final Conveyor[] mBelts;
+    private final Hopper[] mHoppers;
+    private final Sack[] mSacks;
+    private final String[] mSackAgeRanges;
+    private final Turntable[] mTables;
+    private final int mTimerLength;
+    private final int mNumPresents;
+
+    /**
+     * Package-private Constructor. Use {@link #read(String, boolean, PresentTable)}.
+     *
+     * @param sackAgeRanges The age range of each sack, in the same order as the sacks.
+     */
+    Scenario(@NotNull Conveyor[] belts, @NotNull Hopper[] hoppers, @NotNull Sack[] sacks, @NotNull String[] sackAgeRanges,
+             @NotNull Turntable[] tables, int timerLength, int numPresents) {
+        mBelts = belts;
+        mHoppers = hoppers;
+        mSacks = sacks;
+        mSackAgeRanges = sackAgeRanges;
+        mTables = tables;
+        mTimerLength = timerLength;
+        mNumPresents = numPresents;
+    }
+
+    /**
+     * Read the specified configuration file, and create the configuration of Hoppers,
+     * Belts, Turntables and Sacks. The turntables of the scenario share a lookup of
+     * the sack of each age range. Compiled files get memory-mapped instead of parsed.
+     *
+     * @param fileName    The path of the configuration file.
+     * @param fillHoppers True to fill the hoppers with the presents of the PRESENTS sections.
+     *                    False when the presents come from elsewhere (e.g. a checkpoint).
+     * @param table       The table of the off-heap storage, or null to store the presents on the heap.
+     * @return The scenario described by the file.
+     * @throws FileNotFoundException if the file cannot be opened.
+     * @throws IOException if a compiled file cannot be read.
+     * @throws IllegalArgumentException if the optional settings of a belt, a turntable or a present are not valid,
+     *                                  or a compiled file is of an unsupported version.
+     */
+    @NotNull
+    public static Scenario read(@NotNull String fileName, boolean fillHoppers, PresentTable table)
+            throws IOException {
+        if (CompiledScenario.isCompiled(fileName)) {
+            return CompiledScenario.read(fileName, fillHoppers, table);
+        }
+
+        // These variables will store the configuration
+        // of the Present sorting machine
+
+        int numBelts;
+        Conveyor[] belts;
+
+        int numHoppers;
+        Hopper[] hoppers;
+
+        int numSacks;
+        Sack[] sacks;
+
+        int numTurntables;
+        Turntable[] tables;
+
+        int timerLength;
+        int numPresents;
+
+        // READ FILE
+        // =========
+        Scanner inputStream = new Scanner(new File(fileName));
+
+        String line = "";
+
+        // READ BELTS
+        // ----------
+        // Skip though any blank lines to start
+        while (!line.startsWith("BELTS") && inputStream.hasNextLine()) {
+            line = inputStream.nextLine();
+        }
+
+        numBelts = inputStream.nextInt();
+        inputStream.nextLine();
+
+        belts = new Conveyor[numBelts];
+
+        for (int b = 0; b < numBelts; b++) {
+            line = inputStream.nextLine(); // e.g. 1 length 5 destinations 1 2
+
+            System.out.println(line);
+
+            Scanner beltStream = new Scanner(line);
+            int id = beltStream.nextInt();
+            beltStream.next(); // skip "length"
+
+            int length = beltStream.nextInt();
+            beltStream.next(); // skip "destinations"
+
+            ArrayList<Integer> destinations = new ArrayList<>();
+            while (beltStream.hasNextInt()) {
+                destinations.add(beltStream.nextInt());
+            }
+
+            // Optional settings, in any order, e.g. ... lanes 4 hash wait park:2000 (or ... priorities)
+            int lanes = 1;
+            String laneSelection = MultiLaneQueue.LEAST_OCCUPIED;
+            boolean priorities = false;
+            WaitStrategy waitStrategy = null;
+            while (beltStream.hasNext()) {
+                String setting = beltStream.next();
+                if ("lanes".equals(setting)) {
+                    lanes = beltStream.nextInt();
+                    if (beltStream.hasNext(MultiLaneQueue.LEAST_OCCUPIED + "|" + MultiLaneQueue.HASHED)) {
+                        laneSelection = beltStream.next();
+                    }
+                } else if ("wait".equals(setting)) {
+                    waitStrategy = WaitStrategy.parse(beltStream.next());
+                } else if ("priorities".equals(setting)) {
+                    priorities = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown belt setting " + setting);
+                }
+            }
+            if (lanes < 1) {
+                throw new IllegalArgumentException("Belt " + id + " needs at least 1 lane");
+            }
+
+            belts[b] = new Conveyor(id, length, lanes, laneSelection, priorities, table);
+            for (int dest : destinations) {
+                belts[b].addDestination(dest);
+            }
+            belts[b].setWaitStrategy(waitStrategy);
+        } // end of reading belt lines
+
+        // READ HOPPERS
+        // ------------
+        // Skip though any blank lines
+        while (!line.startsWith("HOPPERS") && inputStream.hasNextLine()) {
+            line = inputStream.nextLine();
+        }
+
+        numHoppers = inputStream.nextInt();
+        inputStream.nextLine();
+
+        hoppers = new Hopper[numHoppers];
+
+        for (int h = 0; h < numHoppers; h++) {
+            // Each hopper line will look like this:
+            // e.g. 1 belt 1 capacity 10 speed 1
+
+            int id = inputStream.nextInt();
+            inputStream.next(); // skip "belt"
+
+            int belt = inputStream.nextInt();
+            inputStream.next(); // skip "capacity"
+
+            int capacity = inputStream.nextInt();
+            inputStream.next(); // skip "speed"
+
+            int speed = inputStream.nextInt();
+            line = inputStream.nextLine(); // skip rest of line
+
+            hoppers[h] = new Hopper(id, belts[belt - 1], capacity, speed, table);
+
+        } // end of reading hopper lines
+
+        // READ SACKS
+        // ------------
+        // Skip though any blank lines
+        while (!line.startsWith("SACKS") && inputStream.hasNextLine()) {
+            line = inputStream.nextLine();
+        }
+
+        numSacks = inputStream.nextInt();
+        inputStream.nextLine();
+
+        sacks = new Sack[numSacks];
+        String[] sackAgeRanges = new String[numSacks];
+        HashMap<String, Integer> destinations = new HashMap<>();
+
+        for (int s = 0; s < numSacks; s++) {
+            // Each sack line will look like this:
+            // e.g. 1 capacity 20 age 0-3
+
+            int id = inputStream.nextInt();
+            inputStream.next(); // skip "capacity"
+
+            int capacity = inputStream.nextInt();
+            inputStream.next(); // skip "age"
+
+            String age = inputStream.next();
+            line = inputStream.nextLine(); // skip rest of line
+
+            sacks[s] = new Sack(id, capacity, table);
+            sackAgeRanges[s] = age;
+            destinations.put(age, id);
+
+        } // end of reading sack lines
+
+        // READ TURNTABLES
+        // ---------------
+        // Skip though any blank lines
+        while (!line.startsWith("TURNTABLES") && inputStream.hasNextLine()) {
+            line = inputStream.nextLine();
+        }
+
+        numTurntables = inputStream.nextInt();
+        inputStream.nextLine();
+
+        tables = new Turntable[numTurntables];
+
+        for (int t = 0; t < numTurntables; t++) {
+            // Each turntable line will look like this:
+            // A N ib 1 E null S os 1 W null
+
+            String tableId = inputStream.next();
+            tables[t] = new Turntable(tableId, destinations);
+
+            int connId;
+
+            inputStream.next(); // skip "N"
+            Connection north = null;
+            String Ntype = inputStream.next();
+            if (!"null".equals(Ntype)) {
+                connId = inputStream.nextInt();
+                if (null != Ntype) {
+                    switch (Ntype) {
+                        case "os":
+                            north = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
+                            break;
+                        case "ib":
+                            north = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
+                            break;
+                        case "ob":
+                            north = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
+                            break;
+                    }
+                    tables[t].addConnection(Turntable.N, north);
+                }
+            }
+
+            inputStream.next(); // skip "E"
+            Connection east;
+            String Etype = inputStream.next();
+            if (!"null".equals(Etype)) {
+                connId = inputStream.nextInt();
+                if (null != Etype) {
+                    switch (Etype) {
+                        case "os":
+                            east = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
+                            break;
+                        case "ib":
+                            east = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
+                            break;
+                        default:
+                            east = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
+                            break;
+                    }
+                    tables[t].addConnection(Turntable.E, east);
+                }
+            }
+
+            inputStream.next(); // skip "S"
+            Connection south;
+            String Stype = inputStream.next();
+            if (!"null".equals(Stype)) {
+                connId = inputStream.nextInt();
+                if (null != Stype) {
+                    switch (Stype) {
+                        case "os":
+                            south = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
+                            break;
+                        case "ib":
+                            south = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
+                            break;
+                        default:
+                            south = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
+                            break;
+                    }
+                    tables[t].addConnection(Turntable.S, south);
+                }
+            }
+
+            inputStream.next(); // skip "W"
+            Connection west;
+            String Wtype = inputStream.next();
+            if (!"null".equals(Wtype)) {
+                connId = inputStream.nextInt();
+                if (null != Wtype) {
+                    switch (Wtype) {
+                        case "os":
+                            west = new Connection(ConnectionType.OutputSack, null, sacks[connId - 1]);
+                            break;
+                        case "ib":
+                            west = new Connection(ConnectionType.InputBelt, belts[connId - 1], null);
+                            break;
+                        default:
+                            west = new Connection(ConnectionType.OutputBelt, belts[connId - 1], null);
+                            break;
+                    }
+                    tables[t].addConnection(Turntable.W, west);
+                }
+            }
+
+            // Optional settings, in any order, e.g. ... W null capacity 4 routing jsq
+            line = inputStream.nextLine();
+            Scanner settingStream = new Scanner(line);
+            while (settingStream.hasNext()) {
+                String setting = settingStream.next();
+                if ("capacity".equals(setting)) {
+                    tables[t].setCapacity(settingStream.nextInt());
+                } else if ("routing".equals(setting)) {
+                    tables[t].setRouting(settingStream.next());
+                } else {
+                    throw new IllegalArgumentException("Unknown turntable setting " + setting);
+                }
+            }
+        } // end of reading turntable lines
+
+        // FILL THE HOPPERS
+        // ----------------
+        numPresents = 0; // Also used as the id of the next present
+        // Presents of the same age range share a single string (there may be millions of presents)
+        HashMap<String, String> ageRanges = new HashMap<>();
+        for (int i = 0; i < numHoppers; i++) {
+            // Skip though any blank lines
+            while (!line.startsWith("PRESENTS") && inputStream.hasNextLine()) {
+                line = inputStream.nextLine();
+            }
+            int numHopperPresents = inputStream.nextInt();
+            inputStream.nextLine();
+            for (int p = 0; p < numHopperPresents; p++) {
+                // Each present line will look like this (the priority class is optional):
+                // e.g. 0-3 priority 2
+                String age = inputStream.next();
+                String ageRange = ageRanges.putIfAbsent(age, age);
+                line = inputStream.nextLine();
+                Present present = new Present(numPresents++, ageRange == null ? age : ageRange,
+                        line.isEmpty() ? Present.STANDARD : parsePriority(line));
+                // When restoring, the hoppers get refilled from the checkpoint
+                if (fillHoppers) {
+                    hoppers[i].fill(present);
+                }
+            }
+
+            System.out.println("Filled Hopper " + hoppers[i].getIdentifier());
+        }
+
+        // READ TIMER LENGTH
+        // -----------------
+        // Skip though any blank lines
+        while (!line.startsWith("TIMER") && inputStream.hasNextLine()) {
+            line = inputStream.nextLine();
+        }
+        Scanner timerStream = new Scanner(line);
+        timerStream.next(); // skip "TIMER"
+        timerLength = timerStream.nextInt();
+
+        return new Scenario(belts, hoppers, sacks, sackAgeRanges, tables, timerLength, numPresents);
+    }
+
+    /**
+     * Parse the optional settings of a present line, following its age range.
+     *
+     * @param settings The rest of the line, e.g. " priority 2".
+     * @return The priority class of the present.
+     * @throws IllegalArgumentException if the settings are not valid.
+     */
+    private static int parsePriority(@NotNull String settings) {
+        String[] words = settings.trim().split("\\s+");
+        if (words.length == 1 && words[0].isEmpty()) return Present.STANDARD;
+        if (words.length != 2 || !"priority".equals(words[0])) {
+            throw new IllegalArgumentException("Unknown present setting " + settings.trim());
+        }
+        try {
+            return Integer.parseInt(words[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid priority " + words[1]);
+        }
+    }
+
+    /**
+     * Access the belts of the machine.
+     *
+     * @return The belts, in the order of the configuration file.
+     */
+    public Conveyor[] getBelts() {
+        return mBelts;
+    }
+
+    /**
+     * Access the hoppers of the machine.
+     *
+     * @return The hoppers, in the order of the configuration file.
+     */
+    public Hopper[] getHoppers() {
+        return mHoppers;
+    }
+
+    /**
+     * Access the sacks of the machine.
+     *
+     * @return The sacks, in the order of the configuration file.
+     */
+    public Sack[] getSacks() {
+        return mSacks;
+    }
+
+    /**
+     * Access the age ranges of the sacks.
+     *
+     * @return The age range of each sack, in the order of the configuration file.
+     */
+    public String[] getSackAgeRanges() {
+        return mSackAgeRanges;
+    }
+
+    /**
+     * Access the turntables of the machine.
+     *
+     * @return The turntables, in the order of the configuration file.
+     */
+    public Turntable[] getTables() {
+        return mTables;
+    }
+
+    /**
+     * Access the time the machine should run for.
+     *
+     * @return The length of the timer in seconds.
+     */
+    public int getTimerLength() {
+        return mTimerLength;
+    }
+
+    /**
+     * Access the number of presents listed in the PRESENTS sections.
+     *
+     * @return The number of presents, which is also the id of the next present.
+     */
+    public int getNumPresents() {
+        return mNumPresents;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,368 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Command line tool that writes large synthetic configuration files, in the same format
+ * as the bundled scenarios, to measure how the machine scales.
+ * <p>
+ * Usage: {@code ScenarioGenerator <grid|tree|stages|ring> <turntables> <presents> <file> [timer] [speed]}
+ * <p> - grid: a square of turntables. Every row has a hopper on its west side, presents travel
+ * east and south, and every row and column ends in a sack.
+ * <p> - tree: ternary trees of up to {@link #MAX_TREE_DEPTH} levels, each one fed by a hopper at its
+ * root, with three sacks on each leaf.
+ * <p> - stages: columns of turntables, where each turntable feeds the turntable in the same row and the
+ * one below it (wrapping around) of the next column. The first column has a hopper per turntable and
+ * the last column two sacks per turntable.
+ * <p> - ring: a loop of turntables, each one with a hopper and a sack, passing presents east to the next
+ * turntable. A present is headed for the sack of its own turntable or of the next one, so no present
+ * has to go round the loop, which would gridlock it once every belt of the loop is full.
+ * <p>
+ * Every layout but the ring is acyclic, and all respect the limits of a turntable (4 ports, at most 3 input
+ * and 3 output belts). The destinations of every belt are exactly the sacks that can be reached through it
+ * (on the ring, the sacks of the presents that pass along it), and every present is headed for a sack its
+ * hopper can reach, so that no present ever gets lost.
+ *
+ * @author anonymous
+ */
+public class ScenarioGenerator {
+
+    private static final int BELT_LENGTH = 5;
+    private static final int SACK_CAPACITY = 50;
+    private static final int MAX_TREE_DEPTH = 5;
+    private static final int DEFAULT_TIMER = 60;
+    private static final int DEFAULT_SPEED = 2;
+    private static final long SEED = 2023L; // The same arguments always produce the same file
+
+    // Layout under construction. Belts, hoppers and sacks are numbered from 1, as in the files.
+    private final ArrayList<Integer> mBeltConsumers = new ArrayList<>(); // turntable index per belt
+    private final ArrayList<String[]> mTablePorts = new ArrayList<>(); // e.g. "ib 3" per port, null if unused
+    private final ArrayList<Integer> mHopperBelts = new ArrayList<>();
+    // Destinations per belt, or null for the sacks that can be reached through the belt
+    private final ArrayList<BitSet> mBeltDestinations = new ArrayList<>();
+    private int mNumSacks;
+
+    /**
+     * @param args The layout, the (approximate) number of turntables, the number of presents,
+     *             the path of the file to write and optionally the timer length and hopper speed.
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: ScenarioGenerator <grid|tree|stages|ring> <turntables> <presents> <file> [timer] [speed]");
+            return;
+        }
+        int turntables = Integer.parseInt(args[1]);
+        long presents = Long.parseLong(args[2]);
+        int timer = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_TIMER;
+        int speed = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_SPEED;
+
+        ScenarioGenerator generator = new ScenarioGenerator();
+        switch (args[0]) {
+            case "grid":
+                generator.buildGrid(turntables);
+                break;
+            case "tree":
+                generator.buildTrees(turntables);
+                break;
+            case "stages":
+                generator.buildStages(turntables);
+                break;
+            case "ring":
+                generator.buildRing(turntables);
+                break;
+            default:
+                System.out.println("Error: unknown layout " + args[0]);
+                return;
+        }
+        try {
+            generator.write(args[3], presents, timer, speed);
+            System.out.println("Wrote " + args[3] + ": " + generator.mTablePorts.size() + " turntables, "
+                    + generator.mBeltConsumers.size() + " belts, " + generator.mHopperBelts.size() + " hoppers, "
+                    + generator.mNumSacks + " sacks.");
+        } catch (IOException e) {
+            System.out.println("Error writing scenario: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A square grid of turntables. Turntable (r, c) takes presents from the west (a hopper on the
+     * first column) and the north, and passes them east and south. The east port of the last column
+     * holds the sack of the row and the south port of the last row the sack of the column.
+     */
+    private void buildGrid(int turntables) {
+        int side = (int) Math.ceil(Math.sqrt(turntables));
+        int[][] tables = new int[side][side];
+        for (int r = 0; r < side; r++) {
+            for (int c = 0; c < side; c++) {
+                tables[r][c] = addTurntable();
+            }
+        }
+        int[] rowSacks = new int[side];
+        int[] columnSacks = new int[side];
+        for (int i = 0; i < side; i++) rowSacks[i] = ++mNumSacks;
+        for (int i = 0; i < side; i++) columnSacks[i] = ++mNumSacks;
+
+        for (int r = 0; r < side; r++) {
+            addHopper(tables[r][0], Turntable.W);
+            for (int c = 0; c < side; c++) {
+                if (c + 1 < side) {
+                    connect(tables[r][c], Turntable.E, tables[r][c + 1], Turntable.W);
+                } else {
+                    attachSack(tables[r][c], Turntable.E, rowSacks[r]);
+                }
+                if (r + 1 < side) {
+                    connect(tables[r][c], Turntable.S, tables[r + 1][c], Turntable.N);
+                } else {
+                    attachSack(tables[r][c], Turntable.S, columnSacks[c]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ternary trees that share the turntables out. Every turntable takes presents from the north
+     * and passes them east, south and west, to three more turntables or (on the leaves) three sacks.
+     */
+    private void buildTrees(int turntables) {
+        int depth = 1;
+        while (depth < MAX_TREE_DEPTH && treeSize(depth + 1) <= turntables) depth++;
+        int trees = Math.max(1, (int) Math.ceil((double) turntables / treeSize(depth)));
+        for (int t = 0; t < trees; t++) {
+            int root = addTurntable();
+            addHopper(root, Turntable.N);
+            ArrayList<Integer> level = new ArrayList<>();
+            level.add(root);
+            for (int d = 1; d < depth; d++) {
+                ArrayList<Integer> next = new ArrayList<>();
+                for (int parent : level) {
+                    for (int port = Turntable.E; port <= Turntable.W; port++) {
+                        int child = addTurntable();
+                        connect(parent, port, child, Turntable.N);
+                        next.add(child);
+                    }
+                }
+                level = next;
+            }
+            for (int leaf : level) {
+                for (int port = Turntable.E; port <= Turntable.W; port++) {
+                    attachSack(leaf, port, ++mNumSacks);
+                }
+            }
+        }
+    }
+
+    private static int treeSize(int depth) {
+        return ((int) Math.pow(3, depth) - 1) / 2;
+    }
+
+    /**
+     * Columns (stages) of turntables. Turntable (s, j) takes presents from the north and the west and
+     * passes them east to turntable (s + 1, j) and south to turntable (s + 1, j + 1), wrapping around.
+     */
+    private void buildStages(int turntables) {
+        int width = Math.max(2, (int) Math.round(Math.sqrt(turntables)));
+        int stages = Math.max(1, (int) Math.ceil((double) turntables / width));
+        int[][] tables = new int[stages][width];
+        for (int s = 0; s < stages; s++) {
+            for (int j = 0; j < width; j++) {
+                tables[s][j] = addTurntable();
+            }
+        }
+        for (int j = 0; j < width; j++) {
+            addHopper(tables[0][j], Turntable.N);
+        }
+        for (int s = 0; s < stages; s++) {
+            for (int j = 0; j < width; j++) {
+                if (s + 1 < stages) {
+                    connect(tables[s][j], Turntable.E, tables[s + 1][j], Turntable.N);
+                    connect(tables[s][j], Turntable.S, tables[s + 1][(j + 1) % width], Turntable.W);
+                } else {
+                    attachSack(tables[s][j], Turntable.E, ++mNumSacks);
+                    attachSack(tables[s][j], Turntable.S, ++mNumSacks);
+                }
+            }
+        }
+    }
+
+    /**
+     * A loop of turntables. Turntable i takes presents from a hopper on the north and from the
+     * previous turntable on the west, passes them east to the next turntable (the last one to the
+     * first) and holds its sack on the south. The belt between two turntables only carries presents
+     * of the second turntable's sack, so every turntable can tell that its west belt does not feed
+     * its east belt, and the loop shuts down once the hoppers are empty.
+     */
+    private void buildRing(int turntables) {
+        int size = Math.max(2, turntables);
+        int[] tables = new int[size];
+        for (int i = 0; i < size; i++) {
+            tables[i] = addTurntable();
+            attachSack(tables[i], Turntable.S, ++mNumSacks);
+        }
+        for (int i = 0; i < size; i++) {
+            int next = (i + 1) % size;
+            addHopper(tables[i], Turntable.N);
+            BitSet hopperSacks = new BitSet();
+            hopperSacks.set(i + 1);
+            hopperSacks.set(next + 1);
+            mBeltDestinations.set(mBeltConsumers.size() - 1, hopperSacks);
+
+            int belt = addBelt(tables[next], Turntable.W);
+            mTablePorts.get(tables[i])[Turntable.E] = "ob " + belt;
+            BitSet beltSacks = new BitSet();
+            beltSacks.set(next + 1);
+            mBeltDestinations.set(belt - 1, beltSacks);
+        }
+    }
+
+    private int addTurntable() {
+        mTablePorts.add(new String[4]);
+        return mTablePorts.size() - 1;
+    }
+
+    /**
+     * Add a hopper with its own belt, which feeds the specified port of a turntable.
+     */
+    private void addHopper(int table, int port) {
+        mHopperBelts.add(addBelt(table, port));
+    }
+
+    /**
+     * Add a belt from an output port of a turntable to an input port of a later turntable.
+     */
+    private void connect(int from, int fromPort, int to, int toPort) {
+        if (to <= from) throw new IllegalStateException("belts must lead to a later turntable");
+        int belt = addBelt(to, toPort);
+        mTablePorts.get(from)[fromPort] = "ob " + belt;
+    }
+
+    private int addBelt(int consumer, int consumerPort) {
+        mBeltConsumers.add(consumer);
+        mBeltDestinations.add(null);
+        int belt = mBeltConsumers.size();
+        mTablePorts.get(consumer)[consumerPort] = "ib " + belt;
+        return belt;
+    }
+
+    private void attachSack(int table, int port, int sack) {
+        mTablePorts.get(table)[port] = "os " + sack;
+    }
+
+    /**
+     * The age range of the presents of a sack, e.g. "0-1" for sack 1.
+     */
+    @NotNull
+    private static String ageRange(int sack) {
+        return (2 * (sack - 1)) + "-" + (2 * (sack - 1) + 1);
+    }
+
+    /**
+     * Calculate which sacks can be reached from each turntable. Belts mostly lead to a later
+     * turntable, so visiting the turntables backwards sees every turntable after those it feeds,
+     * and the visits are repeated until nothing changes for the belts that lead back.
+     */
+    @NotNull
+    private BitSet[] reachableSacks() {
+        BitSet[] reachable = new BitSet[mTablePorts.size()];
+        for (int t = 0; t < reachable.length; t++) reachable[t] = new BitSet(mNumSacks + 1);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int t = mTablePorts.size() - 1; t >= 0; t--) {
+                int before = reachable[t].cardinality();
+                for (String port : mTablePorts.get(t)) {
+                    if (port == null) continue;
+                    int id = Integer.parseInt(port.substring(3));
+                    if (port.startsWith("os")) {
+                        reachable[t].set(id);
+                    } else if (port.startsWith("ob")) {
+                        reachable[t].or(reachable[mBeltConsumers.get(id - 1)]);
+                    }
+                }
+                changed |= reachable[t].cardinality() != before;
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * The destinations of a belt (see {@link #mBeltDestinations}).
+     */
+    @NotNull
+    private BitSet beltDestinations(int belt, @NotNull BitSet[] reachable) {
+        BitSet destinations = mBeltDestinations.get(belt - 1);
+        return destinations != null ? destinations : reachable[mBeltConsumers.get(belt - 1)];
+    }
+
+    /**
+     * Write the layout and the presents in the format read by {@link Scenario}.
+     *
+     * @param presents The total number of presents, shared out between the hoppers.
+     */
+    private void write(@NotNull String fileName, long presents, int timer, int speed) throws IOException {
+        BitSet[] reachable = reachableSacks();
+        int numHoppers = mHopperBelts.size();
+        // Every hopper needs at least one present (see Scenario#read)
+        presents = Math.max(presents, numHoppers);
+        Random random = new Random(SEED);
+        String[] compass = {"N", "E", "S", "W"};
+
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(fileName), 1 << 16)) {
+            out.write("BELTS\n" + mBeltConsumers.size() + "\n");
+            for (int b = 0; b < mBeltConsumers.size(); b++) {
+                StringBuilder line = new StringBuilder();
+                line.append(b + 1).append(" length ").append(BELT_LENGTH).append(" destinations");
+                BitSet destinations = beltDestinations(b + 1, reachable);
+                for (int s = destinations.nextSetBit(0); s >= 0; s = destinations.nextSetBit(s + 1)) {
+                    line.append(' ').append(s);
+                }
+                out.write(line.append('\n').toString());
+            }
+
+            out.write("\nHOPPERS\n" + numHoppers + "\n");
+            long[] hopperPresents = new long[numHoppers];
+            for (int h = 0; h < numHoppers; h++) {
+                hopperPresents[h] = presents / numHoppers + (h < presents % numHoppers ? 1 : 0);
+                out.write((h + 1) + " belt " + mHopperBelts.get(h) + " capacity " + hopperPresents[h]
+                        + " speed " + speed + "\n");
+            }
+
+            out.write("\nSACKS\n" + mNumSacks + "\n");
+            for (int s = 1; s <= mNumSacks; s++) {
+                out.write(s + " capacity " + SACK_CAPACITY + " age " + ageRange(s) + "\n");
+            }
+
+            out.write("\nTURNTABLES\n" + mTablePorts.size() + "\n");
+            for (int t = 0; t < mTablePorts.size(); t++) {
+                StringBuilder line = new StringBuilder("T").append(t + 1);
+                String[] ports = mTablePorts.get(t);
+                for (int port = Turntable.N; port <= Turntable.W; port++) {
+                    line.append(' ').append(compass[port]).append(' ').append(ports[port] == null ? "null" : ports[port]);
+                }
+                out.write(line.append('\n').toString());
+            }
+
+            for (int h = 0; h < numHoppers; h++) {
+                BitSet destinations = beltDestinations(mHopperBelts.get(h), reachable);
+                String[] ages = new String[destinations.cardinality()];
+                int a = 0;
+                for (int s = destinations.nextSetBit(0); s >= 0; s = destinations.nextSetBit(s + 1)) {
+                    ages[a++] = ageRange(s);
+                }
+                out.write("\nPRESENTS " + (h + 1) + "\n" + hopperPresents[h] + "\n");
+                for (long p = 0; p < hopperPresents[h]; p++) {
+                    out.write(ages[random.nextInt(ages.length)]);
+                    out.write('\n');
+                }
+            }
+
+            out.write("\nTIMER " + timer + "\n");
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package CO3401.AdvancedProducerConsumer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line tool that checks that reading the statistics does not slow the transfer of presents down.
+ * <p>
+ * Usage: {@code StatisticsBenchmark [presents]}
+ * <p>
+ * It moves presents through the machine of {@link AllocationCheck} on the calling thread, while a reader
+ * thread sums every counter of {@link MachineStatistics} at a rising frequency, from not at all to
+ * as fast as it can. For each frequency it reports the samples actually taken per second and the
+ * CPU time the transfer thread spent per present (measured after a warm-up with half of the presents).
+ * The CPU time of the transfer thread is used rather than the wall-clock time, so that the result
+ * is not affected by the reader taking turns with it on a single core.
+ *
+ * @author anonymous
+ */
+public class StatisticsBenchmark {
+
+    private static final int DEFAULT_PRESENTS = 100000;
+    private static final long NO_SAMPLING = -1L;
+    private static final long CONTINUOUS = 0L;
+    // Pause (ns) of the reader between two samples
+    private static final long[] SAMPLING_INTERVALS = {NO_SAMPLING, 1000000L, 100000L, 10000L, CONTINUOUS};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * @param args Optionally, the number of presents to move for every frequency.
+     */
+    public static void main(String[] args) {
+        int presents = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PRESENTS;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println(Runtime.getRuntime().availableProcessors() + " processors, "
+                + presents / 2 + " measured present transfers per frequency.");
+        System.out.printf("%-16s %14s %24s%n", "reader pause", "samples/s", "CPU ns per transfer");
+
+        for (long interval : SAMPLING_INTERVALS) {
+            AllocationCheck machine = new AllocationCheck(presents);
+            int warmUp = presents / 2;
+            for (int i = 0; i < warmUp; i++) {
+                machine.transfer();
+            }
+
+            MachineStatistics statistics = machine.statistics();
+            AtomicBoolean running = new AtomicBoolean(true);
+            long[] samples = new long[1];
+            Thread reader = new Thread(() -> {
+                long sink = 0;
+                while (running.get()) {
+                    sink += statistics.getPresentsSorted() + statistics.getPresentsMoved()
+                            + statistics.getSackReplacements() + statistics.getHopperWaitingTime();
+                    samples[0]++;
+                    if (interval > CONTINUOUS) LockSupport.parkNanos(interval);
+                }
+                if (sink < 0) System.out.println(sink); // keep the sums from being optimised away
+            }, "statistics-reader");
+            if (interval != NO_SAMPLING) reader.start();
+
+            long startWall = System.nanoTime();
+            long startCpu = threads.getCurrentThreadCpuTime();
+            for (int i = warmUp; i < presents; i++) {
+                machine.transfer();
+            }
+            long cpu = threads.getCurrentThreadCpuTime() - startCpu;
+            long wall = System.nanoTime() - startWall;
+            running.set(false);
+            try {
+                reader.join();
+            } catch (InterruptedException ignored) {
+            }
+
+            String pause = interval == NO_SAMPLING ? "no reader" : interval == CONTINUOUS ? "none" : interval + " ns";
+            System.out.printf("%-16s %14.0f %24.1f%n", pause, samples[0] * NANOS_PER_SECOND / wall,
+                    (double) cpu / (presents - warmUp));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Optional accounting of where the time of every hopper and turntable thread went.
+ * <p>
+ * Each thread records its own figures from the {@link ThreadMXBean} as the last step of its run,
+ * as a terminated thread can no longer be queried: CPU time, the time it was blocked on a monitor,
+ * the time it waited (parked on a belt's semaphore or sleeping out a simulated delay) and how often.
+ * Once the machine has shut down, {@link #printReport(Conveyor[])} outputs them along with a ranking of the
+ * belts by the time threads waited on them (see {@link Conveyor#getContendedTime(int)}):
+ * <p> - a belt that is mostly waited on because it is full should be lengthened.
+ * <p> - a belt that is mostly waited on because it is locked should be split into lanes.
+ * <p>
+ * Only threads of their own get recorded, turntables driven by a {@link TurntableScheduler} are not.
+ *
+ * @author anonymous
+ */
+public class ThreadAccounting {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final int RANKED_BELTS = 10;
+
+    private final ThreadMXBean mThreads = ManagementFactory.getThreadMXBean();
+    private final ConcurrentLinkedQueue<ThreadFigures> mFigures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Public Constructor. Switch on the CPU time and contention monitoring of the JVM,
+     * which must happen before the threads start, so that all their waits get counted.
+     */
+    public ThreadAccounting() {
+        if (mThreads.isThreadCpuTimeSupported()) mThreads.setThreadCpuTimeEnabled(true);
+        if (mThreads.isThreadContentionMonitoringSupported()) mThreads.setThreadContentionMonitoringEnabled(true);
+    }
+
+    /**
+     * Record the figures of the calling thread. Called by the thread itself once it has finished its work.
+     *
+     * @param component The name of the hopper or turntable the thread belongs to.
+     */
+    public void recordCurrentThread(@NotNull String component) {
+        ThreadInfo info = mThreads.getThreadInfo(Thread.currentThread().getId());
+        long cpu = mThreads.isThreadCpuTimeSupported() ? mThreads.getCurrentThreadCpuTime() : -1;
+        mFigures.add(new ThreadFigures(component, cpu, info.getBlockedTime(), info.getBlockedCount(),
+                info.getWaitedTime(), info.getWaitedCount()));
+    }
+
+    /**
+     * Output the figures of every recorded thread, then the belts ranked by contention.
+     *
+     * @param belts The belts of the machine.
+     */
+    public void printReport(@NotNull Conveyor[] belts) {
+        System.out.println("\nTHREAD ACCOUNTING (times in ms; -1 if the JVM does not measure it)\n");
+        System.out.printf("%-16s %10s %10s %8s %10s %8s%n", "Thread", "CPU", "Blocked", "times", "Waited", "times");
+        ArrayList<ThreadFigures> figures = new ArrayList<>(mFigures);
+        figures.sort(Comparator.comparing(f -> f.mComponent));
+        for (ThreadFigures f : figures) {
+            System.out.printf("%-16s %10.1f %10d %8d %10d %8d%n", f.mComponent,
+                    f.mCpuNanos < 0 ? -1.0 : f.mCpuNanos / NANOS_PER_MILLI,
+                    f.mBlockedMillis, f.mBlockedCount, f.mWaitedMillis, f.mWaitedCount);
+        }
+
+        Conveyor[] ranked = belts.clone();
+        Arrays.sort(ranked, Comparator.comparingLong(ThreadAccounting::fixableWait).reversed());
+        System.out.println("\nMost contended belts (contended acquires, time waited in ms):\n");
+        System.out.printf("%-6s %18s %18s %18s  %s%n", "Belt", "full", "locked", "empty", "advice");
+        for (int b = 0; b < Math.min(RANKED_BELTS, ranked.length); b++) {
+            Conveyor belt = ranked[b];
+            if (belt.getContendedAcquires(Conveyor.FULL) + belt.getContendedAcquires(Conveyor.LOCKED)
+                    + belt.getContendedAcquires(Conveyor.EMPTY) == 0) break;
+            String advice = fixableWait(belt) == 0 ? "-"
+                    : belt.getContendedTime(Conveyor.FULL) >= belt.getContendedTime(Conveyor.LOCKED)
+                    ? "lengthen" : "split into lanes";
+            System.out.printf("%-6d %18s %18s %18s  %s%n", belt.getId(), contention(belt, Conveyor.FULL),
+                    contention(belt, Conveyor.LOCKED), contention(belt, Conveyor.EMPTY), advice);
+        }
+    }
+
+    /**
+     * The time threads waited on the specified belt because it was full or locked,
+     * which a longer belt or more lanes would reduce. Waiting for presents is up to the producers.
+     */
+    private static long fixableWait(@NotNull Conveyor belt) {
+        return belt.getContendedTime(Conveyor.FULL) + belt.getContendedTime(Conveyor.LOCKED);
+    }
+
+    @NotNull
+    private static String contention(@NotNull Conveyor belt, int kind) {
+        return String.format("%d (%.1f)", belt.getContendedAcquires(kind), belt.getContendedTime(kind) / NANOS_PER_MILLI);
+    }
+
+    private static class ThreadFigures {
+        private final String mComponent;
+        private final long mCpuNanos;
+        private final long mBlockedMillis;
+        private final long mBlockedCount;
+        private final long mWaitedMillis;
+        private final long mWaitedCount;
+
+        ThreadFigures(@NotNull String component, long cpuNanos, long blockedMillis, long blockedCount,
+                      long waitedMillis, long waitedCount) {
+            mComponent = component;
+            mCpuNanos = cpuNanos;
+            mBlockedMillis = blockedMillis;
+            mBlockedCount = blockedCount;
+            mWaitedMillis = waitedMillis;
+            mWaitedCount = waitedCount;
+        }
+    }
+}
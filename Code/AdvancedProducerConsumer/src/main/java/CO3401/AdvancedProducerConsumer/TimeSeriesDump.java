@@ -0,0 +1,146 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Command line tool that prints the columns of a {@link TimeSeriesSampler} file as CSV,
+ * e.g. to draw a heatmap of the occupancy of the belts over time.
+ * <p>
+ * Usage: {@code TimeSeriesDump <time series file> [column prefix ...]}
+ * <p>
+ * Without prefixes every column is printed, otherwise the time and the columns whose name starts with one of
+ * them (e.g. {@code belt.} for every belt). Only the arrays of those columns are read from each block.
+ * The time is printed in milliseconds since the machine started.
+ *
+ * @author anonymous
+ */
+public class TimeSeriesDump {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * @param args The path of the file and optionally the prefixes of the columns to print.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: TimeSeriesDump <time series file> [column prefix ...]");
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(args[0], "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer fixed = read(channel, 0, 4 + 2 + 2 + 8 + 8 + 4 + 4);
+            if (fixed.getInt() != TimeSeriesSampler.MAGIC || fixed.getShort() != TimeSeriesSampler.VERSION) {
+                throw new IOException("not a version " + TimeSeriesSampler.VERSION + " time series");
+            }
+            fixed.getShort(); // skip reserved
+            long intervalMillis = fixed.getLong();
+            long rowCount = fixed.getLong();
+            int blockRows = fixed.getInt();
+            int columns = fixed.getInt();
+
+            // The names and widths of the columns
+            String[] names = new String[columns];
+            int[] widths = new int[columns];
+            long position = fixed.capacity();
+            for (int c = 0; c < columns; c++) {
+                ByteBuffer column = read(channel, position, 3);
+                widths[c] = column.get();
+                byte[] name = new byte[column.getShort()];
+                read(channel, position + 3, name.length).get(name);
+                names[c] = new String(name, StandardCharsets.UTF_8);
+                position += 3 + name.length;
+            }
+            boolean[] isSelected = new boolean[columns];
+            ArrayList<Integer> selected = new ArrayList<>();
+            for (int c = 0; c < columns; c++) {
+                isSelected[c] = c == 0 || matches(names[c], args);
+                if (isSelected[c]) selected.add(c);
+            }
+
+            StringBuilder line = new StringBuilder("time_ms");
+            for (int c : selected) if (c > 0) line.append(',').append(names[c]);
+            System.out.println("# every " + intervalMillis + " ms, "
+                    + (rowCount == 0 ? "not closed" : rowCount + " rows") + ", " + blockRows + " rows per block");
+            System.out.println(line);
+
+            // The blocks, each column of a block right after the other
+            long[][] values = new long[columns][];
+            while (position + 4 <= channel.size()) {
+                int rows = read(channel, position, 4).getInt();
+                long array = position + 4;
+                for (int c = 0; c < columns; c++) {
+                    if (isSelected[c]) {
+                        values[c] = decode(read(channel, array, rows * widths[c]), rows, widths[c]);
+                    }
+                    array += (long) rows * widths[c];
+                }
+                for (int r = 0; r < rows; r++) {
+                    line.setLength(0);
+                    line.append(String.format("%.1f", values[0][r] / NANOS_PER_MILLI));
+                    for (int c : selected) if (c > 0) line.append(',').append(values[c][r]);
+                    System.out.println(line);
+                }
+                position = array;
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading time series: " + e.getMessage());
+        }
+    }
+
+    private static boolean matches(@NotNull String name, @NotNull String[] args) {
+        if (args.length == 1) return true;
+        for (int a = 1; a < args.length; a++) {
+            if (name.startsWith(args[a])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the specified bytes of the file.
+     *
+     * @throws IOException if the file ends before them.
+     */
+    @NotNull
+    private static ByteBuffer read(@NotNull FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("truncated file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Turn the array of a column into values.
+     *
+     * @param width The bytes of every value (1, 2, 4 or 8).
+     */
+    @NotNull
+    private static long[] decode(@NotNull ByteBuffer array, int rows, int width) {
+        long[] values = new long[rows];
+        for (int r = 0; r < rows; r++) {
+            switch (width) {
+                case 1:
+                    values[r] = array.get();
+                    break;
+                case 2:
+                    values[r] = array.getShort();
+                    break;
+                case 4:
+                    values[r] = array.getInt();
+                    break;
+                default:
+                    values[r] = array.getLong();
+            }
+        }
+        return values;
+    }
+}
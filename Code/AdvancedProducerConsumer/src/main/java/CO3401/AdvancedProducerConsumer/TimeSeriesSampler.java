@@ -0,0 +1,330 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Samples the state of a running machine at a fixed interval into a columnar file, for offline analysis
+ * (e.g. a heatmap of which belts fill up when). Every sample is a row with a column per value:
+ * <p> - {@code time}: long, nanoseconds since the machine started
+ * <p> - {@code belt.<id>}: short (int for belts longer than {@link Short#MAX_VALUE}), presents on the belt
+ * <p> - {@code hopper.<id>}: int, presents left in the hopper
+ * <p> - {@code sack.<id>}: int, presents sorted into the sack
+ * <p> - {@code table.<id>.direction}: byte, the compass direction the turntable faces ({@link Turntable#N} etc.)
+ * <p> - {@code table.<id>.moved}: int, presents the turntable has passed on
+ * <p>
+ * The file starts with a header: magic, version, the interval (simulated ms), the number of rows, the rows per
+ * block and the name and width (bytes) of every column. The rows follow in blocks of up to {@link #BLOCK_ROWS}:
+ * the number of rows of the block, then the values of each column in turn, as a binary array. So a reader
+ * can load a column without the others ({@link TimeSeriesDump}).
+ * <p>
+ * The sampler thread reads the components without locking any of them, thus a value may miss a move that is
+ * in progress and the values of a row are not taken at the same instant. It fills a preallocated block in memory. Full blocks are handed over to a background writer thread,
+ * which writes each of them with a single gathering write of the file channel. The sampler only waits if
+ * the writer is {@link #BLOCKS} blocks behind. A sample that is due while the previous one is still being
+ * taken is skipped rather than taken late, so the time column shows the actual spacing.
+ *
+ * @author anonymous
+ */
+public class TimeSeriesSampler extends Thread {
+
+    // File format
+    static final int MAGIC = 0x53544D58; // "XMTS"
+    static final short VERSION = 1;
+    static final int ROW_COUNT_OFFSET = 16;
+    static final int BLOCK_ROWS = 256;
+
+    private static final int BLOCKS = 4;
+    private static final String TIME = "time";
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final Conveyor[] mBelts;
+    private final Hopper[] mHoppers;
+    private final Sack[] mSacks;
+    private final Turntable[] mTables;
+    private final long mIntervalNanos;
+    // Width (bytes) of each column, and where its array starts in a block
+    private final int[] mWidths;
+    private final int[] mOffsets;
+    private final int mRowBytes;
+    // Blocks the sampler may fill, and blocks waiting for the writer
+    private final ArrayBlockingQueue<Block> mFree = new ArrayBlockingQueue<>(BLOCKS);
+    private final ArrayBlockingQueue<Block> mFull = new ArrayBlockingQueue<>(BLOCKS + 1);
+    private final Thread mWriter;
+    private long mStartNanos;
+    // The block being filled (only touched by the sampler thread, then by finish())
+    private Block mBlock;
+    // Number of rows the writer has written to the file
+    private volatile long mWrittenRows;
+    private volatile IOException mError;
+
+    /**
+     * Public Constructor. Create the file, write its header and start the background writer thread.
+     *
+     * @param fileName       The path of the file (overwritten if it exists).
+     * @param scenario       The machine to be sampled.
+     * @param timeSource     The clock of the machine.
+     * @param intervalMillis The simulated time between two samples, in milliseconds.
+     *                       Without any delays, it is real time.
+     * @throws IOException              if the file cannot be created.
+     * @throws IllegalArgumentException if the interval is not above 0.
+     */
+    public TimeSeriesSampler(@NotNull String fileName, @NotNull Scenario scenario, @NotNull TimeSource timeSource,
+                             long intervalMillis) throws IOException {
+        super("Time series sampler");
+        setDaemon(true);
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Cannot sample every " + intervalMillis + " ms");
+        }
+        mBelts = scenario.getBelts();
+        mHoppers = scenario.getHoppers();
+        mSacks = scenario.getSacks();
+        mTables = scenario.getTables();
+        mIntervalNanos = Math.max(timeSource.toRealNanos(intervalMillis), 1L);
+
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<Integer> widths = new ArrayList<>();
+        names.add(TIME);
+        widths.add(8);
+        for (Conveyor belt : mBelts) {
+            names.add("belt." + belt.getId());
+            widths.add(belt.getPresents().getCapacity() <= Short.MAX_VALUE ? 2 : 4);
+        }
+        for (Hopper hopper : mHoppers) {
+            names.add("hopper." + hopper.getIdentifier());
+            widths.add(4);
+        }
+        for (Sack sack : mSacks) {
+            names.add("sack." + sack.getId());
+            widths.add(4);
+        }
+        for (Turntable table : mTables) {
+            names.add("table." + table.getTurntableId() + ".direction");
+            widths.add(1);
+            names.add("table." + table.getTurntableId() + ".moved");
+            widths.add(4);
+        }
+        mWidths = new int[widths.size()];
+        mOffsets = new int[widths.size()];
+        int rowBytes = 0;
+        for (int c = 0; c < mWidths.length; c++) {
+            mWidths[c] = widths.get(c);
+            mOffsets[c] = rowBytes * BLOCK_ROWS;
+            rowBytes += mWidths[c];
+        }
+        mRowBytes = rowBytes;
+        for (int b = 0; b < BLOCKS; b++) {
+            mFree.add(new Block(ByteBuffer.allocateDirect(rowBytes * BLOCK_ROWS).order(ByteOrder.LITTLE_ENDIAN)));
+        }
+
+        // magic, version, reserved, interval, row count, rows per block, column count, (width, name) per column
+        byte[][] encodedNames = new byte[names.size()][];
+        int headerLength = 4 + 2 + 2 + 8 + 8 + 4 + 4;
+        for (int c = 0; c < encodedNames.length; c++) {
+            encodedNames[c] = names.get(c).getBytes(StandardCharsets.UTF_8);
+            headerLength += 1 + 2 + encodedNames[c].length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(intervalMillis).putLong(0L);
+        header.putInt(BLOCK_ROWS).putInt(mWidths.length);
+        for (int c = 0; c < encodedNames.length; c++) {
+            header.put((byte) mWidths[c]).putShort((short) encodedNames[c].length).put(encodedNames[c]);
+        }
+        header.flip();
+        mFile = new RandomAccessFile(fileName, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        while (header.hasRemaining()) mChannel.write(header);
+
+        mWriter = new Thread(this::drain, "time-series-writer");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Start the clock of the samples along with the machine. Invoked by {@link Machine#start()}.
+     */
+    @Override
+    public synchronized void start() {
+        mStartNanos = System.nanoTime();
+        super.start();
+    }
+
+    /**
+     * Invoked after {@link Thread#start} gets called.
+     * Takes a sample at the start and at the end of every interval.
+     */
+    @Override
+    public void run() {
+        long next = mStartNanos;
+        try {
+            while (true) {
+                sample(System.nanoTime());
+                next += mIntervalNanos;
+                long now = System.nanoTime();
+                // Skip the samples that are already overdue
+                if (now - next > 0) next += (now - next) / mIntervalNanos * mIntervalNanos + mIntervalNanos;
+                long remaining;
+                while ((remaining = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remaining);
+                    if (Thread.interrupted()) return;
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Add a row with the current state of the machine to the block being filled,
+     * and hand the block over to the writer once it is full.
+     *
+     * @param now The current time (System.nanoTime).
+     * @throws InterruptedException if the thread gets interrupted while waiting for the writer.
+     */
+    private void sample(long now) throws InterruptedException {
+        if (mBlock == null) {
+            mBlock = mFree.take();
+            mBlock.mRows = 0;
+        }
+        ByteBuffer buffer = mBlock.mBuffer;
+        int row = mBlock.mRows;
+        int c = 0;
+        buffer.putLong(mOffsets[c++] + row * 8, now - mStartNanos);
+        for (Conveyor belt : mBelts) {
+            if (mWidths[c] == 2) {
+                buffer.putShort(mOffsets[c++] + row * 2, (short) belt.getNumberOfPresents());
+            } else {
+                buffer.putInt(mOffsets[c++] + row * 4, belt.getNumberOfPresents());
+            }
+        }
+        for (Hopper hopper : mHoppers) buffer.putInt(mOffsets[c++] + row * 4, hopper.getNumberOfPresents());
+        for (Sack sack : mSacks) buffer.putInt(mOffsets[c++] + row * 4, sack.getTotalNumberOfPresents());
+        for (Turntable table : mTables) {
+            buffer.put(mOffsets[c++] + row, (byte) table.getCompassDirection());
+            buffer.putInt(mOffsets[c++] + row * 4, (int) table.getNumberOfPresentsMoved());
+        }
+        if (++mBlock.mRows == BLOCK_ROWS) handOver();
+    }
+
+    /**
+     * Hand the block being filled over to the writer. It never waits, as {@link #mFull} has room for
+     * every block and the end marker, so an interrupt cannot leave a full block behind.
+     */
+    private void handOver() {
+        Block block = mBlock;
+        mBlock = null;
+        mFull.add(block);
+    }
+
+    /**
+     * Body of the writer thread. Writes the full blocks to the file till the sampler has finished.
+     */
+    private void drain() {
+        ByteBuffer rows = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer[] arrays = new ByteBuffer[mWidths.length + 1];
+        arrays[0] = rows;
+        try {
+            while (true) {
+                Block block = mFull.take();
+                if (block.mBuffer == null) return; // Finished
+                rows.clear();
+                rows.putInt(block.mRows).flip();
+                for (int c = 0; c < mWidths.length; c++) {
+                    ByteBuffer array = block.mBuffer.duplicate();
+                    array.limit(mOffsets[c] + block.mRows * mWidths[c]).position(mOffsets[c]);
+                    arrays[c + 1] = array;
+                }
+                long bytes = 4L + (long) block.mRows * mRowBytes;
+                while (bytes > 0) bytes -= mChannel.write(arrays);
+                mWrittenRows += block.mRows;
+                mFree.put(block);
+            }
+        } catch (IOException e) {
+            System.out.println("Time series writer stopped: " + e.getMessage());
+            mError = e;
+            // Let the sampler carry on, its blocks are dropped from now on
+            while (true) {
+                try {
+                    Block block = mFull.take();
+                    if (block.mBuffer == null) return;
+                    mFree.put(block);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Stop sampling, take a last sample, wait for the writer to write every block,
+     * then store the number of rows in the header and close the file.
+     * Invoked once the machine has completed shutdown.
+     *
+     * @return The number of rows in the file.
+     */
+    public long finish() {
+        interrupt();
+        try {
+            join();
+            if (mBlock != null && mBlock.mRows == BLOCK_ROWS) handOver();
+            sample(System.nanoTime());
+            if (mBlock != null) handOver();
+            mFull.add(new Block(null));
+            mWriter.join();
+        } catch (InterruptedException ignored) {
+        }
+        try {
+            if (mError == null) {
+                ByteBuffer rowCount = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                rowCount.putLong(mWrittenRows).flip();
+                mChannel.write(rowCount, ROW_COUNT_OFFSET);
+            }
+            mFile.close();
+        } catch (IOException e) {
+            System.out.println("Error closing time series: " + e.getMessage());
+        }
+        return mWrittenRows;
+    }
+
+    /**
+     * Access the number of rows written to the file.
+     *
+     * @return The number of samples, final once {@link #finish()} has returned.
+     */
+    public long getNumberOfRows() {
+        return mWrittenRows;
+    }
+
+    /**
+     * Access the number of columns of every row.
+     *
+     * @return The time column plus a column per belt, hopper and sack, and two per turntable.
+     */
+    public int getNumberOfColumns() {
+        return mWidths.length;
+    }
+
+    /**
+     * A block of rows, stored column by column.
+     */
+    private static class Block {
+
+        private final ByteBuffer mBuffer; // null marks the end of the samples
+        private int mRows;
+
+        Block(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+    }
+}
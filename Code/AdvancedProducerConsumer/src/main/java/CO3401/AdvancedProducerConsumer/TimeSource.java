@@ -0,0 +1,192 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The clock the simulated delays (rotations, present movements, hopper intervals and sack replacements)
+ * are measured against.
+ * <p> - real: every delay takes as long as modelled (the default).
+ * <p> - scaled: every delay is multiplied by a factor, e.g. {@code scaled:0.01} runs the machine 100 times faster.
+ * <p> - zero: no delay takes any time, so the machine is only limited by the cost of its coordination
+ * (semaphores, locks and thread hand-offs). Used to measure that cost on its own (headless mode).
+ * <p>
+ * Threads sleep on timers of their own, unless the clock has a shared {@link HashedWheelTimer} ({@link #withTimer}).
+ *
+ * @author anonymous
+ */
+public class TimeSource {
+
+    public static final String REAL = "real";
+    public static final String SCALED = "scaled";
+    public static final String ZERO = "zero";
+    // The time source of machines that are not told otherwise
+    public static final TimeSource REAL_TIME = new TimeSource(1.0, null);
+    private static final char FACTOR_SEPARATOR = ':';
+    // The simulated time of a tick of a timer wheel: a tenth of the time it takes to replace a sack
+    private static final long TIMER_TICK = 10L;
+    // The shortest real tick of a timer wheel, as the timer thread wakes up at every tick
+    private static final long MIN_TIMER_TICK_NANOS = 50000L;
+
+    private final double mScale;
+    // Counts down the delays of all the threads (null for a timer per thread)
+    private final HashedWheelTimer mTimer;
+
+    /**
+     * Private Constructor. Use {@link #parse(String)} or {@link #REAL_TIME}.
+     *
+     * @param scale The factor every delay is multiplied by.
+     * @param timer The timer shared by all the threads, or null for a timer per thread.
+     */
+    private TimeSource(double scale, HashedWheelTimer timer) {
+        mScale = scale;
+        mTimer = timer;
+    }
+
+    /**
+     * Create the time source described by the specified text.
+     *
+     * @param text {@link #REAL}, {@link #ZERO} or {@link #SCALED} followed by ':' and the factor.
+     * @return The corresponding time source.
+     * @throws IllegalArgumentException if the text does not describe a time source.
+     */
+    @NotNull
+    public static TimeSource parse(@NotNull String text) {
+        if (REAL.equals(text)) return REAL_TIME;
+        if (ZERO.equals(text)) return new TimeSource(0.0, null);
+        if (text.startsWith(SCALED + FACTOR_SEPARATOR)) {
+            try {
+                double scale = Double.parseDouble(text.substring(SCALED.length() + 1));
+                if (scale >= 0.0) return new TimeSource(scale, null);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        throw new IllegalArgumentException("Unknown time source " + text);
+    }
+
+    /**
+     * Sleep the current thread for the specified simulated delay.
+     *
+     * @param millis The modelled delay in milliseconds.
+     * @throws InterruptedException if the thread gets interrupted while sleeping.
+     */
+    public void sleep(long millis) throws InterruptedException {
+        if (mTimer != null && !isZero()) {
+            mTimer.sleep(toNanos(millis));
+            return;
+        }
+        if (this == REAL_TIME) {
+            Thread.sleep(millis);
+            return;
+        }
+        if (isZero()) {
+            // Still give the other machines a chance to run, as a real sleep would
+            Thread.yield();
+            if (Thread.interrupted()) throw new InterruptedException();
+            return;
+        }
+        // Thread.sleep would round a scaled delay to whole milliseconds
+        long remaining = toNanos(millis);
+        long deadline = System.nanoTime() + remaining;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) throw new InterruptedException();
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Convert a simulated delay into the time it actually takes.
+     *
+     * @param millis The modelled delay in milliseconds.
+     * @return The delay in nanoseconds.
+     */
+    public long toNanos(long millis) {
+        return (long) (TimeUnit.MILLISECONDS.toNanos(millis) * mScale);
+    }
+
+    /**
+     * Same as {@link #toNanos}, but without delays a simulated millisecond takes a real one,
+     * for timeouts that must still run out (e.g. the windows of a {@link FaultInjector}).
+     *
+     * @param millis The simulated time in milliseconds.
+     * @return The time in nanoseconds.
+     */
+    public long toRealNanos(long millis) {
+        return isZero() ? TimeUnit.MILLISECONDS.toNanos(millis) : toNanos(millis);
+    }
+
+    /**
+     * Convert the time the machine has actually been running for into simulated time.
+     *
+     * @param realMillis The elapsed time in milliseconds.
+     * @return The simulated time in seconds (the real time if no delay takes any time).
+     */
+    public long toSimulatedSeconds(long realMillis) {
+        return toSimulatedMillis(realMillis) / 1000L;
+    }
+
+    /**
+     * Convert the time the machine has actually been running for into simulated time,
+     * e.g. to store it in a checkpoint that may be restored against another time source.
+     *
+     * @param realMillis The elapsed time in milliseconds.
+     * @return The simulated time in milliseconds (the real time if no delay takes any time).
+     */
+    public long toSimulatedMillis(long realMillis) {
+        return (long) (realMillis / (isZero() ? 1.0 : mScale));
+    }
+
+    /**
+     * Convert simulated time back into the time the machine actually runs for. Inverse of {@link #toSimulatedMillis}.
+     *
+     * @param simulatedMillis The simulated time in milliseconds.
+     * @return The real time in milliseconds.
+     */
+    public long toRealMillis(long simulatedMillis) {
+        return (long) (simulatedMillis * (isZero() ? 1.0 : mScale));
+    }
+
+    /**
+     * Check if the simulated delays take no time at all.
+     *
+     * @return True for the {@link #ZERO} time source. Otherwise, false.
+     */
+    public boolean isZero() {
+        return mScale == 0.0;
+    }
+
+    /**
+     * Create a clock with the same scale, whose delays are all counted down by a single {@link HashedWheelTimer}.
+     * Its ticks take {@link #TIMER_TICK} simulated milliseconds (at least {@link #MIN_TIMER_TICK_NANOS} ns).
+     *
+     * @return The new clock, or this one if no delay takes any time.
+     */
+    @NotNull
+    public TimeSource withTimer() {
+        if (isZero()) return this;
+        return new TimeSource(mScale, new HashedWheelTimer(Math.max(toNanos(TIMER_TICK), MIN_TIMER_TICK_NANOS)));
+    }
+
+    /**
+     * Access the timer shared by the threads that measure their delays against this clock.
+     *
+     * @return The timer created by {@link #withTimer()}, or null if every thread sleeps on its own timer.
+     */
+    public HashedWheelTimer getTimer() {
+        return mTimer;
+    }
+
+    /**
+     * The representation of the time source as a String.
+     *
+     * @return The time source in the format accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        if (this == REAL_TIME) return REAL;
+        return isZero() ? ZERO : SCALED + FACTOR_SEPARATOR + mScale;
+    }
+}
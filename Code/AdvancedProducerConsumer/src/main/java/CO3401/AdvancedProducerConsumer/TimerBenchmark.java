@@ -0,0 +1,180 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line tool that compares how accurately and at what CPU cost many components wait for their
+ * simulated delays, with a timer each and with a shared {@link HashedWheelTimer}.
+ * <p>
+ * Usage: {@code TimerBenchmark [components] [rounds]}
+ * <p>
+ * Every component waits for {@link #DELAY} simulated milliseconds (a present movement) the given number
+ * of times in a row, with the delays scaled down by {@link #CLOCK}. The components start spread over one delay,
+ * as the turntables of a machine do not all move at once.
+ * <p> - sleep: a thread per component parks with a timeout, as {@link TimeSource#sleep} does without a timer.
+ * <p> - wheel: a thread per component parks until the wheel wakes it up ({@link HashedWheelTimer#sleep}).
+ * <p> - executor: every component is a task that reschedules itself on a single-threaded
+ * {@link ScheduledThreadPoolExecutor}, the timer the pool scheduler used to have.
+ * <p> - wheel-tasks: every component is a task that reschedules itself on the wheel, as the turntables of
+ * the pool scheduler do.
+ * <p>
+ * The lateness of every delay (real time past its deadline) is reported as its median and 99th percentile,
+ * along with the CPU time of the process.
+ *
+ * @author anonymous
+ */
+public class TimerBenchmark {
+
+    private static final int DEFAULT_COMPONENTS = 2000;
+    private static final int DEFAULT_ROUNDS = 20;
+    private static final long DELAY = Turntable.PRESENT_MOVEMENT;
+    private static final String CLOCK = "scaled:0.01";
+    private static final String[] MODES = {"sleep", "wheel", "executor", "wheel-tasks"};
+
+    /**
+     * @param args Optionally, the number of components and the number of delays each of them waits for.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int components = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMPONENTS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+        TimeSource clock = TimeSource.parse(CLOCK).withTimer();
+        long delayNanos = clock.toNanos(DELAY);
+
+        System.out.println("mode,components,delays,median_late_us,p99_late_us,cpu_ms,wall_ms");
+        for (String mode : MODES) {
+            long[] lateness = new long[components * rounds];
+            long startCpu = MyClass.processCpuTime();
+            long start = System.nanoTime();
+            if (mode.startsWith("wheel") || mode.equals("sleep")) {
+                if (mode.equals("wheel-tasks")) {
+                    runTasks(components, rounds, delayNanos, lateness, clock.getTimer(), null);
+                } else {
+                    runThreads(components, rounds, delayNanos, lateness, mode.equals("wheel") ? clock.getTimer() : null);
+                }
+            } else {
+                ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+                runTasks(components, rounds, delayNanos, lateness, null, executor);
+                executor.shutdown();
+            }
+            long wallNanos = System.nanoTime() - start;
+            long cpuNanos = MyClass.processCpuTime() - startCpu;
+            Arrays.sort(lateness);
+            System.out.printf("%s,%d,%d,%.0f,%.0f,%d,%d%n", mode, components, lateness.length,
+                    lateness[lateness.length / 2] / 1e3, lateness[(int) (lateness.length * 0.99)] / 1e3,
+                    cpuNanos / 1000000L, wallNanos / 1000000L);
+        }
+    }
+
+    /**
+     * Let a thread per component wait for its delays, each on a timer of its own or on the wheel.
+     *
+     * @param timer The wheel, or null for a timer per thread.
+     */
+    private static void runThreads(int components, int rounds, long delayNanos, @NotNull long[] lateness,
+                                   HashedWheelTimer timer) throws InterruptedException {
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] threads = new Thread[components];
+        for (int c = 0; c < components; c++) {
+            int component = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    go.await();
+                    wait(delayNanos * component / components, timer);
+                    for (int r = 0; r < rounds; r++) {
+                        long deadline = System.nanoTime() + delayNanos;
+                        wait(delayNanos, timer);
+                        lateness[component * rounds + r] = Math.max(System.nanoTime() - deadline, 0);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            });
+            threads[c].setDaemon(true);
+            threads[c].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) thread.join();
+    }
+
+    private static void wait(long nanos, HashedWheelTimer timer) throws InterruptedException {
+        if (timer != null) {
+            timer.sleep(nanos);
+            return;
+        }
+        // Same as TimeSource.sleep on a scaled clock
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Let every component reschedule itself after each delay, on the wheel or on the executor.
+     *
+     * @param timer    The wheel, or null to use the executor.
+     * @param executor The executor, or null to use the wheel.
+     */
+    private static void runTasks(int components, int rounds, long delayNanos, @NotNull long[] lateness,
+                                 HashedWheelTimer timer, ScheduledThreadPoolExecutor executor)
+            throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(components);
+        for (int c = 0; c < components; c++) {
+            Component component = new Component(c, rounds, delayNanos, lateness, done, timer, executor);
+            component.scheduleAfter(delayNanos * c / components);
+        }
+        done.await();
+    }
+
+    /**
+     * A component that waits for its delays as a task, with no thread of its own.
+     */
+    private static class Component implements Runnable {
+
+        private final int mIndex;
+        private final int mRounds;
+        private final long mDelayNanos;
+        private final long[] mLateness;
+        private final CountDownLatch mDone;
+        private final HashedWheelTimer mTimer;
+        private final ScheduledThreadPoolExecutor mExecutor;
+        private int mRound = -1; // The first delay only spreads the components out
+        private long mDeadline;
+
+        Component(int index, int rounds, long delayNanos, @NotNull long[] lateness, @NotNull CountDownLatch done,
+                  HashedWheelTimer timer, ScheduledThreadPoolExecutor executor) {
+            mIndex = index;
+            mRounds = rounds;
+            mDelayNanos = delayNanos;
+            mLateness = lateness;
+            mDone = done;
+            mTimer = timer;
+            mExecutor = executor;
+        }
+
+        void scheduleAfter(long nanos) {
+            mDeadline = System.nanoTime() + nanos;
+            if (mTimer != null) {
+                mTimer.schedule(this, nanos);
+            } else {
+                mExecutor.schedule(this, nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mRound >= 0) mLateness[mIndex * mRounds + mRound] = Math.max(System.nanoTime() - mDeadline, 0);
+            if (++mRound == mRounds) {
+                mDone.countDown();
+                return;
+            }
+            scheduleAfter(mDelayNanos);
+        }
+    }
+}
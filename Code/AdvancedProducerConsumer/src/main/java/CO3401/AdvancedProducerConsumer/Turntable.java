@@ -2,7 +2,10 @@ package CO3401.AdvancedProducerConsumer;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -43,8 +46,15 @@ import java.util.HashMap;
  * once it is out of presents, it will be out of order as well. After the validation
  * process, the appropriate resources are released. In case the present’s destination
  * involves an output conveyor belt, then an additional step is required. In this step,
- * the turntable acts as a hopper, it acquires the same resources a hopper needs, adds
- * the present to the belt, and then releases them ({@link #addPresentToBeltTransaction(Conveyor, Conveyor, int)}).
+ * the turntable acts as a hopper, it claims a free slot of the output belt, then locks
+ * both belts for the move only ({@link Conveyor#lockInOrder}). It never locks a belt while waiting
+ * for another, so turntables connected in a loop cannot lock each other out. If the output belt
+ * stays full, the present is given back and another input belt is served, as its presents may be
+ * the ones that free the output belt (see {@link #mBlockedInput}).
+ * A turntable with a capacity above 1 ({@link #setCapacity}) also claims the presents behind the first one
+ * that leave from the same output, and carries them all in a single rotation (see {@link #mBatch}).
+ * A turntable that reroutes ({@link #setRerouteAfter}) gives up on an output belt that has stayed full
+ * for too long and sends the presents along another belt that leads to their sacks, if there is one.
  * Everything discussed above constitutes one iteration. And as mentioned before,
  * the turntable keeps on iterating till it has no more input belts.
  * Its clean-up stage consists of updating its output belts’ flag (mWaitingForPresents)
@@ -62,11 +72,35 @@ public class Turntable extends Thread {
     public static final byte W = 3;
     private static final long ROTATE_90_DEGREES = 500L; // It should take 0.5 seconds to rotate the table 90 degrees.
     private static final long ROTATE_180_DEGREES = 0L;
-    private static final long PRESENT_MOVEMENT = 750L; // It should take 0.75 seconds to move a present either on or off a turntable.
+    static final long PRESENT_MOVEMENT = 750L; // It should take 0.75 seconds to move a present either on or off a turntable.
     private static final byte MAX_NUM_OF_SAME_CON_TYPE = 3; // Max number of the same Conveyor belt type.
+    private static final int NO_SACK = -1; // Sack id of presents whose age range has no sack
+    private static final long HAND_OFF_POLL = 5L; // Real time between checks of the other input belts while the output belt is full
+    private static final long REROUTE_POLL = 100L; // Simulated time between checks of a full output belt that may be avoided
+    // Ways of picking among several output belts that lead to the sack of a present (see setRouting)
+    public static final String ROUTE_FIRST = "first"; // the first one attached
+    public static final String ROUTE_OCCUPANCY = "occupancy"; // the one with the lowest share of its slots taken
+    public static final String ROUTE_SHORTEST_QUEUE = "jsq"; // the one with the fewest presents on or headed to it
+    private static final byte ROUTING_FIRST = 0;
+    private static final byte ROUTING_OCCUPANCY = 1;
+    private static final byte ROUTING_SHORTEST_QUEUE = 2;
+    // Phases of a turntable driven by a TurntableScheduler
+    private static final byte PHASE_SELECT = 0; // pick an input belt that has a present and face it
+    private static final byte PHASE_TAKE = 1; // claim the present and a slot at its destination
+    private static final byte PHASE_DELIVER = 2; // hand the present over to the output belt/sack
+    // Results of a single scheduled step (non-negative results are delays in ms)
+    private static final long STEP_BLOCKED = -1L;
+    private static final long STEP_FINISHED = -2L;
+    // Scheduling states of a turntable driven by a TurntableScheduler
+    private static final int IDLE = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int NOTIFIED = 3; // woken up while running, must step again
+    private static final int DELAYED = 4; // simulating a rotation or movement
+    private static final int FINISHED = 5;
 
-    // global lookup: age-range -> SackID
-    static HashMap<String, Integer> destinations = new HashMap<>();
+    // lookup shared by the turntables of the same machine: age-range -> SackID
+    private final HashMap<String, Integer> destinations;
     // Equivalent to HashMap<Connection, Integer>. Identifies the port number that a connection is associated with.
     // E.g. Connection instance -> compass direction
     private final PortHashMap ports;
@@ -74,20 +108,77 @@ public class Turntable extends Thread {
     private final ArrayQueue<Connection> outputBeltConnections;
     private final String id;
     private final Connection[] connections = new Connection[4];
-    // this individual table's lookup: SackID -> output port
-    private final HashMap<Integer, Integer> outputMap = new HashMap<>();
+    // this individual table's lookup: SackID -> output port (PortHashMap.NO_PORT if the sack is not attached)
+    private int[] outputMap = new int[0];
+    // Ids of the input belts whose presents all leave to this turntable's sacks, so they never feed its output belts
+    private final BitSet mLocalInputs = new BitSet();
+    // The input belt whose present could not be handed over to its full output belt. It is only served
+    // when the other input belts are empty, till one of its presents gets handed over (null if there is none)
+    private Conveyor mBlockedInput;
     // This keeps track of the turntable's facing direction (e.g. N, E, S, W)
-    private int currentCompassDirection;
+    private volatile int currentCompassDirection; // volatile, as checkpoints read it from another thread
+    // Records the time each present passes the turntable (null when tracing is off)
+    private PresentTracer mTracer;
+    private int mTraceCode;
+    // Logs every present the turntable moves (null when journaling is off)
+    private EventJournal mJournal;
+    private int mJournalCode;
+    // Makes each present movement atomic with respect to snapshots (null when checkpoints are off)
+    private MachineCheckpoint mCheckpoint;
+    // Presents passed on to a belt or sack, padded as reporting threads read it (see MachineStatistics)
+    private final CounterCell mPresentsMoved = new CounterCell();
+    // Measures the rotations and present movements (see TimeSource)
+    private TimeSource mTimeSource = TimeSource.REAL_TIME;
+    // Records the CPU and waiting time of the turntable's thread (null when accounting is off)
+    private ThreadAccounting mAccounting;
+    // Set when the compass direction was restored from a checkpoint
+    private boolean mCompassDirectionRestored;
+    // State of the turntable when driven by a TurntableScheduler instead of its own thread
+    private final AtomicInteger mSchedulingState = new AtomicInteger(IDLE);
+    private final Runnable mStepTask = this::runScheduledSteps;
+    private final Runnable mResumeTask = this::resumeAfterDelay;
+    private TurntableScheduler mScheduler;
+    private byte mPhase = PHASE_SELECT;
+    private Connection mSelectedInput;
+    private Connection mSelectedOutput;
+    // The number of presents the turntable can carry at once
+    private int mCapacity = 1;
+    // How presents pick among the output belts that lead to their sack (null if not set, to route by the first)
+    private String mRouting;
+    private byte mRoutingMode = ROUTING_FIRST;
+    // The presents claimed for the current rotation, front of the input belt first. They all leave from
+    // the same output and stay on the input belt until they get delivered, so snapshots always see them.
+    private Present[] mBatch = new Present[1];
+    private int mBatchSize;
+    // Simulated time (ms) an output belt may stay full before it gets avoided, 0 to always wait for it
+    private long mRerouteAfter;
+    // Per port: the time (System.nanoTime) the output belt was first found full since it last accepted
+    // a present (0 if it did), and the time till which it gets avoided
+    private final long[] mFullSince = new long[4];
+    private final long[] mAvoidedUntil = new long[4];
+    // Set by every findOutputConnection: true if it did not pick the belt it would have picked, as that belt
+    // is avoided (a field rather than a result object, to keep the transfer loop allocation-free)
+    private boolean mRerouted;
+    // Presents sent along another belt, as theirs was avoided
+    private final CounterCell mPresentsRerouted = new CounterCell();
+    // Time (ns) the turntable's thread has waited for presents and free slots, recorded by the belts
+    private final CounterCell mWaitingNanos = new CounterCell();
+    // Set while a fault keeps the turntable from working (see FaultInjector)
+    private volatile boolean mHalted;
+    // Set by a belt while the turntable's thread waits on it (see Conveyor)
+    private volatile boolean mWaitingOnBelt;
 
     /**
      * Initialize the Turntable's id with the specified id and
      * allocates memory for all data structures of the class instance.
      * Sets the value of {@link #currentCompassDirection} to its default value.
      *
-     * @param ID The id of the turntable instance.
+     * @param ID           The id of the turntable instance.
+     * @param destinations The id of the sack of each age range, shared by all turntables of the machine.
      */
-    public Turntable(String ID) {
+    public Turntable(String ID, @NotNull HashMap<String, Integer> destinations) {
         id = ID;
+        this.destinations = destinations;
         currentCompassDirection = N; // By default, the table's initial direction is North
         ports = new PortHashMap();
         final byte capacity = MAX_NUM_OF_SAME_CON_TYPE;
@@ -109,16 +200,42 @@ public class Turntable extends Thread {
             if (conn.getConnType() == ConnectionType.OutputBelt) {
                 outputBeltConnections.add(conn);
                 for (Integer integer : conn.getBelt().getDestinations()) {
-                    outputMap.put(integer, port);
+                    mapOutputPort(integer, port);
                 }
             } else if (conn.getConnType() == ConnectionType.OutputSack) {
-                outputMap.put(conn.getSack().getId(), port);
+                mapOutputPort(conn.getSack().getId(), port);
             } else if (conn.getConnType() == ConnectionType.InputBelt) {
                 inputBeltConnections.add(conn);
             }
         }
     }
 
+    /**
+     * Record the port that the presents of the specified sack leave the turntable from.
+     * The lookup array grows to fit the sack id, as sack ids are small and dense.
+     *
+     * @param sackId The id of the sack.
+     * @param port   The number of the turntable's port.
+     */
+    private void mapOutputPort(int sackId, int port) {
+        if (sackId >= outputMap.length) {
+            int oldLength = outputMap.length;
+            outputMap = Arrays.copyOf(outputMap, sackId + 1);
+            Arrays.fill(outputMap, oldLength, outputMap.length, PortHashMap.NO_PORT);
+        }
+        outputMap[sackId] = port;
+    }
+
+    /**
+     * Access the connection attached to the specified port.
+     *
+     * @param port The number of the turntable's port (e.g. {@link #N}).
+     * @return The connection of the port or null if nothing is attached to it.
+     */
+    public Connection getConnection(int port) {
+        return connections[port];
+    }
+
     /**
      * Starting point of the thread. Gets internally invoked after
      * {@link Thread#start()} gets called.
@@ -132,7 +249,10 @@ public class Turntable extends Thread {
         // conveyor belts. Thus, the machine would immediately start working, without wasting
         // any time rotating.
         // Set the compass direction with compass direction of the first input conveyor belt.
-        currentCompassDirection = ports.get(inputBeltConnections.peek(0));
+        if (!mCompassDirectionRestored) {
+            currentCompassDirection = ports.get(inputBeltConnections.peek(0));
+        }
+        findLocalInputs();
 
         // Life-long operation of the turntable instance
         operate();
@@ -146,14 +266,30 @@ public class Turntable extends Thread {
             as the preceding turntable would be waiting for a present to be inserted.
             As a result, once a turntable has reached this point (stop inserting presents)
             it de-allocates those resources so that preceding turntables can continue working.
+            The flag is cleared first (as the hopper does), otherwise the woken up turntable may
+            find the belt empty but still waiting, and wait for a present that never comes.
+            The belt is not locked at this point, thus only the present permit gets released.
              */
-            outputBeltConnections.peek(i).getBelt()
-                    .releaseResourcesForPresentInsertion();
             outputBeltConnections.peek(i).getBelt()
                     .setWaitingForPresents(false);
+            outputBeltConnections.peek(i).getBelt()
+                    .completeInsertion();
+        }
+        if (mAccounting != null) {
+            mAccounting.recordCurrentThread("Turntable " + id);
         }
     }
 
+    /**
+     * Perform a single iteration of the loop of {@link #run()} on the calling thread, without starting
+     * the turntable's thread. Used by {@link AllocationCheck}.
+     *
+     * @return True if the turntable has any viable input belts. Otherwise, false.
+     */
+    boolean iterate() {
+        return continueOperating();
+    }
+
     /**
      * A loop that ends when the {@link Turntable#continueOperating} method returns false
      */
@@ -172,8 +308,9 @@ public class Turntable extends Thread {
     private boolean continueOperating() {
         // Proceed if there are any input belts available
         if (!inputBeltConnections.isEmpty()) {
+            awaitResume();
             // Get the index of the input belt with the highest priority
-            int indexOfPriorityInputBelt = getHighPriorityInputBeltIndex();
+            int indexOfPriorityInputBelt = avoidBlockedInput(getHighPriorityInputBeltIndex());
 
             // Get a reference to the input belt
             Connection inputBeltConnection = inputBeltConnections
@@ -192,7 +329,8 @@ public class Turntable extends Thread {
 
     /**
      * Get the index of the connection of type InputBelt that has the highest priority.
-     * Usually it is the one with the most presents currently on.
+     * It is the one whose next present is of the most urgent priority class, if any is above
+     * {@link Present#STANDARD}. Otherwise, it is usually the one with the most presents currently on.
      *
      * @return The index of the input belt that has the highest priority
      */
@@ -200,6 +338,9 @@ public class Turntable extends Thread {
         int indexOfInputBeltWithHighestPriority = 0; // By default, the first one is chosen.
         // If there are more than one input belts
         if (inputBeltConnections.getSize() > 1) {
+            int indexOfExpressInputBelt = getExpressInputBeltIndex();
+            if (indexOfExpressInputBelt >= 0) return indexOfExpressInputBelt;
+
             int indexOfInputBeltConnectedToAHopper = 0;
             double max = inputBeltConnections.peek(0).getBelt()
                     .getTakenToAvailableSlotsRatio();
@@ -226,17 +367,75 @@ public class Turntable extends Thread {
         return indexOfInputBeltWithHighestPriority;
     }
 
+    /**
+     * Get the index of the input belt whose next present is of the highest priority class above
+     * {@link Present#STANDARD}. Only belts with priorities (see {@link Conveyor#hasPriorities()}) can tell.
+     *
+     * @return The index of that belt, or -1 if no belt offers such a present.
+     */
+    private int getExpressInputBeltIndex() {
+        int indexOfExpressInputBelt = -1;
+        int highestPriority = Present.STANDARD;
+        for (int i = 0; i < inputBeltConnections.getSize(); i++) {
+            int priority = inputBeltConnections.peek(i).getBelt().getFrontPriority();
+            if (priority > highestPriority) {
+                highestPriority = priority;
+                indexOfExpressInputBelt = i;
+            }
+        }
+        return indexOfExpressInputBelt;
+    }
+
+    /**
+     * Pick another input belt that has presents on it, if the specified one is the belt
+     * whose present could not be handed over ({@link #mBlockedInput}) or is jammed.
+     *
+     * @param indexOfInputBelt The index of the input belt with the highest priority.
+     * @return The index of the input belt to be served.
+     */
+    private int avoidBlockedInput(int indexOfInputBelt) {
+        Conveyor belt = inputBeltConnections.peek(indexOfInputBelt).getBelt();
+        if (belt != mBlockedInput && !belt.isJammed()) {
+            return indexOfInputBelt;
+        }
+        for (int i = 0; i < inputBeltConnections.getSize(); i++) {
+            Conveyor other = inputBeltConnections.peek(i).getBelt();
+            if (i != indexOfInputBelt && !other.isEmpty() && !other.isJammed()) return i;
+        }
+        return indexOfInputBelt;
+    }
+
+    /**
+     * Record the input belts whose destinations are all sacks of this turntable ({@link #mLocalInputs}).
+     * Belts and sacks are attached before the turntable starts, thus it is done once.
+     */
+    private void findLocalInputs() {
+        for (int i = 0; i < inputBeltConnections.getSize(); i++) {
+            Conveyor belt = inputBeltConnections.peek(i).getBelt();
+            boolean local = !belt.getDestinations().isEmpty();
+            for (Integer sackId : belt.getDestinations()) {
+                int port = sackId < outputMap.length ? outputMap[sackId] : PortHashMap.NO_PORT;
+                if (port == PortHashMap.NO_PORT || connections[port].getSack() == null) local = false;
+            }
+            if (local) mLocalInputs.set(belt.getId());
+        }
+    }
+
     /**
      * Flow of the method:
-     * <p> - Access the resources needed to extract a present from the input belt.
+     * <p> - Claim the input belt's front present, without locking the belt. If the turntable has other
+     * input belts, it only waits for a present as long as they are empty.
      * <p> - Retrieve a reference of the input belt's front present.
      * <p> - Interrogate it to find out its destination (Sack or another output belt).
-     * <p> - Place it to its next destination.
+     * <p> - Claim a free slot of the output belt, without locking either belt. If the output
+     * belt stays full, give the present back and let the next iteration serve another input belt.
+     * <p> - Claim the presents behind it that leave from the same output, up to the turntable's capacity.
+     * <p> - Lock the belts and place the presents to their next destination.
      * <p> - Update the "waiting" status of proceeding out belts based on the input belt's
      * status and number of presents that are currently being contained.
-     * <p> - Release the resources needed to extract a present from the input belt.
-     * <p> Note: Whenever the turntable tries to access the resources that are already acquired
-     * by another turntable, it goes to waiting status till the resources get released.
+     * <p> Note: Whenever the turntable tries to claim a present or a slot that is not there,
+     * it goes to waiting status till another turntable (or hopper) frees it. It holds no lock
+     * while it waits.
      *
      * @param inputBeltConnection      The chosen connection of type InputBelt.
      * @param indexOfPriorityInputBelt The index of the chosen connection of type InputBelt.
@@ -246,86 +445,313 @@ public class Turntable extends Thread {
         // Turn the table to receive the present
         rotate(ports.get(inputBeltConnection)); // corresponds to the port's direction
 
-        /* Acquire the resource from the input belt for extracting a present from it / lock access to current input belt */
-        inputBeltConnection.getBelt().acquireResourcesForPresentExtraction();
-
-        ////////////////////// Start of Critical Region for Extraction //////////////////////
-
-        // Validate the input after the thread acquires it. (Used for long waiting threads)
-        boolean validInput = isCurrentInputBeltValid(inputBeltConnection.getBelt(), indexOfPriorityInputBelt);
-        if (!validInput) return;
+        Conveyor inputBelt = inputBeltConnection.getBelt();
+        /* Claim the front present of the input belt (wait till one gets placed on it) */
+        if (inputBeltConnections.getSize() == 1) {
+            inputBelt.reservePresent();
+        } else {
+            // Only wait as long as the other input belts are empty, as the presents may have been
+            // routed along another path and never come this way
+            boolean isResumed = false;
+            while (!inputBelt.reservePresent(HAND_OFF_POLL, isResumed)) {
+                if (anyOtherInputWithPresents(inputBelt)) return;
+                isResumed = true;
+            }
+        }
 
         // Get the closest present between the current input conveyor belt
-        // and the turntable
-        Present closestPresent;
-        try {
-            closestPresent = inputBeltConnection.getBelt().peekClosestPresent();
-        } catch (IndexOutOfBoundsException e) {
-            // In case, we try to reach out to an element that does not exist.
-            // release, the appropriate resources and terminate the method.
-            /* Release resources from input belt / notify other threads*/
-            inputBeltConnection.getBelt().releaseResourcesForPresentExtraction();
+        // and the turntable. No other thread removes it, as it has been claimed.
+        inputBelt.lock();
+        Present closestPresent = inputBelt.isEmpty() ? null : inputBelt.peekClosestPresent();
+        inputBelt.unlock();
+        if (closestPresent == null) {
+            // Extra permit released by a finished producer (used for long waiting threads)
+            isCurrentInputBeltValid(inputBelt, indexOfPriorityInputBelt);
+            return;
+        }
+
+        // Find its destination
+        Connection output = findOutputConnection(closestPresent);
+        boolean rerouted = mRerouted;
+        Conveyor outputBelt = output.getBelt();
+        // Claim a slot of the output belt. If it is full, wait for a slot as long as there is
+        // nothing else to do, otherwise give the present back and serve the other input belts.
+        // If it stays full for too long, try another belt that leads to the present's sack.
+        boolean reserved = outputBelt == null || outputBelt.reserveSlot(HAND_OFF_POLL, false);
+        while (!reserved && !anyOtherInputWithPresents(inputBelt)) {
+            boolean isResumed = true;
+            if (reportOutputFull(output)) {
+                output = findOutputConnection(closestPresent);
+                rerouted = mRerouted;
+                isResumed = output.getBelt() == outputBelt;
+                outputBelt = output.getBelt();
+            }
+            reserved = outputBelt.reserveSlot(HAND_OFF_POLL, isResumed);
+        }
+        if (!reserved) {
+            reportOutputFull(output);
+            inputBelt.cancelPresentReservation();
+            mBlockedInput = inputBelt;
             return;
         }
+        reportOutputAccepted(output);
+        if (inputBelt == mBlockedInput) mBlockedInput = null;
+        // Claim the presents that can travel along with it
+        loadBatch(inputBelt, closestPresent, output);
+        if (rerouted) mPresentsRerouted.add(mBatchSize);
+
+        for (int p = 0; p < mBatchSize; p++) {
+            if (mTracer != null) {
+                mTracer.record(mBatch[p], PresentTracer.BELT_DEQUEUE, inputBelt.getId());
+            }
+            if (mJournal != null) {
+                mJournal.append(EventJournal.BELT_TO_TURNTABLE, mBatch[p], inputBelt.getId(), mJournalCode);
+            }
+        }
 
         movePresent(); // It takes 0.75 seconds to move a present either on or off a turntable
 
-        // Find its destination
-        String destination = closestPresent.readDestination();
-        // Get the id of the sack that matches its destination with the
-        // destination of the present
-        Integer sackId = destinations.get(destination);
-        // Get the corresponding port of the table
-        Integer port = outputMap.get(sackId);
+        if (mTracer != null) {
+            for (int p = 0; p < mBatchSize; p++) mTracer.record(mBatch[p], PresentTracer.TURNTABLE, mTraceCode);
+        }
 
-        Conveyor inputBelt = inputBeltConnection.getBelt();
-        // If a port was found then add the present to the turntable's corresponding sack.
-        if (port != null && connections[port].getSack() != null) {
+        // If the destination is a sack then add the presents to the turntable's corresponding sack.
+        if (outputBelt == null) {
             // Get a reference to the connection's sack
-            Sack sack = connections[port].getSack();
-            rotate(ports.get(connections[port])); // Rotate towards the sack
-            // Add present to sack
-            sack.addPresentToSack(closestPresent);
-
-            inputBelt.getPresents().get(); // Remove element from belt
+            Sack sack = output.getSack();
+            rotate(ports.get(output)); // Rotate towards the sack
+            long replacementDelay = 0L;
+            if (mCheckpoint != null) mCheckpoint.beginMove();
+            inputBelt.lock();
+            for (int p = 0; p < mBatchSize; p++) {
+                // Add present to sack (a full one gets swapped, the elf is waited for below)
+                if (sack.depositPresent(mBatch[p])) replacementDelay += Sack.REPLACING_SACK;
+                if (mJournal != null) {
+                    mJournal.append(EventJournal.TURNTABLE_TO_SACK, mBatch[p], mJournalCode, sack.getId());
+                }
 
-            // Update the belts' status
-            updateInputBeltOfProceedingTurntables();
-            // Once the input is empty & not working it should remove it -> table shuts down
-            isCurrentInputBeltValid(inputBeltConnection.getBelt(), indexOfPriorityInputBelt);
+                inputBelt.getPresents().get(); // Remove element from belt
+            }
+            inputBelt.unlock();
+            if (mCheckpoint != null) mCheckpoint.endMove();
+            // Wait for the sack replacement outside the move, so that neither the belt nor a snapshot waits too
+            if (replacementDelay > 0) {
+                try {
+                    mTimeSource.sleep(replacementDelay);
+                } catch (InterruptedException ignored) {
+                }
+            }
         } else {
-            // If port is null, then it does not have a sack
-            // Pass the present to the output conveyor belt
-            Conveyor outputBelt = outputBeltConnections.peek(0).getBelt();
-            if (outputBeltConnections.getSize() > 1) {
-                // If there are many output belts.
-                // Iterate through the output belts till you find one whose destination
-                // matches with the present's destination.
-                for (int i = 0; i < outputBeltConnections.getSize(); i++) {
-                    if (outputBeltConnections.peek(i).getBelt().getDestinations().contains(sackId)) {
-                        outputBelt = outputBeltConnections.peek(i).getBelt();
-                        break;
-                    }
+            // Pass the presents to the output conveyor belt
+            if (mCheckpoint != null) mCheckpoint.beginMove();
+            Conveyor.lockInOrder(inputBelt, outputBelt);
+            for (int p = 0; p < mBatchSize; p++) {
+                outputBelt.movePresentFromOneConveyorToAnother(inputBelt.getPresents());
+            }
+            Conveyor.unlockInOrder(inputBelt, outputBelt);
+            if (mCheckpoint != null) mCheckpoint.endMove();
+            for (int p = 0; p < mBatchSize; p++) {
+                if (mJournal != null) {
+                    mJournal.append(EventJournal.TURNTABLE_TO_BELT, mBatch[p], mJournalCode, outputBelt.getId());
                 }
+                /* Notify the consumer of the output belt */
+                outputBelt.completeInsertion();
             }
-            // Add present to belt if its corresponding Conveyor belt was found.
-            addPresentToBeltTransaction(outputBelt, inputBelt, indexOfPriorityInputBelt);
         }
+        for (int p = 0; p < mBatchSize; p++) {
+            recordPresentMoved();
+            /* Notify the producers of the input belt */
+            inputBelt.completeExtraction();
+            mBatch[p] = null;
+        }
+        mBatchSize = 0;
 
-        ////////////////////// End of Critical Region for Extraction //////////////////////
-
-        /* Release resources from input belt / notify the threads*/
-        inputBeltConnection.getBelt().releaseResourcesForPresentExtraction();
+        // Update the belts' status
+        updateInputBeltOfProceedingTurntables();
+        // Once the input is empty & not working it should remove it -> table shuts down
+        isCurrentInputBeltValid(inputBelt, indexOfPriorityInputBelt);
 
         movePresent();// It takes 0.75 seconds to move a present either on or off a turntable
     }
 
+    /**
+     * Fill {@link #mBatch} with the specified present, whose place at its destination has been claimed,
+     * followed by the presents behind it that leave from the same output, as many as the turntable can carry.
+     * Each of them gets claimed on the input belt and at its destination without waiting, and loading stops
+     * at the first one that cannot be claimed, as the presents leave the input belt in order.
+     * Belts that do not keep the order of their presents ({@link Conveyor#keepsOrder()}) hand over one at a time.
+     *
+     * @param inputBelt The belt the presents are taken from.
+     * @param first     The front present of the input belt.
+     * @param output    The connection the first present leaves from.
+     */
+    private void loadBatch(@NotNull Conveyor inputBelt, @NotNull Present first, @NotNull Connection output) {
+        mBatch[0] = first;
+        mBatchSize = 1;
+        if (!inputBelt.keepsOrder()) return;
+        Conveyor outputBelt = output.getBelt();
+        while (mBatchSize < mCapacity && inputBelt.tryReservePresent()) {
+            inputBelt.lock();
+            Present present = inputBelt.getNumberOfPresents() > mBatchSize
+                    ? inputBelt.getPresents().peek(mBatchSize) : null;
+            inputBelt.unlock();
+            if (present == null || !canLeaveFrom(present, output)
+                    || (outputBelt != null && !outputBelt.tryReserveSlot())) {
+                inputBelt.cancelPresentReservation();
+                return;
+            }
+            mBatch[mBatchSize++] = present;
+        }
+    }
+
+    /**
+     * Check whether the specified present may leave from the specified output along with a batch,
+     * i.e. whether the routing could have picked that output for it.
+     *
+     * @param present The present behind the first one of the batch.
+     * @param output  The connection the batch leaves from.
+     * @return True if the present may join the batch. Otherwise, false.
+     */
+    private boolean canLeaveFrom(@NotNull Present present, @NotNull Connection output) {
+        // The least loaded belt changes with every present, but any belt that leads to the sack will do
+        if (mRoutingMode != ROUTING_FIRST && output.getBelt() != null) {
+            int sackId = sackIdOf(present);
+            if (output.getBelt().leadsTo(sackId) && connectionOfSack(sackId) == null) return true;
+        }
+        return findOutputConnection(present) == output;
+    }
+
+    /**
+     * Find the connection the specified present should leave the turntable from.
+     * If the present's sack is attached to the turntable, then that sack's connection.
+     * Otherwise, the output belt whose destinations include the present's sack,
+     * picked among several by the routing of the turntable (see {@link #setRouting})
+     * (or the first output belt, if there is only one or none leads to the sack).
+     * Sets {@link #mRerouted} for the returned connection.
+     *
+     * @param present The present to be routed.
+     * @return A connection of type OutputSack or OutputBelt.
+     */
+    @NotNull
+    Connection findOutputConnection(@NotNull Present present) {
+        // Get the id of the sack that matches its destination with the
+        // destination of the present
+        int sackId = sackIdOf(present);
+        mRerouted = false;
+        Connection sack = connectionOfSack(sackId);
+        if (sack != null) {
+            return sack;
+        }
+        // If there is no port, then it does not have a sack
+        Connection output = outputBeltConnections.peek(0);
+        if (outputBeltConnections.getSize() > 1) {
+            // If there are many output belts.
+            // Iterate through the output belts to find the ones whose destination
+            // matches with the present's destination.
+            Connection preferred = pickOutputBelt(sackId, false);
+            if (preferred != null) output = preferred;
+            if (preferred != null && isAvoided(preferred)) {
+                Connection alternative = pickOutputBelt(sackId, true);
+                if (alternative != null) {
+                    output = alternative;
+                    mRerouted = true;
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Pick the output belt that leads to the specified sack, according to the routing of the turntable.
+     *
+     * @param sackId       The id of the sack of a present.
+     * @param avoidBlocked True to skip the belts that are being avoided (see {@link #reportOutputFull}).
+     * @return The connection of the belt, or null if no (such) belt leads to the sack.
+     */
+    private Connection pickOutputBelt(int sackId, boolean avoidBlocked) {
+        Connection output = null;
+        double lowestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < outputBeltConnections.getSize(); i++) {
+            Connection connection = outputBeltConnections.peek(i);
+            Conveyor belt = connection.getBelt();
+            if (!belt.leadsTo(sackId) || (avoidBlocked && isAvoided(connection))) continue;
+            if (mRoutingMode == ROUTING_FIRST) return connection;
+            double load = mRoutingMode == ROUTING_OCCUPANCY
+                    ? belt.getTakenToAvailableSlotsRatio() : belt.getQueueLength();
+            if (load < lowestLoad) {
+                lowestLoad = load;
+                output = connection;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Record that the specified output belt had no free slot for a present. Once it has been full for longer
+     * than {@link #mRerouteAfter}, e.g. as it is jammed or its consumer has halted, it gets avoided for as long
+     * again, then it is tried once more.
+     *
+     * @param output The connection of the output belt (or sack, which is never avoided).
+     * @return True if the belt has just started to be avoided. Otherwise, false.
+     */
+    private boolean reportOutputFull(@NotNull Connection output) {
+        if (mRerouteAfter == 0 || output.getBelt() == null) return false;
+        int port = ports.get(output);
+        long now = System.nanoTime();
+        if (mFullSince[port] == 0) {
+            mFullSince[port] = now;
+            return false;
+        }
+        long limit = mTimeSource.toRealNanos(mRerouteAfter);
+        if (now - mFullSince[port] < limit) return false;
+        mFullSince[port] = 0;
+        mAvoidedUntil[port] = now + limit;
+        return true;
+    }
+
+    /**
+     * Record that the specified output belt accepted a present.
+     */
+    private void reportOutputAccepted(@NotNull Connection output) {
+        if (mRerouteAfter != 0 && output.getBelt() != null) mFullSince[ports.get(output)] = 0;
+    }
+
+    /**
+     * Check if the presents avoid the specified output belt, as it has stayed full for too long.
+     */
+    private boolean isAvoided(@NotNull Connection output) {
+        return mRerouteAfter != 0 && mAvoidedUntil[ports.get(output)] - System.nanoTime() > 0;
+    }
+
+    /**
+     * Look up the sack of the specified present's age range.
+     *
+     * @return The id of the sack, or {@link #NO_SACK} if no sack collects that age range.
+     */
+    private int sackIdOf(@NotNull Present present) {
+        Integer destination = destinations.get(present.readDestination());
+        return destination == null ? NO_SACK : destination;
+    }
+
+    /**
+     * Look up the connection of the specified sack, if it is attached to this turntable.
+     *
+     * @return The connection of type OutputSack, or null if the sack is not attached to this turntable.
+     */
+    private Connection connectionOfSack(int sackId) {
+        // Get the corresponding port of the table
+        int port = sackId >= 0 && sackId < outputMap.length ? outputMap[sackId] : PortHashMap.NO_PORT;
+        if (port != PortHashMap.NO_PORT && connections[port].getSack() != null) {
+            return connections[port];
+        }
+        return null;
+    }
+
     /**
      * Validate the input belts viability.
      * If the belt is waiting for presents (flag set to true) or it still
      * has presents on it then it is a viable input belt.
-     * Otherwise, remove it from the turntable's input belt container and release
-     * all resources for both the current input belt and the turntable's out belts.
+     * Otherwise, remove it from the turntable's input belt container.
      *
      * @param inputBelt        The input belt to be validated.
      * @param indexOfInputBelt The index of the input belt to be validated.
@@ -335,62 +761,36 @@ public class Turntable extends Thread {
         // If the current input belt is not supported by further present delivering and is empty,
         // then remove it from the queue
         if (inputBelt.isEmpty() && !inputBelt.isWaitingForPresents()) {
-            // Release all the acquired resource of the input belt, then remove it.
-            inputBelt.releaseResourcesForPresentExtraction();
             inputBeltConnections.remove(indexOfInputBelt);
             return false;
         }
         return true;
     }
 
-    /**
-     * Flow of method:
-     * <p> - Access the resources needed to add a present to an output belt.
-     * <p> - Transfer the present from the input belt to the specified output belt.
-     * <p> - Update the viability of both chosen input belt and the turntable's output belts.
-     * <p> - Release the resources needed to add a present to an output belt.
-     *
-     * @param outputBelt               The output belt that the present will be added on.
-     * @param inputBelt                The input belt that the present will be removed on.
-     * @param indexOfPriorityInputBelt The index of the input belt that the present will be removed on.
-     */
-    private void addPresentToBeltTransaction(@NotNull Conveyor outputBelt, @NotNull Conveyor inputBelt, int indexOfPriorityInputBelt) {
-        /* Acquire the resources of the output belt */
-        outputBelt.acquireResourcesForPresentInsertion();
-
-        ////////////////////// Start of Critical Region for Insertion //////////////////////
-        // Add to output belt
-        outputBelt.movePresentFromOneConveyorToAnother(inputBelt.getPresents());
-        // Update the belts' status
-        updateInputBeltOfProceedingTurntables();
-        isCurrentInputBeltValid(inputBelt, indexOfPriorityInputBelt);
-        ////////////////////// End of Critical Region Insertion ///////////////////////////
-
-        /* Release the resources of the output belt / notify other threads */
-        outputBelt.releaseResourcesForPresentInsertion();
-    }
-
     /**
      * Updates the the status of the turntable's output belts.
-     * If the turntable has no valid input belts, then sets the status
-     * of all its output belts to NOT waiting (false).
+     * If none of the turntable's valid input belts can feed an output belt, then sets the status
+     * of that output belt to NOT waiting (false) and wakes up its consumer.
+     * Input belts whose presents all leave to the turntable's sacks ({@link #mLocalInputs}) do not
+     * feed the output belts, thus a loop of belts comes to an end once its hoppers do.
      * {@link Conveyor#setWaitingForPresents}
      */
     private void updateInputBeltOfProceedingTurntables() {
-        if (!anyViableInputBelts()) {
-            // The previous turntable has handed over all presents that it should have
-            // and is no longer working
-            for (int i = 0; i < outputBeltConnections.getSize(); i++) {
-                if (outputBeltConnections.peek(i).getBelt() != null) {
-                    outputBeltConnections.peek(i).getBelt().setWaitingForPresents(false);
-                }
+        if (anyViableInputBelts()) return;
+        for (int i = 0; i < outputBeltConnections.getSize(); i++) {
+            Conveyor outputBelt = outputBeltConnections.peek(i).getBelt();
+            if (outputBelt != null && outputBelt.isWaitingForPresents()) {
+                // The previous turntable has handed over all presents that it should have
+                // and is no longer working
+                outputBelt.setWaitingForPresents(false);
+                outputBelt.completeInsertion();
             }
         }
     }
 
     /**
-     * Check whether there is at least one input belt that is "waiting" for presents or that still
-     * has presents on it.
+     * Check whether there is at least one input belt that feeds the output belts and is
+     * "waiting" for presents or still has presents on it.
      *
      * @return True if any input belt complies with the above condition. Otherwise, false.
      */
@@ -398,14 +798,498 @@ public class Turntable extends Thread {
         // Traverse the input belt connections till you find one whose belt is not empty or
         // that will receive presents in the near future
         for (int j = 0; j < inputBeltConnections.getSize(); j++) {
-            if (!inputBeltConnections.peek(j).getBelt().isEmpty() ||
-                    inputBeltConnections.peek(j).getBelt().isWaitingForPresents()) {
+            Conveyor inputBelt = inputBeltConnections.peek(j).getBelt();
+            if (mLocalInputs.get(inputBelt.getId())) continue;
+            if (!inputBelt.isEmpty() || inputBelt.isWaitingForPresents()) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Let the specified scheduler drive this turntable instead of {@link #start()}.
+     * The turntable subscribes to the wake-ups of its belts and gets queued for its first step.
+     *
+     * @param scheduler The scheduler whose worker threads run the turntable's steps.
+     */
+    void attachScheduler(@NotNull TurntableScheduler scheduler) {
+        mScheduler = scheduler;
+        for (int i = 0; i < inputBeltConnections.getSize(); i++) {
+            inputBeltConnections.peek(i).getBelt().addConsumerWakeUp(this::wakeUp);
+        }
+        for (int i = 0; i < outputBeltConnections.getSize(); i++) {
+            outputBeltConnections.peek(i).getBelt().addProducerWakeUp(this::wakeUp);
+        }
+        // Same initial alignment as in run()
+        if (!mCompassDirectionRestored) {
+            currentCompassDirection = ports.get(inputBeltConnections.peek(0));
+        }
+        findLocalInputs();
+        wakeUp();
+    }
+
+    /**
+     * Queue the turntable on the scheduler, unless it is already queued, running
+     * (then it is told to step again) or in the middle of a simulated delay
+     * (it steps once the delay is over anyway).
+     */
+    private void wakeUp() {
+        while (true) {
+            int state = mSchedulingState.get();
+            if (state == IDLE) {
+                if (mSchedulingState.compareAndSet(IDLE, QUEUED)) {
+                    mScheduler.execute(mStepTask);
+                    return;
+                }
+            } else if (state == RUNNING) {
+                if (mSchedulingState.compareAndSet(RUNNING, NOTIFIED)) return;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Invoked by the scheduler once a simulated rotation/movement is over.
+     */
+    private void resumeAfterDelay() {
+        mSchedulingState.set(QUEUED);
+        mScheduler.execute(mStepTask);
+    }
+
+    /**
+     * Run on a worker thread of the scheduler. Keeps stepping the state machine until
+     * it has to wait for a simulated delay, for a belt or the turntable has finished.
+     */
+    private void runScheduledSteps() {
+        mSchedulingState.set(RUNNING);
+        while (true) {
+            long result = step();
+            if (result == STEP_FINISHED) {
+                mSchedulingState.set(FINISHED);
+                // Same as the clean-up phase of run(), without the extra permits as nobody blocks
+                for (int i = 0; i < outputBeltConnections.getSize(); i++) {
+                    outputBeltConnections.peek(i).getBelt().setWaitingForPresents(false);
+                    outputBeltConnections.peek(i).getBelt().wakeUpConsumers();
+                }
+                mScheduler.turntableFinished();
+                return;
+            }
+            if (result > 0) {
+                mSchedulingState.set(DELAYED);
+                mScheduler.schedule(mResumeTask, result);
+                return;
+            }
+            if (result == STEP_BLOCKED) {
+                // Park the turntable, unless a belt woke it up in the meantime
+                if (mSchedulingState.compareAndSet(RUNNING, IDLE)) return;
+                mSchedulingState.set(RUNNING);
+            }
+        }
+    }
+
+    /**
+     * Perform the next phase of a present transportation without blocking.
+     *
+     * @return The simulated delay (ms) before the next step, {@link #STEP_BLOCKED}
+     * if a belt has to wake the turntable up or {@link #STEP_FINISHED}.
+     */
+    long step() {
+        switch (mPhase) {
+            case PHASE_SELECT:
+                return selectInputBelt();
+            case PHASE_TAKE:
+                return takePresent();
+            default:
+                return deliverPresent();
+        }
+    }
+
+    /**
+     * Drop the input belts that will not receive any more presents
+     * and face the input belt with the highest priority.
+     */
+    private long selectInputBelt() {
+        for (int i = inputBeltConnections.getSize() - 1; i >= 0; i--) {
+            Conveyor belt = inputBeltConnections.peek(i).getBelt();
+            if (belt.isEmpty() && !belt.isWaitingForPresents()) {
+                inputBeltConnections.remove(i);
+            }
+        }
+        if (inputBeltConnections.isEmpty()) return STEP_FINISHED;
+        // A halted turntable gets woken up once it resumes (see setHalted)
+        if (mHalted) return STEP_BLOCKED;
+        Connection input = inputBeltConnections.peek(avoidBlockedInput(getHighPriorityInputBeltIndex()));
+        // The highest priority belt is empty (or jammed) only when all of them are
+        if (input.getBelt().isEmpty() || input.getBelt().isJammed()) return STEP_BLOCKED;
+        mSelectedInput = input;
+        mPhase = PHASE_TAKE;
+        return turnTo(ports.get(input));
+    }
+
+    /**
+     * Claim the front present of the selected input belt and a place at its destination.
+     * If the destination belt is full, the present stays where it is and another input belt
+     * gets served, or the turntable waits for any of its belts to change.
+     */
+    private long takePresent() {
+        Conveyor inputBelt = mSelectedInput.getBelt();
+        if (!inputBelt.tryReservePresent()) {
+            mPhase = PHASE_SELECT;
+            return 0L;
+        }
+        inputBelt.lock();
+        Present present = inputBelt.isEmpty() ? null : inputBelt.peekClosestPresent();
+        inputBelt.unlock();
+        if (present == null) {
+            // Extra permit left behind by a finished hopper
+            mPhase = PHASE_SELECT;
+            return 0L;
+        }
+        Connection output = findOutputConnection(present);
+        boolean reserved = output.getBelt() == null || output.getBelt().tryReserveSlot();
+        if (!reserved && reportOutputFull(output)) {
+            // The belt has stayed full for too long, try another one that leads to the sack
+            output = findOutputConnection(present);
+            reserved = output.getBelt().tryReserveSlot();
+        }
+        if (!reserved) {
+            inputBelt.cancelPresentReservation();
+            mBlockedInput = inputBelt;
+            mPhase = PHASE_SELECT;
+            if (anyOtherInputWithPresents(inputBelt)) return 0L;
+            // A jammed belt wakes nobody up, so look again once it may be avoided
+            return mRerouteAfter != 0 && outputBeltConnections.getSize() > 1 ? REROUTE_POLL : STEP_BLOCKED;
+        }
+        reportOutputAccepted(output);
+        boolean rerouted = mRerouted;
+        if (inputBelt == mBlockedInput) mBlockedInput = null;
+        loadBatch(inputBelt, present, output);
+        if (rerouted) mPresentsRerouted.add(mBatchSize);
+        for (int p = 0; p < mBatchSize; p++) {
+            if (mTracer != null) {
+                mTracer.record(mBatch[p], PresentTracer.BELT_DEQUEUE, inputBelt.getId());
+            }
+            if (mJournal != null) {
+                mJournal.append(EventJournal.BELT_TO_TURNTABLE, mBatch[p], inputBelt.getId(), mJournalCode);
+            }
+        }
+        mSelectedOutput = output;
+        mPhase = PHASE_DELIVER;
+        // Move the presents on, then face their destination
+        return PRESENT_MOVEMENT + turnTo(ports.get(output));
+    }
+
+    /**
+     * Move the claimed presents from the input belt to the claimed output belt slots / sack.
+     * A full sack is swapped straight away, and the time of its replacement is added to the delay
+     * of the step, so that no worker sleeps while holding the belt.
+     */
+    private long deliverPresent() {
+        Conveyor inputBelt = mSelectedInput.getBelt();
+        Conveyor outputBelt = mSelectedOutput.getBelt();
+        if (mTracer != null) {
+            for (int p = 0; p < mBatchSize; p++) mTracer.record(mBatch[p], PresentTracer.TURNTABLE, mTraceCode);
+        }
+        long replacementDelay = 0L;
+        if (mCheckpoint != null) mCheckpoint.beginMove();
+        if (outputBelt == null) {
+            inputBelt.lock();
+            Sack sack = mSelectedOutput.getSack();
+            for (int p = 0; p < mBatchSize; p++) {
+                if (sack.depositPresent(mBatch[p])) replacementDelay += Sack.REPLACING_SACK;
+                if (mJournal != null) {
+                    mJournal.append(EventJournal.TURNTABLE_TO_SACK, mBatch[p], mJournalCode, sack.getId());
+                }
+                inputBelt.getPresents().get();
+            }
+            inputBelt.unlock();
+        } else {
+            Conveyor.lockInOrder(inputBelt, outputBelt);
+            for (int p = 0; p < mBatchSize; p++) {
+                outputBelt.movePresentFromOneConveyorToAnother(inputBelt.getPresents());
+                if (mJournal != null) {
+                    mJournal.append(EventJournal.TURNTABLE_TO_BELT, mBatch[p], mJournalCode, outputBelt.getId());
+                }
+            }
+            Conveyor.unlockInOrder(inputBelt, outputBelt);
+        }
+        if (mCheckpoint != null) mCheckpoint.endMove();
+
+        for (int p = 0; p < mBatchSize; p++) {
+            recordPresentMoved();
+            inputBelt.completeExtraction();
+            if (outputBelt != null) outputBelt.completeInsertion();
+            mBatch[p] = null;
+        }
+        mBatchSize = 0;
+        updateInputBeltOfProceedingTurntables();
+        mPhase = PHASE_SELECT;
+        return replacementDelay + PRESENT_MOVEMENT; // Wait for the elf, then move the presents off
+    }
+
+    /**
+     * Check if an input belt other than the specified one has presents on it.
+     */
+    private boolean anyOtherInputWithPresents(@NotNull Conveyor inputBelt) {
+        for (int i = 0; i < inputBeltConnections.getSize(); i++) {
+            Conveyor belt = inputBeltConnections.peek(i).getBelt();
+            if (belt != inputBelt && !belt.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Count a present that the turntable has passed on to a belt or sack.
+     * Also invoked by engines that drive the turntable themselves (see FlowEngine).
+     */
+    void recordPresentMoved() {
+        mPresentsMoved.increment();
+    }
+
+    /**
+     * Access the number of presents sent along another output belt, as the one they would have taken
+     * had stayed full for too long (see {@link #setRerouteAfter}).
+     *
+     * @return The count of rerouted presents.
+     */
+    public long getNumberOfPresentsRerouted() {
+        return mPresentsRerouted.get();
+    }
+
+    /**
+     * Access the number of presents the turntable has passed on.
+     *
+     * @return The count of presents moved onto an output belt or into a sack.
+     */
+    public long getNumberOfPresentsMoved() {
+        return mPresentsMoved.get();
+    }
+
+    /**
+     * Setter for {@link #mTracer}. Registers the turntable with the tracer.
+     *
+     * @param tracer The tracer that records the presents passing this turntable.
+     */
+    public void setTracer(@NotNull PresentTracer tracer) {
+        mTracer = tracer;
+        mTraceCode = tracer.registerTurntable(id);
+    }
+
+    /**
+     * Setter for {@link #mJournal}. Registers the turntable with the journal.
+     *
+     * @param journal The journal that logs the presents moved by this turntable.
+     */
+    public void setJournal(@NotNull EventJournal journal) {
+        mJournal = journal;
+        mJournalCode = journal.registerTurntable();
+    }
+
+    /**
+     * Setter for {@link #mCheckpoint}.
+     *
+     * @param checkpoint The checkpoint that snapshots the machine this turntable belongs to.
+     */
+    public void setCheckpoint(MachineCheckpoint checkpoint) {
+        mCheckpoint = checkpoint;
+    }
+
+    /**
+     * Setter for {@link #mTimeSource}.
+     *
+     * @param timeSource The clock the rotations and movements of the turntable are measured against.
+     */
+    public void setTimeSource(@NotNull TimeSource timeSource) {
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Set the number of presents the turntable can carry in a single rotation.
+     * Must be called before the turntable starts.
+     *
+     * @param capacity The number of presents (1 by default).
+     * @throws IllegalArgumentException if the capacity is below 1.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Turntable " + id + " needs a capacity of at least 1");
+        }
+        mCapacity = capacity;
+        mBatch = new Present[capacity];
+    }
+
+    /**
+     * Access the number of presents the turntable can carry in a single rotation.
+     *
+     * @return The capacity set by {@link #setCapacity}, 1 by default.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Set how presents pick among several output belts that lead to their sack.
+     * Must be called before the turntable starts.
+     *
+     * @param routing {@link #ROUTE_FIRST}, {@link #ROUTE_OCCUPANCY} or {@link #ROUTE_SHORTEST_QUEUE}.
+     * @throws IllegalArgumentException if the routing is unknown.
+     */
+    public void setRouting(@NotNull String routing) {
+        if (ROUTE_FIRST.equals(routing)) {
+            mRoutingMode = ROUTING_FIRST;
+        } else if (ROUTE_OCCUPANCY.equals(routing)) {
+            mRoutingMode = ROUTING_OCCUPANCY;
+        } else if (ROUTE_SHORTEST_QUEUE.equals(routing)) {
+            mRoutingMode = ROUTING_SHORTEST_QUEUE;
+        } else {
+            throw new IllegalArgumentException("Unknown routing " + routing);
+        }
+        mRouting = routing;
+    }
+
+    /**
+     * Access the way presents pick among several output belts that lead to their sack.
+     *
+     * @return The routing set by {@link #setRouting} or null if they take the first one.
+     */
+    public String getRouting() {
+        return mRouting;
+    }
+
+    /**
+     * Let the turntable send presents along another output belt that leads to their sack, once the belt they
+     * would take has had no free slot for the specified time. The blocked belt is avoided for as long again.
+     * Must be called before the turntable starts.
+     *
+     * @param millis The simulated time in milliseconds, or 0 to always wait for the belt (the default).
+     * @throws IllegalArgumentException if the time is negative.
+     */
+    public void setRerouteAfter(long millis) {
+        if (millis < 0) throw new IllegalArgumentException("Turntable " + id + " cannot reroute after " + millis + " ms");
+        mRerouteAfter = millis;
+    }
+
+    /**
+     * Access the time an output belt may stay full before the presents get sent along another one.
+     *
+     * @return The simulated time in milliseconds set by {@link #setRerouteAfter}, 0 if the turntable does not reroute.
+     */
+    public long getRerouteAfter() {
+        return mRerouteAfter;
+    }
+
+    /**
+     * Stop the turntable from taking presents, or let it carry on. A halted turntable finishes the present
+     * it is carrying, then waits. Once resumed, a turntable driven by a {@link TurntableScheduler} gets woken up.
+     *
+     * @param halted True to halt the turntable, false to resume it.
+     */
+    public void setHalted(boolean halted) {
+        mHalted = halted;
+        if (!halted && mScheduler != null) wakeUp();
+    }
+
+    /**
+     * Check whether the turntable is halted.
+     *
+     * @return True while a fault keeps the turntable from working. Otherwise, false.
+     */
+    public boolean isHalted() {
+        return mHalted;
+    }
+
+    /**
+     * Check whether the turntable is waiting for one of its belts: waiting on a belt (thread per turntable)
+     * or idle till a belt wakes it up ({@link TurntableScheduler}).
+     *
+     * @return True while the turntable waits for a present or a free slot. Otherwise, false.
+     */
+    public boolean isBlocked() {
+        if (mScheduler != null) return mSchedulingState.get() == IDLE;
+        return isAlive() && mWaitingOnBelt;
+    }
+
+    /**
+     * Setter for the turntable's belt wait, called by the belt on the turntable's own thread.
+     *
+     * @param waiting True while the turntable's thread waits on one of its belts.
+     */
+    void setWaitingOnBelt(boolean waiting) {
+        mWaitingOnBelt = waiting;
+    }
+
+    /**
+     * Access the time the turntable has waited for presents on its input belts and for free slots on its
+     * output belts. The belts credit every wait to the thread that waited, as a belt may be shared with other
+     * turntables. Turntables driven by a {@link TurntableScheduler} never wait on a belt.
+     *
+     * @return The waiting time in milliseconds.
+     */
+    public long getWaitingTime() {
+        return mWaitingNanos.get() / 1_000_000L;
+    }
+
+    /**
+     * Add to the time the turntable has waited on its belts. Invoked by the belts, on the turntable's thread.
+     *
+     * @param nanos The time of a wait in nanoseconds.
+     */
+    void addWaitingTime(long nanos) {
+        mWaitingNanos.add(nanos);
+    }
+
+    /**
+     * Wait while the turntable is halted (thread per turntable).
+     */
+    private void awaitResume() {
+        while (mHalted) {
+            try {
+                sleep(HAND_OFF_POLL);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Setter for {@link #mAccounting}.
+     *
+     * @param accounting The accounting that records the time of the turntable's thread.
+     */
+    public void setAccounting(ThreadAccounting accounting) {
+        mAccounting = accounting;
+    }
+
+    /**
+     * Access the turntable's id.
+     *
+     * @return The id of the turntable as it appears in the configuration file.
+     */
+    public String getTurntableId() {
+        return id;
+    }
+
+    /**
+     * Access the direction the turntable is facing.
+     *
+     * @return One of {@link #N}, {@link #E}, {@link #S} and {@link #W}.
+     */
+    public int getCompassDirection() {
+        return currentCompassDirection;
+    }
+
+    /**
+     * Set the direction the turntable is facing to the value of a checkpoint.
+     * Must be called before the turntable starts.
+     *
+     * @param compassDirection One of {@link #N}, {@link #E}, {@link #S} and {@link #W}.
+     */
+    public void restoreCompassDirection(int compassDirection) {
+        currentCompassDirection = compassDirection;
+        mCompassDirectionRestored = true;
+    }
+
     /**
      * The thread sleep for a certain amount of time to simulate
      * the time taken in turning. The current and the specified new direction
@@ -414,7 +1298,20 @@ public class Turntable extends Thread {
      * @param newFacingDirection The number of the port that the turntable will turn to.
      */
     public void rotate(int newFacingDirection) {
+        try {
+            mTimeSource.sleep(turnTo(newFacingDirection));
+        } catch (InterruptedException ignored) {
+        }
+    }
 
+    /**
+     * Update the facing direction of the turntable and calculate
+     * the time the rotation takes.
+     *
+     * @param newFacingDirection The number of the port that the turntable will turn to.
+     * @return The rotation time in milliseconds.
+     */
+    long turnTo(int newFacingDirection) {
         long rotationTime = ROTATE_180_DEGREES;
         // If both directions, are  either both odd or both even then no rotation is needed
         // e.g. from 1 to 3 -> No rotation  -> They are aligned
@@ -424,12 +1321,8 @@ public class Turntable extends Thread {
                 || (currentCompassDirection % 2 != 0 && newFacingDirection % 2 != 0))) { // or odd
             rotationTime = ROTATE_90_DEGREES;
         }
-
-        try {
-            currentCompassDirection = newFacingDirection;
-            sleep(rotationTime);
-        } catch (InterruptedException ignored) {
-        }
+        currentCompassDirection = newFacingDirection;
+        return rotationTime;
     }
 
     /**
@@ -438,7 +1331,7 @@ public class Turntable extends Thread {
      */
     private void movePresent() {
         try {
-            sleep(PRESENT_MOVEMENT);
+            mTimeSource.sleep(PRESENT_MOVEMENT);
         } catch (InterruptedException ignore) {
         }
     }
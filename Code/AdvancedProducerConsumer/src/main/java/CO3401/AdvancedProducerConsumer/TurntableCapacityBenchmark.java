@@ -0,0 +1,92 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command line tool that measures how much carrying several presents per rotation
+ * ({@link Turntable#setCapacity}) speeds up a layout where every present makes the turntables rotate.
+ * <p>
+ * Usage: {@code TurntableCapacityBenchmark [turntables] [presents] [capacity ...]}
+ * <p>
+ * The machine is a chain of turntables, each taking presents in from the West and passing them on to the North,
+ * so a turntable rotates twice for every load. The last turntable drops the presents into one of two sacks,
+ * North or South. The presents come in runs of {@link #RUN_LENGTH} of the same age range, as a load only holds
+ * presents that leave from the same port. Every capacity is run as described in {@link LayoutBenchmark},
+ * and the throughput is reported in presents per simulated second along with the gain over a capacity of 1.
+ *
+ * @author anonymous
+ */
+public class TurntableCapacityBenchmark {
+
+    private static final int DEFAULT_TURNTABLES = 4;
+    private static final int DEFAULT_PRESENTS = 200;
+    private static final int[] DEFAULT_CAPACITIES = {1, 2, 4, 8};
+    private static final int RUN_LENGTH = 8;
+    private static final int BELT_LENGTH = 16;
+    private static final String[] AGE_RANGES = {"0-3", "4-7"};
+
+    /**
+     * @param args Optionally, the number of turntables, the number of presents and the capacities to compare.
+     * @throws InterruptedException if the thread gets interrupted while a machine runs.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int turntables = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TURNTABLES;
+        int presents = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PRESENTS;
+        int[] capacities = DEFAULT_CAPACITIES;
+        if (args.length > 2) {
+            capacities = new int[args.length - 2];
+            for (int c = 0; c < capacities.length; c++) capacities[c] = Integer.parseInt(args[c + 2]);
+        }
+
+        System.out.println("engine,capacity,simulated_s,presents_per_simulated_s,gain");
+        for (int workers : LayoutBenchmark.ENGINES) {
+            double baseline = 0;
+            for (int capacity : capacities) {
+                Machine machine = LayoutBenchmark.run(() -> build(turntables, presents, capacity, workers),
+                        presents, "with a capacity of " + capacity);
+                double seconds = LayoutBenchmark.getSimulatedSeconds(machine);
+                double throughput = presents / seconds;
+                if (baseline == 0) baseline = throughput;
+                System.out.printf("%s,%d,%.1f,%.2f,%.2f%n", LayoutBenchmark.getEngine(workers), capacity,
+                        seconds, throughput, throughput / baseline);
+            }
+        }
+    }
+
+    /**
+     * Build a chain of turntables.
+     *
+     * @param turntables The number of turntables.
+     * @param presents   The number of presents of the hopper.
+     * @param capacity   The number of presents every turntable can carry at once.
+     * @param workers    The number of threads of the pool scheduler, or 0 for a thread per turntable.
+     * @return A machine ready to be started.
+     */
+    @NotNull
+    private static Machine build(int turntables, int presents, int capacity, int workers) {
+        MachineBuilder builder = new MachineBuilder()
+                .hopper(1, 1, presents, LayoutBenchmark.HOPPER_SPEED)
+                .sack(1, presents, AGE_RANGES[0])
+                .sack(2, presents, AGE_RANGES[1])
+                .timeSource(LayoutBenchmark.CLOCK);
+        for (int t = 1; t <= turntables; t++) {
+            String id = "T" + t;
+            builder.belt(t, BELT_LENGTH, 1, 2)
+                    .turntable(id)
+                    .capacity(id, capacity)
+                    .connect(id, Turntable.W, ConnectionType.InputBelt, t);
+            if (t < turntables) {
+                builder.connect(id, Turntable.N, ConnectionType.OutputBelt, t + 1);
+            } else {
+                builder.connect(id, Turntable.N, ConnectionType.OutputSack, 1)
+                        .connect(id, Turntable.S, ConnectionType.OutputSack, 2);
+            }
+        }
+        String[] ages = new String[presents];
+        for (int p = 0; p < presents; p++) {
+            ages[p] = AGE_RANGES[p / RUN_LENGTH % 2];
+        }
+        if (workers > 0) builder.scheduler(workers);
+        return builder.presents(1, ages).build();
+    }
+}
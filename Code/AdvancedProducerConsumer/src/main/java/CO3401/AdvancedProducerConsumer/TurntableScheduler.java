@@ -0,0 +1,111 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs many turntables on a few threads, as an alternative to
+ * one {@link Thread} per {@link Turntable}.
+ * <p>
+ * Every turntable becomes a non-blocking state machine (see {@link Turntable#attachScheduler}):
+ * a step either makes progress and asks to be resumed after the simulated rotation/movement time,
+ * or finds its input belt empty / output belt full and goes idle until that belt wakes it up.
+ * Steps run on a work-stealing {@link ForkJoinPool}, whereas the simulated delays are
+ * counted down by a single {@link HashedWheelTimer} (the clock's, if it has one), so the number
+ * of threads depends on the number of cores and not on the size of the layout.
+ *
+ * @author anonymous
+ */
+public class TurntableScheduler {
+
+    private final ForkJoinPool mWorkers;
+    // Counts down the simulated delays (null if they take no time)
+    private final HashedWheelTimer mTimer;
+    // True if the timer belongs to the scheduler, rather than to the clock
+    private final boolean mOwnsTimer;
+    // Hands the steps over to the workers when the delays take no time (null otherwise)
+    private final ExecutorService mHandOff;
+    private final Turntable[] mTables;
+    private final CountDownLatch mRunningTables;
+    private final TimeSource mTimeSource;
+
+    /**
+     * Public Constructor. Create the worker pool and the timer thread.
+     *
+     * @param parallelism The number of worker threads.
+     * @param tables      The turntables to be driven by the scheduler.
+     * @param timeSource  The clock the simulated delays are measured against.
+     */
+    public TurntableScheduler(int parallelism, @NotNull Turntable[] tables, @NotNull TimeSource timeSource) {
+        mWorkers = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        mOwnsTimer = timeSource.getTimer() == null;
+        mTimer = mOwnsTimer ? timeSource.withTimer().getTimer() : timeSource.getTimer();
+        // A worker runs the steps it queues itself before any other, so a turntable that keeps
+        // resuming itself straight away would starve the steps queued by the belts
+        mHandOff = mTimer != null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread handOff = new Thread(runnable, "turntable-timer");
+            handOff.setDaemon(true);
+            return handOff;
+        });
+        mTables = tables;
+        mRunningTables = new CountDownLatch(tables.length);
+        mTimeSource = timeSource;
+    }
+
+    /**
+     * Start driving all the turntables.
+     */
+    public void start() {
+        for (Turntable table : mTables) {
+            table.attachScheduler(this);
+        }
+    }
+
+    /**
+     * Block the calling thread until every turntable has run out of input belts,
+     * then stop the worker and timer threads.
+     */
+    public void awaitTermination() {
+        try {
+            mRunningTables.await();
+        } catch (InterruptedException ignored) {
+        }
+        mWorkers.shutdown();
+        if (mOwnsTimer && mTimer != null) mTimer.stop();
+        if (mHandOff != null) mHandOff.shutdown();
+    }
+
+    /**
+     * Run a step of a turntable on a worker thread.
+     *
+     * @param step The step to run.
+     */
+    void execute(@NotNull Runnable step) {
+        mWorkers.execute(step);
+    }
+
+    /**
+     * Run a task once the specified simulated delay has passed.
+     *
+     * @param task        The task that queues the next step of a turntable.
+     * @param delayMillis The modelled delay in milliseconds.
+     */
+    void schedule(@NotNull Runnable task, long delayMillis) {
+        if (mTimer == null) {
+            mHandOff.execute(task);
+            return;
+        }
+        mTimer.schedule(task, mTimeSource.toNanos(delayMillis));
+    }
+
+    /**
+     * Invoked by a turntable once it has run out of input belts.
+     */
+    void turntableFinished() {
+        mRunningTables.countDown();
+    }
+}
@@ -0,0 +1,162 @@
+package CO3401.AdvancedProducerConsumer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The way a thread waits for a permit of a {@link Conveyor}'s semaphores.
+ * Parking a thread and waking it up again costs far more than handing a present over,
+ * so latency-critical belts can trade CPU time for a shorter hand-off:
+ * <p> - blocking: park in {@link Semaphore#acquire()} straight away (the default).
+ * <p> - yield: retry up to the spin budget, then keep retrying with a {@link Thread#yield()} in between.
+ * <p> - park: retry up to the spin budget, then park in {@link Semaphore#acquire()}.
+ * <p> - spin: retry until a permit is available, never giving the CPU up.
+ * <p>
+ * A strategy is written as its name, optionally followed by the spin budget, e.g. {@code park:2000}.
+ *
+ * @author anonymous
+ */
+public class WaitStrategy {
+
+    public static final String BLOCKING = "blocking";
+    public static final String SPIN_YIELD = "yield";
+    public static final String SPIN_PARK = "park";
+    public static final String BUSY_SPIN = "spin";
+    static final int DEFAULT_SPIN_BUDGET = 1000; // attempts before yielding/parking
+    private static final char BUDGET_SEPARATOR = ':';
+
+    private final String mName;
+    private final int mSpinBudget;
+
+    /**
+     * Private Constructor. Use {@link #parse(String)}.
+     *
+     * @param name       One of {@link #BLOCKING}, {@link #SPIN_YIELD}, {@link #SPIN_PARK} and {@link #BUSY_SPIN}.
+     * @param spinBudget The number of attempts before yielding/parking.
+     */
+    private WaitStrategy(@NotNull String name, int spinBudget) {
+        mName = name;
+        mSpinBudget = spinBudget;
+    }
+
+    /**
+     * Create the strategy described by the specified text.
+     *
+     * @param text The name of the strategy, optionally followed by ':' and the spin budget.
+     * @return The corresponding strategy.
+     * @throws IllegalArgumentException if the name is unknown or the budget is not a positive number.
+     */
+    @NotNull
+    public static WaitStrategy parse(@NotNull String text) {
+        int separator = text.indexOf(BUDGET_SEPARATOR);
+        String name = separator < 0 ? text : text.substring(0, separator);
+        int spinBudget = DEFAULT_SPIN_BUDGET;
+        if (separator >= 0) {
+            try {
+                spinBudget = Integer.parseInt(text.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                spinBudget = 0;
+            }
+            if (spinBudget <= 0) {
+                throw new IllegalArgumentException("Invalid spin budget in wait strategy " + text);
+            }
+        }
+        switch (name) {
+            case BLOCKING:
+            case SPIN_YIELD:
+            case SPIN_PARK:
+            case BUSY_SPIN:
+                return new WaitStrategy(name, spinBudget);
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy " + text);
+        }
+    }
+
+    /**
+     * Acquire a permit from the specified semaphore, waiting as the strategy dictates.
+     *
+     * @param semaphore The semaphore of a belt.
+     * @throws InterruptedException if the thread gets interrupted while waiting.
+     */
+    public void acquire(@NotNull Semaphore semaphore) throws InterruptedException {
+        switch (mName) {
+            case SPIN_YIELD:
+                if (spin(semaphore, mSpinBudget)) return;
+                while (!semaphore.tryAcquire()) {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                    Thread.yield();
+                }
+                return;
+            case SPIN_PARK:
+                if (spin(semaphore, mSpinBudget)) return;
+                semaphore.acquire();
+                return;
+            case BUSY_SPIN:
+                while (!semaphore.tryAcquire()) {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                }
+                return;
+            default:
+                semaphore.acquire();
+        }
+    }
+
+    /**
+     * Acquire a permit from the specified semaphore, waiting as the strategy dictates, but no longer than
+     * the specified deadline. The spin budget is spent even if the deadline passes first.
+     *
+     * @param semaphore The semaphore of a belt.
+     * @param deadline  The {@link System#nanoTime()} after which the thread gives up waiting.
+     * @return True if a permit was acquired. Otherwise, false.
+     * @throws InterruptedException if the thread gets interrupted while waiting.
+     */
+    public boolean tryAcquire(@NotNull Semaphore semaphore, long deadline) throws InterruptedException {
+        switch (mName) {
+            case SPIN_YIELD:
+                if (spin(semaphore, mSpinBudget)) return true;
+                while (!semaphore.tryAcquire()) {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                    if (deadline - System.nanoTime() <= 0) return false;
+                    Thread.yield();
+                }
+                return true;
+            case SPIN_PARK:
+                if (spin(semaphore, mSpinBudget)) return true;
+                return semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            case BUSY_SPIN:
+                while (!semaphore.tryAcquire()) {
+                    if (Thread.interrupted()) throw new InterruptedException();
+                    if (deadline - System.nanoTime() <= 0) return false;
+                }
+                return true;
+            default:
+                return semaphore.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Retry to acquire a permit without giving the CPU up.
+     *
+     * @param semaphore The semaphore of a belt.
+     * @param attempts  The maximum number of attempts.
+     * @return True if a permit was acquired. Otherwise, false.
+     */
+    private static boolean spin(@NotNull Semaphore semaphore, int attempts) {
+        for (int i = 0; i < attempts; i++) {
+            if (semaphore.tryAcquire()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The representation of the strategy as a String.
+     *
+     * @return The strategy in the format accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        return BLOCKING.equals(mName) || BUSY_SPIN.equals(mName) ? mName : mName + BUDGET_SEPARATOR + mSpinBudget;
+    }
+}